@@ -189,6 +189,8 @@ class MonitoredNode(inner: Node, monitor: () => Unit) extends Node {
 
   def hasRelationship(direction: Direction, types: RelationshipType*): Boolean = false
 
+  def getDegree(direction: Direction, types: RelationshipType*): Int = 0
+
   def getRelationships(dir: Direction): JIterable[Relationship] = new AIteratable(inner.getRelationships(dir).iterator(), monitor)
 
   def hasRelationship(dir: Direction): Boolean = false
@@ -124,6 +124,8 @@ class PathImplTest extends Spec {
 
     def hasRelationship(direction: Direction, types: RelationshipType*): Boolean = false
 
+    def getDegree(direction: Direction, types: RelationshipType*): Int = 0
+
     def getRelationships(dir: Direction): Iterable[Relationship] = null
 
     def hasRelationship(dir: Direction): Boolean = false
@@ -113,6 +113,8 @@ class PausingNode(n: Node, afterGetRelationship: Node => Unit) extends Node {
 
   def hasRelationship(direction: Direction, types: RelationshipType*): Boolean = throw new RuntimeException
 
+  def getDegree(direction: Direction, types: RelationshipType*): Int = throw new RuntimeException
+
   def getRelationships(dir: Direction): Iterable[Relationship] = throw new RuntimeException
 
   def hasRelationship(dir: Direction): Boolean = throw new RuntimeException
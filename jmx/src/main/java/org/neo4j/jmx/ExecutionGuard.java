@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx;
+
+@ManagementInterface( name = ExecutionGuard.NAME )
+@Description( "Accounting of the budgets limiting time, operations and memory of guarded executions" )
+public interface ExecutionGuard
+{
+    final String NAME = "Execution guard";
+
+    @Description( "The budgets currently running, with the thread running each and its elapsed time, "
+                  + "operations and estimated memory so far" )
+    String[] getActiveBudgets();
+
+    @Description( "The number of budgets that have finished" )
+    long getFinishedBudgetCount();
+
+    @Description( "The total number of operations done within the budgets that have finished" )
+    long getBudgetOperationsCount();
+
+    @Description( "The number of executions aborted for running out of time" )
+    long getExceededTimeCount();
+
+    @Description( "The number of executions aborted for doing too many operations" )
+    long getExceededOperationsCount();
+
+    @Description( "The number of executions aborted for loading too much data" )
+    long getExceededMemoryCount();
+}
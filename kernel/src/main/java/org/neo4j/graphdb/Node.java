@@ -123,6 +123,31 @@ public interface Node extends PropertyContainer
      */
     public Iterable<Relationship> getRelationships( Direction direction, RelationshipType... types );
 
+    /**
+     * Returns the number of relationships of any of the types in
+     * <code>types</code> that are attached to this node and have the given
+     * <code>direction</code>, or of any type if no types are given. A
+     * relationship from this node to itself is counted once. This is the
+     * number of relationships {@link #getRelationships(Direction, RelationshipType...)}
+     * would return, but the relationships don't have to be loaded to count
+     * them.
+     * <p>
+     * Only counting the relationships of a dense node, one with at least
+     * {@link org.neo4j.graphdb.factory.GraphDatabaseSettings#dense_node_threshold}
+     * relationships, takes the same time regardless of how many there are.
+     * Its counts are kept per relationship type. For other nodes the
+     * relationships are counted where they're cached, or else each one is
+     * read from the store. Stores created before nodes could be dense have
+     * no dense nodes until they're upgraded, which needs
+     * {@link org.neo4j.graphdb.factory.GraphDatabaseSettings#allow_store_upgrade}.
+     *
+     * @param direction the direction of the relationships to count.
+     * @param types the given relationship type(s)
+     * @return the number of relationships of the given type(s) and direction
+     *         that are attached to this node
+     */
+    public int getDegree( Direction direction, RelationshipType... types );
+
     /**
      * Returns <code>true</code> if there are any relationships of any of the
      * types in <code>types</code> attached to this node (regardless of
@@ -36,6 +36,7 @@ import org.neo4j.kernel.configuration.ConfigurationMigrator;
 import org.neo4j.kernel.configuration.GraphDatabaseConfigurationMigrator;
 import org.neo4j.kernel.configuration.Migrator;
 import org.neo4j.kernel.impl.cache.MonitorGc;
+import org.neo4j.kernel.impl.nioneo.store.DefaultWindowPoolFactory;
 
 /**
  * Settings for the Community edition of Neo4j. Use this with GraphDatabaseBuilder.
@@ -99,6 +100,20 @@ public abstract class GraphDatabaseSettings
     @Default(FALSE)
     public static final BooleanSetting intercept_deserialized_transactions = new BooleanSetting( "intercept_deserialized_transactions" );
 
+    @Description( "The lock manager to use. 'standard' guards all locks by one monitor and tracks every lock in a " +
+                  "global resource allocation graph. 'striped' spreads locks over many monitors by entity id and only " +
+                  "looks for deadlocks when a transaction has to wait, which scales better with many concurrent writers." )
+    @Default( "standard" )
+    public static final StringSetting lock_manager = new StringSetting( "lock_manager", "standard|striped",
+            "Must be one of 'standard' or 'striped'" );
+
+    @Description( "The number of node, relationship, property and dynamic record ids each thread grabs at a time " +
+                  "from the id generators, so that threads creating records concurrently don't contend for them. " +
+                  "Ids a thread grabbed but didn't use are freed on shutdown. 0 hands out every id on its own." )
+    @Default("0")
+    public static final GraphDatabaseSetting<Integer> id_thread_batch_size = new IntegerSetting(
+            "id_thread_batch_size", "Must be a number", 0, null );
+
     // Cypher settings
     // TODO: These should live with cypher
     @Description( "Enable this to specify a parser other than the default one." )
@@ -181,6 +196,46 @@ public abstract class GraphDatabaseSettings
             "Must be 'true'/'false' or of format '<number><optional unit> <type>' for example '100M size' for limiting logical log space on disk to 100Mb," +
                     " or '200k txs' for limiting the number of transactions to keep to 200 000." );
 
+    @Description( "Let concurrently committing transactions share the forces of the logical log and the transaction " +
+                  "manager log. Committers write out their commit records and one of them forces the log once for the " +
+                  "whole batch, which raises the throughput of small transactions that would otherwise be bound by " +
+                  "the latency of forcing the disk." )
+    @Default(FALSE)
+    public static final BooleanSetting group_commit = new BooleanSetting( "group_commit" );
+
+    @Description( "The longest time the first committer of a group commit batch waits for more committers to join " +
+                  "before forcing the log. 0 forces right away, batching only the transactions which commit while " +
+                  "the previous force is in progress." )
+    @Default("0ms")
+    public static final GraphDatabaseSetting<Long> group_commit_max_delay = new GraphDatabaseSetting.TimeSpanSetting(
+            "group_commit_max_delay", 0L, 1000L );
+
+    @Description( "The number of pending committers at which the first committer of a group commit batch stops " +
+                  "waiting for group_commit_max_delay and forces the log." )
+    @Default("64")
+    public static final GraphDatabaseSetting<Integer> group_commit_max_batch_size = new IntegerSetting(
+            "group_commit_max_batch_size", "Must be a number", 1, null );
+
+    @Description( "Memory map rotated logical logs when reading them, for example while extracting " +
+                  "transactions for backup or for slaves catching up. Rotated logs are never written to again so " +
+                  "they can be read straight from the page cache instead of being copied through a read buffer." )
+    @Default(FALSE)
+    public static final BooleanSetting memory_mapped_history_logs = new BooleanSetting( "memory_mapped_history_logs" );
+
+    @Description( "The number of threads writing records while the logical log is replayed during recovery after a " +
+                  "non-clean shutdown. The log is still read by one thread, which hands node, relationship and " +
+                  "property records over to the others. 1 writes all records from the thread reading the log." )
+    @Default("1")
+    public static final GraphDatabaseSetting<Integer> recovery_threads = new IntegerSetting( "recovery_threads",
+            "Must be a number", 1, null );
+
+    @Description( "The number of changed node, relationship and property records a transaction begun with " +
+                  "TransactionBuilder.large() keeps in memory. Beyond that they are written to the logical log " +
+                  "right away, read back when changed again and applied from the log at commit." )
+    @Default("100000")
+    public static final GraphDatabaseSetting<Integer> large_transaction_spill_threshold = new IntegerSetting(
+            "large_transaction_spill_threshold", "Must be a number", 1, null );
+
     @Description( "Use a quick approach for rebuilding the ID generators. This give quicker recovery time, but will limit the ability to reuse the space of deleted entities." )
     @Default(TRUE)
     public static final BooleanSetting rebuild_idgenerators_fast = new BooleanSetting( "rebuild_idgenerators_fast" );
@@ -193,6 +248,24 @@ public abstract class GraphDatabaseSettings
     @Default("1M")
     public static final GraphDatabaseSetting<Long> mapped_memory_page_size = new NumberOfBytesSetting("mapped_memory_page_size");
 
+    @Description( "The implementation used for paging the store files into memory. 'brick' rebalances memory mapped windows " +
+                  "from hit counters, 'paged' uses fixed size pages of mapped_memory_page_size with CLOCK eviction and " +
+                  "per-page latches so that readers never contend on a pool-wide lock." )
+    @Default( DefaultWindowPoolFactory.Configuration.BRICK )
+    public static final GraphDatabaseSetting<String> window_pool_implementation = DefaultWindowPoolFactory.Configuration.window_pool_implementation;
+
+    @Description( "How often the 'paged' window pool writes out dirty pages in the background, so that log rotation " +
+                  "and shutdown have less to write. 0 turns background flushing off." )
+    @Default( "1s" )
+    public static final GraphDatabaseSetting<Long> paged_window_pool_flush_interval = DefaultWindowPoolFactory.Configuration.paged_window_pool_flush_interval;
+
+    @Description( "How many pages ahead of a relationship chain walk the 'paged' window pool reads in the background, " +
+                  "once the walk is seen moving steadily in one direction through the relationship store. " +
+                  "0 turns prefetching off." )
+    @Default("0")
+    public static final GraphDatabaseSetting<Integer> relationship_chain_prefetch_depth = new IntegerSetting(
+            "relationship_chain_prefetch_depth", "Must be a number", 0, null );
+
     @Description( "The size to allocate for a memory mapping pool to be shared between all stores." )
     @Default("500M")
     public static final GraphDatabaseSetting<Long> all_stores_total_mapped_memory_size = new NumberOfBytesSetting("all_stores_total_mapped_memory_size");
@@ -276,6 +349,14 @@ public abstract class GraphDatabaseSettings
 
 
 
+    @Description( "The number of relationships a node can have before it keeps them grouped by type and direction, " +
+                  "so that getting the relationships of one type and direction doesn't load all the others. " +
+                  "0 never groups relationships. Stores created without it are only upgraded to group relationships " +
+                  "when allow_store_upgrade is set, and can't be read by earlier versions afterwards." )
+    @Default("50")
+    public static final IntegerSetting dense_node_threshold = new IntegerSetting( "dense_node_threshold",
+            "Must be a number", 0, null );
+
     @Default("100")
     public static final IntegerSetting relationship_grab_size = new IntegerSetting( "relationship_grab_size", "Must be a number" );
 
@@ -295,6 +376,13 @@ public abstract class GraphDatabaseSettings
     @Default("120")
     public static final IntegerSetting array_block_size = new IntegerSetting( "array_block_size", "Must be a number", 1, null );
 
+    @Description( "The number of string and array property values, too long to be inlined in their property " +
+                  "record, to keep decoded in a cache so that reading them again doesn't read their dynamic " +
+                  "records. Only values of up to a few dynamic records are cached. 0 disables the cache." )
+    @Default("10000")
+    public static final IntegerSetting property_value_cache_size = new IntegerSetting( "property_value_cache_size",
+            "Must be a number", 0, null );
+
     @Description( "Mark this database as a backup slave." )
     @Default( FALSE )
     public static final BooleanSetting backup_slave = new BooleanSetting( "backup_slave" );
@@ -434,6 +522,11 @@ public abstract class GraphDatabaseSettings
         		"This is the default cache setting." )
         public static final String gcr = "gcr";
 
+        @Description("Keeps serialized nodes and relationships in memory outside of the JVM heap, sized by \n" +
+                     "offheap_node_cache_size and offheap_relationship_cache_size, and evicts the least recently \n" +
+                     "inserted entries when full. Only entities in use are kept as objects, which keeps GC pauses short for large graphs." )
+        public static final String offheap = "offheap";
+
         public CacheTypeSetting()
         {
             super( "cache_type", availableCaches() );
@@ -444,10 +537,10 @@ public abstract class GraphDatabaseSettings
             try
             {
                 GraphDatabaseSettings.class.getClassLoader().loadClass( "org.neo4j.kernel.impl.cache.GCResistantCacheProvider" );
-                return new String[]{gcr,soft,weak,strong,none};
+                return new String[]{gcr,soft,weak,strong,offheap,none};
             } catch( ClassNotFoundException e )
             {
-                return new String[]{soft,weak,strong,none};
+                return new String[]{soft,weak,strong,offheap,none};
             }
         }
     }
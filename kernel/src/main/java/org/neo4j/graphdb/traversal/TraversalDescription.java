@@ -227,6 +227,21 @@ public interface TraversalDescription
      */
     TraversalDescription expand( RelationshipExpander expander );
     
+    /**
+     * Traverses breadth first, a depth at a time, expanding the branches of
+     * each depth from {@code threads} threads concurrently, regardless of
+     * {@link #order(BranchOrderingPolicy) order}. Paths of the same depth are
+     * returned in no particular order. The expander, evaluators and initial
+     * branch state must be thread safe. The threads don't take part in the
+     * transaction of the thread iterating over the traverser, and so wouldn't
+     * see its changes. Starting to iterate over the traverser in a
+     * transaction which has changes throws an {@link IllegalStateException}.
+     *
+     * @param threads the number of threads to expand branches from.
+     * @return a new traversal description with the new modifications.
+     */
+    TraversalDescription parallel( int threads );
+
     /**
      * @param comparator the {@link Comparator} to use for sorting the paths.
      * @return the paths from this traversal sorted according to {@code comparator}.
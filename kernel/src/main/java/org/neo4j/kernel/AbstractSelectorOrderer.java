@@ -63,6 +63,11 @@ public abstract class AbstractSelectorOrderer<T> implements SideSelector
         return states[selectorIndex];
     }
     
+    protected T getStateForOtherSelector()
+    {
+        return states[(selectorIndex+1)%2];
+    }
+    
     protected TraversalBranch nextBranchFromCurrentSelector( TraversalContext metadata,
             boolean switchIfExhausted )
     {
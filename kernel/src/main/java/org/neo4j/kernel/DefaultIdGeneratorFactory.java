@@ -20,8 +20,12 @@
 
 package org.neo4j.kernel;
 
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.kernel.impl.nioneo.store.BatchingIdGenerator;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
 import org.neo4j.kernel.impl.nioneo.store.IdGenerator;
 import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
@@ -32,11 +36,35 @@ import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
 public class DefaultIdGeneratorFactory
     implements IdGeneratorFactory
 {
+    // The id types which records are created for all the time
+    private static final Set<IdType> BATCHED_ID_TYPES = EnumSet.of( IdType.NODE, IdType.RELATIONSHIP,
+            IdType.PROPERTY, IdType.STRING_BLOCK, IdType.ARRAY_BLOCK );
+
     private final Map<IdType, IdGenerator> generators = new HashMap<IdType, IdGenerator>();
+    private final int threadBatchSize;
+
+    public DefaultIdGeneratorFactory()
+    {
+        this( 0 );
+    }
+
+    /**
+     * @param threadBatchSize the number of ids each thread grabs at a time for the
+     * node, relationship, property and dynamic record ids, see {@link BatchingIdGenerator}.
+     * 0 hands out all ids one at a time from the id generator.
+     */
+    public DefaultIdGeneratorFactory( int threadBatchSize )
+    {
+        this.threadBatchSize = threadBatchSize;
+    }
 
     public IdGenerator open( FileSystemAbstraction fs, String fileName, int grabSize, IdType idType )
     {
         IdGenerator generator = new IdGeneratorImpl( fs, fileName, grabSize, idType.getMaxValue(), idType.allowAggressiveReuse() );
+        if ( threadBatchSize > 0 && BATCHED_ID_TYPES.contains( idType ) )
+        {
+            generator = new BatchingIdGenerator( generator, threadBatchSize, grabSize, idType.allowAggressiveReuse() );
+        }
         generators.put( idType, generator );
         return generator;
     }
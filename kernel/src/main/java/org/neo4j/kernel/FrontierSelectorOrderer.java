@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.traversal.BranchSelector;
+import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.graphdb.traversal.TraversalContext;
+import org.neo4j.kernel.impl.core.NodeProxy;
+
+/**
+ * Selects the side to traverse next in a bidirectional traversal by how
+ * expensive it is to expand its frontier, instead of alternating by a fixed
+ * rule. Each side is traversed one whole level at a time. When a side has
+ * returned all branches of a level, the cost of expanding that level is
+ * estimated as the sum of the degrees of its nodes. Then the side whose
+ * pending level is cheapest to expand is picked. So if one side runs into
+ * a hub, the other side does most of the traversing.
+ *
+ * The degree of a node is only used where it's cheap to count, i.e. where
+ * its relationships are already in memory or it's a dense node, which keeps
+ * counts in the store. Otherwise counting would walk its relationship chain,
+ * so such a branch adds one to the cost instead. Branches which were pruned
+ * don't add to the cost.
+ *
+ * Both sides must be breadth first, since levels are told apart by the
+ * length of the branches. A side stops when its next level couldn't
+ * form paths within {@code maxDepth}, together with the levels the other
+ * side has already completed.
+ */
+public class FrontierSelectorOrderer extends AbstractSelectorOrderer<FrontierSelectorOrderer.Frontier>
+{
+    private final int maxDepth;
+
+    public FrontierSelectorOrderer( BranchSelector startSelector, BranchSelector endSelector, int maxDepth )
+    {
+        super( startSelector, endSelector );
+        this.maxDepth = maxDepth;
+    }
+
+    @Override
+    protected Frontier initialState()
+    {
+        return new Frontier();
+    }
+
+    @Override
+    public TraversalBranch next( TraversalContext metadata )
+    {
+        while ( true )
+        {
+            Frontier frontier = getStateForCurrentSelector();
+            Frontier other = getStateForOtherSelector();
+            TraversalBranch branch = frontier.held;
+            if ( branch != null )
+            {   // Held back when we switched sides, the level change is already accounted for,
+                // but the other side may have completed more levels since then
+                frontier.held = null;
+                if ( beyondMaxDepth( branch, other ) )
+                {
+                    continue;
+                }
+                return frontier.returned( branch );
+            }
+
+            branch = nextBranchFromCurrentSelector( metadata, false );
+            if ( branch == null )
+            {
+                frontier.exhausted = true;
+                if ( other.exhausted )
+                {
+                    return null;
+                }
+                nextSelector();
+                continue;
+            }
+
+            if ( branch.length() != frontier.depth )
+            {   // This side has returned all branches of its previous level
+                if ( beyondMaxDepth( branch, other ) )
+                {
+                    continue;
+                }
+                frontier.newLevel( branch.length() );
+                if ( !other.exhausted && other.pendingCost < frontier.pendingCost )
+                {
+                    frontier.held = branch;
+                    nextSelector();
+                    continue;
+                }
+            }
+            return frontier.returned( branch );
+        }
+    }
+
+    /*
+     * Ends the current side if the level of the given branch can't form paths within maxDepth
+     * together with the levels the other side has completed. Paths within maxDepth through
+     * that level have then already been found, from levels completed on both sides.
+     */
+    private boolean beyondMaxDepth( TraversalBranch branch, Frontier other )
+    {
+        if ( (long) branch.length() + other.completedDepth() <= maxDepth )
+        {
+            return false;
+        }
+        endCurrentSelector();
+        getStateForCurrentSelector().exhausted = true;
+        if ( !other.exhausted )
+        {
+            nextSelector();
+        }
+        return true;
+    }
+
+    static class Frontier
+    {
+        private int depth = -1;
+        // Estimated cost of expanding the branches returned so far on the current level
+        private long levelCost;
+        // Estimated cost of expanding the last completed level, i.e. of producing the current level
+        private long pendingCost;
+        private TraversalBranch held;
+        private boolean exhausted;
+
+        int completedDepth()
+        {
+            // A held branch is the first one of a level which isn't completed yet
+            return held != null ? depth - 1 : depth;
+        }
+
+        void newLevel( int depth )
+        {
+            this.depth = depth;
+            this.pendingCost = levelCost;
+            this.levelCost = 0;
+        }
+
+        TraversalBranch returned( TraversalBranch branch )
+        {
+            if ( branch.continues() )
+            {
+                levelCost += expansionCost( branch.endNode() );
+            }
+            return branch;
+        }
+
+        private static long expansionCost( Node node )
+        {
+            if ( node instanceof NodeProxy && ((NodeProxy) node).hasCheapDegree() )
+            {
+                return node.getDegree( Direction.BOTH );
+            }
+            return 1;
+        }
+    }
+}
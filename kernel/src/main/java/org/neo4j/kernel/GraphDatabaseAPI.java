@@ -20,10 +20,14 @@
 
 package org.neo4j.kernel;
 
+import java.util.List;
+
 import javax.transaction.TransactionManager;
 
 import org.neo4j.graphdb.DependencyResolver;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.kernel.guard.Guard;
 import org.neo4j.kernel.impl.core.KernelPanicEventGenerator;
 import org.neo4j.kernel.impl.core.LockReleaser;
@@ -48,6 +52,28 @@ public interface GraphDatabaseAPI
 {
     DependencyResolver getDependencyResolver();
 
+    /**
+     * Looks up several nodes at once, like calling {@link #getNodeById(long)}
+     * for each id. The nodes which aren't cached are read from the store in
+     * one pass, in id order, instead of one record at a time.
+     *
+     * @param ids the ids of the nodes to get.
+     * @return the nodes, in the same order as {@code ids}.
+     * @throws org.neo4j.graphdb.NotFoundException if any of the nodes doesn't exist.
+     */
+    List<Node> getNodesById( long... ids );
+
+    /**
+     * Looks up several relationships at once, like calling
+     * {@link #getRelationshipById(long)} for each id. The relationships which
+     * aren't cached are read from the store in one pass, in id order.
+     *
+     * @param ids the ids of the relationships to get.
+     * @return the relationships, in the same order as {@code ids}.
+     * @throws org.neo4j.graphdb.NotFoundException if any of the relationships doesn't exist.
+     */
+    List<Relationship> getRelationshipsById( long... ids );
+
     @Deprecated
     NodeManager getNodeManager();
 
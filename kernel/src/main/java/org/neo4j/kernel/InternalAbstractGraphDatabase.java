@@ -59,6 +59,7 @@ import org.neo4j.kernel.guard.Guard;
 import org.neo4j.kernel.impl.cache.Cache;
 import org.neo4j.kernel.impl.cache.CacheProvider;
 import org.neo4j.kernel.impl.cache.MonitorGc;
+import org.neo4j.kernel.impl.cache.SizeOfs;
 import org.neo4j.kernel.impl.core.Caches;
 import org.neo4j.kernel.impl.core.DefaultCaches;
 import org.neo4j.kernel.impl.core.DefaultRelationshipTypeCreator;
@@ -78,6 +79,9 @@ import org.neo4j.kernel.impl.core.TxEventSyncHookFactory;
 import org.neo4j.kernel.impl.index.IndexStore;
 import org.neo4j.kernel.impl.nioneo.store.DefaultWindowPoolFactory;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.StoreFactory;
 import org.neo4j.kernel.impl.nioneo.store.StoreId;
 import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
@@ -89,6 +93,7 @@ import org.neo4j.kernel.impl.transaction.LockManager;
 import org.neo4j.kernel.impl.transaction.LockManagerImpl;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.transaction.RagManager;
+import org.neo4j.kernel.impl.transaction.StripedLockManager;
 import org.neo4j.kernel.impl.transaction.ReadOnlyTxManager;
 import org.neo4j.kernel.impl.transaction.TransactionManagerProvider;
 import org.neo4j.kernel.impl.transaction.TxHook;
@@ -102,6 +107,7 @@ import org.neo4j.kernel.impl.transaction.xaframework.RecoveryVerifier;
 import org.neo4j.kernel.impl.transaction.xaframework.TransactionInterceptorProvider;
 import org.neo4j.kernel.impl.transaction.xaframework.TxIdGenerator;
 import org.neo4j.kernel.impl.transaction.xaframework.XaFactory;
+import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.StringLogger;
 import org.neo4j.kernel.info.DiagnosticsManager;
 import org.neo4j.kernel.lifecycle.LifeSupport;
@@ -133,6 +139,8 @@ public abstract class InternalAbstractGraphDatabase
         public static final GraphDatabaseSetting.BooleanSetting execution_guard_enabled = GraphDatabaseSettings
                 .execution_guard_enabled;
         public static final GraphDatabaseSettings.CacheTypeSetting cache_type = GraphDatabaseSettings.cache_type;
+        public static final GraphDatabaseSetting.StringSetting lock_manager = GraphDatabaseSettings.lock_manager;
+        public static final GraphDatabaseSetting<Integer> id_thread_batch_size = GraphDatabaseSettings.id_thread_batch_size;
         public static final GraphDatabaseSetting.BooleanSetting load_kernel_extensions = GraphDatabaseSettings
                 .load_kernel_extensions;
         public static final GraphDatabaseSetting.BooleanSetting ephemeral = new GraphDatabaseSetting.BooleanSetting(
@@ -345,7 +353,7 @@ public abstract class InternalAbstractGraphDatabase
             if ( serviceName == null )
             {
                 txManager = new TxManager( this.storeDir, xaDataSourceManager, kernelPanicEventGenerator, txHook,
-                        logging.getLogger( TxManager.class ), fileSystem );
+                        logging.getLogger( TxManager.class ), fileSystem, XaFactory.newGroupCommit( config ) );
             }
             else
             {
@@ -542,6 +550,42 @@ public abstract class InternalAbstractGraphDatabase
                     guard.check();
                     return super.createRelationship( startNodeProxy, startNode, endNode, type );
                 }
+
+                @Override
+                protected Node scannedNode( final NodeRecord record )
+                {
+                    guard.check();
+                    return super.scannedNode( record );
+                }
+
+                @Override
+                protected Relationship scannedRelationship( final RelationshipRecord record )
+                {
+                    guard.check();
+                    return super.scannedRelationship( record );
+                }
+
+                @Override
+                protected ArrayMap<Integer, PropertyData> loadProperties( final NodeImpl node, final boolean light )
+                {
+                    return allocated( super.loadProperties( node, light ) );
+                }
+
+                @Override
+                protected ArrayMap<Integer, PropertyData> loadProperties( final RelationshipImpl relationship,
+                                                                          final boolean light )
+                {
+                    return allocated( super.loadProperties( relationship, light ) );
+                }
+
+                @Override
+                protected Object loadPropertyValue( final PropertyData property )
+                {
+                    Object value = super.loadPropertyValue( property );
+                    guard.allocated( value instanceof String ? SizeOfs.sizeOf( (String) value ) :
+                            SizeOfs.sizeOfArray( value ) );
+                    return value;
+                }
             };
         }
 
@@ -591,9 +635,59 @@ public abstract class InternalAbstractGraphDatabase
                 guard.check();
                 return super.createRelationship( startNodeProxy, startNode, endNode, type );
             }
+
+            @Override
+            protected Node scannedNode( final NodeRecord record )
+            {
+                guard.check();
+                return super.scannedNode( record );
+            }
+
+            @Override
+            protected Relationship scannedRelationship( final RelationshipRecord record )
+            {
+                guard.check();
+                return super.scannedRelationship( record );
+            }
+
+            @Override
+            protected ArrayMap<Integer, PropertyData> loadProperties( final NodeImpl node, final boolean light )
+            {
+                return allocated( super.loadProperties( node, light ) );
+            }
+
+            @Override
+            protected ArrayMap<Integer, PropertyData> loadProperties( final RelationshipImpl relationship,
+                                                                      final boolean light )
+            {
+                return allocated( super.loadProperties( relationship, light ) );
+            }
+
+            @Override
+            protected Object loadPropertyValue( final PropertyData property )
+            {
+                Object value = super.loadPropertyValue( property );
+                guard.allocated( value instanceof String ? SizeOfs.sizeOf( (String) value ) :
+                        SizeOfs.sizeOfArray( value ) );
+                return value;
+            }
         };
     }
 
+    private ArrayMap<Integer, PropertyData> allocated( ArrayMap<Integer, PropertyData> properties )
+    {
+        if ( properties != null )
+        {
+            long size = 0;
+            for ( PropertyData property : properties.values() )
+            {
+                size += property.size();
+            }
+            guard.allocated( size );
+        }
+        return properties;
+    }
+
     @Override
     public void shutdown()
     {
@@ -722,11 +816,15 @@ public abstract class InternalAbstractGraphDatabase
 
     protected IdGeneratorFactory createIdGeneratorFactory()
     {
-        return new DefaultIdGeneratorFactory();
+        return new DefaultIdGeneratorFactory( config.get( Configuration.id_thread_batch_size ) );
     }
 
     protected LockManager createLockManager()
     {
+        if ( StripedLockManager.NAME.equals( config.get( Configuration.lock_manager ) ) )
+        {
+            return new StripedLockManager( txManager );
+        }
         return new LockManagerImpl( new RagManager( txManager ) );
     }
 
@@ -782,6 +880,11 @@ public abstract class InternalAbstractGraphDatabase
     }
 
     protected Transaction beginTx( ForceMode forceMode )
+    {
+        return beginTx( forceMode, false );
+    }
+
+    protected Transaction beginTx( ForceMode forceMode, boolean large )
     {
         if ( transactionRunning() )
         {
@@ -790,7 +893,7 @@ public abstract class InternalAbstractGraphDatabase
         Transaction result = null;
         try
         {
-            txManager.begin( forceMode );
+            txManager.begin( forceMode, large );
             result = new TopLevelTransaction( txManager, lockManager, lockReleaser );
         }
         catch ( Exception e )
@@ -892,6 +995,32 @@ public abstract class InternalAbstractGraphDatabase
         return nodeManager.getRelationshipById( id );
     }
 
+    @Override
+    public List<Node> getNodesById( long... ids )
+    {
+        for ( long id : ids )
+        {
+            if ( id < 0 || id > MAX_NODE_ID )
+            {
+                throw new NotFoundException( "Node[" + id + "]" );
+            }
+        }
+        return nodeManager.getNodesById( ids );
+    }
+
+    @Override
+    public List<Relationship> getRelationshipsById( long... ids )
+    {
+        for ( long id : ids )
+        {
+            if ( id < 0 || id > MAX_RELATIONSHIP_ID )
+            {
+                throw new NotFoundException( "Relationship[" + id + "]" );
+            }
+        }
+        return nodeManager.getRelationshipsById( ids );
+    }
+
     @Override
     public Node getReferenceNode()
     {
@@ -19,17 +19,17 @@
  */
 package org.neo4j.kernel;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.kernel.impl.util.PrimitiveLongSet;
 
 class LevelUnique extends AbstractUniquenessFilter
 {
-    private final Map<Integer, Set<Long>> idsPerLevel = new HashMap<Integer, Set<Long>>();
+    // indexed by level
+    private final List<PrimitiveLongSet> idsPerLevel = new ArrayList<PrimitiveLongSet>();
     
     LevelUnique( PrimitiveTypeFetcher type )
     {
@@ -39,14 +39,12 @@ class LevelUnique extends AbstractUniquenessFilter
     @Override
     public boolean check( TraversalBranch branch )
     {
-        Integer level = branch.length();
-        Set<Long> levelIds = idsPerLevel.get( level );
-        if ( levelIds == null )
+        int level = branch.length();
+        while ( idsPerLevel.size() <= level )
         {
-            levelIds = new HashSet<Long>();
-            idsPerLevel.put( level, levelIds );
+            idsPerLevel.add( new PrimitiveLongSet() );
         }
-        return levelIds.add( type.getId( branch ) );
+        return idsPerLevel.get( level ).add( type.getId( branch ) );
     }
     
     @Override
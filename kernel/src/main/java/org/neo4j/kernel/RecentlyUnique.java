@@ -19,35 +19,93 @@
  */
 package org.neo4j.kernel;
 
+import java.util.Arrays;
+
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.traversal.TraversalBranch;
-import org.neo4j.kernel.impl.cache.LruCache;
+import org.neo4j.kernel.impl.util.PrimitiveLongLongMap;
 
 class RecentlyUnique extends AbstractUniquenessFilter
 {
-    private static final Object PLACE_HOLDER = new Object();
     private static final int DEFAULT_RECENT_SIZE = 10000; 
     
-    private final LruCache<Long, Object> recentlyVisited;
+    private final int maxSize;
+    // the last visit of each of the recently visited ids, by visit number
+    private final PrimitiveLongLongMap lastVisits = new PrimitiveLongLongMap();
+    // all visits in the order they were made, from head to tail. Visits of ids
+    // which have been visited again since are outdated and dropped when needed
+    private long[] queuedIds = new long[16];
+    private long[] queuedVisits = new long[16];
+    private int head;
+    private int tail;
+    private long visits;
     
     RecentlyUnique( PrimitiveTypeFetcher type, Object parameter )
     {
         super( type );
         parameter = parameter != null ? parameter : DEFAULT_RECENT_SIZE;
-        recentlyVisited = new LruCache<Long, Object>( "Recently visited",
-                ((Number) parameter).intValue() );
+        maxSize = ((Number) parameter).intValue();
     }
 
     public boolean check( TraversalBranch branch )
     {
         long id = type.getId( branch );
-        boolean add = recentlyVisited.get( id ) == null;
-        if ( add )
+        long visit = visits++;
+        boolean add = lastVisits.put( id, visit ) == PrimitiveLongLongMap.NO_VALUE;
+        enqueue( id, visit );
+        if ( add && lastVisits.size() > maxSize )
         {
-            recentlyVisited.put( id, PLACE_HOLDER );
+            forgetLeastRecentlyVisited();
         }
         return add;
     }
+
+    private void enqueue( long id, long visit )
+    {
+        if ( tail == queuedIds.length )
+        {
+            compact();
+        }
+        queuedIds[tail] = id;
+        queuedVisits[tail] = visit;
+        tail++;
+    }
+
+    private void forgetLeastRecentlyVisited()
+    {
+        while ( true )
+        {
+            long id = queuedIds[head];
+            long visit = queuedVisits[head];
+            head++;
+            if ( lastVisits.get( id ) == visit )
+            {
+                lastVisits.remove( id );
+                return;
+            }
+        }
+    }
+
+    private void compact()
+    {
+        int count = 0;
+        for ( int i = head; i < tail; i++ )
+        {
+            if ( lastVisits.get( queuedIds[i] ) == queuedVisits[i] )
+            {
+                queuedIds[count] = queuedIds[i];
+                queuedVisits[count] = queuedVisits[i];
+                count++;
+            }
+        }
+        head = 0;
+        tail = count;
+        if ( count > queuedIds.length / 2 )
+        {
+            queuedIds = Arrays.copyOf( queuedIds, queuedIds.length * 2 );
+            queuedVisits = Arrays.copyOf( queuedVisits, queuedVisits.length * 2 );
+        }
+    }
     
     @Override
     public boolean checkFull( Path path )
@@ -50,5 +50,14 @@ public enum SideSelectorPolicies implements SideSelectorPolicy
         {
             return new AlternatingSelectorOrderer( start, end );
         }
+    },
+    
+    FRONTIER
+    {
+        @Override
+        public SideSelector create( BranchSelector start, BranchSelector end, int maxDepth )
+        {
+            return new FrontierSelectorOrderer( start, end, maxDepth );
+        }
     };
 }
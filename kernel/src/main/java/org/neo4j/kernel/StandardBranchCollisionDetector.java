@@ -21,23 +21,24 @@ package org.neo4j.kernel;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
 import org.neo4j.graphdb.Direction;
-import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.traversal.Evaluation;
 import org.neo4j.graphdb.traversal.Evaluator;
 import org.neo4j.graphdb.traversal.BranchCollisionDetector;
 import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.kernel.impl.util.PrimitiveLongObjectMap;
 
 public class StandardBranchCollisionDetector implements BranchCollisionDetector
 {
-    private final Map<Node, Collection<TraversalBranch>[]> paths =
-            new HashMap<Node, Collection<TraversalBranch>[]>( 1000 );
+    // Keyed by end node id. [0] for branches from start, [1] for branches from end,
+    // where a side only gets a list when a branch from it reaches the node.
+    private final PrimitiveLongObjectMap<List<TraversalBranch>[]> paths =
+            new PrimitiveLongObjectMap<List<TraversalBranch>[]>( 1000 );
     private final Evaluator evaluator;
     private final Set<Path> returnedPaths = new HashSet<Path>();
 
@@ -49,40 +50,44 @@ public class StandardBranchCollisionDetector implements BranchCollisionDetector
     @SuppressWarnings( "unchecked" )
     public Collection<Path> evaluate( TraversalBranch branch, Direction direction )
     {
-        // [0] for paths from start, [1] for paths from end
-        Collection<TraversalBranch>[] pathsHere = paths.get( branch.endNode() );
-        int index = direction.ordinal();
+        long nodeId = branch.endNode().getId();
+        List<TraversalBranch>[] pathsHere = paths.get( nodeId );
         if ( pathsHere == null )
         {
-            pathsHere = new Collection[] { new ArrayList<TraversalBranch>(), new ArrayList<TraversalBranch>() };
-            paths.put( branch.endNode(), pathsHere );
+            pathsHere = new List[2];
+            paths.put( nodeId, pathsHere );
+        }
+        int index = direction.ordinal();
+        if ( pathsHere[index] == null )
+        {
+            pathsHere[index] = new ArrayList<TraversalBranch>( 2 );
         }
         pathsHere[index].add( branch );
 
         // If there are paths from the other side then include all the
         // combined paths
-        Collection<TraversalBranch> otherCollections = pathsHere[index == 0 ? 1 : 0];
-        if ( !otherCollections.isEmpty() )
+        List<TraversalBranch> otherBranches = pathsHere[index == 0 ? 1 : 0];
+        if ( otherBranches == null )
         {
-            Collection<Path> foundPaths = new ArrayList<Path>();
-            for ( TraversalBranch otherBranch : otherCollections )
+            return null;
+        }
+        Collection<Path> foundPaths = null;
+        for ( TraversalBranch otherBranch : otherBranches )
+        {
+            TraversalBranch startPath = index == 0 ? branch : otherBranch;
+            TraversalBranch endPath = index == 0 ? otherBranch : branch;
+            BidirectionalTraversalBranchPath path = new BidirectionalTraversalBranchPath(
+                    startPath, endPath );
+            if ( returnedPaths.add( path ) && includePath( path, startPath, endPath ) )
             {
-                TraversalBranch startPath = index == 0 ? branch : otherBranch;
-                TraversalBranch endPath = index == 0 ? otherBranch : branch;
-                BidirectionalTraversalBranchPath path = new BidirectionalTraversalBranchPath(
-                        startPath, endPath );
-                if ( returnedPaths.add( path ) && includePath( path, startPath, endPath ) )
+                if ( foundPaths == null )
                 {
-                    foundPaths.add( path );
+                    foundPaths = new ArrayList<Path>();
                 }
-            }
-            
-            if ( !foundPaths.isEmpty() )
-            {
-                return foundPaths;
+                foundPaths.add( path );
             }
         }
-        return null;
+        return foundPaths;
     }
 
     protected boolean includePath( Path path, TraversalBranch startPath, TraversalBranch endPath )
@@ -63,8 +63,10 @@ import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.Predicate;
 import org.neo4j.helpers.collection.ArrayIterator;
 import org.neo4j.helpers.collection.FilteringIterator;
+import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.helpers.collection.IteratorWrapper;
 import org.neo4j.helpers.collection.NestingIterator;
+import org.neo4j.kernel.impl.core.NodeProxy;
 import org.neo4j.kernel.impl.util.SingleNodePath;
 
 public abstract class StandardExpander implements Expander, PathExpander
@@ -303,6 +305,12 @@ public abstract class StandardExpander implements Expander, PathExpander
             return path.endNode().getRelationships( direction ).iterator();
         }
 
+        @Override
+        public int getDegree( Node node )
+        {
+            return node.getDegree( direction );
+        }
+
         @Override
         public StandardExpander add( RelationshipType type, Direction dir )
         {
@@ -551,15 +559,31 @@ public abstract class StandardExpander implements Expander, PathExpander
     {
         final Map<Direction, RelationshipType[]> typesMap;
         final DirectionAndTypes[] directions;
+        // Each type with its direction, for expanding nodes of this database in one go
+        private final RelationshipType[] allTypes;
+        private final Direction[] allDirections;
 
         RegularExpander( Map<Direction, RelationshipType[]> types )
         {
             this.typesMap = types;
             this.directions = new DirectionAndTypes[types.size()];
             int i = 0;
+            int typeCount = 0;
             for ( Map.Entry<Direction, RelationshipType[]> entry : types.entrySet() )
             {
                 this.directions[i++] = new DirectionAndTypes( entry.getKey(), entry.getValue() );
+                typeCount += entry.getValue().length;
+            }
+            this.allTypes = new RelationshipType[typeCount];
+            this.allDirections = new Direction[typeCount];
+            int t = 0;
+            for ( DirectionAndTypes direction : directions )
+            {
+                for ( RelationshipType type : direction.types )
+                {
+                    allTypes[t] = type;
+                    allDirections[t++] = direction.direction;
+                }
             }
         }
 
@@ -578,6 +602,10 @@ public abstract class StandardExpander implements Expander, PathExpander
                 DirectionAndTypes direction = directions[0];
                 return node.getRelationships( direction.direction, direction.types ).iterator();
             }
+            else if ( directions.length > 1 && node instanceof NodeProxy )
+            {
+                return ((NodeProxy) node).getRelationships( allTypes, allDirections ).iterator();
+            }
             else
             {
                 return new NestingIterator<Relationship, DirectionAndTypes>( new ArrayIterator<DirectionAndTypes>(
@@ -592,6 +620,17 @@ public abstract class StandardExpander implements Expander, PathExpander
             }
         }
 
+        @Override
+        public int getDegree( Node node )
+        {
+            int degree = 0;
+            for ( DirectionAndTypes direction : directions )
+            {
+                degree += node.getDegree( direction.direction, direction.types );
+            }
+            return degree;
+        }
+
         StandardExpander createNew( Map<Direction, RelationshipType[]> types )
         {
             if ( types.isEmpty() )
@@ -923,6 +962,17 @@ public abstract class StandardExpander implements Expander, PathExpander
 
     abstract Iterator<Relationship> doExpand( Path path, BranchState state );
 
+    /**
+     * @return the number of relationships this expander expands from
+     * {@code node}. Expanders that only select relationships by type and
+     * direction count them with {@link Node#getDegree(Direction, RelationshipType...)},
+     * without loading them.
+     */
+    public int getDegree( Node node )
+    {
+        return IteratorUtil.count( doExpand( new SingleNodePath( node ), BranchState.NO_STATE ) );
+    }
+
     @Override
     public final String toString()
     {
@@ -82,4 +82,33 @@ public interface TransactionBuilder
      * @return a {@link TransactionBuilder} instance with relaxed force set.
      */
     TransactionBuilder unforced();
+
+    /**
+     * Lets the transaction grow beyond what fits in the heap. Once it has
+     * changed {@link org.neo4j.graphdb.factory.GraphDatabaseSettings#large_transaction_spill_threshold
+     * a number of} node, relationship and property records they are written
+     * to the logical log, instead of being kept until commit. Records changed
+     * again are read back from the log and at commit the changes are applied
+     * to the store straight from the log.
+     *
+     * Pros
+     * <ul>
+     * <li>The records the transaction changes don't all have to fit in the
+     * heap, so a bulk load can be done in one transaction.</li>
+     * </ul>
+     *
+     * Cons
+     * <ul>
+     * <li>Changing a record again, after it has been written to the log, means
+     * reading it back from the log.</li>
+     * <li>The locks taken and the changes to the cached nodes and
+     * relationships are still kept in memory until commit.</li>
+     * <li>Transaction interceptors need to see all the changes at once, so
+     * with interceptors configured large transactions behave like ordinary
+     * ones.</li>
+     * </ul>
+     *
+     * @return a {@link TransactionBuilder} instance for large transactions.
+     */
+    TransactionBuilder large();
 }
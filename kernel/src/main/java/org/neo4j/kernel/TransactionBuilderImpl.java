@@ -26,22 +26,35 @@ class TransactionBuilderImpl implements TransactionBuilder
 {
     private final InternalAbstractGraphDatabase db;
     private final ForceMode forceMode;
+    private final boolean large;
 
     TransactionBuilderImpl( InternalAbstractGraphDatabase db, ForceMode forceMode )
+    {
+        this( db, forceMode, false );
+    }
+
+    private TransactionBuilderImpl( InternalAbstractGraphDatabase db, ForceMode forceMode, boolean large )
     {
         this.db = db;
         this.forceMode = forceMode;
+        this.large = large;
     }
     
     @Override
     public Transaction begin()
     {
-        return this.db.beginTx( forceMode );
+        return this.db.beginTx( forceMode, large );
     }
 
     @Override
     public TransactionBuilder unforced()
     {
-        return new TransactionBuilderImpl( db, ForceMode.unforced );
+        return new TransactionBuilderImpl( db, ForceMode.unforced, large );
+    }
+
+    @Override
+    public TransactionBuilder large()
+    {
+        return new TransactionBuilderImpl( db, forceMode, true );
     }
 }
@@ -21,13 +21,38 @@ package org.neo4j.kernel.guard;
 
 import static java.lang.System.currentTimeMillis;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.neo4j.kernel.impl.util.StringLogger;
 
 public class Guard
 {
+    /**
+     * How many operations a {@link Budget} lets pass between looking at the
+     * clock, since reading it costs more than counting.
+     */
+    public static final int CLOCK_CHECK_INTERVAL = 128;
 
     private final ThreadLocal<GuardInternal> threadLocal = new ThreadLocal<GuardInternal>();
 
+    // Guards started on any thread and not yet stopped, so that checks can skip
+    // the thread local lookup while nothing is guarded
+    private final AtomicInteger started = new AtomicInteger();
+
+    private final Set<Budget> activeBudgets =
+            Collections.newSetFromMap( new ConcurrentHashMap<Budget, Boolean>() );
+    private final AtomicLong finishedBudgets = new AtomicLong();
+    private final AtomicLong budgetOperations = new AtomicLong();
+    private final AtomicLong exceededTime = new AtomicLong();
+    private final AtomicLong exceededOperations = new AtomicLong();
+    private final AtomicLong exceededMemory = new AtomicLong();
+
     private final StringLogger logger;
 
     public Guard( final StringLogger logger )
@@ -37,6 +62,10 @@ public class Guard
 
     public void check()
     {
+        if ( started.get() == 0 )
+        {
+            return;
+        }
         GuardInternal guardInternal = currentGuard();
         if ( guardInternal != null )
         {
@@ -44,6 +73,24 @@ public class Guard
         }
     }
 
+    /**
+     * Charges an estimate of memory held on to by the current operation, for
+     * example the size of a loaded property value, to the {@link Budget} of
+     * this thread if there is one. Doesn't count as an operation.
+     */
+    public void allocated( final long bytes )
+    {
+        if ( started.get() == 0 )
+        {
+            return;
+        }
+        GuardInternal guardInternal = currentGuard();
+        if ( guardInternal instanceof Budget )
+        {
+            ((Budget) guardInternal).allocated( bytes );
+        }
+    }
+
     public <T extends GuardInternal> T currentGuard()
     {
         return (T) threadLocal.get();
@@ -60,9 +107,35 @@ public class Guard
         start( timeout );
     }
 
+    /**
+     * Starts a {@link Budget} limiting time, operations and estimated memory
+     * at once. A limit which isn't positive means no limit.
+     *
+     * @param validFor time in ms.
+     * @param maxOps max number of operations, e.g. node and relationship loads.
+     * @param maxBytes max estimated size in bytes of loaded property values.
+     */
+    public void startBudget( final long validFor, final long maxOps, final long maxBytes )
+    {
+        start( new Budget( validFor, maxOps, maxBytes ) );
+    }
+
     public void start( final GuardInternal guard )
     {
+        GuardInternal previous = threadLocal.get();
         threadLocal.set( guard );
+        if ( previous == null )
+        {
+            started.incrementAndGet();
+        }
+        else
+        {
+            finished( previous );
+        }
+        if ( guard instanceof Budget )
+        {
+            activeBudgets.add( (Budget) guard );
+        }
     }
 
     public <T extends GuardInternal> T stop()
@@ -71,10 +144,62 @@ public class Guard
         if ( guardInternal != null )
         {
             threadLocal.remove();
+            started.decrementAndGet();
+            finished( guardInternal );
         }
         return guardInternal;
     }
 
+    private void finished( final GuardInternal guard )
+    {
+        if ( guard instanceof Budget && activeBudgets.remove( guard ) )
+        {
+            finishedBudgets.incrementAndGet();
+            budgetOperations.addAndGet( ((Budget) guard).getOpsCount() );
+        }
+    }
+
+    /**
+     * @return descriptions of the budgets currently running, see {@link Budget#toString()}.
+     */
+    public List<String> getActiveBudgets()
+    {
+        List<String> result = new ArrayList<String>();
+        for ( Budget budget : activeBudgets )
+        {
+            result.add( budget.toString() );
+        }
+        return result;
+    }
+
+    public long getFinishedBudgetCount()
+    {
+        return finishedBudgets.get();
+    }
+
+    /**
+     * @return the number of operations done by all finished budgets.
+     */
+    public long getBudgetOperationsCount()
+    {
+        return budgetOperations.get();
+    }
+
+    public long getExceededTimeCount()
+    {
+        return exceededTime.get();
+    }
+
+    public long getExceededOperationsCount()
+    {
+        return exceededOperations.get();
+    }
+
+    public long getExceededMemoryCount()
+    {
+        return exceededMemory.get();
+    }
+
     public interface GuardInternal
     {
 
@@ -133,4 +258,89 @@ public class Guard
             }
         }
     }
+
+    /**
+     * Limits time, operations and estimated memory of what a thread does
+     * while it's started. Operations are only counted, the clock is read
+     * every {@link #CLOCK_CHECK_INTERVAL} operations, so a check is about as
+     * cheap as an increment. Its counts are only updated by its own thread,
+     * and so only approximate as seen from others.
+     */
+    public class Budget implements GuardInternal
+    {
+
+        private final long start;
+        private final long valid;
+        private final long maxOps;
+        private final long maxBytes;
+        private long opsCount = 0;
+        private long bytes = 0;
+        private long nextClockCheck = CLOCK_CHECK_INTERVAL;
+        private final String thread = Thread.currentThread().getName();
+
+        private Budget( final long validFor, final long maxOps, final long maxBytes )
+        {
+            this.start = currentTimeMillis();
+            this.valid = validFor > 0 ? start + validFor : Long.MAX_VALUE;
+            this.maxOps = maxOps > 0 ? maxOps : Long.MAX_VALUE;
+            this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        }
+
+        @Override
+        public void check()
+        {
+            opsCount++;
+
+            if ( maxOps < opsCount )
+            {
+                exceededOperations.incrementAndGet();
+                logger.logMessage( "guard-budget: ops: more than " + maxOps );
+                throw new GuardOperationsCountException( opsCount );
+            }
+            if ( opsCount >= nextClockCheck )
+            {
+                nextClockCheck = opsCount + CLOCK_CHECK_INTERVAL;
+                final long now = currentTimeMillis();
+                if ( valid < now )
+                {
+                    exceededTime.incrementAndGet();
+                    logger.logMessage( "guard-budget:" + (valid - start) + "(+" + (now - valid) + ")ms" );
+                    throw new GuardTimeoutException( now - valid );
+                }
+            }
+        }
+
+        private void allocated( final long size )
+        {
+            bytes += size;
+
+            if ( maxBytes < bytes )
+            {
+                exceededMemory.incrementAndGet();
+                logger.logMessage( "guard-budget: memory: more than " + maxBytes + " bytes" );
+                throw new GuardMemoryException( bytes );
+            }
+        }
+
+        public long getOpsCount()
+        {
+            return opsCount;
+        }
+
+        public long getEstimatedBytes()
+        {
+            return bytes;
+        }
+
+        public long getElapsedTime()
+        {
+            return currentTimeMillis() - start;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format( "%s: %dms, %d ops, ~%d bytes", thread, getElapsedTime(), opsCount, bytes );
+        }
+    }
 }
@@ -0,0 +1,329 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache which keeps the state of its entities serialized in an {@link OffHeapStore}
+ * instead of as objects on the java heap. Only entities which are currently reachable
+ * from elsewhere are kept as objects, in a weak map, so that there's never more than one
+ * live instance per id. All other entities are materialized by the {@link Codec} when
+ * requested. Whenever an entity changes, which is signalled through
+ * {@link #updateSize(EntityWithSize, int)}, its serialized state is written back, or
+ * if it's big, dropped until enough changes have been made to it to make up for
+ * serializing all of it again. A node getting many relationships one by one is then
+ * not serialized once per relationship. An entity which is dropped from the live
+ * instances before its state is written back is loaded from the store again.
+ */
+public class OffHeapCache<E extends EntityWithSize> implements Cache<E>
+{
+    /**
+     * Converts entities to and from their serialized form.
+     */
+    public interface Codec<E>
+    {
+        /**
+         * Writes the state of {@code entity} to {@code target}. May throw
+         * {@link BufferOverflowException} if there's not enough room, in which case
+         * it will be called again with a bigger buffer.
+         */
+        void encode( E entity, ByteBuffer target );
+
+        E decode( long id, ByteBuffer source );
+    }
+
+    private static final int INITIAL_ENCODE_BUFFER_SIZE = 256;
+    // What each unwritten change is taken to be worth, in bytes of the entity's size
+    static final int BYTES_PER_UNWRITTEN_CHANGE = 64;
+
+    private final String name;
+    private final Codec<E> codec;
+    private final OffHeapStore store;
+    private final ConcurrentHashMap<Long,LiveValue<E>> live = new ConcurrentHashMap<Long,LiveValue<E>>();
+    private final WeakReferenceQueue<Long,E> refQueue = new WeakReferenceQueue<Long,E>();
+    private final HitCounter counter = new HitCounter();
+    private final ThreadLocal<ByteBuffer> encodeBuffer = new ThreadLocal<ByteBuffer>()
+    {
+        @Override
+        protected ByteBuffer initialValue()
+        {
+            return ByteBuffer.allocate( INITIAL_ENCODE_BUFFER_SIZE );
+        }
+    };
+
+    public OffHeapCache( String name, Codec<E> codec, long maxSize )
+    {
+        this( name, codec, maxSize, Runtime.getRuntime().availableProcessors() * 4 );
+    }
+
+    public OffHeapCache( String name, Codec<E> codec, long maxSize, int concurrencyLevel )
+    {
+        this.name = name;
+        this.codec = codec;
+        this.store = new OffHeapStore( maxSize, concurrencyLevel );
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public void put( E value )
+    {
+        Long key = value.getId();
+        live.put( key, new LiveValue<E>( key, value, refQueue ) );
+        writeBack( value );
+        pollClearedValues();
+    }
+
+    @Override
+    public void putAll( Collection<E> values )
+    {
+        for ( E value : values )
+        {
+            put( value );
+        }
+    }
+
+    @Override
+    public E get( long key )
+    {
+        LiveValue<E> ref = live.get( key );
+        if ( ref != null )
+        {
+            E entity = ref.get();
+            if ( entity != null )
+            {
+                return counter.count( entity );
+            }
+            live.remove( key, ref );
+        }
+
+        ByteBuffer data = store.get( key );
+        if ( data == null )
+        {
+            return counter.<E>count( null );
+        }
+        E entity;
+        try
+        {
+            entity = codec.decode( key, data );
+        }
+        catch ( RuntimeException e )
+        {
+            // Shouldn't happen, but the entity can always be loaded from the store instead
+            store.remove( key );
+            return counter.<E>count( null );
+        }
+        entity = register( key, entity );
+        pollClearedValues();
+        return counter.count( entity );
+    }
+
+    /**
+     * Makes {@code entity} the live instance for {@code key}, unless another thread
+     * got there first in which case that instance is returned.
+     */
+    private E register( Long key, E entity )
+    {
+        LiveValue<E> ref = new LiveValue<E>( key, entity, refQueue );
+        while ( true )
+        {
+            LiveValue<E> existing = live.putIfAbsent( key, ref );
+            if ( existing == null )
+            {
+                return entity;
+            }
+            E existingEntity = existing.get();
+            if ( existingEntity != null )
+            {
+                return existingEntity;
+            }
+            if ( live.replace( key, existing, ref ) )
+            {
+                return entity;
+            }
+        }
+    }
+
+    @Override
+    public E remove( long key )
+    {
+        store.remove( key );
+        LiveValue<E> ref = live.remove( key );
+        E entity = ref != null ? ref.get() : null;
+        if ( entity != null )
+        {
+            // A write back which saw it live may have stored it again since
+            synchronized ( entity )
+            {
+                store.remove( key );
+            }
+        }
+        return entity;
+    }
+
+    @Override
+    public void updateSize( E entity, int newSize )
+    {
+        // Changes to instances which aren't the live one, f.ex. after a remove, must not be written back
+        LiveValue<E> ref = live.get( entity.getId() );
+        if ( ref != null && ref.get() == entity )
+        {
+            synchronized ( entity )
+            {
+                ref.unwrittenChanges++;
+                if ( (long) ref.unwrittenChanges * BYTES_PER_UNWRITTEN_CHANGE >= newSize )
+                {
+                    ref.unwrittenChanges = 0;
+                    writeBack( entity );
+                }
+                else if ( ref.unwrittenChanges == 1 )
+                {
+                    // The stored state is stale from now on
+                    store.remove( entity.getId() );
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes and stores {@code entity} under its lock, so that what's stored last is
+     * the state it was in last.
+     */
+    private void writeBack( E entity )
+    {
+        ByteBuffer buffer = encodeBuffer.get();
+        synchronized ( entity )
+        {
+            try
+            {
+                while ( true )
+                {
+                    buffer.clear();
+                    try
+                    {
+                        codec.encode( entity, buffer );
+                        break;
+                    }
+                    catch ( BufferOverflowException e )
+                    {
+                        if ( buffer.capacity() > store.maxEntrySize() )
+                        {
+                            // Too big to be stored, it will have to be loaded from the store again
+                            store.remove( entity.getId() );
+                            return;
+                        }
+                        buffer = ByteBuffer.allocate( buffer.capacity() * 2 );
+                        encodeBuffer.set( buffer );
+                    }
+                }
+            }
+            catch ( RuntimeException e )
+            {
+                // The entity is in a state that can't be serialized, don't keep a stale version of it
+                store.remove( entity.getId() );
+                return;
+            }
+            buffer.flip();
+            store.put( entity.getId(), buffer );
+        }
+    }
+
+    private void pollClearedValues()
+    {
+        WeakValue<Long,E> clearedValue = refQueue.safePoll();
+        while ( clearedValue != null )
+        {
+            live.remove( clearedValue.key, clearedValue );
+            clearedValue = refQueue.safePoll();
+        }
+    }
+
+    private static final class LiveValue<E> extends WeakValue<Long,E>
+    {
+        // Changes since the entity was last written back, guarded by the entity
+        int unwrittenChanges;
+
+        @SuppressWarnings( "unchecked" )
+        LiveValue( Long key, E entity, WeakReferenceQueue<Long,E> queue )
+        {
+            super( key, entity, (WeakReferenceQueue) queue );
+        }
+    }
+
+    /**
+     * Forgets about the live instances, as if they had all been garbage collected.
+     */
+    void clearLiveInstances()
+    {
+        live.clear();
+    }
+
+    @Override
+    public void clear()
+    {
+        live.clear();
+        store.clear();
+    }
+
+    /**
+     * @return the number of entities with serialized state in this cache.
+     */
+    @Override
+    public long size()
+    {
+        return store.size();
+    }
+
+    public long memoryUsed()
+    {
+        return store.memoryUsed();
+    }
+
+    public long evictionCount()
+    {
+        return store.evictionCount();
+    }
+
+    @Override
+    public long hitCount()
+    {
+        return counter.getHitsCount();
+    }
+
+    @Override
+    public long missCount()
+    {
+        return counter.getMissCount();
+    }
+
+    @Override
+    public void printStatistics()
+    {
+        // do nothing
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import org.neo4j.graphdb.factory.Default;
+import org.neo4j.graphdb.factory.Description;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting.NumberOfBytesSetting;
+import org.neo4j.helpers.Service;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.core.NodeImpl;
+import org.neo4j.kernel.impl.core.OffHeapCodecs;
+import org.neo4j.kernel.impl.core.RelationshipImpl;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+@Service.Implementation( CacheProvider.class )
+public class OffHeapCacheProvider extends CacheProvider
+{
+    public static final String NAME = "offheap";
+
+    private static final long DEFAULT_NODE_CACHE_SIZE = 256 * 1024 * 1024;
+    private static final long DEFAULT_RELATIONSHIP_CACHE_SIZE = 128 * 1024 * 1024;
+
+    public static abstract class Configuration
+    {
+        @Description( "The amount of memory outside of the java heap to use for the off-heap node cache." )
+        @Default( "256M" )
+        public static final GraphDatabaseSetting<Long> offheap_node_cache_size =
+                new NumberOfBytesSetting( "offheap_node_cache_size" );
+
+        @Description( "The amount of memory outside of the java heap to use for the off-heap relationship cache." )
+        @Default( "128M" )
+        public static final GraphDatabaseSetting<Long> offheap_relationship_cache_size =
+                new NumberOfBytesSetting( "offheap_relationship_cache_size" );
+    }
+
+    public OffHeapCacheProvider()
+    {
+        super( NAME, "off-heap cache" );
+    }
+
+    @Override
+    public Cache<NodeImpl> newNodeCache( StringLogger logger, Config config )
+    {
+        long size = size( config, Configuration.offheap_node_cache_size, DEFAULT_NODE_CACHE_SIZE );
+        logger.logMessage( "Using off-heap node cache of " + size + " bytes" );
+        return new OffHeapCache<NodeImpl>( NODE_CACHE_NAME, OffHeapCodecs.NODE, size );
+    }
+
+    @Override
+    public Cache<RelationshipImpl> newRelationshipCache( StringLogger logger, Config config )
+    {
+        long size = size( config, Configuration.offheap_relationship_cache_size, DEFAULT_RELATIONSHIP_CACHE_SIZE );
+        logger.logMessage( "Using off-heap relationship cache of " + size + " bytes" );
+        return new OffHeapCache<RelationshipImpl>( RELATIONSHIP_CACHE_NAME, OffHeapCodecs.RELATIONSHIP, size );
+    }
+
+    private static long size( Config config, GraphDatabaseSetting<Long> setting, long defaultSize )
+    {
+        return config.isSet( setting ) ? config.get( setting ) : defaultSize;
+    }
+
+    @Override
+    public Class getSettingsClass()
+    {
+        return Configuration.class;
+    }
+}
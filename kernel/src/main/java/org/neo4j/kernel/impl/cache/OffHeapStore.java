@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.nio.ByteBuffer;
+
+import org.neo4j.kernel.impl.util.PrimitiveLongLongMap;
+
+/**
+ * Stores serialized entries keyed by long id in direct {@link ByteBuffer} slabs
+ * outside of the java heap, so that the garbage collector never has to trace them.
+ * The store is split into segments, each guarded by its own monitor and owning a
+ * ring of slabs which entries get appended to. When the ring wraps around the oldest
+ * slab is reused and the entries in it evicted, which bounds the memory to the
+ * configured size and evicts in approximate insertion order. Entries are located
+ * through a {@link PrimitiveLongLongMap} per segment.
+ */
+class OffHeapStore
+{
+    private static final int HEADER_SIZE = 8/*key*/ + 4/*length*/;
+    private static final int MIN_SLAB_SIZE = 4 * 1024;
+    private static final int MAX_SLAB_SIZE = 1 << 30;
+    static final int SLABS_PER_SEGMENT = 8;
+
+    private final Segment[] segments;
+    private final int slabSize;
+
+    OffHeapStore( long maxSize, int segmentCount )
+    {
+        int segments = Integer.highestOneBit( Math.max( 1, segmentCount ) );
+        this.slabSize = (int) Math.max( MIN_SLAB_SIZE,
+                Math.min( MAX_SLAB_SIZE, maxSize / ((long) segments * SLABS_PER_SEGMENT) ) );
+        this.segments = new Segment[segments];
+        for ( int i = 0; i < segments; i++ )
+        {
+            this.segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return the largest payload a single entry can have.
+     */
+    int maxEntrySize()
+    {
+        return slabSize - HEADER_SIZE;
+    }
+
+    /**
+     * Stores the remaining bytes of {@code data} for {@code key}, replacing any previous entry.
+     * @return {@code false} if the entry was too big to be stored, in which case any previous
+     * entry has been removed.
+     */
+    boolean put( long key, ByteBuffer data )
+    {
+        return segmentFor( key ).put( key, data );
+    }
+
+    /**
+     * @return a heap copy of the entry stored for {@code key}, or {@code null} if there is none.
+     */
+    ByteBuffer get( long key )
+    {
+        return segmentFor( key ).get( key );
+    }
+
+    boolean remove( long key )
+    {
+        return segmentFor( key ).remove( key );
+    }
+
+    void clear()
+    {
+        for ( Segment segment : segments )
+        {
+            segment.clear();
+        }
+    }
+
+    long size()
+    {
+        long size = 0;
+        for ( Segment segment : segments )
+        {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    long memoryUsed()
+    {
+        long used = 0;
+        for ( Segment segment : segments )
+        {
+            used += segment.memoryUsed();
+        }
+        return used;
+    }
+
+    long evictionCount()
+    {
+        long evictions = 0;
+        for ( Segment segment : segments )
+        {
+            evictions += segment.evictions;
+        }
+        return evictions;
+    }
+
+    private Segment segmentFor( long key )
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (hash >>> 40) & (segments.length - 1)];
+    }
+
+    private static long location( int slab, int offset )
+    {
+        return ((long) slab << 32) | offset;
+    }
+
+    private class Segment
+    {
+        private final ByteBuffer[] slabs = new ByteBuffer[SLABS_PER_SEGMENT];
+        private final int[] slabEnds = new int[SLABS_PER_SEGMENT];
+        private final PrimitiveLongLongMap index = new PrimitiveLongLongMap();
+        private int writeSlab;
+        private volatile long evictions;
+
+        synchronized boolean put( long key, ByteBuffer data )
+        {
+            int length = data.remaining();
+            if ( length > maxEntrySize() )
+            {
+                index.remove( key );
+                return false;
+            }
+            if ( slabs[writeSlab] == null )
+            {
+                slabs[writeSlab] = ByteBuffer.allocateDirect( slabSize );
+            }
+            if ( slabEnds[writeSlab] + HEADER_SIZE + length > slabSize )
+            {
+                writeSlab = (writeSlab + 1) % SLABS_PER_SEGMENT;
+                evictSlab( writeSlab );
+            }
+            ByteBuffer slab = slabs[writeSlab];
+            int offset = slabEnds[writeSlab];
+            slab.putLong( offset, key );
+            slab.putInt( offset + 8, length );
+            ByteBuffer target = slab.duplicate();
+            target.position( offset + HEADER_SIZE );
+            target.put( data.duplicate() );
+            slabEnds[writeSlab] = offset + HEADER_SIZE + length;
+            index.put( key, location( writeSlab, offset ) );
+            return true;
+        }
+
+        synchronized ByteBuffer get( long key )
+        {
+            long location = index.get( key );
+            if ( location == PrimitiveLongLongMap.NO_VALUE )
+            {
+                return null;
+            }
+            ByteBuffer source = slabs[(int) (location >>> 32)].duplicate();
+            int offset = (int) location;
+            byte[] data = new byte[source.getInt( offset + 8 )];
+            source.position( offset + HEADER_SIZE );
+            source.get( data );
+            return ByteBuffer.wrap( data );
+        }
+
+        synchronized boolean remove( long key )
+        {
+            // The bytes stay in the slab until it gets reused, only the index entry goes away
+            return index.remove( key ) != PrimitiveLongLongMap.NO_VALUE;
+        }
+
+        synchronized void clear()
+        {
+            index.clear();
+            for ( int i = 0; i < SLABS_PER_SEGMENT; i++ )
+            {
+                slabEnds[i] = 0;
+            }
+            writeSlab = 0;
+        }
+
+        synchronized int size()
+        {
+            return index.size();
+        }
+
+        synchronized long memoryUsed()
+        {
+            long used = 0;
+            for ( ByteBuffer slab : slabs )
+            {
+                if ( slab != null )
+                {
+                    used += slab.capacity();
+                }
+            }
+            return used;
+        }
+
+        private void evictSlab( int slabIndex )
+        {
+            ByteBuffer slab = slabs[slabIndex];
+            if ( slab == null )
+            {
+                slabs[slabIndex] = ByteBuffer.allocateDirect( slabSize );
+                return;
+            }
+            int end = slabEnds[slabIndex];
+            for ( int offset = 0; offset < end; offset += HEADER_SIZE + slab.getInt( offset + 8 ) )
+            {
+                long key = slab.getLong( offset );
+                // Only evict if the index still points here, the key may have been re-put since
+                if ( index.get( key ) == location( slabIndex, offset ) )
+                {
+                    index.remove( key );
+                    evictions++;
+                }
+            }
+            slabEnds[slabIndex] = 0;
+        }
+    }
+}
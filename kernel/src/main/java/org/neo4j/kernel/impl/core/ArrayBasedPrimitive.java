@@ -98,6 +98,15 @@ abstract class ArrayBasedPrimitive extends Primitive implements EntityWithSize
         updateSize( nodeManager );
     }
 
+    /**
+     * Restores properties loaded earlier, f.ex. from a serialized cache entry, without
+     * registering a new size since this instance isn't in the cache yet.
+     */
+    void restoreProperties( PropertyData[] properties )
+    {
+        this.properties = properties;
+    }
+
     @Override
     protected PropertyData[] allProperties()
     {
@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.core;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -46,6 +47,16 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
     
     // This is just for optimization
     private boolean lastTimeILookedThereWasMoreToLoad;
+    
+    /*
+     * Ids taken from currentTypeIterator ahead of time when a relationship
+     * isn't cached, so that it and the ones after it which aren't either can
+     * be read from the store together, see NodeManager#loadLightRelationships
+     */
+    private static final int PREFETCH_SIZE = 64;
+    private long[] prefetched;
+    private int prefetchedPosition;
+    private int prefetchedCount;
 
     IntArrayIterator( List<RelIdIterator> rels, NodeImpl fromNode,
         DirectionWrapper direction, NodeManager nodeManager, RelationshipType[] types,
@@ -71,12 +82,11 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
     {
         do
         {
-            if ( currentTypeIterator.hasNext() )
+            while ( prefetchedPosition < prefetchedCount || currentTypeIterator.hasNext() )
             {
-                long nextId = currentTypeIterator.next();
                 try
                 {
-                    return nodeManager.newRelationshipProxyById( nextId );
+                    return nodeManager.newRelationshipProxyById( nextId() );
                 }
                 catch ( NotFoundException e )
                 { // ok deleted 
@@ -151,4 +161,39 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
         // no next element found
         return null;
     }
+    
+    /*
+     * Ids which have been prefetched are handed out before anything else is
+     * taken from currentTypeIterator, so that they keep their order
+     */
+    private long nextId()
+    {
+        if ( prefetchedPosition < prefetchedCount )
+        {
+            return prefetched[prefetchedPosition++];
+        }
+        long nextId = currentTypeIterator.next();
+        if ( nodeManager.isRelationshipCached( nextId ) )
+        {
+            return nextId;
+        }
+        prefetch( nextId );
+        return prefetched[prefetchedPosition++];
+    }
+    
+    private void prefetch( long firstId )
+    {
+        if ( prefetched == null )
+        {
+            prefetched = new long[PREFETCH_SIZE];
+        }
+        prefetched[0] = firstId;
+        prefetchedCount = 1;
+        prefetchedPosition = 0;
+        while ( prefetchedCount < PREFETCH_SIZE && currentTypeIterator.hasNext() )
+        {
+            prefetched[prefetchedCount++] = currentTypeIterator.next();
+        }
+        nodeManager.loadLightRelationships( Arrays.copyOf( prefetched, prefetchedCount ) );
+    }
 }
@@ -23,11 +23,15 @@ import static org.neo4j.kernel.impl.cache.SizeOfs.withArrayOverheadIncludingRefe
 import static org.neo4j.kernel.impl.util.RelIdArray.empty;
 import static org.neo4j.kernel.impl.util.RelIdArray.wrap;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
@@ -42,6 +46,8 @@ import org.neo4j.kernel.impl.core.LockReleaser.PrimitiveElement;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.persistence.NeoStoreTransaction;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.CombinedRelIdIterator;
@@ -52,8 +58,13 @@ import org.neo4j.kernel.impl.util.RelIdIterator;
 public class NodeImpl extends ArrayBasedPrimitive
 {
     private static final RelIdArray[] NO_RELATIONSHIPS = new RelIdArray[0];
+    private static final DirectionWrapper[] CHAINS = new DirectionWrapper[] {
+        DirectionWrapper.OUTGOING, DirectionWrapper.INCOMING, DirectionWrapper.BOTH };
 
     private volatile RelIdArray[] relationships;
+    // For a dense node the chains of its relationship groups loaded into
+    // relationships so far, null for a node with a single chain
+    private volatile LoadedChains loadedChains;
 
     private volatile long relChainPosition = Record.NO_NEXT_RELATIONSHIP.intValue();
     private final long id;
@@ -83,7 +94,13 @@ public class NodeImpl extends ArrayBasedPrimitive
     @Override
     public int size()
     {
-        int size = super.size() + SizeOfs.REFERENCE_SIZE/*relationships reference*/ + 8/*relChainPosition*/ + 8/*id*/;
+        int size = super.size() + SizeOfs.REFERENCE_SIZE/*relationships reference*/ + 8/*relChainPosition*/ + 8/*id*/ +
+                SizeOfs.REFERENCE_SIZE/*loadedChains reference*/;
+        LoadedChains chains = loadedChains;
+        if ( chains != null )
+        {
+            size += chains.size();
+        }
         if ( relationships != null )
         {
             size = withArrayOverheadIncludingReferences( size, relationships.length );
@@ -136,6 +153,7 @@ public class NodeImpl extends ArrayBasedPrimitive
     Iterable<Relationship> getAllRelationships( NodeManager nodeManager, DirectionWrapper direction )
     {
         ensureRelationshipMapNotNull( nodeManager );
+        ensureChainsLoaded( nodeManager, direction, null );
         
         // We need to check if there are more relationships to load before grabbing
         // the references to the RelIdArrays since otherwise there could be
@@ -193,6 +211,7 @@ public class NodeImpl extends ArrayBasedPrimitive
         DirectionWrapper direction, RelationshipType... types)
     {
         ensureRelationshipMapNotNull( nodeManager );
+        ensureChainsLoaded( nodeManager, direction, types );
         
         // We need to check if there are more relationships to load before grabbing
         // the references to the RelIdArrays since otherwise there could be
@@ -205,25 +224,93 @@ public class NodeImpl extends ArrayBasedPrimitive
         boolean hasModifications = nodeManager.getLockReleaser().hasRelationshipModifications( this );
         for ( RelationshipType type : types )
         {
-            String typeName = type.name();
-            RelIdArray src = getRelIdArray( typeName );
-            Collection<Long> remove = null;
-            RelIdArray add = null;
-            RelIdIterator iterator = null;
-            if ( hasModifications )
+            relTypeList.add( relIdIterator( nodeManager, type.name(), direction, hasModifications ) );
+        }
+        
+        return new IntArrayIterator( relTypeList, this, direction, nodeManager, types, hasMore );
+    }
+
+    /**
+     * Relationships of each of {@code types} in the direction at the same index
+     * in {@code directions}, as one iterator going through the ids of one type
+     * after the other, so that a node is only looked at once for all of them.
+     * A type given more than once is iterated once, in the union of its directions.
+     */
+    Iterable<Relationship> getAllRelationshipsOfTypes( NodeManager nodeManager,
+            RelationshipType[] types, Direction[] directions )
+    {
+        if ( types.length == 0 )
+        {   // No types would mean all types to IntArrayIterator
+            return Collections.emptyList();
+        }
+        RelationshipType[] distinctTypes = new RelationshipType[types.length];
+        DirectionWrapper[] distinctDirections = new DirectionWrapper[types.length];
+        int count = 0;
+        for ( int i = 0; i < types.length; i++ )
+        {
+            DirectionWrapper direction = wrap( directions[i] );
+            int existing = indexOf( distinctTypes, count, types[i].name() );
+            if ( existing == -1 )
             {
-                remove = nodeManager.getCowRelationshipRemoveMap( this, typeName );
-                add = nodeManager.getCowRelationshipAddMap( this, typeName );
-                iterator = new CombinedRelIdIterator( typeName, direction, src, add, remove );
+                distinctTypes[count] = types[i];
+                distinctDirections[count++] = direction;
             }
-            else
+            else if ( distinctDirections[existing] != direction )
             {
-                iterator = src != null ? src.iterator( direction ) : empty( typeName ).iterator( direction );
+                distinctDirections[existing] = DirectionWrapper.BOTH;
+            }
+        }
+        if ( count < types.length )
+        {
+            distinctTypes = Arrays.copyOf( distinctTypes, count );
+        }
+
+        ensureRelationshipMapNotNull( nodeManager );
+        if ( loadedChains != null )
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                ensureChainsLoaded( nodeManager, distinctDirections[i], new RelationshipType[] { distinctTypes[i] } );
             }
-            relTypeList.add( iterator );
         }
         
-        return new IntArrayIterator( relTypeList, this, direction, nodeManager, types, hasMore );
+        // See getAllRelationships for why this is checked before grabbing the RelIdArrays
+        boolean hasMore = hasMoreRelationshipsToLoad();
+        
+        List<RelIdIterator> relTypeList = new LinkedList<RelIdIterator>();
+        boolean hasModifications = nodeManager.getLockReleaser().hasRelationshipModifications( this );
+        for ( int i = 0; i < count; i++ )
+        {
+            relTypeList.add( relIdIterator( nodeManager, distinctTypes[i].name(), distinctDirections[i],
+                    hasModifications ) );
+        }
+        
+        return new IntArrayIterator( relTypeList, this, DirectionWrapper.BOTH, nodeManager, distinctTypes, hasMore );
+    }
+
+    private RelIdIterator relIdIterator( NodeManager nodeManager, String typeName, DirectionWrapper direction,
+            boolean hasModifications )
+    {
+        RelIdArray src = getRelIdArray( typeName );
+        if ( hasModifications )
+        {
+            Collection<Long> remove = nodeManager.getCowRelationshipRemoveMap( this, typeName );
+            RelIdArray add = nodeManager.getCowRelationshipAddMap( this, typeName );
+            return new CombinedRelIdIterator( typeName, direction, src, add, remove );
+        }
+        return src != null ? src.iterator( direction ) : empty( typeName ).iterator( direction );
+    }
+
+    private static int indexOf( RelationshipType[] types, int count, String name )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( types[i].name().equals( name ) )
+            {
+                return i;
+            }
+        }
+        return -1;
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager )
@@ -253,6 +340,12 @@ public class NodeImpl extends ArrayBasedPrimitive
         return getAllRelationshipsOfType( nodeManager, wrap( direction ), types );
     }
 
+    public Iterable<Relationship> getRelationships( NodeManager nodeManager,
+            RelationshipType[] types, Direction[] directions )
+    {
+        return getAllRelationshipsOfTypes( nodeManager, types, directions );
+    }
+
     public Relationship getSingleRelationship( NodeManager nodeManager, RelationshipType type,
         Direction dir )
     {
@@ -363,6 +456,15 @@ public class NodeImpl extends ArrayBasedPrimitive
                     throw new NotFoundException( asProxy( nodeManager ) +
                             " concurrently deleted while loading its relationships?", e );
                 }
+                if ( relChainPosition == NeoStoreTransaction.DENSE_NODE )
+                {
+                    // Chains are loaded per type and direction, as they are asked for
+                    relChainPosition = Record.NO_NEXT_RELATIONSHIP.intValue();
+                    loadedChains = new LoadedChains();
+                    relationships = NO_RELATIONSHIPS;
+                    updateSize( nodeManager );
+                    return;
+                }
 
                 ArrayMap<String,RelIdArray> tmpRelMap = new ArrayMap<String,RelIdArray>();
                 rels = getMoreRelationships( nodeManager, tmpRelMap );
@@ -519,6 +621,108 @@ public class NodeImpl extends ArrayBasedPrimitive
         return more ? LoadStatus.LOADED_MORE : LoadStatus.LOADED_END;
     }
 
+    /**
+     * Loads the chains of the relationship groups of a dense node which
+     * relationships of {@code types}, or of all types if {@code null}, in
+     * {@code direction} may be in, unless loaded already. Does nothing for
+     * a node with a single relationship chain.
+     */
+    private void ensureChainsLoaded( NodeManager nodeManager, DirectionWrapper direction,
+            RelationshipType[] types )
+    {
+        LoadedChains loaded = loadedChains;
+        if ( loaded == null )
+        {
+            return;
+        }
+        int wanted = LoadedChains.chainsFor( direction );
+        List<RelationshipImpl> newRels = new ArrayList<RelationshipImpl>();
+        synchronized ( this )
+        {
+            if ( loaded.areLoaded( types, wanted ) )
+            {
+                return;
+            }
+            List<RelationshipGroupRecord> groups;
+            try
+            {
+                groups = nodeManager.getRelationshipGroups( this );
+            }
+            catch ( InvalidRecordException e )
+            {
+                throw new NotFoundException( asProxy( nodeManager ) +
+                        " concurrently deleted while loading its relationships?", e );
+            }
+            for ( RelationshipGroupRecord group : groups )
+            {
+                String type = nodeManager.getRelationshipTypeById( group.getType() ).name();
+                if ( types != null && !contains( types, type ) )
+                {
+                    continue;
+                }
+                int missing = wanted & ~loaded.get( type );
+                for ( DirectionWrapper chain : CHAINS )
+                {
+                    if ( (missing & LoadedChains.chain( chain )) != 0 )
+                    {
+                        loadChain( nodeManager, group.getFirst( chain ), newRels );
+                    }
+                }
+            }
+            loaded.setLoaded( types, wanted );
+            updateSize( nodeManager );
+        }
+        nodeManager.putAllInRelCache( newRels );
+    }
+
+    private void loadChain( NodeManager nodeManager, long position, List<RelationshipImpl> newRels )
+    {
+        while ( position != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            Triplet<ArrayMap<String,RelIdArray>,List<RelationshipImpl>,Long> rels;
+            try
+            {
+                rels = nodeManager.getMoreRelationships( getId(), position );
+            }
+            catch ( InvalidRecordException e )
+            {
+                throw new NotFoundException( "Unable to load one or more relationships from " +
+                        asProxy( nodeManager ) + ". This usually happens when relationships are deleted by " +
+                        "someone else just as we are about to load them. Please try again.", e );
+            }
+            for ( RelIdArray addRels : rels.first().values() )
+            {
+                RelIdArray srcRels = getRelIdArray( addRels.getType() );
+                if ( srcRels == null )
+                {
+                    putRelIdArray( addRels );
+                }
+                else
+                {
+                    RelIdArray newSrcRels = srcRels.addAll( addRels );
+                    if ( newSrcRels != srcRels )
+                    {
+                        putRelIdArray( newSrcRels );
+                    }
+                }
+            }
+            newRels.addAll( rels.second() );
+            position = rels.third();
+        }
+    }
+
+    private static boolean contains( RelationshipType[] types, String type )
+    {
+        for ( RelationshipType candidate : types )
+        {
+            if ( candidate.name().equals( type ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private Triplet<ArrayMap<String, RelIdArray>, List<RelationshipImpl>, Long>
         loadMoreRelationshipsFromNodeManager( NodeManager nodeManager )
     {
@@ -633,6 +837,134 @@ public class NodeImpl extends ArrayBasedPrimitive
         return getRelationships( nodeManager, type, dir ).iterator().hasNext();
     }
 
+    /**
+     * @return the number of relationships of any of {@code types}, or of any
+     * type if none are given, in {@code direction}, as seen by the current
+     * transaction. Loops are counted once. The relationships aren't loaded,
+     * the committed count comes from relationships already in memory or else
+     * from the store, where dense nodes keep it in their relationship groups.
+     * Other nodes have their relationship chain walked, one record at a time.
+     */
+    public int getDegree( NodeManager nodeManager, Direction direction, RelationshipType... types )
+    {
+        DirectionWrapper wrapper = wrap( direction );
+        String[] names = null;
+        if ( types.length > 0 )
+        {
+            names = new String[types.length];
+            for ( int i = 0; i < types.length; i++ )
+            {
+                names[i] = types[i].name();
+            }
+        }
+
+        int degree;
+        RelIdArray[] loaded = relationships;
+        if ( loaded != null && loadedChains == null && !hasMoreRelationshipsToLoad() )
+        {
+            degree = 0;
+            for ( RelIdArray ids : loaded )
+            {
+                if ( names == null || contains( names, ids.getType() ) )
+                {
+                    degree += count( ids, wrapper );
+                }
+            }
+        }
+        else
+        {
+            int[] typeIds = typeIds( nodeManager, names );
+            try
+            {
+                degree = typeIds != null && typeIds.length == 0 ? 0 : nodeManager.getDegree( this, typeIds, wrapper );
+            }
+            catch ( InvalidRecordException e )
+            {
+                throw new NotFoundException( "Unable to count the relationships of " + asProxy( nodeManager ) +
+                        ". This usually happens when relationships are deleted by someone else just as we are " +
+                        "about to count them. Please try again.", e );
+            }
+        }
+
+        if ( !nodeManager.getLockReleaser().hasRelationshipModifications( this ) )
+        {
+            return degree;
+        }
+        ArrayMap<String,RelIdArray> addMap = nodeManager.getCowRelationshipAddMap( this );
+        if ( addMap != null )
+        {
+            for ( RelIdArray ids : addMap.values() )
+            {
+                if ( names == null || contains( names, ids.getType() ) )
+                {
+                    degree += count( ids, wrapper );
+                }
+            }
+        }
+        ArrayMap<String,Collection<Long>> removeMap = nodeManager.getCowRelationshipRemoveMap( this );
+        if ( removeMap != null )
+        {
+            for ( String type : removeMap.keySet() )
+            {
+                if ( names != null && !contains( names, type ) )
+                {
+                    continue;
+                }
+                for ( long relId : removeMap.get( type ) )
+                {
+                    RelationshipImpl rel = nodeManager.getRelationshipForProxy( relId, null );
+                    if ( direction == Direction.BOTH ||
+                         (direction == Direction.OUTGOING ? rel.getStartNodeId() : rel.getEndNodeId()) == getId() )
+                    {
+                        degree--;
+                    }
+                }
+            }
+        }
+        return degree;
+    }
+
+    private static int count( RelIdArray ids, DirectionWrapper direction )
+    {
+        int count = 0;
+        for ( RelIdIterator iterator = ids.iterator( direction ); iterator.hasNext(); iterator.next() )
+        {
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean contains( String[] names, String name )
+    {
+        for ( String candidate : names )
+        {
+            if ( candidate.equals( name ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] typeIds( NodeManager nodeManager, String[] names )
+    {
+        if ( names == null )
+        {
+            return null;
+        }
+        int[] ids = new int[names.length];
+        int count = 0;
+        for ( String name : names )
+        {
+            Integer id = nodeManager.getRelationshipTypeHolder().getIdFor( name );
+            if ( id != null )
+            {
+                ids[count++] = id;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf( ids, count );
+    }
+
     protected void commitRelationshipMaps(
         ArrayMap<String,RelIdArray> cowRelationshipAddMap,
         ArrayMap<String,Collection<Long>> cowRelationshipRemoveMap, long firstRel, NodeManager nodeManager )
@@ -645,6 +977,7 @@ public class NodeImpl extends ArrayBasedPrimitive
 
         synchronized ( this )
         {
+            LoadedChains loaded = loadedChains;
             if ( cowRelationshipAddMap != null )
             {
                 for ( String type : cowRelationshipAddMap.keySet() )
@@ -656,6 +989,20 @@ public class NodeImpl extends ArrayBasedPrimitive
                         remove = cowRelationshipRemoveMap.get( type );
                     }
                     RelIdArray src = getRelIdArray( type );
+                    if ( loaded != null )
+                    {
+                        // Chains not loaded yet will be read from the store, additions included.
+                        // So will chains loaded after this transaction was applied to the store
+                        add = loaded.onlyLoaded( type, add, src );
+                        if ( add == null )
+                        {
+                            if ( src != null )
+                            {
+                                putRelIdArray( RelIdArray.from( src, null, remove ) );
+                            }
+                            continue;
+                        }
+                    }
                     putRelIdArray( RelIdArray.from( src, add, remove ) );
                 }
             }
@@ -700,6 +1047,35 @@ public class NodeImpl extends ArrayBasedPrimitive
         }
     }
 
+    /**
+     * Restores relationships loaded earlier, f.ex. from a serialized cache entry.
+     * Must be called before this node is made visible to other threads.
+     */
+    void restoreRelationships( RelIdArray[] relationships, long relChainPosition )
+    {
+        this.relChainPosition = relChainPosition;
+        this.relationships = relationships;
+    }
+
+    /**
+     * @return whether {@link #getDegree(NodeManager, Direction, RelationshipType...)}
+     * counts relationships in memory or the counts of a dense node, rather than
+     * walking the relationship chain in the store.
+     */
+    boolean hasCheapDegree()
+    {
+        return relationships != null && (isDense() || !hasMoreRelationshipsToLoad());
+    }
+
+    /**
+     * @return whether or not this node keeps its relationships in relationship
+     * groups, as far as is known from having loaded them.
+     */
+    boolean isDense()
+    {
+        return loadedChains != null;
+    }
+
     RelIdArray getRelationshipIds( String type )
     {
         return getRelIdArray( type );
@@ -721,4 +1097,142 @@ public class NodeImpl extends ArrayBasedPrimitive
     {
         return nm.newNodeProxyById(getId());
     }
+
+    /**
+     * The chains of the relationship groups of a dense node which have been
+     * loaded, per relationship type and for all types. Guarded by the node.
+     */
+    private static class LoadedChains
+    {
+        private static final int OUTGOING = 1;
+        private static final int INCOMING = 2;
+        private static final int LOOPS = 4;
+        private static final int ALL = OUTGOING | INCOMING | LOOPS;
+
+        private final ArrayMap<String,Integer> types = new ArrayMap<String,Integer>();
+        private int allTypes;
+
+        static int chain( DirectionWrapper chain )
+        {
+            switch ( chain )
+            {
+            case OUTGOING: return OUTGOING;
+            case INCOMING: return INCOMING;
+            default: return LOOPS;
+            }
+        }
+
+        /**
+         * @return the chains relationships in {@code direction} may be in,
+         * loops being in both directions.
+         */
+        static int chainsFor( DirectionWrapper direction )
+        {
+            switch ( direction )
+            {
+            case OUTGOING: return OUTGOING | LOOPS;
+            case INCOMING: return INCOMING | LOOPS;
+            default: return ALL;
+            }
+        }
+
+        int get( String type )
+        {
+            Integer chains = types.get( type );
+            return chains != null ? chains | allTypes : allTypes;
+        }
+
+        boolean areLoaded( RelationshipType[] types, int chains )
+        {
+            if ( types == null )
+            {
+                return (allTypes & chains) == chains;
+            }
+            for ( RelationshipType type : types )
+            {
+                if ( (get( type.name() ) & chains) != chains )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void setLoaded( RelationshipType[] types, int chains )
+        {
+            if ( types == null )
+            {
+                allTypes |= chains;
+                return;
+            }
+            for ( RelationshipType type : types )
+            {
+                this.types.put( type.name(), get( type.name() ) | chains );
+            }
+        }
+
+        /**
+         * @return the ids in {@code add} that are in loaded chains and not
+         * in {@code src} already, or {@code null} if there are none.
+         */
+        RelIdArray onlyLoaded( String type, RelIdArray add, RelIdArray src )
+        {
+            int chains = get( type );
+            if ( chains == 0 )
+            {
+                return null;
+            }
+            Set<Long> present = src != null ? alreadyIn( src, add ) : Collections.<Long>emptySet();
+            if ( chains == ALL && present.isEmpty() )
+            {
+                return add;
+            }
+            RelIdArray result = add.newSimilarInstance();
+            for ( DirectionWrapper chain : CHAINS )
+            {
+                if ( (chains & chain( chain )) != 0 )
+                {
+                    for ( RelIdIterator ids = add.exactIterator( chain ); ids.hasNext(); )
+                    {
+                        long id = ids.next();
+                        if ( !present.contains( id ) )
+                        {
+                            result.add( id, chain );
+                        }
+                    }
+                }
+            }
+            return result.isEmpty() ? null : result;
+        }
+
+        private static Set<Long> alreadyIn( RelIdArray src, RelIdArray add )
+        {
+            Set<Long> added = new HashSet<Long>();
+            for ( DirectionWrapper chain : CHAINS )
+            {
+                for ( RelIdIterator ids = add.exactIterator( chain ); ids.hasNext(); )
+                {
+                    added.add( ids.next() );
+                }
+            }
+            Set<Long> present = new HashSet<Long>();
+            for ( DirectionWrapper chain : CHAINS )
+            {
+                for ( RelIdIterator ids = src.exactIterator( chain ); ids.hasNext(); )
+                {
+                    long id = ids.next();
+                    if ( added.contains( id ) )
+                    {
+                        present.add( id );
+                    }
+                }
+            }
+            return present;
+        }
+
+        int size()
+        {
+            return SizeOfs.withObjectOverhead( SizeOfs.REFERENCE_SIZE + 4 ) + types.size() * 32;
+        }
+    }
 }
@@ -44,6 +44,7 @@ import org.neo4j.graphdb.event.TransactionData;
 import org.neo4j.graphdb.index.Index;
 import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.Triplet;
+import org.neo4j.helpers.collection.IteratorWrapper;
 import org.neo4j.helpers.collection.PrefetchingIterator;
 import org.neo4j.kernel.PropertyTracker;
 import org.neo4j.kernel.configuration.Config;
@@ -53,6 +54,7 @@ import org.neo4j.kernel.impl.nioneo.store.NameData;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.persistence.EntityIdGenerator;
 import org.neo4j.kernel.impl.persistence.PersistenceManager;
@@ -366,6 +368,63 @@ public class NodeManager
         return node;
     }
 
+    /**
+     * Batch version of {@link #getNodeById(long)}, which reads the nodes that
+     * aren't cached together, see {@link #loadLightNodes(long[])}.
+     */
+    public List<Node> getNodesById( long[] ids ) throws NotFoundException
+    {
+        loadLightNodes( ids );
+        List<Node> nodes = new ArrayList<Node>( ids.length );
+        for ( long id : ids )
+        {
+            nodes.add( getNodeById( id ) );
+        }
+        return nodes;
+    }
+
+    /**
+     * Puts the nodes of {@code ids} in the cache, reading the records of those
+     * which aren't cached already in one pass over the node store, acquiring
+     * each window once. Ids of nodes which don't exist are ignored.
+     */
+    public void loadLightNodes( long[] ids )
+    {
+        long[] missing = new long[ids.length];
+        int count = 0;
+        for ( long id : ids )
+        {
+            if ( nodeCache.get( id ) == null )
+            {
+                missing[count++] = id;
+            }
+        }
+        if ( count == 0 )
+        {
+            return;
+        }
+        for ( NodeRecord record : persistenceManager.loadLightNodes( Arrays.copyOf( missing, count ) ) )
+        {
+            if ( record == null )
+            {
+                continue;
+            }
+            long nodeId = record.getId();
+            ReentrantLock loadLock = lockId( nodeId );
+            try
+            {
+                if ( nodeCache.get( nodeId ) == null )
+                {
+                    nodeCache.put( new NodeImpl( nodeId, record.getCommittedNextRel(), record.getCommittedNextProp() ) );
+                }
+            }
+            finally
+            {
+                loadLock.unlock();
+            }
+        }
+    }
+
     public RelationshipProxy newRelationshipProxyById( long id )
     {
         return new RelationshipProxy( id, relationshipLookups );
@@ -374,15 +433,38 @@ public class NodeManager
 
     public Iterator<Node> getAllNodes()
     {
-        final long highId = getHighestPossibleIdInUse( Node.class );
+        return getAllNodes( 0, getHighestPossibleIdInUse( Node.class ) + 1 );
+    }
+
+    /**
+     * Returns the nodes with ids from {@code fromId} up to, but not including,
+     * {@code toId}. Unless the current transaction has changes of its own the
+     * nodes are read straight from the node store, a window of records at a
+     * time, without locking or caching them. Iterators over disjoint ranges
+     * can be consumed by different threads, see {@link #getAllNodes(int)}.
+     */
+    public Iterator<Node> getAllNodes( final long fromId, final long toId )
+    {
+        Iterator<NodeRecord> scan = persistenceManager.scanNodes( fromId, toId );
+        if ( scan != null )
+        {
+            return new IteratorWrapper<Node, NodeRecord>( scan )
+            {
+                @Override
+                protected Node underlyingObjectToObject( NodeRecord record )
+                {
+                    return scannedNode( record );
+                }
+            };
+        }
         return new PrefetchingIterator<Node>()
         {
-            private long currentId;
+            private long currentId = fromId;
 
             @Override
             protected Node fetchNextOrNull()
             {
-                while ( currentId <= highId )
+                while ( currentId < toId )
                 {
                     try
                     {
@@ -402,6 +484,44 @@ public class NodeManager
         };
     }
 
+    /**
+     * Called for each node in use found by a scan in {@link #getAllNodes(long, long)}.
+     */
+    protected Node scannedNode( NodeRecord record )
+    {
+        return new NodeProxy( record.getId(), nodeLookup );
+    }
+
+    /**
+     * Splits {@link #getAllNodes()} into {@code partitions} iterators over
+     * consecutive id ranges of about the same size, to be scanned in parallel.
+     */
+    public List<Iterator<Node>> getAllNodes( int partitions )
+    {
+        List<Iterator<Node>> result = new ArrayList<Iterator<Node>>( partitions );
+        for ( long[] range : partition( getHighestPossibleIdInUse( Node.class ) + 1, partitions ) )
+        {
+            result.add( getAllNodes( range[0], range[1] ) );
+        }
+        return result;
+    }
+
+    private static List<long[]> partition( long idCount, int partitions )
+    {
+        if ( partitions < 1 )
+        {
+            throw new IllegalArgumentException( "Need at least one partition, not " + partitions );
+        }
+        List<long[]> ranges = new ArrayList<long[]>( partitions );
+        long size = (idCount + partitions - 1) / partitions;
+        for ( int i = 0; i < partitions; i++ )
+        {
+            long fromId = Math.min( i * size, idCount );
+            ranges.add( new long[] { fromId, Math.min( fromId + size, idCount ) } );
+        }
+        return ranges;
+    }
+
     NodeImpl getLightNode( long nodeId )
     {
         NodeImpl node = nodeCache.get( nodeId );
@@ -511,17 +631,104 @@ public class NodeManager
         return relationship;
     }
 
+    /**
+     * Relationship counterpart of {@link #getNodesById(long[])}.
+     */
+    public List<Relationship> getRelationshipsById( long[] ids ) throws NotFoundException
+    {
+        loadLightRelationships( ids );
+        List<Relationship> relationships = new ArrayList<Relationship>( ids.length );
+        for ( long id : ids )
+        {
+            relationships.add( getRelationshipById( id ) );
+        }
+        return relationships;
+    }
+
+    /**
+     * Relationship counterpart of {@link #loadLightNodes(long[])}.
+     */
+    public void loadLightRelationships( long[] ids )
+    {
+        long[] missing = new long[ids.length];
+        int count = 0;
+        for ( long id : ids )
+        {
+            if ( relCache.get( id ) == null )
+            {
+                missing[count++] = id;
+            }
+        }
+        if ( count == 0 )
+        {
+            return;
+        }
+        for ( RelationshipRecord record : persistenceManager.loadLightRelationships( Arrays.copyOf( missing, count ) ) )
+        {
+            if ( record == null )
+            {
+                continue;
+            }
+            long relId = record.getId();
+            int typeId = record.getType();
+            RelationshipType type = getRelationshipTypeById( typeId );
+            if ( type == null )
+            {
+                throw new NotFoundException( "Relationship[" + relId
+                        + "] exist but relationship type[" + typeId
+                        + "] not found." );
+            }
+            ReentrantLock loadLock = lockId( relId );
+            try
+            {
+                if ( relCache.get( relId ) == null )
+                {
+                    relCache.put( newRelationshipImpl( relId, record.getFirstNode(), record.getSecondNode(),
+                            type, typeId, false ) );
+                }
+            }
+            finally
+            {
+                loadLock.unlock();
+            }
+        }
+    }
+
+    boolean isRelationshipCached( long relId )
+    {
+        return relCache.get( relId ) != null;
+    }
+
     public Iterator<Relationship> getAllRelationships()
     {
-        final long highId = getHighestPossibleIdInUse( Relationship.class );
+        return getAllRelationships( 0, getHighestPossibleIdInUse( Relationship.class ) + 1 );
+    }
+
+    /**
+     * Relationship counterpart of {@link #getAllNodes(long, long)}.
+     */
+    public Iterator<Relationship> getAllRelationships( final long fromId, final long toId )
+    {
+        Iterator<RelationshipRecord> scan = persistenceManager.scanRelationships( fromId, toId );
+        if ( scan != null )
+        {
+            return new IteratorWrapper<Relationship, RelationshipRecord>( scan )
+            {
+                @Override
+                protected Relationship underlyingObjectToObject( RelationshipRecord record )
+                {
+                    return scannedRelationship( record );
+                }
+            };
+        }
         return new PrefetchingIterator<Relationship>()
         {
-            private long currentId;
+            private long currentId = fromId;
 
             @Override
             protected Relationship fetchNextOrNull()
             {
-                while ( currentId <= highId )
+                while ( currentId < toId )
                 {
                     try
                     {
@@ -541,6 +748,27 @@ public class NodeManager
         };
     }
 
+    /**
+     * Relationship counterpart of {@link #scannedNode(NodeRecord)}.
+     */
+    protected Relationship scannedRelationship( RelationshipRecord record )
+    {
+        return new RelationshipProxy( record.getId(), relationshipLookups );
+    }
+
+    /**
+     * Relationship counterpart of {@link #getAllNodes(int)}.
+     */
+    public List<Iterator<Relationship>> getAllRelationships( int partitions )
+    {
+        List<Iterator<Relationship>> result = new ArrayList<Iterator<Relationship>>( partitions );
+        for ( long[] range : partition( getHighestPossibleIdInUse( Relationship.class ) + 1, partitions ) )
+        {
+            result.add( getAllRelationships( range[0], range[1] ) );
+        }
+        return result;
+    }
+
     RelationshipType getRelationshipTypeById( int id )
     {
         return relTypeHolder.getRelationshipType( id );
@@ -600,7 +828,7 @@ public class NodeManager
         relCache.remove( relId );
     }
 
-    Object loadPropertyValue( PropertyData property )
+    protected Object loadPropertyValue( PropertyData property )
     {
         return persistenceManager.loadPropertyValue( property );
     }
@@ -610,11 +838,30 @@ public class NodeManager
         return persistenceManager.getRelationshipChainPosition( node.getId() );
     }
 
+    int getDegree( NodeImpl node, int[] types, DirectionWrapper direction )
+    {
+        return persistenceManager.getDegree( node.getId(), types, direction );
+    }
+
+    List<RelationshipGroupRecord> getRelationshipGroups( NodeImpl node )
+    {
+        return persistenceManager.getRelationshipGroups( node.getId() );
+    }
+
     // Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> getMoreRelationships( NodeImpl node )
     Triplet<ArrayMap<String, RelIdArray>, List<RelationshipImpl>, Long> getMoreRelationships( NodeImpl node )
     {
-        long nodeId = node.getId();
-        long position = node.getRelChainPosition();
+        return getMoreRelationships( node.getId(), node.getRelChainPosition() );
+    }
+
+    /**
+     * Loads the next batch of the relationship chain of {@code nodeId},
+     * starting from {@code position}, which may be the first relationship of
+     * a chain in a relationship group.
+     */
+    Triplet<ArrayMap<String, RelIdArray>, List<RelationshipImpl>, Long> getMoreRelationships( long nodeId,
+            long position )
+    {
         Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> rels =
                 persistenceManager.getMoreRelationships( nodeId, position );
         ArrayMap<String, RelIdArray> newRelationshipMap =
@@ -687,12 +934,12 @@ public class NodeManager
         return persistenceManager.graphLoadProperties( light );
     }
 
-    ArrayMap<Integer, PropertyData> loadProperties( NodeImpl node, boolean light )
+    protected ArrayMap<Integer, PropertyData> loadProperties( NodeImpl node, boolean light )
     {
         return persistenceManager.loadNodeProperties( node.getId(), light );
     }
 
-    ArrayMap<Integer, PropertyData> loadProperties(
+    protected ArrayMap<Integer, PropertyData> loadProperties(
             RelationshipImpl relationship, boolean light )
     {
         return persistenceManager.loadRelProperties( relationship.getId(), light );
@@ -1072,6 +1319,11 @@ public class NodeManager
         return lockReleaser.getCowRelationshipRemoveMap( node, type );
     }
 
+    public ArrayMap<String, Collection<Long>> getCowRelationshipRemoveMap( NodeImpl node )
+    {
+        return lockReleaser.getCowRelationshipRemoveMap( node );
+    }
+
     public Collection<Long> getOrCreateCowRelationshipRemoveMap( NodeImpl node, String type )
     {
         return lockReleaser.getOrCreateCowRelationshipRemoveMap( node, type );
@@ -1202,6 +1454,15 @@ public class NodeManager
         relationshipPropertyTrackers.remove( relationshipPropertyTracker );
     }
 
+    /**
+     * @return whether the transaction of the current thread, if any, has
+     * changes which other threads don't see.
+     */
+    public boolean hasTransactionState()
+    {
+        return lockReleaser.hasChanges();
+    }
+
     public boolean isDeleted( PropertyContainer resource )
     {
         Transaction transaction;
@@ -98,6 +98,31 @@ public class NodeProxy implements Node
         return nodeLookup.lookup(nodeId).getRelationships( nodeLookup.getNodeManager(), direction, types );
     }
 
+    /**
+     * Like {@link #getRelationships(Direction, RelationshipType...)}, but with a direction
+     * of its own for each type, {@code directions[i]} being the one of {@code types[i]}.
+     * The relationships of all the types are returned by one iterator.
+     */
+    public Iterable<Relationship> getRelationships( RelationshipType[] types, Direction[] directions )
+    {
+        return nodeLookup.lookup(nodeId).getRelationships( nodeLookup.getNodeManager(), types, directions );
+    }
+
+    public int getDegree( Direction direction, RelationshipType... types )
+    {
+        return nodeLookup.lookup(nodeId).getDegree( nodeLookup.getNodeManager(), direction, types );
+    }
+
+    /**
+     * @return whether counting the relationships of this node with
+     * {@link #getDegree(Direction, RelationshipType...)} is cheap right now,
+     * i.e. its relationships are in memory or it's a dense node.
+     */
+    public boolean hasCheapDegree()
+    {
+        return nodeLookup.lookup( nodeId ).hasCheapDegree();
+    }
+
     public boolean hasRelationship( RelationshipType... types )
     {
         return nodeLookup.lookup(nodeId).hasRelationship( nodeLookup.getNodeManager(), types );
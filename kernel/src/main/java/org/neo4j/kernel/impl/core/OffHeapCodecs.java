@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.nio.ByteBuffer;
+
+import org.neo4j.kernel.impl.cache.OffHeapCache;
+import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyDatas;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.util.RelIdArray;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.RelIdArrayWithLoops;
+import org.neo4j.kernel.impl.util.RelIdIterator;
+
+/**
+ * {@link OffHeapCache.Codec Codecs} for {@link NodeImpl} and {@link RelationshipImpl}.
+ * Relationship ids, relationship chain position and property values of primitive and
+ * string type are serialized. Array property values aren't, they are left unloaded and
+ * will be loaded on demand just like after a light load of the entity.
+ */
+public class OffHeapCodecs
+{
+    private static final int NOT_LOADED = -1;
+
+    private static final DirectionWrapper[] DIRECTIONS = new DirectionWrapper[] {
+        DirectionWrapper.OUTGOING, DirectionWrapper.INCOMING, DirectionWrapper.BOTH };
+
+    private static final byte UNLOADED_VALUE = 0;
+    private static final byte BOOLEAN_VALUE = 1;
+    private static final byte BYTE_VALUE = 2;
+    private static final byte SHORT_VALUE = 3;
+    private static final byte CHAR_VALUE = 4;
+    private static final byte INT_VALUE = 5;
+    private static final byte LONG_VALUE = 6;
+    private static final byte FLOAT_VALUE = 7;
+    private static final byte DOUBLE_VALUE = 8;
+    private static final byte STRING_VALUE = 9;
+
+    public static final OffHeapCache.Codec<NodeImpl> NODE = new OffHeapCache.Codec<NodeImpl>()
+    {
+        @Override
+        public void encode( NodeImpl node, ByteBuffer target )
+        {
+            RelIdArray[] relationships = node.getRelationshipIds();
+            if ( relationships == null || node.isDense() )
+            {
+                // Chains of dense nodes are loaded again as they are asked for
+                target.putInt( NOT_LOADED );
+            }
+            else
+            {
+                target.putInt( relationships.length );
+                target.putLong( node.getRelChainPosition() );
+                for ( RelIdArray ids : relationships )
+                {
+                    encodeRelIdArray( ids, target );
+                }
+            }
+            encodeProperties( node.allProperties(), target );
+        }
+
+        @Override
+        public NodeImpl decode( long id, ByteBuffer source )
+        {
+            NodeImpl node = new NodeImpl( id, NOT_LOADED, NOT_LOADED );
+            int relationshipCount = source.getInt();
+            if ( relationshipCount != NOT_LOADED )
+            {
+                long relChainPosition = source.getLong();
+                boolean fullyLoaded = relChainPosition == Record.NO_NEXT_RELATIONSHIP.intValue();
+                RelIdArray[] relationships = new RelIdArray[relationshipCount];
+                for ( int i = 0; i < relationshipCount; i++ )
+                {
+                    RelIdArray ids = decodeRelIdArray( source );
+                    relationships[i] = fullyLoaded ? ids.shrink() : ids;
+                }
+                node.restoreRelationships( relationships, relChainPosition );
+            }
+            node.restoreProperties( decodeProperties( source ) );
+            return node;
+        }
+    };
+
+    public static final OffHeapCache.Codec<RelationshipImpl> RELATIONSHIP = new OffHeapCache.Codec<RelationshipImpl>()
+    {
+        @Override
+        public void encode( RelationshipImpl relationship, ByteBuffer target )
+        {
+            target.putLong( relationship.getStartNodeId() );
+            target.putLong( relationship.getEndNodeId() );
+            target.putInt( relationship.getTypeId() );
+            encodeProperties( relationship.allProperties(), target );
+        }
+
+        @Override
+        public RelationshipImpl decode( long id, ByteBuffer source )
+        {
+            long startNode = source.getLong();
+            long endNode = source.getLong();
+            int typeId = source.getInt();
+            RelationshipImpl relationship = new RelationshipImpl( id, startNode, endNode, typeId, false );
+            relationship.restoreProperties( decodeProperties( source ) );
+            return relationship;
+        }
+    };
+
+    private OffHeapCodecs()
+    {
+    }
+
+    private static void encodeRelIdArray( RelIdArray ids, ByteBuffer target )
+    {
+        encodeString( ids.getType(), target );
+        for ( DirectionWrapper direction : DIRECTIONS )
+        {
+            int countPosition = target.position();
+            target.putInt( 0 );
+            int count = 0;
+            for ( RelIdIterator iterator = ids.exactIterator( direction ); iterator.hasNext(); )
+            {
+                target.putLong( iterator.next() );
+                count++;
+            }
+            target.putInt( countPosition, count );
+        }
+    }
+
+    private static RelIdArray decodeRelIdArray( ByteBuffer source )
+    {
+        String type = decodeString( source );
+        RelIdArray ids = new RelIdArray( type );
+        for ( DirectionWrapper direction : DIRECTIONS )
+        {
+            int count = source.getInt();
+            if ( count > 0 && direction == DirectionWrapper.BOTH )
+            {
+                ids = new RelIdArrayWithLoops( type ).addAll( ids );
+            }
+            for ( int i = 0; i < count; i++ )
+            {
+                ids.add( source.getLong(), direction );
+            }
+        }
+        return ids;
+    }
+
+    private static void encodeProperties( PropertyData[] properties, ByteBuffer target )
+    {
+        if ( properties == null )
+        {
+            target.putInt( NOT_LOADED );
+            return;
+        }
+        target.putInt( properties.length );
+        for ( PropertyData property : properties )
+        {
+            target.putInt( property.getIndex() );
+            target.putLong( property.getId() );
+            Object value = property.getValue();
+            if ( value instanceof Boolean )
+            {
+                target.put( BOOLEAN_VALUE ).put( (byte) (((Boolean) value).booleanValue() ? 1 : 0) );
+            }
+            else if ( value instanceof Byte )
+            {
+                target.put( BYTE_VALUE ).put( ((Byte) value).byteValue() );
+            }
+            else if ( value instanceof Short )
+            {
+                target.put( SHORT_VALUE ).putShort( ((Short) value).shortValue() );
+            }
+            else if ( value instanceof Character )
+            {
+                target.put( CHAR_VALUE ).putChar( ((Character) value).charValue() );
+            }
+            else if ( value instanceof Integer )
+            {
+                target.put( INT_VALUE ).putInt( ((Integer) value).intValue() );
+            }
+            else if ( value instanceof Long )
+            {
+                target.put( LONG_VALUE ).putLong( ((Long) value).longValue() );
+            }
+            else if ( value instanceof Float )
+            {
+                target.put( FLOAT_VALUE ).putFloat( ((Float) value).floatValue() );
+            }
+            else if ( value instanceof Double )
+            {
+                target.put( DOUBLE_VALUE ).putDouble( ((Double) value).doubleValue() );
+            }
+            else if ( value instanceof String )
+            {
+                target.put( STRING_VALUE );
+                encodeString( (String) value, target );
+            }
+            else
+            {
+                // Arrays, or a string/array value which hasn't been loaded yet
+                target.put( UNLOADED_VALUE );
+            }
+        }
+    }
+
+    private static PropertyData[] decodeProperties( ByteBuffer source )
+    {
+        int count = source.getInt();
+        if ( count == NOT_LOADED )
+        {
+            return null;
+        }
+        PropertyData[] properties = new PropertyData[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            int index = source.getInt();
+            long id = source.getLong();
+            byte type = source.get();
+            switch ( type )
+            {
+            case BOOLEAN_VALUE: properties[i] = PropertyDatas.forBoolean( index, id, source.get() != 0 ); break;
+            case BYTE_VALUE: properties[i] = PropertyDatas.forByte( index, id, source.get() ); break;
+            case SHORT_VALUE: properties[i] = PropertyDatas.forShort( index, id, source.getShort() ); break;
+            case CHAR_VALUE: properties[i] = PropertyDatas.forChar( index, id, source.getChar() ); break;
+            case INT_VALUE: properties[i] = PropertyDatas.forInt( index, id, source.getInt() ); break;
+            case LONG_VALUE: properties[i] = PropertyDatas.forLong( index, id, source.getLong() ); break;
+            case FLOAT_VALUE: properties[i] = PropertyDatas.forFloat( index, id, source.getFloat() ); break;
+            case DOUBLE_VALUE: properties[i] = PropertyDatas.forDouble( index, id, source.getDouble() ); break;
+            case STRING_VALUE: properties[i] = PropertyDatas.forStringOrArray( index, id, decodeString( source ) ); break;
+            case UNLOADED_VALUE: properties[i] = PropertyDatas.forStringOrArray( index, id, null ); break;
+            default: throw new IllegalStateException( "Unknown property value type " + type );
+            }
+        }
+        return properties;
+    }
+
+    private static void encodeString( String string, ByteBuffer target )
+    {
+        int length = string.length();
+        target.putInt( length );
+        for ( int i = 0; i < length; i++ )
+        {
+            target.putChar( string.charAt( i ) );
+        }
+    }
+
+    private static String decodeString( ByteBuffer source )
+    {
+        char[] chars = new char[source.getInt()];
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            chars[i] = source.getChar();
+        }
+        return new String( chars );
+    }
+}
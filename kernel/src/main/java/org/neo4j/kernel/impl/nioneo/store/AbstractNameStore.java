@@ -77,6 +77,13 @@ public abstract class AbstractNameStore<T extends AbstractNameRecord> extends Ab
         nameStore.unsetRecovered();
     }
 
+    @Override
+    protected void setRecoveryModeHeld( boolean held )
+    {
+        super.setRecoveryModeHeld( held );
+        nameStore.setRecoveryModeHeld( held );
+    }
+
     @Override
     public void makeStoreOk()
     {
@@ -22,11 +22,14 @@ package org.neo4j.kernel.impl.nioneo.store;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting;
 import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.helpers.UTF8;
+import org.neo4j.helpers.collection.PrefetchingIterator;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.configuration.Config;
@@ -238,4 +241,144 @@ public abstract class AbstractStore extends CommonAbstractStore
     {
         logger.logLine( getWindowPoolStats().toString() );
     }
-}
\ No newline at end of file
+
+    /**
+     * Iterates over the records in use in a range of ids, in id order. The
+     * records are read a window at a time, so that a mapped window is only
+     * acquired once for all the records in it that are in the range, and the
+     * records not in use are skipped while still in the window. Records
+     * created after the window holding them was read aren't seen.
+     */
+    protected abstract class RecordScanner<R extends AbstractBaseRecord> extends PrefetchingIterator<R>
+    {
+        // Records read per acquired window, so that writers aren't held up
+        private static final int MAX_RECORDS_PER_WINDOW = 4096;
+
+        private final long toId;
+        private long position;
+        private final List<R> records = new ArrayList<R>();
+        private int index;
+
+        /**
+         * @param fromId the first id to read.
+         * @param toId the id after the last one to read.
+         */
+        protected RecordScanner( long fromId, long toId )
+        {
+            this.position = fromId;
+            this.toId = toId;
+        }
+
+        /**
+         * @return the record at {@code id} in {@code window}, or {@code null}
+         * if it isn't in use.
+         */
+        protected abstract R read( long id, PersistenceWindow window );
+
+        @Override
+        protected R fetchNextOrNull()
+        {
+            while ( index == records.size() )
+            {
+                if ( position >= toId )
+                {
+                    return null;
+                }
+                records.clear();
+                index = 0;
+                readWindow();
+            }
+            return records.get( index++ );
+        }
+
+        private void readWindow()
+        {
+            PersistenceWindow window;
+            try
+            {
+                window = acquireWindow( position, OperationType.READ );
+            }
+            catch ( InvalidRecordException e )
+            {
+                // Beyond the high id, nothing more to read
+                position = toId;
+                return;
+            }
+            try
+            {
+                long end = Math.min( window.position() + window.size(), position + MAX_RECORDS_PER_WINDOW );
+                end = Math.max( Math.min( end, toId ), position + 1 );
+                for ( ; position < end; position++ )
+                {
+                    R record = read( position, window );
+                    if ( record != null )
+                    {
+                        records.add( record );
+                    }
+                }
+            }
+            finally
+            {
+                releaseWindow( window );
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a number of ids in order of id, acquiring each
+     * window once for all of the ids in it instead of once per id.
+     */
+    protected abstract class RecordBatchReader<R extends AbstractBaseRecord>
+    {
+        /**
+         * @return the record at {@code id} in {@code window}, or {@code null}
+         * if it isn't in use.
+         */
+        protected abstract R read( long id, PersistenceWindow window );
+
+        /**
+         * @return the records of {@code ids}, in the same order as the ids,
+         * with {@code null} for the ids which aren't in use.
+         */
+        public List<R> readAll( long[] ids )
+        {
+            long[] sorted = ids.clone();
+            Arrays.sort( sorted );
+            List<R> sortedRecords = new ArrayList<R>( sorted.length );
+            int index = 0;
+            while ( index < sorted.length )
+            {
+                PersistenceWindow window;
+                try
+                {
+                    window = acquireWindow( sorted[index], OperationType.READ );
+                }
+                catch ( InvalidRecordException e )
+                {
+                    // Beyond the high id, and so are the ids after it
+                    break;
+                }
+                try
+                {
+                    long end = window.position() + window.size();
+                    do
+                    {
+                        sortedRecords.add( read( sorted[index++], window ) );
+                    }
+                    while ( index < sorted.length && sorted[index] < end );
+                }
+                finally
+                {
+                    releaseWindow( window );
+                }
+            }
+            List<R> records = new ArrayList<R>( ids.length );
+            for ( long id : ids )
+            {
+                int position = Arrays.binarySearch( sorted, id );
+                records.add( position < sortedRecords.size() ? sortedRecords.get( position ) : null );
+            }
+            return records;
+        }
+    }
+}
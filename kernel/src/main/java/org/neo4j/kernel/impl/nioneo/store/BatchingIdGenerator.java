@@ -0,0 +1,311 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl.INTEGER_MINUS_ONE;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out ids from batches which each thread grabs from an underlying
+ * {@link IdGenerator} using {@link IdGenerator#nextIdBatch(int)}, so that
+ * creating records doesn't contend for the monitor of the underlying
+ * generator. Freed ids are collected in a concurrent queue and handed over to
+ * the underlying generator in bulk, which keeps the id file and its
+ * defragmentation exactly as the underlying generator manages them. With
+ * aggressive reuse freed ids are handed out again straight from the queue.
+ * <p>
+ * Ids are no longer handed out in increasing order across threads and the high
+ * id includes the ids which threads hold in their batches but haven't used yet.
+ * On {@link #close()} ids left in batches are freed, so they are reused in the
+ * next session. {@link #setHighId(long)} retires all batches, so that ids at or
+ * above the new high id, which the underlying generator hands out again, aren't
+ * handed out from them as well. The ids left in a retired batch below the high
+ * id are freed by the thread owning it when it next needs an id, or on close.
+ */
+public class BatchingIdGenerator implements IdGenerator
+{
+    private final IdGenerator delegate;
+    private final int batchSize;
+    private final int freedIdsFlushThreshold;
+    private final boolean aggressiveReuse;
+    private final Queue<Long> freedIds = new ConcurrentLinkedQueue<Long>();
+    private final AtomicInteger freedIdCount = new AtomicInteger();
+    private final Queue<ThreadBatch> batches = new ConcurrentLinkedQueue<ThreadBatch>();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final ThreadLocal<ThreadBatch> threadBatch = new ThreadLocal<ThreadBatch>()
+    {
+        @Override
+        protected ThreadBatch initialValue()
+        {
+            ThreadBatch batch = new ThreadBatch();
+            batches.add( batch );
+            return batch;
+        }
+    };
+    private volatile boolean closed;
+
+    /**
+     * @param delegate the id generator to grab batches from and return freed ids to.
+     * @param batchSize the number of ids each thread grabs at a time.
+     * @param freedIdsFlushThreshold the number of freed ids to collect before handing
+     * them over to {@code delegate}.
+     * @param aggressiveReuse whether or not freed ids are handed out again in this session.
+     */
+    public BatchingIdGenerator( IdGenerator delegate, int batchSize, int freedIdsFlushThreshold,
+            boolean aggressiveReuse )
+    {
+        if ( batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Illegal batchSize: " + batchSize );
+        }
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.freedIdsFlushThreshold = freedIdsFlushThreshold;
+        this.aggressiveReuse = aggressiveReuse;
+    }
+
+    @Override
+    public long nextId()
+    {
+        assertStillOpen();
+        if ( aggressiveReuse )
+        {
+            Long id = freedIds.poll();
+            if ( id != null )
+            {
+                freedIdCount.decrementAndGet();
+                return id.longValue();
+            }
+        }
+
+        ThreadBatch batch = threadBatch.get();
+        int currentGeneration = generation.get();
+        if ( batch.isRetired( currentGeneration ) )
+        {
+            freeRemaining( batch );
+        }
+        long id = batch.next( currentGeneration );
+        if ( id == -1 )
+        {
+            IdRange range;
+            try
+            {
+                range = delegate.nextIdBatch( batchSize );
+            }
+            catch ( UnderlyingStorageException e )
+            {   // Close to the capacity, there may still be room for single ids
+                return delegate.nextId();
+            }
+            batch.refill( range, currentGeneration );
+            id = batch.next( currentGeneration );
+            if ( id == -1 )
+            {
+                return delegate.nextId();
+            }
+        }
+        return id;
+    }
+
+    @Override
+    public IdRange nextIdBatch( int size )
+    {
+        return delegate.nextIdBatch( size );
+    }
+
+    @Override
+    public void setHighId( long id )
+    {
+        delegate.setHighId( id );
+        generation.incrementAndGet();
+    }
+
+    @Override
+    public long getHighId()
+    {
+        return delegate.getHighId();
+    }
+
+    @Override
+    public void freeId( long id )
+    {
+        if ( id == INTEGER_MINUS_ONE )
+        {
+            return;
+        }
+        assertStillOpen();
+        if ( id < 0 || id >= delegate.getHighId() )
+        {
+            throw new IllegalArgumentException( "Illegal id[" + id + "]" );
+        }
+        freedIds.add( id );
+        if ( freedIdCount.incrementAndGet() >= freedIdsFlushThreshold )
+        {
+            flushFreedIds();
+        }
+    }
+
+    /*
+     * Frees the ids left in a batch, apart from those at or above the high id, which the
+     * underlying generator hands out again after the high id was set below them.
+     */
+    private void freeRemaining( ThreadBatch batch )
+    {
+        long highId = delegate.getHighId();
+        for ( long id; (id = batch.nextRemaining()) != -1; )
+        {
+            if ( id < highId )
+            {
+                delegate.freeId( id );
+            }
+        }
+    }
+
+    private void flushFreedIds()
+    {
+        for ( Long id; (id = freedIds.poll()) != null; )
+        {
+            freedIdCount.decrementAndGet();
+            delegate.freeId( id );
+        }
+    }
+
+    private void assertStillOpen()
+    {
+        if ( closed )
+        {
+            throw new IllegalStateException( "Closed id generator " + delegate );
+        }
+    }
+
+    /**
+     * Frees the ids left in the batches of all threads and closes the underlying
+     * generator. Like for the underlying generator, no other thread may use this
+     * generator while it's being closed.
+     */
+    @Override
+    public void close()
+    {
+        if ( closed )
+        {
+            return;
+        }
+        closed = true;
+        for ( ThreadBatch batch; (batch = batches.poll()) != null; )
+        {
+            freeRemaining( batch );
+        }
+        flushFreedIds();
+        delegate.close();
+    }
+
+    /**
+     * @return the number of ids in use according to the underlying generator,
+     * which counts ids held in thread batches as in use.
+     */
+    @Override
+    public long getNumberOfIdsInUse()
+    {
+        return delegate.getNumberOfIdsInUse() - freedIdCount.get();
+    }
+
+    @Override
+    public long getDefragCount()
+    {
+        return delegate.getDefragCount() + freedIdCount.get();
+    }
+
+    @Override
+    public void delete()
+    {
+        delegate.delete();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BatchingIdGenerator[" + delegate + ", batchSize:" + batchSize + "]";
+    }
+
+    /**
+     * The ids grabbed by one thread. Only used by that thread, apart from when the
+     * generator is closed.
+     */
+    private static class ThreadBatch
+    {
+        private long[] defragIds = new long[0];
+        private int defragIndex;
+        private long next;
+        private long end;
+        private int generation;
+
+        void refill( IdRange range, int generation )
+        {
+            this.defragIds = range.getDefragIds();
+            this.defragIndex = 0;
+            this.next = range.getRangeStart();
+            this.end = range.getRangeStart() + range.getRangeLength();
+            this.generation = generation;
+        }
+
+        boolean isRetired( int currentGeneration )
+        {
+            return generation != currentGeneration;
+        }
+
+        /**
+         * @return the next id of this batch, or -1 if it's used up or grabbed
+         * before the high id was last set.
+         */
+        long next( int currentGeneration )
+        {
+            if ( isRetired( currentGeneration ) )
+            {
+                return -1;
+            }
+            return nextRemaining();
+        }
+
+        /**
+         * @return the next id of this batch, whether it's retired or not, or -1
+         * if it's used up.
+         */
+        long nextRemaining()
+        {
+            if ( defragIndex < defragIds.length )
+            {
+                return defragIds[defragIndex++];
+            }
+            while ( next < end )
+            {
+                long id = next++;
+                if ( id != INTEGER_MINUS_ONE )
+                {
+                    // Skip the integer -1 (0xFFFFFFFF) because it represents
+                    // special values, f.ex. the end of a relationships/property chain.
+                    return id;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,6 +60,12 @@ public abstract class CommonAbstractStore
     }
 
     public static final String ALL_STORES_VERSION = "v0.A.0";
+    /**
+     * The version of the store version record of stores whose node records
+     * may be dense, and of their node store. The other stores keep
+     * {@link #ALL_STORES_VERSION}.
+     */
+    public static final String DENSE_NODES_STORE_VERSION = "v0.A.1";
     public static final String UNKNOWN_VERSION = "Uknown";
 
     protected static final Logger logger = Logger
@@ -82,7 +89,7 @@ public abstract class CommonAbstractStore
 
     private boolean readOnly = false;
     private boolean backupSlave = false;
-    private long highestUpdateRecordId = -1;
+    private final AtomicLong highestUpdateRecordId = new AtomicLong( -1 );
 
     /**
      * Opens and validates the store contained in <CODE>fileName</CODE>
@@ -284,6 +291,11 @@ public abstract class CommonAbstractStore
         getFileChannel().read( buffer );
         String foundTypeDescriptorAndVersion = UTF8.decode( bytes );
 
+        if ( !expectedTypeDescriptorAndVersion.equals( foundTypeDescriptorAndVersion ) &&
+                acceptTypeDescriptorAndVersion( foundTypeDescriptorAndVersion ) )
+        {
+            return;
+        }
         if ( !expectedTypeDescriptorAndVersion.equals( foundTypeDescriptorAndVersion ) && !isReadOnly() )
         {
             if ( foundTypeDescriptorAndVersion.startsWith( getTypeDescriptor() ) )
@@ -297,6 +309,19 @@ public abstract class CommonAbstractStore
         }
     }
 
+    /**
+     * Called while opening the store if its trailing type descriptor and
+     * version isn't {@link #getTypeAndVersionDescriptor()}, for stores which
+     * can be of more than one version. Called from the constructor, before
+     * the fields of subclasses are initialized.
+     *
+     * @return whether or not the store can be read as the version found.
+     */
+    protected boolean acceptTypeDescriptorAndVersion( String foundTypeDescriptorAndVersion )
+    {
+        return false;
+    }
+
     /**
      * Should rebuild the id generator from scratch.
      */
@@ -377,7 +402,7 @@ public abstract class CommonAbstractStore
     public long getHighId()
     {
         long genHighId = idGenerator != null ? idGenerator.getHighId() : -1;
-        long updateHighId = highestUpdateRecordId;
+        long updateHighId = highestUpdateRecordId.get();
         if ( updateHighId > genHighId )
         {
             return updateHighId;
@@ -457,6 +482,18 @@ public abstract class CommonAbstractStore
         return windowPool.acquire( position, type );
     }
 
+    /**
+     * Hints that the record at <CODE>position</CODE> is likely to be read
+     * soon, see {@link WindowPool#prefetch(long)}.
+     *
+     * @param position
+     *            The record position
+     */
+    protected void prefetch( long position )
+    {
+        windowPool.prefetch( position );
+    }
+
     /**
      * Releases the window and writes the data (async) if the
      * <CODE>window</CODE> was a {@link PersistenceRow}.
@@ -475,10 +512,21 @@ public abstract class CommonAbstractStore
     }
 
     private boolean isRecovered = false;
+    private volatile boolean recoveryModeHeld = false;
 
     public boolean isInRecoveryMode()
     {
-        return isRecovered;
+        return isRecovered || recoveryModeHeld;
+    }
+
+    /**
+     * Keeps this store in recovery mode regardless of {@link #setRecovered()}
+     * and {@link #unsetRecovered()}, which aren't safe to call from more than
+     * one thread, while recovered records are written from several threads.
+     */
+    protected void setRecoveryModeHeld( boolean held )
+    {
+        recoveryModeHeld = held;
     }
 
     protected void setRecovered()
@@ -709,13 +757,20 @@ public abstract class CommonAbstractStore
 
     protected void registerIdFromUpdateRecord( long id )
     {
-        highestUpdateRecordId = Math.max( highestUpdateRecordId, id + 1 );
+        long highId;
+        do
+        {
+            highId = highestUpdateRecordId.get();
+            if ( highId >= id + 1 )
+            {
+                return;
+            }
+        } while ( !highestUpdateRecordId.compareAndSet( highId, id + 1 ) );
     }
 
     protected void updateHighId()
     {
-        long highId = highestUpdateRecordId;
-        highestUpdateRecordId = -1;
+        long highId = highestUpdateRecordId.getAndSet( -1 );
         if ( highId > getHighId() )
         {
             setHighId( highId );
@@ -23,6 +23,8 @@ import java.nio.channels.FileChannel;
 import java.util.Map;
 import java.util.logging.Logger;
 
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.impl.nioneo.store.windowpool.WindowPool;
 import org.neo4j.kernel.impl.nioneo.store.windowpool.WindowPoolFactory;
@@ -30,6 +32,21 @@ import org.neo4j.kernel.impl.util.StringLogger;
 
 public class DefaultWindowPoolFactory implements WindowPoolFactory
 {
+    public static abstract class Configuration
+    {
+        public static final String BRICK = "brick";
+        public static final String PAGED = "paged";
+
+        public static final GraphDatabaseSetting.StringSetting window_pool_implementation =
+                new GraphDatabaseSetting.StringSetting( "window_pool_implementation", BRICK + "|" + PAGED,
+                        "Must be one of '" + BRICK + "' or '" + PAGED + "'" );
+        public static final GraphDatabaseSetting<Long> paged_window_pool_flush_interval =
+                new GraphDatabaseSetting.TimeSpanSetting( "paged_window_pool_flush_interval" );
+    }
+
+    private static final long DEFAULT_PAGE_SIZE = 1024 * 1024;
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
     @Deprecated
     private static Logger logger = Logger.getLogger( DefaultWindowPoolFactory.class.getName() );
 
@@ -37,6 +54,14 @@ public class DefaultWindowPoolFactory implements WindowPoolFactory
     public WindowPool create( String storageFileName, int recordSize, FileChannel fileChannel, Config configuration,
                               StringLogger log )
     {
+        if ( usePagedWindowPool( configuration ) )
+        {
+            return new PagedWindowPool( storageFileName, recordSize, fileChannel,
+                    calculateMappedMemory( configuration.getParams(), storageFileName ),
+                    pageSize( configuration ), flushInterval( configuration ),
+                    configuration.get( CommonAbstractStore.Configuration.use_memory_mapped_buffers ),
+                    isReadOnly( configuration ) && !isBackupSlave( configuration ), log );
+        }
 
         return new PersistenceWindowPool( storageFileName, recordSize, fileChannel,
                 calculateMappedMemory( configuration.getParams(), storageFileName ),
@@ -44,6 +69,24 @@ public class DefaultWindowPoolFactory implements WindowPoolFactory
                 isReadOnly( configuration ) && !isBackupSlave( configuration ), log );
     }
 
+    private boolean usePagedWindowPool( Config configuration )
+    {
+        return configuration.isSet( Configuration.window_pool_implementation ) &&
+                Configuration.PAGED.equals( configuration.get( Configuration.window_pool_implementation ) );
+    }
+
+    private long pageSize( Config configuration )
+    {
+        return configuration.isSet( GraphDatabaseSettings.mapped_memory_page_size ) ?
+                configuration.get( GraphDatabaseSettings.mapped_memory_page_size ) : DEFAULT_PAGE_SIZE;
+    }
+
+    private long flushInterval( Config configuration )
+    {
+        return configuration.isSet( Configuration.paged_window_pool_flush_interval ) ?
+                configuration.get( Configuration.paged_window_pool_flush_interval ) : DEFAULT_FLUSH_INTERVAL;
+    }
+
     private boolean isBackupSlave( Config configuration )
     {
         return configuration.get( CommonAbstractStore.Configuration.backup_slave );
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.lang.reflect.Array;
+
+import org.neo4j.kernel.impl.cache.LruCache;
+
+/**
+ * Decoded string or array property values kept by the id of the first
+ * dynamic record of their chain. Chains are never changed in place, only
+ * written when created and deleted as a whole, so writing any record of a
+ * chain evicts the value it starts.
+ * <p>
+ * A value is only cached if no record has been written since the reader
+ * took its {@link #stamp()}, before reading the records, since the id could
+ * otherwise have been freed and reused for another value in between.
+ */
+class DynamicValueCache
+{
+    // values of longer chains are seldom read often enough to be worth the memory
+    static final int MAX_RECORDS = 4;
+
+    private final LruCache<Long,Object> cache;
+    private long writes;
+
+    DynamicValueCache( String name, int maxSize )
+    {
+        this.cache = new LruCache<Long,Object>( name, maxSize );
+    }
+
+    synchronized long stamp()
+    {
+        return writes;
+    }
+
+    /**
+     * @return the value of the chain starting at {@code firstRecord}, or
+     * {@code null} if it isn't cached. Arrays are copied so that the cached
+     * one can't be changed.
+     */
+    Object get( long firstRecord )
+    {
+        Object value;
+        synchronized ( this )
+        {
+            value = cache.get( firstRecord );
+        }
+        return value != null && value.getClass().isArray() ? copy( value ) : value;
+    }
+
+    synchronized void put( long firstRecord, Object value, long stamp )
+    {
+        if ( stamp == writes )
+        {
+            cache.put( firstRecord, value.getClass().isArray() ? copy( value ) : value );
+        }
+    }
+
+    synchronized void written( long record )
+    {
+        writes++;
+        cache.remove( record );
+    }
+
+    private static Object copy( Object array )
+    {
+        int length = Array.getLength( array );
+        Object copy = Array.newInstance( array.getClass().getComponentType(), length );
+        System.arraycopy( array, 0, copy, 0, length );
+        return copy;
+    }
+}
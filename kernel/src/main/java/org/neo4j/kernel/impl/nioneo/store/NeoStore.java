@@ -39,7 +39,7 @@ import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
  * This class contains the references to the "NodeStore,RelationshipStore,
- * PropertyStore and RelationshipTypeStore". NeoStore doesn't actually "store"
+ * RelationshipGroupStore, PropertyStore and RelationshipTypeStore". NeoStore doesn't actually "store"
  * anything but extends the AbstractStore for the "type and version" validation
  * performed in there.
  */
@@ -70,7 +70,9 @@ public class NeoStore extends AbstractStore
     private NodeStore nodeStore;
     private PropertyStore propStore;
     private RelationshipStore relStore;
+    private RelationshipGroupStore relGroupStore;
     private RelationshipTypeStore relTypeStore;
+    private boolean denseNodes;
     private final TxHook txHook;
     private boolean isStarted;
     private long lastCommittedTx = -1;
@@ -83,7 +85,8 @@ public class NeoStore extends AbstractStore
                     IdGeneratorFactory idGeneratorFactory, WindowPoolFactory windowPoolFactory,
                     FileSystemAbstraction fileSystemAbstraction,
                     StringLogger stringLogger, TxHook txHook,
-                    RelationshipTypeStore relTypeStore, PropertyStore propStore, RelationshipStore relStore, NodeStore nodeStore)
+                    RelationshipTypeStore relTypeStore, PropertyStore propStore, RelationshipStore relStore,
+                    RelationshipGroupStore relGroupStore, NodeStore nodeStore)
     {
         super( fileName, conf, IdType.NEOSTORE_BLOCK, idGeneratorFactory, windowPoolFactory,
                 fileSystemAbstraction, stringLogger);
@@ -92,6 +95,7 @@ public class NeoStore extends AbstractStore
         this.relTypeStore = relTypeStore;
         this.propStore = propStore;
         this.relStore = relStore;
+        this.relGroupStore = relGroupStore;
         this.nodeStore = nodeStore;
         REL_GRAB_SIZE = conf.get( Configuration.relationship_grab_size );
         this.txHook = txHook;
@@ -114,6 +118,7 @@ public class NeoStore extends AbstractStore
                 setStoreVersion( versionStringToLong( CommonAbstractStore.ALL_STORES_VERSION ) );
                 updateHighId();
             }
+            applyStoreVersion( hasStoreVersionRecord() ? getStoreVersion() : 0 );
         }
         finally
         {
@@ -121,6 +126,38 @@ public class NeoStore extends AbstractStore
         }
     }
 
+    /*
+     * Whether or not nodes can be dense is decided by the store version record, rather than
+     * the trailing version of the node store, which isn't there after an unclean shutdown.
+     */
+    private void applyStoreVersion( long storeVersion )
+    {
+        denseNodes = storeVersion == versionStringToLong( CommonAbstractStore.DENSE_NODES_STORE_VERSION );
+        nodeStore.setDenseNodes( denseNodes );
+        relGroupStore.setDenseNodes( denseNodes );
+    }
+
+    private boolean hasStoreVersionRecord()
+    {
+        try
+        {
+            return getFileChannel().size() >= RECORD_SIZE * 5;
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( e );
+        }
+    }
+
+    /**
+     * @return whether or not nodes can be dense, which is the case if the
+     * store version is {@link CommonAbstractStore#DENSE_NODES_STORE_VERSION}.
+     */
+    public boolean hasDenseNodes()
+    {
+        return denseNodes;
+    }
+
     @Override
     protected void checkVersion()
     {
@@ -148,7 +185,8 @@ public class NeoStore extends AbstractStore
                  * Yes, this has to be fixed to be prettier.
                  */
                 String foundVersion = versionLongToString( getStoreVersion(fileSystemAbstraction, configuration.get( Configuration.neo_store) ));
-                if ( !CommonAbstractStore.ALL_STORES_VERSION.equals( foundVersion ) )
+                if ( !CommonAbstractStore.ALL_STORES_VERSION.equals( foundVersion ) &&
+                        !CommonAbstractStore.DENSE_NODES_STORE_VERSION.equals( foundVersion ) )
                 {
                     throw new IllegalStateException(
                             String.format(
@@ -236,6 +274,11 @@ public class NeoStore extends AbstractStore
             relStore.close();
             relStore = null;
         }
+        if ( relGroupStore != null )
+        {
+            relGroupStore.close();
+            relGroupStore = null;
+        }
         if ( nodeStore != null )
         {
             nodeStore.close();
@@ -247,7 +290,7 @@ public class NeoStore extends AbstractStore
     public void flushAll()
     {
         if ( relTypeStore == null || propStore == null || relStore == null ||
-                nodeStore == null )
+                relGroupStore == null || nodeStore == null )
         {
             return;
         }
@@ -255,6 +298,7 @@ public class NeoStore extends AbstractStore
         relTypeStore.flushAll();
         propStore.flushAll();
         relStore.flushAll();
+        relGroupStore.flushAll();
         nodeStore.flushAll();
     }
 
@@ -403,6 +447,21 @@ public class NeoStore extends AbstractStore
         }
     }
 
+    /**
+     * Keeps this store and all the stores it consists of in recovery mode, see
+     * {@link CommonAbstractStore#setRecoveryModeHeld(boolean)}.
+     */
+    @Override
+    public void setRecoveryModeHeld( boolean held )
+    {
+        super.setRecoveryModeHeld( held );
+        relTypeStore.setRecoveryModeHeld( held );
+        propStore.setRecoveryModeHeld( held );
+        relStore.setRecoveryModeHeld( held );
+        relGroupStore.setRecoveryModeHeld( held );
+        nodeStore.setRecoveryModeHeld( held );
+    }
+
     public long getVersion()
     {
         return getRecord( 2 );
@@ -479,6 +538,7 @@ public class NeoStore extends AbstractStore
     public void setStoreVersion( long version )
     {
         setRecord( 4, version );
+        applyStoreVersion( version );
     }
 
     public long getGraphNextProp()
@@ -511,6 +571,17 @@ public class NeoStore extends AbstractStore
         return relStore;
     }
 
+    /**
+     * The relationship group store, holding the relationship groups of dense
+     * nodes.
+     *
+     * @return The relationship group store
+     */
+    public RelationshipGroupStore getRelationshipGroupStore()
+    {
+        return relGroupStore;
+    }
+
     /**
      * Returns the relationship type store.
      *
@@ -537,6 +608,7 @@ public class NeoStore extends AbstractStore
         relTypeStore.makeStoreOk();
         propStore.makeStoreOk();
         relStore.makeStoreOk();
+        relGroupStore.makeStoreOk();
         nodeStore.makeStoreOk();
         super.makeStoreOk();
         isStarted = true;
@@ -548,6 +620,7 @@ public class NeoStore extends AbstractStore
         relTypeStore.rebuildIdGenerators();
         propStore.rebuildIdGenerators();
         relStore.rebuildIdGenerators();
+        relGroupStore.rebuildIdGenerators();
         nodeStore.rebuildIdGenerators();
         super.rebuildIdGenerators();
     }
@@ -558,6 +631,7 @@ public class NeoStore extends AbstractStore
         relTypeStore.updateIdGenerators();
         propStore.updateIdGenerators();
         relStore.updateHighId();
+        relGroupStore.updateHighId();
         nodeStore.updateHighId();
     }
 
@@ -573,6 +647,7 @@ public class NeoStore extends AbstractStore
         list.addAll( nodeStore.getAllWindowPoolStats() );
         list.addAll( propStore.getAllWindowPoolStats() );
         list.addAll( relStore.getAllWindowPoolStats() );
+        list.addAll( relGroupStore.getAllWindowPoolStats() );
         list.addAll( relTypeStore.getAllWindowPoolStats() );
         return list;
     }
@@ -583,6 +658,7 @@ public class NeoStore extends AbstractStore
         super.logAllWindowPoolStats( logger );
         nodeStore.logAllWindowPoolStats( logger );
         relStore.logAllWindowPoolStats( logger );
+        relGroupStore.logAllWindowPoolStats( logger );
         relTypeStore.logAllWindowPoolStats( logger );
         propStore.logAllWindowPoolStats( logger );
     }
@@ -590,7 +666,8 @@ public class NeoStore extends AbstractStore
     public boolean isStoreOk()
     {
         return getStoreOk() && relTypeStore.getStoreOk() &&
-            propStore.getStoreOk() && relStore.getStoreOk() && nodeStore.getStoreOk();
+            propStore.getStoreOk() && relStore.getStoreOk() && relGroupStore.getStoreOk() &&
+            nodeStore.getStoreOk();
     }
 
     @Override
@@ -601,6 +678,7 @@ public class NeoStore extends AbstractStore
         super.logVersions( msgLog );
         nodeStore.logVersions( msgLog );
         relStore.logVersions( msgLog );
+        relGroupStore.logVersions( msgLog );
         relTypeStore.logVersions( msgLog );
         propStore.logVersions(msgLog  );
 
@@ -613,6 +691,7 @@ public class NeoStore extends AbstractStore
         msgLog.logLine( "Id usage:" );
         nodeStore.logIdUsage(msgLog );
         relStore.logIdUsage(msgLog );
+        relGroupStore.logIdUsage( msgLog );
         relTypeStore.logIdUsage( msgLog);
         propStore.logIdUsage( msgLog );
         stringLogger.flush();
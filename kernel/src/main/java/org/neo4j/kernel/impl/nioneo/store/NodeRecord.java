@@ -23,6 +23,7 @@ public class NodeRecord extends PrimitiveRecord
 {
     private final long committedNextRel;
     private long nextRel;
+    private boolean dense;
 
     public NodeRecord( long id, long nextRel, long nextProp )
     {
@@ -40,6 +41,22 @@ public class NodeRecord extends PrimitiveRecord
         this.nextRel = nextRel;
     }
 
+    /**
+     * @return whether or not this node keeps its relationships in groups, see
+     * {@link RelationshipGroupStore}. If so {@link #getNextRel()} is the id of
+     * its first {@link RelationshipGroupRecord group} rather than that of a
+     * relationship.
+     */
+    public boolean isDense()
+    {
+        return dense;
+    }
+
+    public void setDense( boolean dense )
+    {
+        this.dense = dense;
+    }
+
     public long getCommittedNextRel()
     {
         return isCreated() ? Record.NO_NEXT_RELATIONSHIP.intValue() : committedNextRel;
@@ -48,7 +65,7 @@ public class NodeRecord extends PrimitiveRecord
     @Override
     public String toString()
     {
-        return new StringBuilder( "Node[" ).append( getId() ).append( ",used=" ).append( inUse() ).append( ",rel=" ).append(
+        return new StringBuilder( "Node[" ).append( getId() ).append( ",used=" ).append( inUse() ).append( dense ? ",group=" : ",rel=" ).append(
                 nextRel ).append( ",prop=" ).append( getNextProp() ).append( "]" ).toString();
     }
 
@@ -20,6 +20,7 @@
 package org.neo4j.kernel.impl.nioneo.store;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.neo4j.kernel.IdGeneratorFactory;
@@ -43,6 +44,19 @@ public class NodeStore extends AbstractStore implements Store, RecordStore<NodeR
     // in_use(byte)+next_rel_id(int)+next_prop_id(int)
     public static final int RECORD_SIZE = 9;
 
+    // The highest of the property id bits in the in_use byte, which marks dense
+    // nodes in stores where nodes can be dense
+    private static final int DENSE_BIT = 0x80;
+
+    /**
+     * The highest property id a node can have in stores where nodes can be
+     * dense, one bit short of what the property store can address.
+     */
+    public static final long MAX_PROPERTY_ID_WITH_DENSE_NODES = (1L << 35) - 1;
+
+    // Not initialized, since it's set while the super constructor checks the version
+    private boolean denseNodes;
+
     public NodeStore(String fileName, Config config,
                      IdGeneratorFactory idGeneratorFactory, WindowPoolFactory windowPoolFactory,
                      FileSystemAbstraction fileSystemAbstraction, StringLogger stringLogger)
@@ -68,6 +82,36 @@ public class NodeStore extends AbstractStore implements Store, RecordStore<NodeR
         return RECORD_SIZE;
     }
 
+    /**
+     * @return whether or not nodes of this store can be dense, which is the
+     * case for stores of {@link #DENSE_NODES_STORE_VERSION}.
+     */
+    public boolean hasDenseNodes()
+    {
+        return denseNodes;
+    }
+
+    /**
+     * Called by the {@link NeoStore}, whose store version record decides
+     * whether or not nodes can be dense, also after an unclean shutdown.
+     */
+    void setDenseNodes( boolean denseNodes )
+    {
+        this.denseNodes = denseNodes;
+    }
+
+    @Override
+    public String getTypeAndVersionDescriptor()
+    {
+        return denseNodes ? TYPE_DESCRIPTOR + " " + DENSE_NODES_STORE_VERSION : super.getTypeAndVersionDescriptor();
+    }
+
+    @Override
+    protected boolean acceptTypeDescriptorAndVersion( String foundTypeDescriptorAndVersion )
+    {
+        return foundTypeDescriptorAndVersion.equals( TYPE_DESCRIPTOR + " " + DENSE_NODES_STORE_VERSION );
+    }
+
     @Override
     public int getRecordHeaderSize()
     {
@@ -189,14 +233,50 @@ public class NodeStore extends AbstractStore implements Store, RecordStore<NodeR
         }
     }
 
+    /**
+     * Batch version of {@link #loadLightNode(long)}.
+     *
+     * @return the records of {@code ids}, in the same order as the ids, with
+     * {@code null} for the nodes that don't exist.
+     */
+    public List<NodeRecord> loadLightNodes( long[] ids )
+    {
+        return new RecordBatchReader<NodeRecord>()
+        {
+            @Override
+            protected NodeRecord read( long id, PersistenceWindow window )
+            {
+                return getRecord( id, window, RecordLoad.CHECK );
+            }
+        }.readAll( ids );
+    }
+
+    /**
+     * @return the nodes in use with ids from {@code fromId} up to, but not
+     * including, {@code toId}, read straight from the store a window at a
+     * time.
+     */
+    public Iterator<NodeRecord> scan( long fromId, long toId )
+    {
+        return new RecordScanner<NodeRecord>( fromId, toId )
+        {
+            @Override
+            protected NodeRecord read( long id, PersistenceWindow window )
+            {
+                return getRecord( id, window, RecordLoad.CHECK );
+            }
+        };
+    }
+
     private NodeRecord getRecord( long id, PersistenceWindow window,
         RecordLoad load  )
     {
         Buffer buffer = window.getOffsettedBuffer( id );
 
         // [    ,   x] in use bit
-        // [    ,xxx ] higher bits for rel id
-        // [xxxx,    ] higher bits for prop id
+        // [    ,xxx ] higher bits for rel id, or relationship group id if dense
+        // [ xxx,    ] higher bits for prop id
+        // [x   ,    ] dense
         long inUseByte = buffer.get();
 
         boolean inUse = (inUseByte & 0x1) == Record.IN_USE.intValue();
@@ -217,10 +297,11 @@ public class NodeStore extends AbstractStore implements Store, RecordStore<NodeR
         long nextProp = buffer.getUnsignedInt();
 
         long relModifier = (inUseByte & 0xEL) << 31;
-        long propModifier = (inUseByte & 0xF0L) << 28;
+        long propModifier = (inUseByte & (denseNodes ? 0x70L : 0xF0L)) << 28;
 
         NodeRecord nodeRecord = new NodeRecord( id, longFromIntAndMod( nextRel, relModifier ), longFromIntAndMod( nextProp, propModifier ) );
         nodeRecord.setInUse( inUse );
+        nodeRecord.setDense( denseNodes && (inUseByte & DENSE_BIT) != 0 );
         return nodeRecord;
     }
 
@@ -235,12 +316,28 @@ public class NodeStore extends AbstractStore implements Store, RecordStore<NodeR
 
             short relModifier = nextRel == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (short)((nextRel & 0x700000000L) >> 31);
             short propModifier = nextProp == Record.NO_NEXT_PROPERTY.intValue() ? 0 : (short)((nextProp & 0xF00000000L) >> 28);
+            if ( denseNodes && nextProp != Record.NO_NEXT_PROPERTY.intValue() &&
+                    nextProp > MAX_PROPERTY_ID_WITH_DENSE_NODES )
+            {
+                throw new UnderlyingStorageException( "Property id " + nextProp + " of " + record +
+                        " is above " + MAX_PROPERTY_ID_WITH_DENSE_NODES + ", the highest a store with dense nodes supports" );
+            }
+            if ( !denseNodes && record.isDense() )
+            {
+                throw new UnderlyingStorageException( record + " is dense, but " + getStorageFileName() +
+                        " is of a version without dense nodes" );
+            }
 
             // [    ,   x] in use bit
-            // [    ,xxx ] higher bits for rel id
-            // [xxxx,    ] higher bits for prop id
+            // [    ,xxx ] higher bits for rel id, or relationship group id if dense
+            // [xxxx,    ] higher bits for prop id, of which the highest marks dense
+            //             nodes in stores where nodes can be dense
             short inUseUnsignedByte = ( record.inUse() ? Record.IN_USE : Record.NOT_IN_USE ).byteValue();
             inUseUnsignedByte = (short) ( inUseUnsignedByte | relModifier | propModifier );
+            if ( record.isDense() )
+            {
+                inUseUnsignedByte |= DENSE_BIT;
+            }
             buffer.put( (byte) inUseUnsignedByte ).putInt( (int) nextRel ).putInt( (int) nextProp );
         }
         else
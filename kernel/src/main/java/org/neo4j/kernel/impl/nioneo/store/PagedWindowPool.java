@@ -0,0 +1,1354 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.neo4j.kernel.impl.nioneo.store.windowpool.WindowPool;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * A {@link WindowPool} which divides the store file into fixed size pages and
+ * keeps as many of them in memory as the mapped memory for the store allows.
+ * <p>
+ * Contrary to {@link PersistenceWindowPool} there's no global rebalancing of
+ * windows. Pages are looked up in a page table which is read without locking,
+ * resident pages are chosen for eviction using the CLOCK algorithm and each
+ * page is guarded by its own latch, which many readers can hold at the same
+ * time. A reader of a resident page never touches any monitor, it only does
+ * a CAS on the latch of the page it reads.
+ * <p>
+ * If a page cannot be made resident, f.ex. because the mapping fails or all
+ * resident pages are latched, the pool falls back to
+ * {@link PersistenceRow persistence rows}, exactly like
+ * {@link PersistenceWindowPool} does.
+ * <p>
+ * Pages which have been written to are tracked in a bitmap over the frames.
+ * Given a flush interval a background thread writes them out ahead of
+ * {@link #flushAll()}, sorted by file offset and with adjacent pages coalesced
+ * into one write. Pages are copied out while latched and written without
+ * holding their latches, so writers don't wait for the I/O, except for memory
+ * mapped pages which are forced while latched. A page which has been copied
+ * out isn't evicted until its write is done, eviction would see it clean and
+ * a fault could read it back before the write has landed. The background
+ * flusher never waits for a latch, it skips pages which are in use and backs
+ * off in proportion to the time spent writing, so that it doesn't compete
+ * with committing transactions for I/O.
+ * {@link #flushAll()} only writes out pages which were dirty when it started.
+ * <p>
+ * Pages can be {@link #prefetch(long) prefetched}, a background thread then
+ * faults them in ahead of the reader asking for them. The number of pages
+ * made resident that way and how many of them were read before being evicted
+ * again are reported in the {@link WindowPoolStats}.
+ */
+public class PagedWindowPool implements WindowPool
+{
+    private static final int MIN_RESIDENT_PAGES = 16;
+    private static final int MAX_FAULT_SWEEPS = 2;
+    private static final int MAX_COALESCED_BYTES = 8 * 1024 * 1024;
+    // The background flusher sleeps this many times the time it spent writing
+    private static final int FLUSH_BACK_OFF_FACTOR = 2;
+    // Prefetch requests beyond this many pending ones are dropped
+    private static final int MAX_PENDING_PREFETCHES = 64;
+
+    private final String storeName;
+    private final int recordSize;
+    private final int recordsPerPage;
+    private final int pageSize;
+    private final long availableMem;
+    private final boolean useMemoryMapped;
+    private final boolean readOnly;
+    private final MapMode mapMode;
+    private FileChannel fileChannel;
+    private final StringLogger log;
+
+    /*
+     * The page table, indexed by page id. Lookups just read the volatile
+     * reference, it's only replaced (under pageTableLock) when the file
+     * grows beyond the pages it has room for. Page objects are created
+     * up front and never replaced, so no update can get lost in a copy.
+     */
+    private volatile Page[] pageTable;
+    private final Object pageTableLock = new Object();
+
+    // The resident pages, the CLOCK hand sweeps over these
+    private final AtomicReferenceArray<Page> frames;
+    private final AtomicInteger clockHand = new AtomicInteger();
+    private final AtomicInteger residentPages = new AtomicInteger();
+    // One bit per frame, set when the page in that frame gets dirty
+    private final AtomicLongArray dirtyFrames;
+
+    // Only one flush, background or flushAll, at a time
+    private final Object flushLock = new Object();
+    // Where dirty pages are copied to before being written out, guarded by flushLock
+    private ByteBuffer flushBuffer;
+    private final PageFlusher flusher;
+    // Started on the first prefetch request
+    private volatile PagePrefetcher prefetcher;
+
+    private final ConcurrentMap<Long,PersistenceRow> activeRowWindows =
+        new ConcurrentHashMap<Long,PersistenceRow>();
+
+    // Like in PersistenceWindowPool it's OK to miss some updates for these
+    private int hit = 0;
+    private int miss = 0;
+    private int ooe = 0;
+    private final AtomicInteger faults = new AtomicInteger();
+    private final AtomicInteger evictions = new AtomicInteger();
+    private final AtomicInteger flushedPages = new AtomicInteger();
+    private final AtomicInteger flushWrites = new AtomicInteger();
+    private final AtomicInteger prefetches = new AtomicInteger();
+    private final AtomicInteger prefetchHits = new AtomicInteger();
+
+    /**
+     * Create new pool for a store.
+     *
+     * @param storeName
+     *            Name of store that use this pool
+     * @param recordSize
+     *            The size of each record/block in the store
+     * @param fileChannel
+     *            A fileChannel to the store
+     * @param mappedMem
+     *            Number of bytes dedicated to resident pages
+     * @param targetPageSize
+     *            The preferred size of a page in bytes, it will be rounded
+     *            down to a whole number of records
+     */
+    public PagedWindowPool( String storeName, int recordSize, FileChannel fileChannel, long mappedMem,
+            long targetPageSize, boolean useMemoryMappedBuffers, boolean readOnly, StringLogger log )
+    {
+        this( storeName, recordSize, fileChannel, mappedMem, targetPageSize, 0, useMemoryMappedBuffers, readOnly,
+                log );
+    }
+
+    /**
+     * Create new pool for a store, which writes out dirty pages in the
+     * background every {@code flushInterval} milliseconds.
+     *
+     * @param flushInterval
+     *            Milliseconds between background flushes, 0 means that dirty
+     *            pages are only written out by {@link #flushAll()} and eviction
+     */
+    public PagedWindowPool( String storeName, int recordSize, FileChannel fileChannel, long mappedMem,
+            long targetPageSize, long flushInterval, boolean useMemoryMappedBuffers, boolean readOnly,
+            StringLogger log )
+    {
+        this.storeName = storeName;
+        this.recordSize = recordSize;
+        this.fileChannel = fileChannel;
+        this.useMemoryMapped = useMemoryMappedBuffers;
+        this.readOnly = readOnly;
+        this.mapMode = readOnly ? MapMode.READ_ONLY : MapMode.READ_WRITE;
+        this.log = log;
+
+        int frameCount = 0;
+        int pageRecords = 1;
+        if ( recordSize > 0 )
+        {
+            if ( mappedMem > 0 && mappedMem < recordSize * 10l )
+            {
+                logWarn( "Unable to use " + mappedMem
+                        + "b as paged memory, need at least " + recordSize * 10
+                        + "b (block size * 10)" );
+                logWarn( "Paged memory has been turned off" );
+                mappedMem = 0;
+            }
+            if ( mappedMem > 0 )
+            {
+                long bytesPerPage = Math.min( Math.max( targetPageSize, recordSize ),
+                        Math.max( mappedMem / MIN_RESIDENT_PAGES, recordSize ) );
+                pageRecords = (int) Math.min( bytesPerPage / recordSize, Integer.MAX_VALUE / recordSize );
+                frameCount = (int) Math.min( mappedMem / ((long) pageRecords * recordSize), Integer.MAX_VALUE );
+            }
+        }
+        this.availableMem = mappedMem;
+        this.recordsPerPage = pageRecords;
+        this.pageSize = pageRecords * recordSize;
+        this.frames = new AtomicReferenceArray<Page>( frameCount );
+        this.dirtyFrames = new AtomicLongArray( (frameCount + 63) / 64 );
+        this.pageTable = new Page[0];
+        if ( frameCount > 0 )
+        {
+            ensurePageTableCapacity( (int) (fileSize() / pageSize) + 1 );
+        }
+        dumpStatus();
+        if ( flushInterval > 0 && frameCount > 0 && !readOnly )
+        {
+            flusher = new PageFlusher( flushInterval );
+            flusher.start();
+        }
+        else
+        {
+            flusher = null;
+        }
+    }
+
+    @Override
+    public PersistenceWindow acquire( long position, OperationType operationType )
+    {
+        if ( frames.length() == 0 )
+        {
+            miss++;
+            return acquireRow( position, operationType );
+        }
+
+        Page page = page( position / recordsPerPage );
+        boolean faulted = false;
+        while ( true )
+        {
+            page.latch( operationType );
+            ByteBuffer contents = page.contents;
+            if ( contents != null )
+            {
+                if ( !page.referenced )
+                {
+                    page.referenced = true;
+                }
+                if ( operationType == OperationType.WRITE )
+                {
+                    markAsDirty( page );
+                }
+                if ( !faulted )
+                {
+                    hit++;
+                    if ( page.prefetched )
+                    {
+                        page.prefetched = false;
+                        prefetchHits.incrementAndGet();
+                    }
+                }
+                return new PageWindow( page, contents, operationType );
+            }
+            page.unLatch( operationType );
+
+            if ( !faulted )
+            {
+                miss++;
+                faulted = true;
+            }
+            if ( !fault( page, false ) )
+            {
+                return acquireRow( position, operationType );
+            }
+        }
+    }
+
+    @Override
+    public void release( PersistenceWindow window )
+    {
+        if ( window instanceof PageWindow )
+        {
+            ((PageWindow) window).release();
+        }
+        else
+        {
+            releaseRow( (PersistenceRow) window );
+        }
+    }
+
+    /**
+     * Queues the page of {@code position} to be faulted in by the prefetcher
+     * thread, unless it's already resident or queued. Positions beyond the
+     * pages the file had when last looked at are ignored, as are requests
+     * made while the prefetcher is busy with enough of them already.
+     */
+    @Override
+    public void prefetch( long position )
+    {
+        if ( frames.length() == 0 || position < 0 )
+        {
+            return;
+        }
+        long pageId = position / recordsPerPage;
+        Page[] table = pageTable;
+        if ( pageId >= table.length )
+        {
+            return;
+        }
+        Page page = table[(int) pageId];
+        if ( page.contents != null || page.prefetchQueued )
+        {
+            return;
+        }
+        page.prefetchQueued = true;
+        if ( !prefetcher().offer( page ) )
+        {
+            page.prefetchQueued = false;
+        }
+    }
+
+    private PagePrefetcher prefetcher()
+    {
+        PagePrefetcher result = prefetcher;
+        if ( result == null )
+        {
+            synchronized ( this )
+            {
+                result = prefetcher;
+                if ( result == null )
+                {
+                    result = new PagePrefetcher();
+                    result.start();
+                    prefetcher = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Acquires a {@link PersistenceRow} for {@code position}, the same way
+     * {@link PersistenceWindowPool} does when there's no mapped brick for it.
+     */
+    private PersistenceRow acquireRow( long position, OperationType operationType )
+    {
+        PersistenceRow window = null;
+        while ( window == null )
+        {
+            PersistenceRow dpw = activeRowWindows.get( position );
+            if ( dpw != null && dpw.markAsInUse() )
+            {
+                window = dpw;
+                break;
+            }
+
+            dpw = new PersistenceRow( position, recordSize, fileChannel );
+            PersistenceRow existing = activeRowWindows.putIfAbsent( position, dpw );
+            if ( existing == null )
+            {
+                window = dpw;
+            }
+            else
+            {
+                dpw.close();
+            }
+        }
+        window.lock( operationType );
+        return window;
+    }
+
+    private void releaseRow( PersistenceRow dpw )
+    {
+        if ( dpw.isDirty() && !useMemoryMapped && frames.length() > 0 )
+        {
+            // The page for this row may have become resident while we held the row,
+            // that copy of it would then be stale. Serialize with faults of that page
+            // so that it either gets our changes here or reads them from the file.
+            Page page = page( dpw.position() / recordsPerPage );
+            synchronized ( page )
+            {
+                applyChangesToPageIfResident( page, dpw );
+                writeOutAndCloseRow( dpw );
+            }
+        }
+        else
+        {
+            writeOutAndCloseRow( dpw );
+        }
+        dpw.unLock();
+    }
+
+    private void writeOutAndCloseRow( PersistenceRow dpw )
+    {
+        if ( dpw.writeOutAndCloseIfFree( readOnly ) )
+        {
+            activeRowWindows.remove( dpw.position(), dpw );
+        }
+        else
+        {
+            dpw.reset();
+        }
+    }
+
+    private void applyChangesToPageIfResident( Page page, PersistenceRow dpw )
+    {
+        page.latch( OperationType.WRITE );
+        try
+        {
+            ByteBuffer contents = page.contents;
+            if ( contents != null )
+            {
+                ByteBuffer target = contents.duplicate();
+                target.position( (int) (dpw.position() - firstRecord( page )) * recordSize );
+                ByteBuffer source = dpw.getBuffer().getBuffer().duplicate();
+                source.clear();
+                target.put( source );
+                markAsDirty( page );
+            }
+        }
+        finally
+        {
+            page.unLatch( OperationType.WRITE );
+        }
+    }
+
+    private Page page( long pageId )
+    {
+        if ( pageId > Integer.MAX_VALUE )
+        {
+            throw new UnderlyingStorageException( "Page " + pageId + " out of range for " + storeName );
+        }
+        Page[] table = pageTable;
+        if ( pageId >= table.length )
+        {
+            table = ensurePageTableCapacity( (int) pageId + 1 );
+        }
+        return table[(int) pageId];
+    }
+
+    /**
+     * Called every time a page is requested that is beyond the end of the
+     * page table. This happens as the underlying file channel grows as new
+     * blocks/records are added to it.
+     */
+    private Page[] ensurePageTableCapacity( int pageCount )
+    {
+        synchronized ( pageTableLock )
+        {
+            Page[] table = pageTable;
+            if ( pageCount > table.length )
+            {
+                int newLength = (int) Math.min( Math.max( pageCount, table.length * 2l ), Integer.MAX_VALUE );
+                Page[] newTable = new Page[newLength];
+                System.arraycopy( table, 0, newTable, 0, table.length );
+                for ( int i = table.length; i < newTable.length; i++ )
+                {
+                    newTable[i] = new Page( i );
+                }
+                pageTable = table = newTable;
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Makes {@code page} resident, evicting another page if needed.
+     *
+     * @param prefetch {@code true} if no one has asked for the page yet, it's
+     * then counted as a prefetch and as a prefetch hit when it's first read.
+     * @return {@code true} if the page is resident after this call, otherwise
+     * {@code false} and the caller should use a {@link PersistenceRow} instead.
+     */
+    private boolean fault( Page page, boolean prefetch )
+    {
+        synchronized ( page )
+        {
+            if ( page.contents != null )
+            {
+                // Another thread faulted it while we waited
+                return true;
+            }
+            int frame = claimFrame();
+            if ( frame == -1 )
+            {
+                return false;
+            }
+            try
+            {
+                page.dirty = false;
+                page.referenced = true;
+                page.prefetched = prefetch;
+                page.frame = frame;
+                page.contents = load( page );
+                frames.set( frame, page );
+                residentPages.incrementAndGet();
+                if ( prefetch )
+                {
+                    prefetches.incrementAndGet();
+                }
+                else
+                {
+                    faults.incrementAndGet();
+                }
+                return true;
+            }
+            catch ( MappedMemException e )
+            {
+                ooe++;
+                logWarn( "Unable to memory map", e );
+            }
+            catch ( OutOfMemoryError e )
+            {
+                ooe++;
+                logWarn( "Unable to allocate page buffer", e );
+            }
+            frames.set( frame, null );
+            return false;
+        }
+    }
+
+    /**
+     * Finds a frame to put a newly faulted page in, using CLOCK. An empty
+     * frame is used if the hand finds one, otherwise the first page which
+     * hasn't been referenced since the hand last passed it, and which no
+     * one has latched, is evicted. Gives up after a couple of sweeps, that
+     * would mean that practically all pages are latched.
+     *
+     * @return the index of the frame, now reserved by the caller, or -1 if
+     * no frame could be claimed.
+     */
+    private int claimFrame()
+    {
+        int frameCount = frames.length();
+        for ( int i = 0; i < frameCount * MAX_FAULT_SWEEPS; i++ )
+        {
+            int index = (clockHand.getAndIncrement() & Integer.MAX_VALUE) % frameCount;
+            Page resident = frames.get( index );
+            if ( resident == null )
+            {
+                if ( frames.compareAndSet( index, null, Page.RESERVED ) )
+                {
+                    return index;
+                }
+            }
+            else if ( resident == Page.RESERVED )
+            {
+                continue;
+            }
+            else if ( resident.referenced )
+            {
+                resident.referenced = false;
+            }
+            else if ( resident.tryLatchForEviction() )
+            {
+                try
+                {
+                    // Copied out by a flush which hasn't written it yet
+                    if ( !resident.writing && frames.compareAndSet( index, resident, Page.RESERVED ) )
+                    {
+                        evict( resident );
+                        return index;
+                    }
+                }
+                finally
+                {
+                    resident.unLatchAfterEviction();
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void evict( Page page )
+    {
+        writeOut( page );
+        clearDirtyBit( page.frame );
+        page.contents = null;
+        page.prefetched = false;
+        residentPages.decrementAndGet();
+        evictions.incrementAndGet();
+    }
+
+    private ByteBuffer load( Page page )
+    {
+        long offset = (long) page.pageId * pageSize;
+        if ( useMemoryMapped )
+        {
+            try
+            {
+                return fileChannel.map( mapMode, offset, pageSize );
+            }
+            catch ( IOException e )
+            {
+                throw new MappedMemException( "Unable to map page=" + page.pageId +
+                        " recordSize=" + recordSize + " pageSize=" + pageSize, e );
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate( pageSize );
+        try
+        {
+            while ( buffer.hasRemaining() )
+            {
+                if ( fileChannel.read( buffer, offset + buffer.position() ) == -1 )
+                {
+                    // Beyond the end of the file, the rest are zeros
+                    break;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to load page[" + page.pageId + "] @["
+                    + offset + "] of " + storeName, e );
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Writes out the contents of a page if it has been written to since it was
+     * made resident or last written out. Must be called with the page latched.
+     */
+    private void writeOut( Page page )
+    {
+        ByteBuffer contents = page.contents;
+        if ( readOnly || contents == null || !page.dirty )
+        {
+            return;
+        }
+        page.dirty = false;
+        if ( useMemoryMapped )
+        {
+            ((MappedByteBuffer) contents).force();
+            return;
+        }
+
+        long offset = (long) page.pageId * pageSize;
+        ByteBuffer source = contents.duplicate();
+        source.clear();
+        try
+        {
+            while ( source.hasRemaining() )
+            {
+                fileChannel.write( source, offset + source.position() );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to write page[" + page.pageId + "] @["
+                    + offset + "] of " + storeName, e );
+        }
+    }
+
+    private void markAsDirty( Page page )
+    {
+        if ( !page.dirty )
+        {
+            page.dirty = true;
+            setDirtyBit( page.frame );
+        }
+    }
+
+    private void setDirtyBit( int frame )
+    {
+        int word = frame >>> 6;
+        long bit = 1l << (frame & 63);
+        long bits;
+        do
+        {
+            bits = dirtyFrames.get( word );
+        }
+        while ( (bits & bit) == 0 && !dirtyFrames.compareAndSet( word, bits, bits | bit ) );
+    }
+
+    private void clearDirtyBit( int frame )
+    {
+        int word = frame >>> 6;
+        long bit = 1l << (frame & 63);
+        long bits;
+        do
+        {
+            bits = dirtyFrames.get( word );
+        }
+        while ( (bits & bit) != 0 && !dirtyFrames.compareAndSet( word, bits, bits & ~bit ) );
+    }
+
+    /**
+     * Takes the dirty bits set right now and returns the pages they refer to,
+     * sorted by their offset in the file.
+     */
+    private List<Page> collectDirtyPages()
+    {
+        List<Page> dirtyPages = new ArrayList<Page>();
+        for ( int word = 0; word < dirtyFrames.length(); word++ )
+        {
+            long bits = dirtyFrames.getAndSet( word, 0 );
+            while ( bits != 0 )
+            {
+                int frame = (word << 6) + Long.numberOfTrailingZeros( bits );
+                bits &= bits - 1;
+                Page page = frames.get( frame );
+                if ( page != null && page != Page.RESERVED && page.dirty )
+                {
+                    dirtyPages.add( page );
+                }
+            }
+        }
+        Collections.sort( dirtyPages, PAGE_ORDER );
+        return dirtyPages;
+    }
+
+    /**
+     * Writes out the given dirty pages, in the given order. Runs of adjacent
+     * pages are copied into the {@link #flushBuffer} while latched and then
+     * written with one write, without holding on to their latches. Mapped
+     * pages can't be copied out and are forced one by one while latched.
+     *
+     * @param waitForLatches if {@code false} pages which are latched are skipped
+     * and marked as dirty again, so that they're picked up by a later flush.
+     * @param throttle whether or not to back off after each write.
+     */
+    private void flush( List<Page> dirtyPages, boolean waitForLatches, boolean throttle )
+    {
+        List<Page> run = new ArrayList<Page>();
+        try
+        {
+            flush( dirtyPages, run, waitForLatches, throttle );
+        }
+        finally
+        {
+            // Copied out, but never written
+            doneWriting( run, false );
+        }
+    }
+
+    private void flush( List<Page> dirtyPages, List<Page> run, boolean waitForLatches, boolean throttle )
+    {
+        for ( Page page : dirtyPages )
+        {
+            if ( !run.isEmpty() && (page.pageId != run.get( run.size() - 1 ).pageId + 1 ||
+                    (run.size() + 1) * (long) pageSize > MAX_COALESCED_BYTES) )
+            {
+                writeOutRun( run, throttle );
+            }
+            if ( waitForLatches )
+            {
+                page.latch( OperationType.READ );
+            }
+            else if ( !page.tryLatch( OperationType.READ ) )
+            {
+                if ( page.dirty )
+                {
+                    setDirtyBit( page.frame );
+                }
+                continue;
+            }
+            long startTime = System.nanoTime();
+            boolean forced = false;
+            try
+            {
+                if ( page.contents == null || !page.dirty )
+                {
+                    // Evicted, and so written out, since we collected it
+                    continue;
+                }
+                if ( useMemoryMapped )
+                {
+                    writeOut( page );
+                    forced = true;
+                }
+                else
+                {
+                    copyOut( page, run.size() );
+                    run.add( page );
+                }
+            }
+            finally
+            {
+                page.unLatch( OperationType.READ );
+            }
+            if ( forced )
+            {
+                written( 1, startTime, throttle );
+            }
+        }
+        writeOutRun( run, throttle );
+    }
+
+    /**
+     * Copies the contents of a page, which the caller has read latched, into
+     * the {@link #flushBuffer} as page {@code index} of the current run. The
+     * page is clean from now on, unless written to again, and can't be
+     * evicted until the run has been written.
+     */
+    private void copyOut( Page page, int index )
+    {
+        int needed = (index + 1) * pageSize;
+        if ( flushBuffer == null || flushBuffer.capacity() < needed )
+        {
+            int capacity = flushBuffer == null ? needed :
+                    Math.max( needed, Math.min( flushBuffer.capacity() * 2, MAX_COALESCED_BYTES ) );
+            ByteBuffer grown = ByteBuffer.allocate( capacity );
+            if ( flushBuffer != null )
+            {
+                flushBuffer.clear();
+                flushBuffer.limit( index * pageSize );
+                grown.put( flushBuffer );
+            }
+            flushBuffer = grown;
+        }
+        ByteBuffer source = page.contents.duplicate();
+        source.clear();
+        flushBuffer.clear();
+        flushBuffer.position( index * pageSize );
+        flushBuffer.put( source );
+        page.writing = true;
+        page.dirty = false;
+    }
+
+    /**
+     * Writes out a run of adjacent pages, which have been copied into the
+     * {@link #flushBuffer}, and clears the run.
+     */
+    private void writeOutRun( List<Page> run, boolean throttle )
+    {
+        if ( run.isEmpty() )
+        {
+            return;
+        }
+        long startTime = System.nanoTime();
+        long offset = (long) run.get( 0 ).pageId * pageSize;
+        ByteBuffer source = flushBuffer.duplicate();
+        source.clear();
+        source.limit( run.size() * pageSize );
+        int pages = run.size();
+        boolean success = false;
+        try
+        {
+            while ( source.hasRemaining() )
+            {
+                fileChannel.write( source, offset + source.position() );
+            }
+            success = true;
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to write pages[" + run.get( 0 ).pageId + "-"
+                    + run.get( run.size() - 1 ).pageId + "] @[" + offset + "] of " + storeName, e );
+        }
+        finally
+        {
+            doneWriting( run, success );
+        }
+        written( pages, startTime, throttle );
+    }
+
+    /**
+     * Lets the pages of a run be evicted again, now that its write is done or
+     * won't happen. In the latter case the pages are dirty again, so that a
+     * later flush or their eviction writes them out.
+     */
+    private void doneWriting( List<Page> run, boolean success )
+    {
+        for ( Page page : run )
+        {
+            if ( !success && !page.dirty )
+            {
+                page.dirty = true;
+                setDirtyBit( page.frame );
+            }
+            page.writing = false;
+        }
+        run.clear();
+    }
+
+    private void written( int pages, long startTime, boolean throttle )
+    {
+        flushedPages.addAndGet( pages );
+        flushWrites.incrementAndGet();
+        if ( throttle )
+        {
+            LockSupport.parkNanos( (System.nanoTime() - startTime) * FLUSH_BACK_OFF_FACTOR );
+        }
+    }
+
+    @Override
+    public void flushAll()
+    {
+        if ( readOnly )
+            return;
+
+        synchronized ( flushLock )
+        {
+            // Only the pages dirty by now, pages dirtied while we're at it are
+            // left for the next flush.
+            flush( collectDirtyPages(), true, false );
+        }
+        try
+        {
+            fileChannel.force( false );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Failed to flush file channel " + storeName, e );
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if ( flusher != null )
+        {
+            flusher.shutdown();
+        }
+        if ( prefetcher != null )
+        {
+            prefetcher.shutdown();
+            prefetcher = null;
+        }
+        flushAll();
+        for ( int i = 0; i < frames.length(); i++ )
+        {
+            Page page = frames.getAndSet( i, null );
+            if ( page != null && page != Page.RESERVED )
+            {
+                page.contents = null;
+            }
+        }
+        residentPages.set( 0 );
+        fileChannel = null;
+        activeRowWindows.clear();
+        dumpStatistics();
+    }
+
+    @Override
+    public WindowPoolStats getStats()
+    {
+        return new WindowPoolStats( storeName, availableMem, (long) residentPages.get() * pageSize,
+                frames.length(), pageSize, hit, miss, ooe, evictions.get(), 0, 0, 0,
+                evictions.get(), faults.get(), prefetches.get(), prefetchHits.get() );
+    }
+
+    private long firstRecord( Page page )
+    {
+        return (long) page.pageId * recordsPerPage;
+    }
+
+    private long fileSize()
+    {
+        try
+        {
+            return fileChannel.size();
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Unable to get file size for " + storeName, e );
+        }
+    }
+
+    void dumpStatistics()
+    {
+        log.logMessage( storeName + " hit=" + hit + " miss=" + miss + " faults="
+                        + faults.get() + " evictions=" + evictions.get() + " ooe=" + ooe
+                        + " flushedPages=" + flushedPages.get() + " flushWrites=" + flushWrites.get()
+                        + " prefetches=" + prefetches.get() + " prefetchHits=" + prefetchHits.get() );
+    }
+
+    private void dumpStatus()
+    {
+        log.logMessage( "[" + storeName + "] pageCount=" + frames.length()
+                        + " pageSize=" + pageSize + "b mappedMem=" + availableMem
+                        + "b (storeSize=" + fileSize() + "b)" );
+    }
+
+    private void logWarn( String logMessage )
+    {
+        log.logMessage( "[" + storeName + "] " + logMessage );
+    }
+
+    private void logWarn( String logMessage, Throwable cause )
+    {
+        log.logMessage( "[" + storeName + "] " + logMessage, cause );
+    }
+
+    /**
+     * A page of the store file. The latch is a count of readers, or one of
+     * {@link #WRITE_LATCHED} or {@link #EVICTING}. The write latch is reentrant,
+     * the thread holding it may latch the page again, for reading or writing, and
+     * releases it with the last unlatch. A reader can't upgrade to the write latch.
+     */
+    private static final class Page
+    {
+        static final Page RESERVED = new Page( -1 );
+
+        private static final int FREE = 0;
+        private static final int WRITE_LATCHED = -1;
+        private static final int EVICTING = -2;
+
+        final int pageId;
+        int frame = -1;
+        private final AtomicInteger latch = new AtomicInteger( FREE );
+        // The thread holding the write latch and the number of times it has latched
+        // the page since, the count is only touched by that thread
+        private volatile Thread writer;
+        private int writerHolds;
+        volatile ByteBuffer contents;
+        volatile boolean referenced;
+        volatile boolean dirty;
+        // Copied out by a flush and not written yet
+        volatile boolean writing;
+        // Made resident by the prefetcher and not read since
+        volatile boolean prefetched;
+        volatile boolean prefetchQueued;
+
+        Page( int pageId )
+        {
+            this.pageId = pageId;
+        }
+
+        void latch( OperationType operationType )
+        {
+            if ( reenter() )
+            {
+                return;
+            }
+            if ( operationType == OperationType.READ )
+            {
+                for ( int attempt = 0; ; attempt++ )
+                {
+                    int state = latch.get();
+                    if ( state >= FREE && latch.compareAndSet( state, state + 1 ) )
+                    {
+                        return;
+                    }
+                    backOff( attempt );
+                }
+            }
+            else
+            {
+                for ( int attempt = 0; !latch.compareAndSet( FREE, WRITE_LATCHED ); attempt++ )
+                {
+                    backOff( attempt );
+                }
+                latchedForWriting();
+            }
+        }
+
+        void unLatch( OperationType operationType )
+        {
+            if ( writer == Thread.currentThread() )
+            {
+                if ( --writerHolds == 0 )
+                {
+                    writer = null;
+                    latch.set( FREE );
+                }
+            }
+            else if ( operationType == OperationType.READ )
+            {
+                latch.decrementAndGet();
+            }
+            else
+            {
+                throw new IllegalStateException( Thread.currentThread() + " doesn't hold the write latch of "
+                        + this + ", " + writer + " does" );
+            }
+        }
+
+        boolean tryLatch( OperationType operationType )
+        {
+            if ( reenter() )
+            {
+                return true;
+            }
+            if ( operationType == OperationType.READ )
+            {
+                int state = latch.get();
+                return state >= FREE && latch.compareAndSet( state, state + 1 );
+            }
+            if ( latch.compareAndSet( FREE, WRITE_LATCHED ) )
+            {
+                latchedForWriting();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean reenter()
+        {
+            if ( writer == Thread.currentThread() )
+            {
+                writerHolds++;
+                return true;
+            }
+            return false;
+        }
+
+        private void latchedForWriting()
+        {
+            writer = Thread.currentThread();
+            writerHolds = 1;
+        }
+
+        boolean tryLatchForEviction()
+        {
+            return latch.compareAndSet( FREE, EVICTING );
+        }
+
+        void unLatchAfterEviction()
+        {
+            latch.set( FREE );
+        }
+
+        private static void backOff( int attempt )
+        {
+            if ( attempt < 64 )
+            {
+                return;
+            }
+            if ( attempt < 128 )
+            {
+                Thread.yield();
+                return;
+            }
+            LockSupport.parkNanos( 1000 );
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Page[" + pageId + ",latch=" + latch.get() + "]";
+        }
+    }
+
+    private static final Comparator<Page> PAGE_ORDER = new Comparator<Page>()
+    {
+        @Override
+        public int compare( Page o1, Page o2 )
+        {
+            return o1.pageId < o2.pageId ? -1 : (o1.pageId == o2.pageId ? 0 : 1);
+        }
+    };
+
+    /**
+     * Writes out dirty pages in the background, see {@link PagedWindowPool}.
+     */
+    private class PageFlusher extends Thread
+    {
+        private final long flushInterval;
+        private volatile boolean running = true;
+
+        PageFlusher( long flushInterval )
+        {
+            super( "Page flusher for " + WindowPoolStats.extractName( storeName ) );
+            this.flushInterval = flushInterval;
+            setDaemon( true );
+        }
+
+        @Override
+        public void run()
+        {
+            while ( running )
+            {
+                try
+                {
+                    synchronized ( this )
+                    {
+                        if ( running )
+                        {
+                            wait( flushInterval );
+                        }
+                    }
+                    if ( !running )
+                    {
+                        break;
+                    }
+                    synchronized ( flushLock )
+                    {
+                        flush( collectDirtyPages(), false, true );
+                    }
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+                catch ( RuntimeException e )
+                {
+                    logWarn( "Background flush failed", e );
+                }
+            }
+        }
+
+        void shutdown()
+        {
+            synchronized ( this )
+            {
+                running = false;
+                notifyAll();
+            }
+            try
+            {
+                join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * Faults in pages queued by {@link PagedWindowPool#prefetch(long)} in the
+     * background. Never evicts anything for a page which has become resident
+     * since it was queued.
+     */
+    private class PagePrefetcher extends Thread
+    {
+        private final BlockingQueue<Page> queue = new ArrayBlockingQueue<Page>( MAX_PENDING_PREFETCHES );
+        private volatile boolean running = true;
+
+        PagePrefetcher()
+        {
+            super( "Page prefetcher for " + WindowPoolStats.extractName( storeName ) );
+            setDaemon( true );
+        }
+
+        boolean offer( Page page )
+        {
+            return running && queue.offer( page );
+        }
+
+        @Override
+        public void run()
+        {
+            while ( running )
+            {
+                Page page = null;
+                try
+                {
+                    page = queue.poll( 100, TimeUnit.MILLISECONDS );
+                    if ( page != null && running && page.contents == null )
+                    {
+                        fault( page, true );
+                    }
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+                catch ( RuntimeException e )
+                {
+                    logWarn( "Prefetch failed", e );
+                }
+                finally
+                {
+                    if ( page != null )
+                    {
+                        page.prefetchQueued = false;
+                    }
+                }
+            }
+        }
+
+        void shutdown()
+        {
+            running = false;
+            try
+            {
+                join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.interrupted();
+            }
+            for ( Page page : queue )
+            {
+                page.prefetchQueued = false;
+            }
+            queue.clear();
+        }
+    }
+
+    /**
+     * The view of a latched page handed out by {@link #acquire(long, OperationType)}.
+     * Each view has its own {@link Buffer} so that concurrent readers of the
+     * same page don't interfere with each others offsets.
+     */
+    private final class PageWindow implements PersistenceWindow
+    {
+        private final Page page;
+        private final OperationType operationType;
+        private final Buffer buffer;
+
+        PageWindow( Page page, ByteBuffer contents, OperationType operationType )
+        {
+            this.page = page;
+            this.operationType = operationType;
+            this.buffer = new Buffer( this, contents.duplicate() );
+        }
+
+        @Override
+        public Buffer getBuffer()
+        {
+            return buffer;
+        }
+
+        @Override
+        public Buffer getOffsettedBuffer( long id )
+        {
+            int offset = (int) (id - position()) * recordSize;
+            buffer.setOffset( offset );
+            return buffer;
+        }
+
+        @Override
+        public int getRecordSize()
+        {
+            return recordSize;
+        }
+
+        @Override
+        public long position()
+        {
+            return firstRecord( page );
+        }
+
+        @Override
+        public int size()
+        {
+            return recordsPerPage;
+        }
+
+        @Override
+        public void force()
+        {
+            writeOut( page );
+        }
+
+        @Override
+        public void close()
+        {
+            buffer.close();
+        }
+
+        void release()
+        {
+            close();
+            page.unLatch( operationType );
+        }
+
+        @Override
+        public String toString()
+        {
+            return "PageWindow[" + page + ",op=" + operationType + "]";
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.helpers.NamedThreadFactory;
+import org.neo4j.helpers.Predicate;
+
+import static org.neo4j.helpers.Exceptions.launderedException;
+
+/**
+ * Applies {@link RecordStore.Processor processors} to the records of stores
+ * from several threads at once.
+ * <p>
+ * The id space of a store is split into partitions of {@code partitionSize}
+ * bytes worth of records, which with the default size line up with the pages
+ * of the 'paged' window pool. Each thread has a processor of its own, which
+ * it applies to one partition after the other until there are none left, so
+ * a thread which gets through its partitions quickly takes on more of them.
+ * A processor is only ever used by one thread at a time and can gather
+ * results in plain fields, the caller merges them from the processors handed
+ * back once all partitions have been processed.
+ * <p>
+ * The stores must allow concurrent reads, which the stores of a
+ * {@link NeoStore} do, the wrappers of {@link StoreAccess} may not.
+ */
+public class ParallelStoreScan
+{
+    public static final int DEFAULT_PARTITION_SIZE = 1024 * 1024;
+
+    /**
+     * Creates the processor for each thread of a scan.
+     */
+    public interface ProcessorFactory<P extends RecordStore.Processor>
+    {
+        P newProcessor();
+    }
+
+    private final int threads;
+    private final int partitionSize;
+
+    public ParallelStoreScan()
+    {
+        this( Runtime.getRuntime().availableProcessors(), DEFAULT_PARTITION_SIZE );
+    }
+
+    public ParallelStoreScan( int threads, int partitionSize )
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Need at least one thread, not " + threads );
+        }
+        if ( partitionSize < 1 )
+        {
+            throw new IllegalArgumentException( "Invalid partition size " + partitionSize );
+        }
+        this.threads = threads;
+        this.partitionSize = partitionSize;
+    }
+
+    /**
+     * @return one new processor per thread of this scan.
+     */
+    public <P extends RecordStore.Processor> List<P> newProcessors( ProcessorFactory<P> factory )
+    {
+        List<P> processors = new ArrayList<P>( threads );
+        for ( int i = 0; i < threads; i++ )
+        {
+            processors.add( factory.newProcessor() );
+        }
+        return processors;
+    }
+
+    /**
+     * Applies new processors to the records of {@code store} which pass all
+     * {@code filters}.
+     *
+     * @return the processors, one per thread, to merge the results from.
+     */
+    public <P extends RecordStore.Processor, R extends AbstractBaseRecord> List<P> apply( RecordStore<R> store,
+            ProcessorFactory<P> factory, Predicate<? super R>... filters )
+    {
+        List<P> processors = newProcessors( factory );
+        apply( store, processors, filters );
+        return processors;
+    }
+
+    /**
+     * Applies {@code processors}, one per thread, to the records of
+     * {@code store} which pass all {@code filters}. The same processors can
+     * be applied to several stores, one store after the other.
+     */
+    public <R extends AbstractBaseRecord> void apply( final RecordStore<R> store,
+            List<? extends RecordStore.Processor> processors, final Predicate<? super R>... filters )
+    {
+        final long idCount = store.getHighId() + 1;
+        final long recordsPerPartition = Math.max( partitionSize / store.getRecordSize(), 1 );
+        final AtomicLong nextPartition = new AtomicLong();
+        final AtomicBoolean failed = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool( processors.size(),
+                new NamedThreadFactory( "Store scan of " + WindowPoolStats.extractName( store.getStorageFileName() ) ) );
+        try
+        {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>( processors.size() );
+            for ( final RecordStore.Processor processor : processors )
+            {
+                futures.add( executor.submit( new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        try
+                        {
+                            long fromId;
+                            while ( !failed.get() &&
+                                    (fromId = nextPartition.getAndIncrement() * recordsPerPartition) < idCount )
+                            {
+                                processor.applyFiltered( store, fromId,
+                                        Math.min( fromId + recordsPerPartition, idCount ), filters );
+                            }
+                            return null;
+                        }
+                        catch ( RuntimeException e )
+                        {
+                            failed.set( true );
+                            throw e;
+                        }
+                        catch ( Error e )
+                        {
+                            failed.set( true );
+                            throw e;
+                        }
+                    }
+                } ) );
+            }
+            for ( Future<Void> future : futures )
+            {
+                future.get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new UnderlyingStorageException( "Interrupted while scanning " + store.getStorageFileName(), e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw launderedException( "Failed to scan " + store.getStorageFileName(), e.getCause() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -655,6 +655,15 @@ public class PersistenceWindowPool implements WindowPool
         log.logMessage( "[" + storeName + "] " + logMessage, cause );
     }
 
+    /**
+     * Bricks are mapped from their hit counts when refreshing, there's nothing
+     * this pool can read ahead of time.
+     */
+    @Override
+    public void prefetch( long position )
+    {
+    }
+
     @Override
     public WindowPoolStats getStats()
     {
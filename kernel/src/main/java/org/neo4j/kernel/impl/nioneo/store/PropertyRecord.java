@@ -189,6 +189,16 @@ public class PropertyRecord extends Abstract64BitRecord
         primitive.setIdTo( this );
     }
 
+    /**
+     * Marks this record as changed on behalf of the node or relationship it
+     * already has the id of, as a record read back from a command has.
+     */
+    public void setChanged()
+    {
+        assert entityId != -1;
+        isChanged = true;
+    }
+
     public long getPrevProp()
     {
         return prevProp;
@@ -27,6 +27,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.UTF8;
 import org.neo4j.kernel.IdGeneratorFactory;
@@ -44,7 +46,8 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
     public static abstract class Configuration
         extends AbstractStore.Configuration
     {
-        
+        public static final GraphDatabaseSetting<Integer> property_value_cache_size =
+                GraphDatabaseSettings.property_value_cache_size;
     }
     
     public static final int DEFAULT_DATA_BLOCK_SIZE = 120;
@@ -61,6 +64,9 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
     private DynamicStringStore stringPropertyStore;
     private PropertyIndexStore propertyIndexStore;
     private DynamicArrayStore arrayPropertyStore;
+    // null if values aren't cached
+    private final DynamicValueCache stringValueCache;
+    private final DynamicValueCache arrayValueCache;
 
     public PropertyStore(String fileName, Config configuration,
                          IdGeneratorFactory idGeneratorFactory, WindowPoolFactory windowPoolFactory,
@@ -73,7 +79,10 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
         this.stringPropertyStore = stringPropertyStore;
         this.propertyIndexStore = propertyIndexStore;
         this.arrayPropertyStore = arrayPropertyStore;
-
+        int valueCacheSize = configuration.isSet( Configuration.property_value_cache_size ) ?
+                configuration.get( Configuration.property_value_cache_size ) : 0;
+        stringValueCache = valueCacheSize > 0 ? new DynamicValueCache( "StringValueCache", valueCacheSize ) : null;
+        arrayValueCache = valueCacheSize > 0 ? new DynamicValueCache( "ArrayValueCache", valueCacheSize ) : null;
     }
 
     @Override
@@ -110,6 +119,15 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
         arrayPropertyStore.unsetRecovered();
     }
 
+    @Override
+    protected void setRecoveryModeHeld( boolean held )
+    {
+        super.setRecoveryModeHeld( held );
+        stringPropertyStore.setRecoveryModeHeld( held );
+        propertyIndexStore.setRecoveryModeHeld( held );
+        arrayPropertyStore.setRecoveryModeHeld( held );
+    }
+
     @Override
     protected void closeStorage()
     {
@@ -284,10 +302,12 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
             if ( valueRecord.getType() == PropertyType.STRING.intValue() )
             {
                 stringPropertyStore.updateRecord( valueRecord );
+                if ( stringValueCache != null ) stringValueCache.written( valueRecord.getId() );
             }
             else if ( valueRecord.getType() == PropertyType.ARRAY.intValue() )
             {
                 arrayPropertyStore.updateRecord( valueRecord );
+                if ( arrayValueCache != null ) arrayValueCache.written( valueRecord.getId() );
             }
             else
             {
@@ -487,6 +507,70 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
         return propertyBlock.getType().getValue( propertyBlock, this );
     }
 
+    /**
+     * @return the value of the {@link PropertyType#STRING string} or
+     * {@link PropertyType#ARRAY array} {@code block} if it is cached, otherwise
+     * {@code null}.
+     */
+    public Object getCachedValue( PropertyBlock block )
+    {
+        DynamicValueCache cache = valueCacheFor( block );
+        return cache != null ? cache.get( block.getSingleValueLong() ) : null;
+    }
+
+    /**
+     * Gets the value of {@code block}, reading its dynamic records unless the
+     * value is cached. The value of a light block is cached once read, unless
+     * it spans many records.
+     */
+    public Object loadValue( PropertyBlock block )
+    {
+        DynamicValueCache cache = valueCacheFor( block );
+        if ( cache == null || !block.isLight() )
+        {
+            if ( block.isLight() )
+            {
+                makeHeavy( block );
+            }
+            return getValue( block );
+        }
+        Object value = cache.get( block.getSingleValueLong() );
+        if ( value == null )
+        {
+            long stamp = cache.stamp();
+            makeHeavy( block );
+            value = getValue( block );
+            if ( isCacheable( block ) )
+            {
+                cache.put( block.getSingleValueLong(), value, stamp );
+            }
+        }
+        return value;
+    }
+
+    private static boolean isCacheable( PropertyBlock block )
+    {
+        List<DynamicRecord> records = block.getValueRecords();
+        if ( records.size() > DynamicValueCache.MAX_RECORDS )
+        {
+            return false;
+        }
+        for ( DynamicRecord record : records )
+        {
+            if ( record.isCreated() )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private DynamicValueCache valueCacheFor( PropertyBlock block )
+    {
+        PropertyType type = block.getType();
+        return type == PropertyType.STRING ? stringValueCache : type == PropertyType.ARRAY ? arrayValueCache : null;
+    }
+
     @Override
     public void makeStoreOk()
     {
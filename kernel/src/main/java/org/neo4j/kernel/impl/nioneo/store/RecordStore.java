@@ -83,6 +83,12 @@ public interface RecordStore<R extends AbstractBaseRecord>
             processRecord( RelationshipRecord.class, store, rel );
         }
 
+        public void processRelationshipGroup( RecordStore<RelationshipGroupRecord> store,
+                RelationshipGroupRecord group )
+        {
+            processRecord( RelationshipGroupRecord.class, store, group );
+        }
+
         public void processProperty( RecordStore<PropertyRecord> store, PropertyRecord property )
         {
             processRecord( PropertyRecord.class, store, property );
@@ -121,6 +127,24 @@ public interface RecordStore<R extends AbstractBaseRecord>
 
         public <R extends AbstractBaseRecord> Iterable<R> scan( final RecordStore<R> store,
                 final Predicate<? super R>... filters )
+        {
+            return new Iterable<R>()
+            {
+                @Override
+                public Iterator<R> iterator()
+                {
+                    return scan( store, 0, store.getHighId() + 1, filters ).iterator();
+                }
+            };
+        }
+
+        /**
+         * Like {@link #scan(RecordStore, Predicate...)}, but only over the
+         * records with ids from {@code fromId} up to, but not including,
+         * {@code toId}.
+         */
+        public <R extends AbstractBaseRecord> Iterable<R> scan( final RecordStore<R> store, final long fromId,
+                final long toId, final Predicate<? super R>... filters )
         {
             return new Iterable<R>()
             {
@@ -129,13 +153,12 @@ public interface RecordStore<R extends AbstractBaseRecord>
                 {
                     return new PrefetchingIterator<R>()
                     {
-                        final long highId = store.getHighId();
-                        int id = 0;
+                        long id = fromId;
 
                         @Override
                         protected R fetchNextOrNull()
                         {
-                            scan: while ( id <= highId && id >= 0 )
+                            scan: while ( id < toId && id >= 0 )
                             {
                                 if (!continueScanning)
                                 {
@@ -190,6 +213,19 @@ public interface RecordStore<R extends AbstractBaseRecord>
             apply( store, progressListener, filters );
         }
 
+        /**
+         * Applies this processor to the records with ids from {@code fromId}
+         * up to, but not including, {@code toId}, see {@link ParallelStoreScan}.
+         */
+        public <R extends AbstractBaseRecord> void applyFiltered( RecordStore<R> store, long fromId, long toId,
+                Predicate<? super R>... filters )
+        {
+            for ( R record : scan( store, fromId, toId, filters ) )
+            {
+                store.accept( this, record );
+            }
+        }
+
         private final <R extends AbstractBaseRecord> void apply( RecordStore<R> store, ProgressListener progressListener,
                 Predicate<? super R>... filters )
         {
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * Follows one walk down a relationship chain and prefetches the pages of the
+ * relationship store it's heading for.
+ * <p>
+ * A chain is linked through record ids, so where it goes next isn't known
+ * until the current record has been read. Chains do tend to run in one
+ * direction though, newer relationships are put first and get higher ids,
+ * so a walk typically moves down through the store, record by record for a
+ * node whose relationships were created together and in larger strides
+ * otherwise. Once a couple of hops in a row have gone the same way the walk
+ * prefetches the pages its average stride would take it to next, up to
+ * {@code depth} pages ahead. A walk which turns around starts over.
+ * <p>
+ * A walk is used by one thread at a time.
+ */
+public class RelationshipChainWalk
+{
+    static final RelationshipChainWalk NO_PREFETCH = new RelationshipChainWalk( null, 0, 1 );
+
+    // Hops in the same direction needed before anything is prefetched
+    private static final int MIN_RUN = 2;
+
+    private final RelationshipStore store;
+    private final int depth;
+    private final long recordsPerPage;
+
+    private long last = -1;
+    private int direction;
+    private int run;
+    private long distance;
+    // The page furthest along the current direction prefetched so far
+    private long frontierPage;
+
+    RelationshipChainWalk( RelationshipStore store, int depth, long recordsPerPage )
+    {
+        this.store = store;
+        this.depth = depth;
+        this.recordsPerPage = recordsPerPage;
+    }
+
+    /**
+     * Reports that the walk is about to read the record at {@code position}.
+     */
+    public void hop( long position )
+    {
+        if ( depth == 0 )
+        {
+            return;
+        }
+        long previous = last;
+        last = position;
+        if ( previous == -1 || position == previous )
+        {
+            return;
+        }
+
+        int hopDirection = position > previous ? 1 : -1;
+        if ( hopDirection != direction )
+        {
+            direction = hopDirection;
+            run = 0;
+            distance = 0;
+            frontierPage = position / recordsPerPage;
+        }
+        run++;
+        distance += Math.abs( position - previous );
+        if ( run < MIN_RUN )
+        {
+            return;
+        }
+
+        long stride = Math.max( distance / run, 1 );
+        long page = position / recordsPerPage;
+        long target = position;
+        for ( int i = 0; i < depth; )
+        {
+            target += direction * stride;
+            if ( target < 0 )
+            {
+                return;
+            }
+            long targetPage = target / recordsPerPage;
+            if ( targetPage == page )
+            {
+                // Still on the page being read, skip ahead to where it ends
+                target = direction > 0 ? (page + 1) * recordsPerPage - 1 : page * recordsPerPage;
+                continue;
+            }
+            page = targetPage;
+            i++;
+            if ( (targetPage - frontierPage) * direction > 0 )
+            {
+                frontierPage = targetPage;
+                store.prefetch( target );
+            }
+        }
+    }
+}
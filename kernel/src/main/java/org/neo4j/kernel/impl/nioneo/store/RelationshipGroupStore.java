@@ -0,0 +1,311 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.nioneo.store.windowpool.WindowPoolFactory;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Implementation of the relationship group store. Nodes with many
+ * relationships, dense nodes, don't keep their relationships in one chain
+ * but in one {@link RelationshipGroupRecord group} per relationship type, with
+ * a chain per direction in each group. Relationships of one type and
+ * direction can then be loaded without reading all the others.
+ */
+public class RelationshipGroupStore extends AbstractStore implements Store, RecordStore<RelationshipGroupRecord>
+{
+    public static abstract class Configuration
+        extends AbstractStore.Configuration
+    {
+        public static final GraphDatabaseSetting<Integer> dense_node_threshold = GraphDatabaseSettings.dense_node_threshold;
+    }
+
+    public static final String TYPE_DESCRIPTOR = "RelationshipGroupStore";
+
+    // in_use|next_high_bits|owner_high_bits(byte)+type(short)+next(int)+
+    // first_out(int)+first_in(int)+first_loop(int)+first_high_bits(short)+
+    // owning_node(int)+out_count(int)+in_count(int)+loop_count(int)
+    public static final int RECORD_SIZE = 37;
+
+    private final int denseNodeThreshold;
+    private boolean denseNodes;
+
+    public RelationshipGroupStore( String fileName, Config configuration, IdGeneratorFactory idGeneratorFactory,
+            WindowPoolFactory windowPoolFactory, FileSystemAbstraction fileSystemAbstraction, StringLogger stringLogger )
+    {
+        super( fileName, configuration, IdType.RELATIONSHIP_GROUP, idGeneratorFactory, windowPoolFactory,
+                fileSystemAbstraction, stringLogger );
+        denseNodeThreshold = configuration.isSet( Configuration.dense_node_threshold ) ?
+                configuration.get( Configuration.dense_node_threshold ) : 0;
+    }
+
+    @Override
+    public void accept( RecordStore.Processor processor, RelationshipGroupRecord record )
+    {
+        processor.processRelationshipGroup( this, record );
+    }
+
+    @Override
+    public String getTypeDescriptor()
+    {
+        return TYPE_DESCRIPTOR;
+    }
+
+    @Override
+    public int getRecordSize()
+    {
+        return RECORD_SIZE;
+    }
+
+    @Override
+    public int getRecordHeaderSize()
+    {
+        return getRecordSize();
+    }
+
+    /**
+     * @return the number of relationships a node can have before the next one
+     * turns it into a dense node, or {@code 0} if nodes are never made dense.
+     * That's always the case for stores of a version without dense nodes.
+     */
+    public int getDenseNodeThreshold()
+    {
+        return denseNodes ? denseNodeThreshold : 0;
+    }
+
+    /**
+     * Called by the {@link NeoStore}, whose store version record decides
+     * whether or not nodes can be dense.
+     */
+    void setDenseNodes( boolean denseNodes )
+    {
+        this.denseNodes = denseNodes;
+    }
+
+    public RelationshipGroupRecord getRecord( long id )
+    {
+        PersistenceWindow window = acquireWindow( id, OperationType.READ );
+        try
+        {
+            return getRecord( id, window, RecordLoad.NORMAL );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    @Override
+    public RelationshipGroupRecord forceGetRecord( long id )
+    {
+        PersistenceWindow window = null;
+        try
+        {
+            window = acquireWindow( id, OperationType.READ );
+        }
+        catch ( InvalidRecordException e )
+        {
+            return new RelationshipGroupRecord( id, -1, -1 );
+        }
+
+        try
+        {
+            return getRecord( id, window, RecordLoad.FORCE );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    @Override
+    public RelationshipGroupRecord forceGetRaw( RelationshipGroupRecord record )
+    {
+        return record;
+    }
+
+    @Override
+    public RelationshipGroupRecord forceGetRaw( long id )
+    {
+        return forceGetRecord( id );
+    }
+
+    public void updateRecord( RelationshipGroupRecord record, boolean recovered )
+    {
+        assert recovered;
+        setRecovered();
+        try
+        {
+            updateRecord( record );
+            registerIdFromUpdateRecord( record.getId() );
+        }
+        finally
+        {
+            unsetRecovered();
+        }
+    }
+
+    @Override
+    public void updateRecord( RelationshipGroupRecord record )
+    {
+        PersistenceWindow window = acquireWindow( record.getId(), OperationType.WRITE );
+        try
+        {
+            updateRecord( record, window, false );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    @Override
+    public void forceUpdateRecord( RelationshipGroupRecord record )
+    {
+        PersistenceWindow window = acquireWindow( record.getId(), OperationType.WRITE );
+        try
+        {
+            updateRecord( record, window, true );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    private void updateRecord( RelationshipGroupRecord record, PersistenceWindow window, boolean force )
+    {
+        long id = record.getId();
+        Buffer buffer = window.getOffsettedBuffer( id );
+        if ( record.inUse() || force )
+        {
+            long next = record.getNext();
+            long nextMod = next == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (next & 0x700000000L) >> 31;
+            long owningNode = record.getOwningNode();
+            long owningNodeMod = (owningNode & 0x700000000L) >> 28;
+
+            long firstOut = record.getFirstOut();
+            long firstOutMod = firstOut == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (firstOut & 0x700000000L) >> 32;
+            long firstIn = record.getFirstIn();
+            long firstInMod = firstIn == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (firstIn & 0x700000000L) >> 29;
+            long firstLoop = record.getFirstLoop();
+            long firstLoopMod = firstLoop == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (firstLoop & 0x700000000L) >> 26;
+
+            // [    ,   x] in use flag
+            // [    ,xxx ] next group high order bits
+            // [ xxx,    ] owning node high order bits
+            short inUseUnsignedByte = (short)((record.inUse() ? Record.IN_USE : Record.NOT_IN_USE).byteValue() |
+                    nextMod | owningNodeMod);
+
+            // [    ,    ][    , xxx] first out high order bits
+            // [    ,    ][  xx,x   ] first in high order bits
+            // [    ,   x][xx  ,    ] first loop high order bits
+            short firstMods = (short)(firstOutMod | firstInMod | firstLoopMod);
+
+            buffer.put( (byte) inUseUnsignedByte ).putShort( (short) record.getType() ).putInt( (int) next )
+                .putInt( (int) firstOut ).putInt( (int) firstIn ).putInt( (int) firstLoop ).putShort( firstMods )
+                .putInt( (int) owningNode ).putInt( (int) record.getOutCount() ).putInt( (int) record.getInCount() )
+                .putInt( (int) record.getLoopCount() );
+        }
+        else
+        {
+            buffer.put( Record.NOT_IN_USE.byteValue() );
+            if ( !isInRecoveryMode() )
+            {
+                freeId( id );
+            }
+        }
+    }
+
+    private RelationshipGroupRecord getRecord( long id, PersistenceWindow window, RecordLoad load )
+    {
+        Buffer buffer = window.getOffsettedBuffer( id );
+
+        // [    ,   x] in use flag
+        // [    ,xxx ] next group high order bits
+        // [ xxx,    ] owning node high order bits
+        long inUseByte = buffer.get();
+
+        boolean inUse = (inUseByte & 0x1) == Record.IN_USE.intValue();
+        if ( !inUse )
+        {
+            switch ( load )
+            {
+            case NORMAL:
+                throw new InvalidRecordException( "RelationshipGroupRecord[" + id + "] not in use" );
+            case CHECK:
+                return null;
+            }
+        }
+
+        int type = buffer.getShort() & 0xFFFF;
+        long next = buffer.getUnsignedInt();
+        long firstOut = buffer.getUnsignedInt();
+        long firstIn = buffer.getUnsignedInt();
+        long firstLoop = buffer.getUnsignedInt();
+        long firstMods = buffer.getShort() & 0xFFFF;
+        long owningNode = buffer.getUnsignedInt();
+
+        RelationshipGroupRecord record = new RelationshipGroupRecord( id, type,
+                longFromIntAndMod( owningNode, (inUseByte & 0x70L) << 28 ) );
+        record.setInUse( inUse );
+        record.setNext( longFromIntAndMod( next, (inUseByte & 0xEL) << 31 ) );
+        record.setFirstOut( longFromIntAndMod( firstOut, (firstMods & 0x7L) << 32 ) );
+        record.setFirstIn( longFromIntAndMod( firstIn, (firstMods & 0x38L) << 29 ) );
+        record.setFirstLoop( longFromIntAndMod( firstLoop, (firstMods & 0x1C0L) << 26 ) );
+        record.setOutCount( buffer.getUnsignedInt() );
+        record.setInCount( buffer.getUnsignedInt() );
+        record.setLoopCount( buffer.getUnsignedInt() );
+        return record;
+    }
+
+    /**
+     * @return the groups of the dense node {@code node}, in the order they're
+     * linked from the node.
+     */
+    public List<RelationshipGroupRecord> getGroups( NodeRecord node )
+    {
+        assert node.isDense() : node + " isn't dense";
+        List<RelationshipGroupRecord> groups = new ArrayList<RelationshipGroupRecord>();
+        for ( long id = node.getNextRel(); id != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipGroupRecord group = getRecord( id );
+            groups.add( group );
+            id = group.getNext();
+        }
+        return groups;
+    }
+
+    @Override
+    public List<WindowPoolStats> getAllWindowPoolStats()
+    {
+        List<WindowPoolStats> list = new ArrayList<WindowPoolStats>();
+        list.add( getWindowPoolStats() );
+        return list;
+    }
+}
@@ -20,8 +20,11 @@
 package org.neo4j.kernel.impl.nioneo.store;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.configuration.Config;
@@ -36,6 +39,8 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
     public static abstract class Configuration
         extends AbstractStore.Configuration
     {
+        public static final GraphDatabaseSetting<Integer> relationship_chain_prefetch_depth = GraphDatabaseSettings.relationship_chain_prefetch_depth;
+        public static final GraphDatabaseSetting<Long> mapped_memory_page_size = GraphDatabaseSettings.mapped_memory_page_size;
     }
     
     public static final String TYPE_DESCRIPTOR = "RelationshipStore";
@@ -46,11 +51,21 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
     // second_next_rel_id+next_prop_id(int)
     public static final int RECORD_SIZE = 33;
 
+    private static final long DEFAULT_PAGE_SIZE = 1024 * 1024;
+
+    private final int prefetchDepth;
+    private final long recordsPerPage;
+
     public RelationshipStore(String fileName, Config configuration, IdGeneratorFactory idGeneratorFactory,
                              WindowPoolFactory windowPoolFactory, FileSystemAbstraction fileSystemAbstraction, StringLogger stringLogger)
     {
         super(fileName, configuration, IdType.RELATIONSHIP, idGeneratorFactory,
                 windowPoolFactory, fileSystemAbstraction, stringLogger);
+        prefetchDepth = configuration.isSet( Configuration.relationship_chain_prefetch_depth ) ?
+                configuration.get( Configuration.relationship_chain_prefetch_depth ) : 0;
+        long pageSize = configuration.isSet( Configuration.mapped_memory_page_size ) ?
+                configuration.get( Configuration.mapped_memory_page_size ) : DEFAULT_PAGE_SIZE;
+        recordsPerPage = Math.max( pageSize / RECORD_SIZE, 1 );
     }
 
     @Override
@@ -154,6 +169,24 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         }
     }
 
+    /**
+     * Batch version of {@link #getLightRel(long)}.
+     *
+     * @return the records of {@code ids}, in the same order as the ids, with
+     * {@code null} for the relationships that don't exist.
+     */
+    public List<RelationshipRecord> getLightRels( long[] ids )
+    {
+        return new RecordBatchReader<RelationshipRecord>()
+        {
+            @Override
+            protected RelationshipRecord read( long id, PersistenceWindow window )
+            {
+                return getRecord( id, window, RecordLoad.CHECK );
+            }
+        }.readAll( ids );
+    }
+
     public void updateRecord( RelationshipRecord record, boolean recovered )
     {
         assert recovered;
@@ -253,6 +286,23 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         }
     }
 
+    /**
+     * @return the relationships in use with ids from {@code fromId} up to, but
+     * not including, {@code toId}, read straight from the store a window at a
+     * time.
+     */
+    public Iterator<RelationshipRecord> scan( long fromId, long toId )
+    {
+        return new RecordScanner<RelationshipRecord>( fromId, toId )
+        {
+            @Override
+            protected RelationshipRecord read( long id, PersistenceWindow window )
+            {
+                return getRecord( id, window, RecordLoad.CHECK );
+            }
+        };
+    }
+
     private RelationshipRecord getRecord( long id, PersistenceWindow window,
         RecordLoad load )
     {
@@ -358,6 +408,20 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         }
     }
 
+    /**
+     * @return a walk to report the records of one relationship chain to, in
+     * the order they're read, so that the pages the walk is heading for can be
+     * prefetched. Does nothing if prefetching isn't configured.
+     */
+    public RelationshipChainWalk newChainWalk()
+    {
+        if ( prefetchDepth == 0 )
+        {
+            return RelationshipChainWalk.NO_PREFETCH;
+        }
+        return new RelationshipChainWalk( this, prefetchDepth, recordsPerPage );
+    }
+
     @Override
     public List<WindowPoolStats> getAllWindowPoolStats()
     {
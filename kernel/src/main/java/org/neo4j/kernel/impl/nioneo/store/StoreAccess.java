@@ -22,6 +22,7 @@ package org.neo4j.kernel.impl.nioneo.store;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting;
 import org.neo4j.graphdb.factory.GraphDatabaseSettings;
@@ -35,7 +36,8 @@ import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
  * Not thread safe (since DiffRecordStore is not thread safe), intended for
- * single threaded use.
+ * single threaded use. Stores which aren't wrapped can still be scanned in
+ * parallel, see {@link #applyToAll(ParallelStoreScan, ParallelStoreScan.ProcessorFactory)}.
  */
 public class StoreAccess
 {
@@ -173,6 +175,24 @@ public class StoreAccess
         return processor;
     }
 
+    /**
+     * Applies processors from {@code factory} to all stores in parallel, see
+     * {@link ParallelStoreScan}. The stores are scanned one after the other.
+     *
+     * @return the processors, one per thread, to merge the results from.
+     */
+    @SuppressWarnings( "unchecked" )
+    public final <P extends RecordStore.Processor> List<P> applyToAll( ParallelStoreScan scan,
+            ParallelStoreScan.ProcessorFactory<P> factory )
+    {
+        List<P> processors = scan.newProcessors( factory );
+        for ( RecordStore<?> store : allStores() )
+        {
+            scan.apply( store, processors, RecordStore.IN_USE );
+        }
+        return processors;
+    }
+
     protected RecordStore<?>[] allStores()
     {
         if( propStore == null )
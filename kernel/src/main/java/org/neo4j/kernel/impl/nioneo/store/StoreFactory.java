@@ -50,6 +50,8 @@ public class StoreFactory
     {
         public static final GraphDatabaseSetting.IntegerSetting string_block_size = GraphDatabaseSettings.string_block_size;
         public static final GraphDatabaseSetting.IntegerSetting array_block_size = GraphDatabaseSettings.array_block_size;
+        public static final GraphDatabaseSetting.IntegerSetting dense_node_threshold = GraphDatabaseSettings.dense_node_threshold;
+        public static final GraphDatabaseSetting.BooleanSetting allow_store_upgrade = GraphDatabaseSettings.allow_store_upgrade;
     }
     
     protected static final Logger logger = Logger.getLogger(StoreFactory.class.getName());
@@ -92,6 +94,10 @@ public class StoreFactory
     {
         try
         {
+            if ( shouldUpgradeToDenseNodes( fileName ) )
+            {
+                tryToUpgradeToDenseNodes( fileName );
+            }
             return attemptNewNeoStore( fileName );
         }
         catch ( NotCurrentStoreVersionException e )
@@ -101,21 +107,70 @@ public class StoreFactory
         }
     }
 
-    NeoStore attemptNewNeoStore( String fileName )
+    /**
+     * Opens the stores as they are, without upgrading them.
+     */
+    public NeoStore attemptNewNeoStore( String fileName )
     {
+        String relGroupStoreName = fileName + ".relationshipgroupstore.db";
+        if ( !fileSystemAbstraction.fileExists( relGroupStoreName ) )
+        {
+            // Stores written before relationship groups existed have no group store, create an empty one
+            createRelationshipGroupStore( relGroupStoreName );
+        }
         return new NeoStore( fileName, config, idGeneratorFactory, windowPoolFactory, fileSystemAbstraction,
                 stringLogger, txHook,
                 newRelationshipTypeStore(fileName + ".relationshiptypestore.db"),
                 newPropertyStore(fileName + ".propertystore.db"),
                 newRelationshipStore(fileName + ".relationshipstore.db"),
+                newRelationshipGroupStore(relGroupStoreName),
                 newNodeStore(fileName + ".nodestore.db"));
     }
 
     private void tryToUpgradeStores( String fileName )
     {
-        new StoreUpgrader(config, stringLogger, new ConfigMapUpgradeConfiguration(config),
+        newStoreUpgrader().attemptUpgrade( fileName );
+    }
+
+    /*
+     * A store of a version without dense nodes is only upgraded to one with them if a dense node
+     * threshold is configured, since the upgrade takes a bit from the property ids of nodes, and
+     * changes the store id. Without allow_store_upgrade it's opened as it is and nodes aren't made dense.
+     */
+    private boolean shouldUpgradeToDenseNodes( String fileName )
+    {
+        if ( config.get( GraphDatabaseSettings.read_only ) || denseNodeThreshold() <= 0 ||
+                !fileSystemAbstraction.fileExists( fileName ) ||
+                NeoStore.getStoreVersion( fileSystemAbstraction, fileName ) !=
+                        NeoStore.versionStringToLong( CommonAbstractStore.ALL_STORES_VERSION ) )
+        {
+            return false;
+        }
+        if ( !config.get( Configuration.allow_store_upgrade ) )
+        {
+            stringLogger.logMessage( fileName + " is of a version without dense nodes, " +
+                    GraphDatabaseSettings.dense_node_threshold.name() + " has no effect unless " +
+                    GraphDatabaseSettings.allow_store_upgrade.name() + " lets it be upgraded", true );
+            return false;
+        }
+        return true;
+    }
+
+    private int denseNodeThreshold()
+    {
+        return config.isSet( Configuration.dense_node_threshold ) ? config.get( Configuration.dense_node_threshold ) : 0;
+    }
+
+    private void tryToUpgradeToDenseNodes( String fileName )
+    {
+        newStoreUpgrader().attemptDenseNodesUpgrade( fileName );
+    }
+
+    private StoreUpgrader newStoreUpgrader()
+    {
+        return new StoreUpgrader(config, stringLogger, new ConfigMapUpgradeConfiguration(config),
                 new UpgradableDatabase(), new StoreMigrator( new VisibleMigrationProgressMonitor( System.out ) ),
-                new DatabaseFiles(), idGeneratorFactory, fileSystemAbstraction ).attemptUpgrade( fileName );
+                new DatabaseFiles(), idGeneratorFactory, fileSystemAbstraction );
     }
 
     private DynamicStringStore newDynamicStringStore(String s, IdType nameIdType)
@@ -153,6 +208,12 @@ public class StoreFactory
                 fileSystemAbstraction, stringLogger);
     }
 
+    private RelationshipGroupStore newRelationshipGroupStore(String s)
+    {
+        return new RelationshipGroupStore( s, config, idGeneratorFactory, windowPoolFactory,
+                fileSystemAbstraction, stringLogger);
+    }
+
     private DynamicArrayStore newDynamicArrayStore(String s)
     {
         return new DynamicArrayStore( s, config, IdType.ARRAY_BLOCK, idGeneratorFactory, windowPoolFactory,
@@ -166,7 +227,10 @@ public class StoreFactory
 
     public NeoStore createNeoStore(String fileName)
     {
-        return createNeoStore( fileName, new StoreId() );
+        // New stores only get the version which lets nodes be dense if they will be made dense
+        String storeVersion = denseNodeThreshold() > 0 ?
+                CommonAbstractStore.DENSE_NODES_STORE_VERSION : CommonAbstractStore.ALL_STORES_VERSION;
+        return createNeoStore( fileName, new StoreId( NeoStore.versionStringToLong( storeVersion ) ) );
     }
 
     public NeoStore createNeoStore(String fileName, StoreId storeId)
@@ -174,6 +238,7 @@ public class StoreFactory
         createEmptyStore( fileName, buildTypeDescriptorAndVersion( NeoStore.TYPE_DESCRIPTOR ) );
         createNodeStore(fileName + ".nodestore.db");
         createRelationshipStore(fileName + ".relationshipstore.db");
+        createRelationshipGroupStore(fileName + ".relationshipgroupstore.db");
         createPropertyStore(fileName + ".propertystore.db");
         createRelationshipTypeStore(fileName + ".relationshiptypestore.db");
 /*
@@ -232,6 +297,17 @@ public class StoreFactory
         createEmptyStore( fileName, buildTypeDescriptorAndVersion( RelationshipStore.TYPE_DESCRIPTOR )  );
     }
 
+    /**
+     * Creates a new relationship group store contained in <CODE>fileName</CODE>.
+     *
+     * @param fileName
+     *            File name of the new relationship group store
+     */
+    private void createRelationshipGroupStore( String fileName )
+    {
+        createEmptyStore( fileName, buildTypeDescriptorAndVersion( RelationshipGroupStore.TYPE_DESCRIPTOR ) );
+    }
+
     /**
      * Creates a new property store contained in <CODE>fileName</CODE> If
      * filename is <CODE>null</CODE> or the file already exists an
@@ -37,6 +37,11 @@ public final class StoreId
                 NeoStore.versionStringToLong( CommonAbstractStore.ALL_STORES_VERSION ) );
     }
 
+    public StoreId( long storeVersion )
+    {
+        this( System.currentTimeMillis(), r.nextLong(), storeVersion );
+    }
+
     public StoreId( long creationTime, long randomId, long storeVersion )
     {
         this.creationTime = creationTime;
@@ -39,10 +39,33 @@ public class WindowPoolStats
     private final int avgRefreshTime;
     private final int refreshCount;
     private final int avertedRefreshCount;
+
+    private final int evictionCount;
+    private final int faultCount;
+
+    private final int prefetchCount;
+    private final int prefetchHitCount;
     
     public WindowPoolStats( String name, long memAvail, long memUsed, int windowCount,
             int windowSize, int hitCount, int missCount, int oomCount, int switchCount, int avgRefreshTime,
             int refreshCount, int avertedRefreshCount )
+    {
+        this( name, memAvail, memUsed, windowCount, windowSize, hitCount, missCount, oomCount, switchCount,
+                avgRefreshTime, refreshCount, avertedRefreshCount, 0, 0 );
+    }
+
+    public WindowPoolStats( String name, long memAvail, long memUsed, int windowCount,
+            int windowSize, int hitCount, int missCount, int oomCount, int switchCount, int avgRefreshTime,
+            int refreshCount, int avertedRefreshCount, int evictionCount, int faultCount )
+    {
+        this( name, memAvail, memUsed, windowCount, windowSize, hitCount, missCount, oomCount, switchCount,
+                avgRefreshTime, refreshCount, avertedRefreshCount, evictionCount, faultCount, 0, 0 );
+    }
+
+    public WindowPoolStats( String name, long memAvail, long memUsed, int windowCount,
+            int windowSize, int hitCount, int missCount, int oomCount, int switchCount, int avgRefreshTime,
+            int refreshCount, int avertedRefreshCount, int evictionCount, int faultCount, int prefetchCount,
+            int prefetchHitCount )
     {
         this.name = extractName( name );
         this.memAvail = memAvail;
@@ -56,6 +79,10 @@ public class WindowPoolStats
         this.avgRefreshTime = avgRefreshTime;
         this.refreshCount = refreshCount;
         this.avertedRefreshCount = avertedRefreshCount;
+        this.evictionCount = evictionCount;
+        this.faultCount = faultCount;
+        this.prefetchCount = prefetchCount;
+        this.prefetchHitCount = prefetchHitCount;
     }
     
     public static String extractName( String name )
@@ -122,6 +149,51 @@ public class WindowPoolStats
     {
         return avertedRefreshCount;
     }
+
+    /**
+     * @return the number of windows/pages which have been evicted to make room
+     * for others.
+     */
+    public int getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    /**
+     * @return the number of windows/pages which have been read or mapped in on
+     * request.
+     */
+    public int getFaultCount()
+    {
+        return faultCount;
+    }
+
+    /**
+     * @return the number of windows/pages which have been read or mapped in
+     * ahead of being requested.
+     */
+    public int getPrefetchCount()
+    {
+        return prefetchCount;
+    }
+
+    /**
+     * @return the number of prefetched windows/pages which were requested
+     * before being evicted again.
+     */
+    public int getPrefetchHitCount()
+    {
+        return prefetchHitCount;
+    }
+
+    /**
+     * @return the fraction of prefetched windows/pages which were requested
+     * before being evicted again, 0 if nothing has been prefetched.
+     */
+    public double getPrefetchHitRatio()
+    {
+        return prefetchCount == 0 ? 0 : (double) prefetchHitCount / prefetchCount;
+    }
     
     @Override
     public String toString()
@@ -137,7 +209,11 @@ public class WindowPoolStats
                 "switchCount:" + switchCount + ", " +
                 "avgRefreshTime:" + avgRefreshTime + ", " +
                 "refreshCount:" + refreshCount + ", " +
-                "avertedRefreshCount:" + avertedRefreshCount +
+                "avertedRefreshCount:" + avertedRefreshCount + ", " +
+                "evictionCount:" + evictionCount + ", " +
+                "faultCount:" + faultCount + ", " +
+                "prefetchCount:" + prefetchCount + ", " +
+                "prefetchHitCount:" + prefetchHitCount +
                 "]";
     }
 }
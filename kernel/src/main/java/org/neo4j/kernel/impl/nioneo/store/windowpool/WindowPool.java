@@ -50,6 +50,16 @@ public interface WindowPool
      */
     void release( PersistenceWindow window );
 
+    /**
+     * Hints that <CODE>position</CODE> is likely to be acquired soon, so that
+     * the pool can start reading it in the background. Never blocks and the
+     * pool is free to ignore it.
+     *
+     * @param position
+     *            The position that is likely to be acquired
+     */
+    void prefetch( long position );
+
     void flushAll();
 
     void close();
@@ -38,6 +38,8 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -287,6 +289,10 @@ public abstract class Command extends XaCommand
     private static final byte REL_TYPE_COMMAND = (byte) 4;
     private static final byte PROP_INDEX_COMMAND = (byte) 5;
     private static final byte NEOSTORE_COMMAND = (byte) 6;
+    private static final byte REL_GROUP_COMMAND = (byte) 7;
+
+    // set in the in use byte of a node command if the node is dense
+    private static final byte DENSE_NODE = (byte) 0x2;
 
     abstract void removeFromCache( LockReleaser lockReleaser );
 
@@ -301,7 +307,12 @@ public abstract class Command extends XaCommand
             this.record = record;
             this.store = store;
         }
-        
+
+        NodeRecord getRecord()
+        {
+            return record;
+        }
+
         @Override
         public void accept( CommandRecordVisitor visitor )
         {
@@ -351,6 +362,10 @@ public abstract class Command extends XaCommand
         {
             byte inUse = record.inUse() ? Record.IN_USE.byteValue()
                 : Record.NOT_IN_USE.byteValue();
+            if ( record.isDense() )
+            {
+                inUse |= DENSE_NODE;
+            }
             buffer.put( NODE_COMMAND );
             buffer.putLong( record.getId() );
             buffer.put( inUse );
@@ -375,11 +390,11 @@ public abstract class Command extends XaCommand
             long id = buffer.getLong();
             byte inUseFlag = buffer.get();
             boolean inUse = false;
-            if ( inUseFlag == Record.IN_USE.byteValue() )
+            if ( (inUseFlag & ~DENSE_NODE) == Record.IN_USE.byteValue() )
             {
                 inUse = true;
             }
-            else if ( inUseFlag != Record.NOT_IN_USE.byteValue() )
+            else if ( (inUseFlag & ~DENSE_NODE) != Record.NOT_IN_USE.byteValue() )
             {
                 throw new IOException( "Illegal in use flag: " + inUseFlag );
             }
@@ -397,6 +412,7 @@ public abstract class Command extends XaCommand
             }
             else record = new NodeRecord( id, Record.NO_NEXT_RELATIONSHIP.intValue(), Record.NO_NEXT_PROPERTY.intValue() );
             record.setInUse( inUse );
+            record.setDense( (inUseFlag & DENSE_NODE) != 0 );
             return new NodeCommand( neoStore == null ? null : neoStore.getNodeStore(), record );
         }
 
@@ -570,6 +586,139 @@ public abstract class Command extends XaCommand
         }
     }
     
+    static class RelationshipGroupCommand extends Command
+    {
+        private final RelationshipGroupRecord record;
+        private final RelationshipGroupStore store;
+
+        RelationshipGroupCommand( RelationshipGroupStore store, RelationshipGroupRecord record )
+        {
+            super( record.getId() );
+            this.record = record;
+            this.store = store;
+        }
+
+        @Override
+        public void accept( CommandRecordVisitor visitor )
+        {
+            visitor.visitRelationshipGroup( record );
+        }
+
+        @Override
+        void removeFromCache( LockReleaser lockReleaser )
+        {
+            if ( record.getOwningNode() != -1 )
+            {
+                lockReleaser.removeNodeFromCache( record.getOwningNode() );
+            }
+        }
+
+        @Override
+        boolean isCreated()
+        {
+            return record.isCreated();
+        }
+
+        @Override
+        boolean isDeleted()
+        {
+            return !record.inUse();
+        }
+
+        @Override
+        public void execute()
+        {
+            if ( isRecovered() )
+            {
+                logger.fine( this.toString() );
+                store.updateRecord( record, true );
+            }
+            else
+            {
+                store.updateRecord( record );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return record.toString();
+        }
+
+        @Override
+        public void writeToFile( LogBuffer buffer ) throws IOException
+        {
+            byte inUse = record.inUse() ? Record.IN_USE.byteValue()
+                : Record.NOT_IN_USE.byteValue();
+            buffer.put( REL_GROUP_COMMAND );
+            buffer.putLong( record.getId() );
+            buffer.put( inUse );
+            buffer.putInt( record.getType() ).putLong( record.getOwningNode() );
+            if ( record.inUse() )
+            {
+                buffer.putLong( record.getNext() ).putLong( record.getFirstOut() )
+                    .putLong( record.getFirstIn() ).putLong( record.getFirstLoop() )
+                    .putLong( record.getOutCount() ).putLong( record.getInCount() )
+                    .putLong( record.getLoopCount() );
+            }
+        }
+
+        public static Command readCommand( NeoStore neoStore,
+            ReadableByteChannel byteChannel, ByteBuffer buffer )
+            throws IOException
+        {
+            buffer.clear();
+            buffer.limit( 21 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return null;
+            }
+            buffer.flip();
+            long id = buffer.getLong();
+            byte inUseFlag = buffer.get();
+            boolean inUse = false;
+            if ( inUseFlag == Record.IN_USE.byteValue() )
+            {
+                inUse = true;
+            }
+            else if ( inUseFlag != Record.NOT_IN_USE.byteValue() )
+            {
+                throw new IOException( "Illegal in use flag: " + inUseFlag );
+            }
+            RelationshipGroupRecord record = new RelationshipGroupRecord( id, buffer.getInt(), buffer.getLong() );
+            record.setInUse( inUse );
+            if ( inUse )
+            {
+                buffer.clear();
+                buffer.limit( 56 );
+                if ( byteChannel.read( buffer ) != buffer.limit() )
+                {
+                    return null;
+                }
+                buffer.flip();
+                record.setNext( buffer.getLong() );
+                record.setFirstOut( buffer.getLong() );
+                record.setFirstIn( buffer.getLong() );
+                record.setFirstLoop( buffer.getLong() );
+                record.setOutCount( buffer.getLong() );
+                record.setInCount( buffer.getLong() );
+                record.setLoopCount( buffer.getLong() );
+            }
+            return new RelationshipGroupCommand( neoStore == null ? null : neoStore.getRelationshipGroupStore(),
+                record );
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !(o instanceof RelationshipGroupCommand) )
+            {
+                return false;
+            }
+            return getKey() == ((Command) o).getKey();
+        }
+    }
+
     static class NeoStoreCommand extends Command
     {
         private final NeoStoreRecord record;
@@ -1151,6 +1300,8 @@ public abstract class Command extends XaCommand
             case REL_TYPE_COMMAND:
                 return RelationshipTypeCommand.readCommand( neoStore,
                     byteChannel, buffer );
+            case REL_GROUP_COMMAND:
+                return RelationshipGroupCommand.readCommand( neoStore, byteChannel, buffer );
             case NEOSTORE_COMMAND:
                 return NeoStoreCommand.readCommand( neoStore, byteChannel, buffer );
             case NONE: return null;
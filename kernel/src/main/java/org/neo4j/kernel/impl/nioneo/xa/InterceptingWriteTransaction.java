@@ -33,10 +33,11 @@ public class InterceptingWriteTransaction extends WriteTransaction
 
     InterceptingWriteTransaction( int identifier, XaLogicalLog log,
             NeoStore neoStore, LockReleaser lockReleaser,
-            LockManager lockManager, TransactionInterceptor interceptor )
+            LockManager lockManager, ParallelRecoveryApplier recoveryApplier, TransactionInterceptor interceptor )
     {
+        // the interceptors get to see all commands of the transaction, so it never writes any ahead
         super( identifier, log, neoStore, lockReleaser,
-                lockManager );
+                lockManager, recoveryApplier, 0 );
         this.interceptor = interceptor;
     }
 
@@ -94,6 +94,9 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         public static final GraphDatabaseSetting.StringSetting store_dir = InternalAbstractGraphDatabase.Configuration.store_dir;
         public static final GraphDatabaseSetting.StringSetting neo_store = InternalAbstractGraphDatabase.Configuration.neo_store;
         public static final GraphDatabaseSetting.StringSetting logical_log = InternalAbstractGraphDatabase.Configuration.logical_log;
+        public static final GraphDatabaseSetting<Integer> recovery_threads = GraphDatabaseSettings.recovery_threads;
+        public static final GraphDatabaseSetting<Integer> large_transaction_spill_threshold =
+                GraphDatabaseSettings.large_transaction_spill_threshold;
     }
 
     public static final byte BRANCH_ID[] = UTF8.encode( "414141" );
@@ -115,6 +118,8 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
     private final TransactionInterceptorProviders providers;
 
     private boolean logApplied = false;
+    private ParallelRecoveryApplier recoveryApplier;
+    private int spillThreshold;
 
     private final StringLogger msgLog;
 
@@ -242,6 +247,12 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
             tf = new TransactionFactory();
         }
         neoStore = storeFactory.newNeoStore( store );
+        int recoveryThreads = config.isSet( Configuration.recovery_threads ) ?
+                config.get( Configuration.recovery_threads ) : 1;
+        recoveryApplier = recoveryThreads > 1 ?
+                new ParallelRecoveryApplier( neoStore, recoveryThreads, msgLog ) : null;
+        spillThreshold = config.isSet( Configuration.large_transaction_spill_threshold ) ?
+                config.get( Configuration.large_transaction_spill_threshold ) : 0;
 
         xaContainer = xaFactory.newXaContainer(this, config.get( Configuration.logical_log ), new CommandFactory( neoStore ), tf, providers  );
 
@@ -250,13 +261,23 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
             if ( !readOnly )
             {
                 neoStore.setRecoveredStatus( true );
+                if ( recoveryApplier != null )
+                {
+                    recoveryApplier.activate();
+                }
+                boolean recovered = false;
                 try
                 {
                     xaContainer.openLogicalLog();
+                    recovered = true;
                 }
                 finally
                 {
                     neoStore.setRecoveredStatus( false );
+                    if ( recoveryApplier != null )
+                    {
+                        drainRecoveryApplier( recovered );
+                    }
                 }
             }
             if ( !xaContainer.getResourceManager().hasRecoveredTransactions() )
@@ -294,6 +315,27 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         }
     }
 
+    /*
+     * If recovery failed, a failure to write out the records recovered so far is only
+     * logged, so that it doesn't hide why recovery failed.
+     */
+    private void drainRecoveryApplier( boolean recovered )
+    {
+        if ( recovered )
+        {
+            recoveryApplier.drain();
+            return;
+        }
+        try
+        {
+            recoveryApplier.drain();
+        }
+        catch ( RuntimeException e )
+        {
+            msgLog.logMessage( "Failed to write out recovered records after recovery failed", e );
+        }
+    }
+
     public NeoStore getNeoStore()
     {
         return neoStore;
@@ -371,7 +413,7 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         {
             TransactionInterceptor first = providers.resolveChain( NeoStoreXaDataSource.this );
             return new InterceptingWriteTransaction( identifier, getLogicalLog(), neoStore, lockReleaser, lockManager,
-                    first );
+                    recoveryApplier, first );
         }
     }
 
@@ -381,12 +423,16 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         public XaTransaction create( int identifier )
         {
             return new WriteTransaction( identifier, getLogicalLog(), neoStore,
-                lockReleaser, lockManager );
+                lockReleaser, lockManager, recoveryApplier, spillThreshold );
         }
 
         @Override
         public void recoveryComplete()
         {
+            if ( recoveryApplier != null )
+            {
+                recoveryApplier.drain();
+            }
             logger.fine( "Recovery complete, "
                 + "all transactions have been resolved" );
             logger.fine( "Rebuilding id generators as needed. "
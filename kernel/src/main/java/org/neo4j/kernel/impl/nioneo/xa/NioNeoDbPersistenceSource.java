@@ -20,6 +20,7 @@
 package org.neo4j.kernel.impl.nioneo.xa;
 
 import org.neo4j.kernel.impl.core.ReadOnlyDbException;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.persistence.EntityIdGenerator;
 import org.neo4j.kernel.impl.persistence.NeoStoreTransaction;
 import org.neo4j.kernel.impl.persistence.PersistenceSource;
@@ -96,6 +97,11 @@ public class NioNeoDbPersistenceSource implements PersistenceSource, EntityIdGen
         return new ReadTransaction( xaDataSourceManager.getNeoStoreDataSource().getNeoStore() );
     }
 
+    public NeoStore getNeoStore()
+    {
+        return xaDataSourceManager.getNeoStoreDataSource().getNeoStore();
+    }
+
     public String toString()
     {
         return "A persistence source to [" + dataSourceName + "]";
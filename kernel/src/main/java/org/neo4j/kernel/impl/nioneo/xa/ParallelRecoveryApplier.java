@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Writes the node, relationship, relationship group and property records of
+ * recovered transactions from a number of worker threads while the logical log
+ * is being replayed, so that reading the log overlaps with writing the stores.
+ * <p>
+ * Node, relationship and relationship group commands are spread over the
+ * workers by ranges of record ids. All commands for one record thus go to the
+ * same worker, which applies them in log order. Property commands all go to the first worker,
+ * since the dynamic records they carry may move from one property record to
+ * another between transactions.
+ * <p>
+ * Commands are only handed over between {@link #activate()} and
+ * {@link #drain()}, which the data source wraps around opening the logical log.
+ */
+class ParallelRecoveryApplier
+{
+    private static final int RECORDS_PER_RANGE = 1024;
+    private static final int QUEUE_SIZE = 256;
+    private static final List<Command> DONE = Collections.emptyList();
+
+    private final NeoStore neoStore;
+    private final int workerCount;
+    private final StringLogger msgLog;
+    private boolean active;
+    private Worker[] workers;
+    private long handedOver;
+    private volatile Throwable failure;
+
+    ParallelRecoveryApplier( NeoStore neoStore, int workerCount, StringLogger msgLog )
+    {
+        this.neoStore = neoStore;
+        this.workerCount = workerCount;
+        this.msgLog = msgLog;
+    }
+
+    void activate()
+    {
+        active = true;
+    }
+
+    boolean isActive()
+    {
+        return active;
+    }
+
+    /**
+     * Hands over the primitive commands of one recovered transaction. The
+     * commands may not have been applied when this method returns.
+     */
+    void apply( List<Command.NodeCommand> nodeCommands, List<Command.RelationshipCommand> relCommands,
+            List<Command.RelationshipGroupCommand> relGroupCommands, List<Command.PropertyCommand> propCommands )
+    {
+        assertNoFailure();
+        if ( workers == null )
+        {
+            startWorkers();
+        }
+        List<Command>[] batches = newBatches();
+        for ( Command command : propCommands )
+        {
+            batches[0].add( command );
+        }
+        for ( Command command : relCommands )
+        {
+            batches[workerFor( command.getKey() )].add( command );
+        }
+        for ( Command command : relGroupCommands )
+        {
+            batches[workerFor( command.getKey() )].add( command );
+        }
+        for ( Command command : nodeCommands )
+        {
+            batches[workerFor( command.getKey() )].add( command );
+        }
+        for ( int i = 0; i < workers.length; i++ )
+        {
+            if ( !batches[i].isEmpty() )
+            {
+                workers[i].put( batches[i] );
+                handedOver += batches[i].size();
+            }
+        }
+    }
+
+    /**
+     * Waits for all handed over commands to be applied and stops the workers.
+     * Commands applied after this go back to being written by the calling
+     * thread.
+     *
+     * @throws UnderlyingStorageException if any command failed to apply.
+     */
+    void drain()
+    {
+        active = false;
+        if ( workers == null )
+        {
+            return;
+        }
+        try
+        {
+            for ( Worker worker : workers )
+            {
+                worker.put( DONE );
+            }
+            for ( Worker worker : workers )
+            {
+                worker.join();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new UnderlyingStorageException( "Interrupted while waiting for recovered records to be written", e );
+        }
+        finally
+        {
+            workers = null;
+            neoStore.setRecoveryModeHeld( false );
+        }
+        msgLog.logMessage( "Wrote " + handedOver + " recovered records using " + workerCount + " threads" );
+        handedOver = 0;
+        assertNoFailure();
+    }
+
+    private void assertNoFailure()
+    {
+        Throwable cause = failure;
+        if ( cause != null )
+        {
+            throw new UnderlyingStorageException( "Unable to write recovered records", cause );
+        }
+    }
+
+    private void startWorkers()
+    {
+        neoStore.setRecoveryModeHeld( true );
+        workers = new Worker[workerCount];
+        for ( int i = 0; i < workers.length; i++ )
+        {
+            workers[i] = new Worker( i );
+            workers[i].start();
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private List<Command>[] newBatches()
+    {
+        List<Command>[] batches = new List[workerCount];
+        for ( int i = 0; i < batches.length; i++ )
+        {
+            batches[i] = new ArrayList<Command>();
+        }
+        return batches;
+    }
+
+    private int workerFor( long id )
+    {
+        return (int) ((id / RECORDS_PER_RANGE) % workerCount);
+    }
+
+    private class Worker extends Thread
+    {
+        private final BlockingQueue<List<Command>> queue = new ArrayBlockingQueue<List<Command>>( QUEUE_SIZE );
+
+        Worker( int index )
+        {
+            super( "Recovery writer-" + index );
+            setDaemon( true );
+        }
+
+        void put( List<Command> batch )
+        {
+            try
+            {
+                queue.put( batch );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new UnderlyingStorageException( "Interrupted while handing over recovered records", e );
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                List<Command> batch;
+                while ( (batch = queue.take()) != DONE )
+                {
+                    if ( failure != null )
+                    {   // Keep taking so that the reader doesn't block, but don't write past a failure
+                        continue;
+                    }
+                    try
+                    {
+                        for ( Command command : batch )
+                        {
+                            command.execute();
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        failure = t;
+                    }
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                failure = e;
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.neo4j.kernel.impl.nioneo.xa;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -43,6 +44,9 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChainWalk;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.persistence.NeoStoreTransaction;
@@ -86,16 +90,109 @@ class ReadTransaction implements NeoStoreTransaction
         return getNodeStore().loadLightNode( nodeId );
     }
 
+    @Override
+    public List<NodeRecord> nodesLoadLight( long[] ids )
+    {
+        return getNodeStore().loadLightNodes( ids );
+    }
+
     @Override
     public RelationshipRecord relLoadLight( long id )
     {
         return getRelationshipStore().getLightRel( id );
     }
 
+    @Override
+    public List<RelationshipRecord> relsLoadLight( long[] ids )
+    {
+        return getRelationshipStore().getLightRels( ids );
+    }
+
     @Override
     public long getRelationshipChainPosition( long nodeId )
     {
-        return getNodeStore().getRecord( nodeId ).getNextRel();
+        NodeRecord node = getNodeStore().getRecord( nodeId );
+        return node.isDense() ? DENSE_NODE : node.getNextRel();
+    }
+
+    @Override
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId )
+    {
+        return getRelationshipGroups( getNodeStore().getRecord( nodeId ), neoStore.getRelationshipGroupStore() );
+    }
+
+    static List<RelationshipGroupRecord> getRelationshipGroups( NodeRecord node, RelationshipGroupStore groupStore )
+    {
+        if ( !node.isDense() )
+        {
+            return Collections.emptyList();
+        }
+        return groupStore.getGroups( node );
+    }
+
+    @Override
+    public int getDegree( long nodeId, int[] types, DirectionWrapper direction )
+    {
+        return getDegree( getNodeStore().getRecord( nodeId ), types, direction,
+                neoStore.getRelationshipGroupStore(), getRelationshipStore() );
+    }
+
+    static int getDegree( NodeRecord node, int[] types, DirectionWrapper direction,
+            RelationshipGroupStore groupStore, RelationshipStore relStore )
+    {
+        long degree = 0;
+        if ( node.isDense() )
+        {
+            for ( RelationshipGroupRecord group : groupStore.getGroups( node ) )
+            {
+                if ( types == null || contains( types, group.getType() ) )
+                {
+                    degree += group.getLoopCount();
+                    if ( direction != DirectionWrapper.INCOMING )
+                    {
+                        degree += group.getOutCount();
+                    }
+                    if ( direction != DirectionWrapper.OUTGOING )
+                    {
+                        degree += group.getInCount();
+                    }
+                }
+            }
+            return (int) degree;
+        }
+        RelationshipChainWalk walk = relStore.newChainWalk();
+        for ( long position = node.getNextRel(); position != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            walk.hop( position );
+            RelationshipRecord rel = relStore.getChainRecord( position );
+            if ( rel == null )
+            {
+                throw new InvalidRecordException( "RelationshipRecord[" + position + "] in the chain of Node[" +
+                        node.getId() + "] is beyond the highest id in use" );
+            }
+            boolean outgoing = rel.getFirstNode() == node.getId();
+            boolean incoming = rel.getSecondNode() == node.getId();
+            if ( rel.inUse() && (types == null || contains( types, rel.getType() )) &&
+                    (direction == DirectionWrapper.BOTH ||
+                     (direction == DirectionWrapper.OUTGOING ? outgoing : incoming)) )
+            {
+                degree++;
+            }
+            position = outgoing ? rel.getFirstNextRel() : rel.getSecondNextRel();
+        }
+        return (int) degree;
+    }
+
+    private static boolean contains( int[] types, int type )
+    {
+        for ( int candidate : types )
+        {
+            if ( candidate == type )
+            {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -116,9 +213,11 @@ class ReadTransaction implements NeoStoreTransaction
             new EnumMap<DirectionWrapper, Iterable<RelationshipRecord>>( DirectionWrapper.class );
         result.put( DirectionWrapper.OUTGOING, out );
         result.put( DirectionWrapper.INCOMING, in );
+        RelationshipChainWalk walk = relStore.newChainWalk();
         for ( int i = 0; i < grabSize &&
             position != Record.NO_NEXT_RELATIONSHIP.intValue(); i++ )
         {
+            walk.hop( position );
             RelationshipRecord relRecord = relStore.getChainRecord( position );
             if ( relRecord == null )
             {
@@ -190,7 +289,7 @@ class ReadTransaction implements NeoStoreTransaction
     }
 
     static ArrayMap<Integer, PropertyData> propertyChainToMap(
-            Collection<PropertyRecord> chain )
+            PropertyStore propertyStore, Collection<PropertyRecord> chain )
     {
         if ( chain == null )
         {
@@ -203,7 +302,7 @@ class ReadTransaction implements NeoStoreTransaction
             for ( PropertyBlock propBlock : propRecord.getPropertyBlocks() )
             {
                 propertyMap.put( propBlock.getKeyIndexId(),
-                        propBlock.newPropertyData( propRecord ) );
+                        propBlock.newPropertyData( propRecord, propertyStore.getCachedValue( propBlock ) ) );
             }
         }
         return propertyMap;
@@ -218,7 +317,7 @@ class ReadTransaction implements NeoStoreTransaction
         {
             return null;
         }
-        return propertyChainToMap( chain );
+        return propertyChainToMap( propertyStore, chain );
     }
 
     @Override
@@ -254,15 +353,10 @@ class ReadTransaction implements NeoStoreTransaction
     @Override
     public Object loadPropertyValue( PropertyData property )
     {
-        PropertyRecord propertyRecord = getPropertyStore().getRecord(
+        PropertyRecord propertyRecord = getPropertyStore().getLightRecord(
                 property.getId() );
         PropertyBlock propertyBlock = propertyRecord.getPropertyBlock( property.getIndex() );
-        if ( propertyBlock.isLight() )
-        {
-            getPropertyStore().makeHeavy( propertyBlock );
-        }
-        return propertyBlock.getType().getValue( propertyBlock,
-                getPropertyStore() );
+        return getPropertyStore().loadValue( propertyBlock );
     }
 
     @Override
@@ -0,0 +1,428 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import static org.neo4j.kernel.impl.transaction.xaframework.LogExtractor.newLogReaderBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.helpers.collection.Visitor;
+import org.neo4j.kernel.impl.nioneo.store.AbstractBaseRecord;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NeoStoreRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
+import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
+import org.neo4j.kernel.impl.transaction.xaframework.LogEntry;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
+import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
+import org.neo4j.kernel.impl.util.PrimitiveLongLongMap;
+
+/**
+ * The node, relationship, relationship group and property records a large
+ * {@link WriteTransaction} has written to the logical log before prepare, so
+ * that it doesn't have to keep them in memory. For each record only the
+ * position of the command with its latest version is kept, together with
+ * whether the transaction created the record. Records changed again are read
+ * back from there and at commit the latest versions are applied from the log.
+ * <p>
+ * Rotating the log copies the entries of active transactions to the new log,
+ * at other positions. They are found again by scanning the commands of the
+ * transaction in the new log.
+ */
+class SpilledRecords
+{
+    private static final long CREATED = 1;
+
+    private final XaLogicalLog log;
+    private final int identifier;
+    private final NeoStore neoStore;
+    private final XaCommandFactory commandFactory;
+    // record id -> position of its latest command << 1 | CREATED
+    private final PrimitiveLongLongMap nodes = new PrimitiveLongLongMap();
+    private final PrimitiveLongLongMap relationships = new PrimitiveLongLongMap();
+    private final PrimitiveLongLongMap relationshipGroups = new PrimitiveLongLongMap();
+    private final PrimitiveLongLongMap properties = new PrimitiveLongLongMap();
+    private final RecordOfCommand recordOf = new RecordOfCommand();
+    private final ByteBuffer buffer = newLogReaderBuffer();
+    private long logVersion = -1;
+    // whether the positions are those in a log which has been rotated since
+    private boolean moved;
+    private long commandCount;
+
+    SpilledRecords( XaLogicalLog log, int identifier, final NeoStore neoStore )
+    {
+        this.log = log;
+        this.identifier = identifier;
+        this.neoStore = neoStore;
+        this.commandFactory = new XaCommandFactory()
+        {
+            @Override
+            public XaCommand readCommand( ReadableByteChannel byteChannel, ByteBuffer buffer ) throws IOException
+            {
+                return Command.readCommand( neoStore, byteChannel, buffer );
+            }
+        };
+    }
+
+    /**
+     * Writes {@code command} to the log as the latest version of its record.
+     */
+    void add( Command command )
+    {
+        long position;
+        long version;
+        synchronized ( log )
+        {
+            try
+            {
+                position = log.writeCommandAhead( command, identifier );
+            }
+            catch ( IOException e )
+            {
+                throw new TransactionFailureException( "Unable to write command to logical log.", e );
+            }
+            version = log.getHighestLogVersion();
+        }
+        if ( commandCount++ == 0 )
+        {
+            logVersion = version;
+        }
+        else if ( version != logVersion )
+        {
+            moved = true;
+        }
+        indexOf( command ).put( command.getKey(), position << 1 | (recordOf( command ).isCreated() ? CREATED : 0) );
+    }
+
+    /**
+     * @return the latest version of node {@code id} written to the log, or
+     * {@code null} if it hasn't been.
+     */
+    NodeRecord getNode( long id )
+    {
+        NodeRecord written = (NodeRecord) read( nodes, id );
+        if ( written == null || written.isCreated() )
+        {
+            return written;
+        }
+        // the committed pointers aren't in the log, but still in the store
+        NodeRecord stored = neoStore.getNodeStore().getRecord( id );
+        NodeRecord record = new NodeRecord( id, stored.getNextRel(), stored.getNextProp() );
+        record.setInUse( written.inUse() );
+        record.setNextRel( written.getNextRel() );
+        record.setNextProp( written.getNextProp() );
+        record.setDense( written.isDense() );
+        return record;
+    }
+
+    RelationshipRecord getRelationship( long id )
+    {
+        return (RelationshipRecord) read( relationships, id );
+    }
+
+    RelationshipGroupRecord getRelationshipGroup( long id )
+    {
+        return (RelationshipGroupRecord) read( relationshipGroups, id );
+    }
+
+    PropertyRecord getProperty( long id )
+    {
+        return (PropertyRecord) read( properties, id );
+    }
+
+    boolean isNodeCreated( long id )
+    {
+        return isCreated( nodes.get( id ) );
+    }
+
+    boolean isRelationshipCreated( long id )
+    {
+        return isCreated( relationships.get( id ) );
+    }
+
+    /**
+     * Visits the ids of the nodes created by the transaction.
+     */
+    void visitCreatedNodes( final Visitor<Long> visitor )
+    {
+        nodes.visitEntries( new PrimitiveLongLongMap.EntryVisitor()
+        {
+            @Override
+            public boolean visit( long key, long value )
+            {
+                return isCreated( value ) && visitor.visit( key );
+            }
+        } );
+    }
+
+    /**
+     * Streams the latest version of each record from the log, in the order
+     * they were written.
+     */
+    void visitLatest( Visitor<Command> visitor )
+    {
+        try
+        {
+            visitLatest( activeTransaction(), visitor );
+        }
+        catch ( IOException e )
+        {
+            throw new TransactionFailureException( "Unable to read commands written ahead from logical log.", e );
+        }
+    }
+
+    private void visitLatest( FileChannel channel, final Visitor<Command> visitor ) throws IOException
+    {
+        try
+        {
+            scan( channel, new CommandPositionVisitor()
+            {
+                @Override
+                public void visit( Command command, long position )
+                {
+                    long entry = indexOf( command ).get( command.getKey() );
+                    if ( entry >>> 1 == position )
+                    {
+                        visitor.visit( restore( command, entry ) );
+                    }
+                }
+            } );
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return a channel over the entries of the transaction in the log the
+     * indexed positions are in.
+     */
+    private FileChannel activeTransaction() throws IOException
+    {
+        while ( true )
+        {
+            synchronized ( log )
+            {
+                if ( !moved && log.getHighestLogVersion() == logVersion )
+                {
+                    return log.getActiveTransaction( identifier );
+                }
+            }
+            relocate();
+        }
+    }
+
+    private AbstractBaseRecord read( PrimitiveLongLongMap index, long id )
+    {
+        long entry = index.get( id );
+        if ( entry == PrimitiveLongLongMap.NO_VALUE )
+        {
+            return null;
+        }
+        try
+        {
+            XaCommand command;
+            while ( (command = moved ? null : log.readCommand( logVersion, entry >>> 1 )) == null )
+            {
+                relocate();
+                entry = index.get( id );
+            }
+            return recordOf( restore( (Command) command, entry ) );
+        }
+        catch ( IOException e )
+        {
+            throw new TransactionFailureException( "Unable to read command from logical log.", e );
+        }
+    }
+
+    /**
+     * Finds the positions of the commands again after a log rotation.
+     */
+    private void relocate() throws IOException
+    {
+        FileChannel channel;
+        synchronized ( log )
+        {
+            logVersion = log.getHighestLogVersion();
+            channel = log.getActiveTransaction( identifier );
+        }
+        try
+        {
+            scan( channel, new CommandPositionVisitor()
+            {
+                @Override
+                public void visit( Command command, long position )
+                {
+                    PrimitiveLongLongMap index = indexOf( command );
+                    long created = index.get( command.getKey() ) & CREATED;
+                    index.put( command.getKey(), position << 1 | created );
+                }
+            } );
+            moved = false;
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private void scan( FileChannel channel, CommandPositionVisitor visitor ) throws IOException
+    {
+        for ( long seen = 0; seen < commandCount; )
+        {
+            long position = channel.position();
+            LogEntry entry = LogIoUtils.readEntry( buffer, channel, commandFactory );
+            if ( entry == null )
+            {
+                throw new IOException( "Found " + seen + " of the " + commandCount +
+                        " commands written ahead by transaction " + identifier );
+            }
+            if ( entry.getIdentifier() == identifier && entry instanceof LogEntry.Command )
+            {
+                seen++;
+                visitor.visit( (Command) ((LogEntry.Command) entry).getXaCommand(), position );
+            }
+        }
+    }
+
+    private Command restore( Command command, long entry )
+    {
+        AbstractBaseRecord record = recordOf( command );
+        if ( isCreated( entry ) )
+        {
+            record.setCreated();
+            if ( record instanceof PropertyRecord )
+            {
+                // a record created by the transaction only holds values it has set
+                for ( PropertyBlock block : ((PropertyRecord) record).getPropertyBlocks() )
+                {
+                    block.setCreated();
+                }
+            }
+        }
+        else if ( record instanceof PropertyRecord )
+        {
+            // only properties changed by the transaction refer to their node or relationship
+            PropertyRecord property = (PropertyRecord) record;
+            if ( property.getNodeId() != -1 || property.getRelId() != -1 )
+            {
+                property.setChanged();
+            }
+        }
+        return command;
+    }
+
+    private PrimitiveLongLongMap indexOf( Command command )
+    {
+        if ( command instanceof Command.NodeCommand )
+        {
+            return nodes;
+        }
+        if ( command instanceof Command.RelationshipCommand )
+        {
+            return relationships;
+        }
+        if ( command instanceof Command.RelationshipGroupCommand )
+        {
+            return relationshipGroups;
+        }
+        if ( command instanceof Command.PropertyCommand )
+        {
+            return properties;
+        }
+        throw new IllegalArgumentException( "Only node, relationship and property commands are written ahead, not " +
+                command );
+    }
+
+    private AbstractBaseRecord recordOf( Command command )
+    {
+        command.accept( recordOf );
+        return recordOf.record;
+    }
+
+    private static boolean isCreated( long entry )
+    {
+        return entry != PrimitiveLongLongMap.NO_VALUE && (entry & CREATED) != 0;
+    }
+
+    private interface CommandPositionVisitor
+    {
+        void visit( Command command, long position );
+    }
+
+    private static class RecordOfCommand implements CommandRecordVisitor
+    {
+        private AbstractBaseRecord record;
+
+        @Override
+        public void visitNode( NodeRecord record )
+        {
+            this.record = record;
+        }
+
+        @Override
+        public void visitRelationship( RelationshipRecord record )
+        {
+            this.record = record;
+        }
+
+        @Override
+        public void visitRelationshipGroup( RelationshipGroupRecord record )
+        {
+            this.record = record;
+        }
+
+        @Override
+        public void visitProperty( PropertyRecord record )
+        {
+            this.record = record;
+        }
+
+        @Override
+        public void visitRelationshipType( RelationshipTypeRecord record )
+        {
+            this.record = record;
+        }
+
+        @Override
+        public void visitPropertyIndex( PropertyIndexRecord record )
+        {
+            this.record = record;
+        }
+
+        @Override
+        public void visitNeoStore( NeoStoreRecord record )
+        {
+            this.record = record;
+        }
+    }
+}
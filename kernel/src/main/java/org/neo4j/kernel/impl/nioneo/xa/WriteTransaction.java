@@ -27,9 +27,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
@@ -41,6 +43,7 @@ import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.helpers.Exceptions;
 import org.neo4j.helpers.Pair;
+import org.neo4j.helpers.collection.Visitor;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.nioneo.store.ConstraintViolationException;
@@ -60,6 +63,8 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -73,6 +78,8 @@ import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
 import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
 import org.neo4j.kernel.impl.transaction.xaframework.XaTransaction;
 import org.neo4j.kernel.impl.util.ArrayMap;
+import org.neo4j.kernel.impl.util.PrimitiveLongLongMap;
+import org.neo4j.kernel.impl.util.PrimitiveLongObjectMap;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 
@@ -82,9 +89,13 @@ import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
  */
 public class WriteTransaction extends XaTransaction implements NeoStoreTransaction
 {
-    private final Map<Long,NodeRecord> nodeRecords = new HashMap<Long,NodeRecord>();
-    private final Map<Long,PropertyRecord> propertyRecords = new HashMap<Long,PropertyRecord>();
-    private final Map<Long,RelationshipRecord> relRecords = new HashMap<Long,RelationshipRecord>();
+    // the write set, keyed on primitive ids so that big transactions don't box every id
+    private final PrimitiveLongObjectMap<NodeRecord> nodeRecords = new PrimitiveLongObjectMap<NodeRecord>();
+    private final PrimitiveLongObjectMap<PropertyRecord> propertyRecords =
+            new PrimitiveLongObjectMap<PropertyRecord>();
+    private final PrimitiveLongObjectMap<RelationshipRecord> relRecords =
+            new PrimitiveLongObjectMap<RelationshipRecord>();
+    private PrimitiveLongObjectMap<RelationshipGroupRecord> relGroupRecords;
     private Map<Integer,RelationshipTypeRecord> relTypeRecords;
     private Map<Integer,PropertyIndexRecord> propIndexRecords;
     private NeoStoreRecord neoStoreRecord;
@@ -92,25 +103,42 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     private final ArrayList<Command.NodeCommand> nodeCommands = new ArrayList<Command.NodeCommand>();
     private final ArrayList<Command.PropertyCommand> propCommands = new ArrayList<Command.PropertyCommand>();
     private final ArrayList<Command.RelationshipCommand> relCommands = new ArrayList<Command.RelationshipCommand>();
+    private final ArrayList<Command.RelationshipGroupCommand> relGroupCommands =
+            new ArrayList<Command.RelationshipGroupCommand>();
     private ArrayList<Command.RelationshipTypeCommand> relTypeCommands;
     private ArrayList<Command.PropertyIndexCommand> propIndexCommands;
     private Command.NeoStoreCommand neoStoreCommand;
 
+    // chain lengths of sparse nodes, counted up to the dense node threshold
+    private PrimitiveLongLongMap relChainLengths;
+    // nodes turned dense in this transaction, evicted from cache on commit
+    private Set<Long> convertedNodes;
+
     private final NeoStore neoStore;
     private boolean committed = false;
     private boolean prepared = false;
 
     private final LockReleaser lockReleaser;
     private final LockManager lockManager;
+    private final ParallelRecoveryApplier recoveryApplier;
     private XaConnection xaConnection;
 
+    private final XaLogicalLog log;
+    // a large transaction writes its records to the log once it has this many, 0 if it never does
+    private final int spillThreshold;
+    private SpilledRecords spilledRecords;
+
     WriteTransaction( int identifier, XaLogicalLog log, NeoStore neoStore,
-            LockReleaser lockReleaser, LockManager lockManager )
+            LockReleaser lockReleaser, LockManager lockManager, ParallelRecoveryApplier recoveryApplier,
+            int spillThreshold )
     {
         super( identifier, log );
+        this.log = log;
         this.neoStore = neoStore;
         this.lockReleaser = lockReleaser;
         this.lockManager = lockManager;
+        this.recoveryApplier = recoveryApplier;
+        this.spillThreshold = spillThreshold;
     }
 
     @Override
@@ -119,12 +147,12 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         if ( isRecovered() )
         {
             return nodeCommands.size() == 0 && propCommands.size() == 0 &&
-                relCommands.size() == 0 && relTypeCommands == null &&
-                propIndexCommands == null;
+                relCommands.size() == 0 && relGroupCommands.size() == 0 &&
+                relTypeCommands == null && propIndexCommands == null;
         }
         return nodeRecords.size() == 0 && relRecords.size() == 0 &&
-            propertyRecords.size() == 0 && relTypeRecords == null &&
-            propIndexRecords == null;
+            relGroupRecords == null && propertyRecords.size() == 0 &&
+            relTypeRecords == null && propIndexRecords == null && spilledRecords == null;
     }
 
     @Override
@@ -136,12 +164,6 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     @Override
     protected void doPrepare() throws XAException
     {
-        int noOfCommands = nodeRecords.size() +
-                           relRecords.size() +
-                           propertyRecords.size() +
-                           (propIndexRecords != null ? propIndexRecords.size() : 0) +
-                           (relTypeRecords != null ? relTypeRecords.size() : 0);
-        List<Command> commands = new ArrayList<Command>( noOfCommands );
         if ( committed )
         {
             throw new XAException( "Cannot prepare committed transaction["
@@ -152,6 +174,18 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new XAException( "Cannot prepare prepared transaction["
                 + getIdentifier() + "]" );
         }
+        if ( spilledRecords != null )
+        {
+            // the rest of the primitives follow those already in the log
+            spill();
+        }
+        int noOfCommands = nodeRecords.size() +
+                           relRecords.size() +
+                           (relGroupRecords != null ? relGroupRecords.size() : 0) +
+                           propertyRecords.size() +
+                           (propIndexRecords != null ? propIndexRecords.size() : 0) +
+                           (relTypeRecords != null ? relTypeRecords.size() : 0);
+        List<Command> commands = new ArrayList<Command>( noOfCommands );
         /*
          * Generate records first, then write all together to logical log via
          * addCommand method but before give the option to intercept.
@@ -198,6 +232,17 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             commands.add( command );
         }
+        if ( relGroupRecords != null )
+        {
+            for ( RelationshipGroupRecord record : relGroupRecords.values() )
+            {
+                Command.RelationshipGroupCommand command =
+                    new Command.RelationshipGroupCommand(
+                        getRelationshipGroupStore(), record );
+                relGroupCommands.add( command );
+                commands.add( command );
+            }
+        }
         if ( neoStoreRecord != null )
         {
             neoStoreCommand = new Command.NeoStoreCommand( neoStore, neoStoreRecord );
@@ -238,6 +283,71 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         // default no op
     }
 
+    /**
+     * Writes the records of a {@link #isLarge() large} transaction to the log
+     * once there are {@code spillThreshold} of them, so that it doesn't have
+     * to keep them all in memory until commit. Only called before operations,
+     * as an operation holds on to the records it changes.
+     */
+    private void spillIfLarge()
+    {
+        if ( spillThreshold > 0 && isLarge() && nodeRecords.size() + relRecords.size() +
+                propertyRecords.size() + (relGroupRecords != null ? relGroupRecords.size() : 0) >= spillThreshold )
+        {
+            spill();
+        }
+    }
+
+    private void spill()
+    {
+        if ( spilledRecords == null )
+        {
+            spilledRecords = new SpilledRecords( log, getIdentifier(), neoStore );
+        }
+        List<NodeRecord> kept = new ArrayList<NodeRecord>();
+        for ( NodeRecord record : nodeRecords.values() )
+        {
+            if ( !record.inUse() && record.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                // prepare still has to see it, to fail unless its relationships get deleted
+                kept.add( record );
+                continue;
+            }
+            spilledRecords.add( new Command.NodeCommand( neoStore.getNodeStore(), record ) );
+            if ( !record.inUse() )
+            {
+                removeNodeFromCache( record.getId() );
+            }
+        }
+        for ( RelationshipRecord record : relRecords.values() )
+        {
+            spilledRecords.add( new Command.RelationshipCommand( neoStore.getRelationshipStore(), record ) );
+            if ( !record.inUse() )
+            {
+                removeRelationshipFromCache( record.getId() );
+            }
+        }
+        if ( relGroupRecords != null )
+        {
+            for ( RelationshipGroupRecord record : relGroupRecords.values() )
+            {
+                spilledRecords.add( new Command.RelationshipGroupCommand( getRelationshipGroupStore(), record ) );
+            }
+        }
+        for ( PropertyRecord record : propertyRecords.values() )
+        {
+            spilledRecords.add( new Command.PropertyCommand( neoStore.getPropertyStore(), record ) );
+        }
+        nodeRecords.clear();
+        relRecords.clear();
+        relGroupRecords = null;
+        propertyRecords.clear();
+        for ( NodeRecord record : kept )
+        {
+            addNodeRecord( record );
+        }
+    }
+
     @Override
     protected void injectCommand( XaCommand xaCommand )
     {
@@ -249,6 +359,10 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             relCommands.add( (Command.RelationshipCommand) xaCommand );
         }
+        else if ( xaCommand instanceof Command.RelationshipGroupCommand )
+        {
+            relGroupCommands.add( (Command.RelationshipGroupCommand) xaCommand );
+        }
         else if ( xaCommand instanceof Command.PropertyCommand )
         {
             propCommands.add( (Command.PropertyCommand) xaCommand );
@@ -304,19 +418,15 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             for ( NodeRecord record : nodeRecords.values() )
             {
-                if ( freeIds && record.isCreated() )
-                {
-                    getNodeStore().freeId( record.getId() );
-                }
-                removeNodeFromCache( record.getId() );
+                rollback( record, freeIds );
             }
             for ( RelationshipRecord record : relRecords.values() )
             {
-                if ( freeIds && record.isCreated() )
-                {
-                    getRelationshipStore().freeId( record.getId() );
-                }
-                removeRelationshipFromCache( record.getId() );
+                rollback( record, freeIds );
+            }
+            if ( relGroupRecords != null ) for ( RelationshipGroupRecord record : relGroupRecords.values() )
+            {
+                rollback( record, freeIds );
             }
             if ( neoStoreRecord != null )
             {
@@ -339,48 +449,144 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             for ( PropertyRecord record : propertyRecords.values() )
             {
-                if ( record.getNodeId() != -1 )
-                {
-                    removeNodeFromCache( record.getNodeId() );
-                }
-                else if ( record.getRelId() != -1 )
-                {
-                    removeRelationshipFromCache( record.getRelId() );
-                }
-                if ( record.isCreated() )
+                rollback( record, freeIds );
+            }
+            if ( spilledRecords != null )
+            {
+                rollbackSpilled( freeIds );
+            }
+        }
+        finally
+        {
+            clear();
+        }
+    }
+
+    private void rollback( NodeRecord record, boolean freeIds )
+    {
+        if ( freeIds && record.isCreated() )
+        {
+            getNodeStore().freeId( record.getId() );
+        }
+        removeNodeFromCache( record.getId() );
+    }
+
+    private void rollback( RelationshipRecord record, boolean freeIds )
+    {
+        if ( freeIds && record.isCreated() )
+        {
+            getRelationshipStore().freeId( record.getId() );
+        }
+        removeRelationshipFromCache( record.getId() );
+    }
+
+    private void rollback( RelationshipGroupRecord record, boolean freeIds )
+    {
+        if ( freeIds && record.isCreated() )
+        {
+            getRelationshipGroupStore().freeId( record.getId() );
+        }
+    }
+
+    private void rollback( PropertyRecord record, boolean freeIds )
+    {
+        if ( record.getNodeId() != -1 )
+        {
+            removeNodeFromCache( record.getNodeId() );
+        }
+        else if ( record.getRelId() != -1 )
+        {
+            removeRelationshipFromCache( record.getRelId() );
+        }
+        if ( record.isCreated() )
+        {
+            if ( freeIds ) getPropertyStore().freeId( record.getId() );
+            for ( PropertyBlock block : record.getPropertyBlocks() )
+            {
+                for ( DynamicRecord dynamicRecord : block.getValueRecords() )
                 {
-                    if ( freeIds ) getPropertyStore().freeId( record.getId() );
-                    for ( PropertyBlock block : record.getPropertyBlocks() )
+                    if ( dynamicRecord.isCreated() )
                     {
-                        for ( DynamicRecord dynamicRecord : block.getValueRecords() )
+                        if ( dynamicRecord.getType() == PropertyType.STRING.intValue() )
                         {
-                            if ( dynamicRecord.isCreated() )
-                            {
-                                if ( dynamicRecord.getType() == PropertyType.STRING.intValue() )
-                                {
-                                    getPropertyStore().freeStringBlockId(
-                                            dynamicRecord.getId() );
-                                }
-                                else if ( dynamicRecord.getType() == PropertyType.ARRAY.intValue() )
-                                {
-                                    getPropertyStore().freeArrayBlockId(
-                                            dynamicRecord.getId() );
-                                }
-                                else
-                                {
-                                    throw new InvalidRecordException(
-                                            "Unknown type on " + dynamicRecord );
-                                }
-                            }
+                            getPropertyStore().freeStringBlockId(
+                                    dynamicRecord.getId() );
+                        }
+                        else if ( dynamicRecord.getType() == PropertyType.ARRAY.intValue() )
+                        {
+                            getPropertyStore().freeArrayBlockId(
+                                    dynamicRecord.getId() );
+                        }
+                        else
+                        {
+                            throw new InvalidRecordException(
+                                    "Unknown type on " + dynamicRecord );
                         }
                     }
                 }
             }
         }
-        finally
+    }
+
+    /**
+     * Rolls back the latest versions of the records written to the log that
+     * haven't been changed again since, those have been rolled back already.
+     */
+    private void rollbackSpilled( final boolean freeIds )
+    {
+        final CommandRecordVisitor rollback = new CommandRecordVisitor()
         {
-            clear();
-        }
+            @Override
+            public void visitNode( NodeRecord record )
+            {
+                if ( !nodeRecords.containsKey( record.getId() ) ) rollback( record, freeIds );
+            }
+
+            @Override
+            public void visitRelationship( RelationshipRecord record )
+            {
+                if ( !relRecords.containsKey( record.getId() ) ) rollback( record, freeIds );
+            }
+
+            @Override
+            public void visitRelationshipGroup( RelationshipGroupRecord record )
+            {
+                if ( relGroupRecords == null || !relGroupRecords.containsKey( record.getId() ) )
+                {
+                    rollback( record, freeIds );
+                }
+            }
+
+            @Override
+            public void visitProperty( PropertyRecord record )
+            {
+                if ( !propertyRecords.containsKey( record.getId() ) ) rollback( record, freeIds );
+            }
+
+            @Override
+            public void visitRelationshipType( RelationshipTypeRecord record )
+            {
+            }
+
+            @Override
+            public void visitPropertyIndex( PropertyIndexRecord record )
+            {
+            }
+
+            @Override
+            public void visitNeoStore( NeoStoreRecord record )
+            {
+            }
+        };
+        spilledRecords.visitLatest( new Visitor<Command>()
+        {
+            @Override
+            public boolean visit( Command command )
+            {
+                command.accept( rollback );
+                return false;
+            }
+        } );
     }
 
     private void removeRelationshipTypeFromCache( int id )
@@ -474,12 +680,25 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
 
             // primitives
-            java.util.Collections.sort( nodeCommands, sorter );
-            java.util.Collections.sort( relCommands, sorter );
-            java.util.Collections.sort( propCommands, sorter );
-            executeCreated( isRecovered, propCommands, relCommands, nodeCommands );
-            executeModified( isRecovered, propCommands, relCommands, nodeCommands );
-            executeDeleted( isRecovered, propCommands, relCommands, nodeCommands );
+            if ( isRecovered && recoveryApplier != null && recoveryApplier.isActive() )
+            {
+                recoveryApplier.apply( nodeCommands, relCommands, relGroupCommands, propCommands );
+                removeFromCache( propCommands, relCommands, relGroupCommands, nodeCommands );
+            }
+            else
+            {
+                java.util.Collections.sort( nodeCommands, sorter );
+                java.util.Collections.sort( relCommands, sorter );
+                java.util.Collections.sort( relGroupCommands, sorter );
+                java.util.Collections.sort( propCommands, sorter );
+                executeCreated( isRecovered, propCommands, relCommands, relGroupCommands, nodeCommands );
+                executeModified( isRecovered, propCommands, relCommands, relGroupCommands, nodeCommands );
+                executeDeleted( isRecovered, propCommands, relCommands, relGroupCommands, nodeCommands );
+                if ( spilledRecords != null )
+                {
+                    executeSpilled();
+                }
+            }
             if ( isRecovered )
                 neoStore.setRecoveredStatus( true );
             try
@@ -494,6 +713,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 {
                     updateFirstRelationships();
                     lockReleaser.commitCows(); // updates the cached primitives
+                    if ( convertedNodes != null )
+                    {
+                        // a partially loaded node would go on reading its old chain
+                        for ( Long nodeId : convertedNodes )
+                        {
+                            removeNodeFromCache( nodeId );
+                        }
+                    }
                 }
                 neoStore.setLastCommittedTx( getCommitTxId() );
             }
@@ -523,6 +750,52 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             lockReleaser.setFirstIds( record.getId(), record.getNextRel(), record.getNextProp() );
     }
 
+    /**
+     * Executes the latest versions of the records written to the log, like
+     * the in memory ones: created first, then modified and deleted last.
+     */
+    private void executeSpilled()
+    {
+        spilledRecords.visitLatest( new SpilledCommandExecutor( true, false ) );
+        spilledRecords.visitLatest( new SpilledCommandExecutor( false, false ) );
+        spilledRecords.visitLatest( new SpilledCommandExecutor( false, true ) );
+    }
+
+    private class SpilledCommandExecutor implements Visitor<Command>
+    {
+        private final boolean created;
+        private final boolean deleted;
+
+        SpilledCommandExecutor( boolean created, boolean deleted )
+        {
+            this.created = created;
+            this.deleted = deleted;
+        }
+
+        @Override
+        public boolean visit( Command command )
+        {
+            if ( deleted ? command.isDeleted() : !command.isDeleted() && command.isCreated() == created )
+            {
+                command.execute();
+                if ( command instanceof Command.NodeCommand )
+                {
+                    NodeRecord record = ((Command.NodeCommand) command).getRecord();
+                    lockReleaser.setFirstIds( record.getId(), record.getNextRel(), record.getNextProp() );
+                }
+            }
+            return false;
+        }
+    }
+
+    private void removeFromCache( List<? extends Command>... commands )
+    {
+        for ( List<? extends Command> c : commands ) for ( Command command : c )
+        {
+            command.removeFromCache( lockReleaser );
+        }
+    }
+
     private void executeCreated( boolean removeFromCache, List<? extends Command>... commands )
     {
         for ( List<? extends Command> c : commands ) for ( Command command : c )
@@ -573,6 +846,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         nodeRecords.clear();
         propertyRecords.clear();
         relRecords.clear();
+        relGroupRecords = null;
         relTypeRecords = null;
         propIndexRecords = null;
         neoStoreRecord = null;
@@ -581,8 +855,12 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         propCommands.clear();
         propIndexCommands = null;
         relCommands.clear();
+        relGroupCommands.clear();
         relTypeCommands = null;
         neoStoreCommand = null;
+        relChainLengths = null;
+        convertedNodes = null;
+        spilledRecords = null;
     }
 
     private void removePropertyFromCache( PropertyCommand command )
@@ -620,6 +898,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return neoStore.getRelationshipStore();
     }
 
+    private RelationshipGroupStore getRelationshipGroupStore()
+    {
+        return neoStore.getRelationshipGroupStore();
+    }
+
     private PropertyStore getPropertyStore()
     {
         return neoStore.getPropertyStore();
@@ -633,6 +916,21 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return getNodeStore().loadLightNode( nodeId );
     }
 
+    @Override
+    public List<NodeRecord> nodesLoadLight( long[] ids )
+    {
+        List<NodeRecord> records = getNodeStore().loadLightNodes( ids );
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            NodeRecord nodeRecord = getNodeRecord( ids[i] );
+            if ( nodeRecord != null )
+            {
+                records.set( i, nodeRecord );
+            }
+        }
+        return records;
+    }
+
     @Override
     public RelationshipRecord relLoadLight( long id )
     {
@@ -654,9 +952,26 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return null;
     }
 
+    @Override
+    public List<RelationshipRecord> relsLoadLight( long[] ids )
+    {
+        List<RelationshipRecord> records = getRelationshipStore().getLightRels( ids );
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            // if deleted in this tx still return it, like relLoadLight
+            RelationshipRecord relRecord = getRelationshipRecord( ids[i] );
+            if ( relRecord != null )
+            {
+                records.set( i, relRecord );
+            }
+        }
+        return records;
+    }
+
     @Override
     public ArrayMap<Integer,PropertyData> nodeDelete( long nodeId )
     {
+        spillIfLarge();
         NodeRecord nodeRecord = getNodeRecord( nodeId );
         if ( nodeRecord == null )
         {
@@ -676,6 +991,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     @Override
     public ArrayMap<Integer,PropertyData> relDelete( long id )
     {
+        spillIfLarge();
         RelationshipRecord record = getRelationshipRecord( id );
         if ( record == null )
         {
@@ -691,6 +1007,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         disconnectRelationship( record );
         updateNodes( record );
         record.setInUse( false );
+        if ( relChainLengths != null )
+        {
+            relChainLengths.remove( record.getFirstNode() );
+            relChainLengths.remove( record.getSecondNode() );
+        }
         return propertyMap;
     }
 
@@ -880,7 +1201,29 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             return Record.NO_NEXT_RELATIONSHIP.intValue();
         }
-        return getNodeStore().getRecord( nodeId ).getNextRel();
+        NodeRecord node = getNodeStore().getRecord( nodeId );
+        return node.isDense() ? DENSE_NODE : node.getNextRel();
+    }
+
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId )
+    {
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        if ( nodeRecord != null && nodeRecord.isCreated() )
+        {
+            return java.util.Collections.emptyList();
+        }
+        return ReadTransaction.getRelationshipGroups( getNodeStore().getRecord( nodeId ), getRelationshipGroupStore() );
+    }
+
+    public int getDegree( long nodeId, int[] types, DirectionWrapper direction )
+    {
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        if ( nodeRecord != null && nodeRecord.isCreated() )
+        {
+            return 0;
+        }
+        return ReadTransaction.getDegree( getNodeStore().getRecord( nodeId ), types, direction,
+                getRelationshipGroupStore(), getRelationshipStore() );
     }
 
     public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships( long nodeId,
@@ -891,31 +1234,62 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
 
     private void updateNodes( RelationshipRecord rel )
     {
-        if ( rel.getFirstPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+        updateNode( rel.getFirstNode(), rel, rel.getFirstPrevRel(), rel.getFirstNextRel() );
+        if ( rel.getFirstNode() != rel.getSecondNode() )
+        {   // a loop is only in one chain of its node
+            updateNode( rel.getSecondNode(), rel, rel.getSecondPrevRel(), rel.getSecondNextRel() );
+        }
+    }
+
+    private void updateNode( long nodeId, RelationshipRecord rel, long prevRel, long nextRel )
+    {
+        NodeRecord node = getNodeRecord( nodeId );
+        boolean inTransaction = node != null;
+        if ( !inTransaction )
         {
-            NodeRecord firstNode = getNodeRecord( rel.getFirstNode() );
-            if ( firstNode == null )
-            {
-                firstNode = getNodeStore().getRecord( rel.getFirstNode() );
-                addNodeRecord( firstNode );
-            }
-            firstNode.setNextRel( rel.getFirstNextRel() );
+            node = getNodeStore().getRecord( nodeId );
         }
-        if ( rel.getSecondPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+        if ( node.isDense() )
         {
-            NodeRecord secondNode = getNodeRecord( rel.getSecondNode() );
-            if ( secondNode == null )
+            updateGroup( node, rel, prevRel, nextRel );
+        }
+        else if ( prevRel == Record.NO_PREV_RELATIONSHIP.intValue() )
+        {
+            if ( !inTransaction )
             {
-                secondNode = getNodeStore().getRecord( rel.getSecondNode() );
-                addNodeRecord( secondNode );
+                addNodeRecord( node );
             }
-            secondNode.setNextRel( rel.getSecondNextRel() );
+            node.setNextRel( nextRel );
+        }
+    }
+
+    /**
+     * Updates the group of the dense {@code node} which {@code rel} is
+     * removed from, deleting the group if it was the last relationship in it.
+     */
+    private void updateGroup( NodeRecord node, RelationshipRecord rel, long prevRel, long nextRel )
+    {
+        DirectionWrapper direction = directionOf( node.getId(), rel );
+        RelationshipGroupRecord group = getRelationshipGroup( node, rel.getType(), true );
+        if ( group == null )
+        {
+            throw new InvalidRecordException( node + " has no group for " + rel );
+        }
+        if ( prevRel == Record.NO_PREV_RELATIONSHIP.intValue() )
+        {
+            group.setFirst( direction, nextRel );
+        }
+        group.setCount( direction, group.getCount( direction ) - 1 );
+        if ( group.isEmpty() )
+        {
+            unlinkRelationshipGroup( node, group );
         }
     }
 
     @Override
     public void relRemoveProperty( long relId, PropertyData propertyData )
     {
+        spillIfLarge();
         RelationshipRecord relRecord = getRelationshipRecord( relId );
         if ( relRecord == null )
         {
@@ -987,11 +1361,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     @Override
     public Object loadPropertyValue( PropertyData propertyData )
     {
-        PropertyRecord propertyRecord = propertyRecords.get( propertyData.getId() );
-        if ( propertyRecord == null )
-        {
-            propertyRecord = getPropertyStore().getRecord( propertyData.getId() );
-        }
+        PropertyRecord propertyRecord = getPropertyRecord( propertyData.getId(), true, false );
         PropertyBlock block = propertyRecord.getPropertyBlock( propertyData.getIndex() );
         if ( block == null )
         {
@@ -1000,16 +1370,13 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                                              + "] is not present in property["
                                              + propertyData.getId() + "]" );
         }
-        if ( block.isLight() )
-        {
-            getPropertyStore().makeHeavy( block );
-        }
-        return block.getType().getValue( block, getPropertyStore() );
+        return getPropertyStore().loadValue( block );
     }
 
     @Override
     public void nodeRemoveProperty( long nodeId, PropertyData propertyData )
     {
+        spillIfLarge();
         NodeRecord nodeRecord = getNodeRecord( nodeId );
         if ( nodeRecord == null )
         {
@@ -1124,6 +1491,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     public PropertyData relChangeProperty( long relId,
             PropertyData propertyData, Object value )
     {
+        spillIfLarge();
         RelationshipRecord relRecord = getRelationshipRecord( relId );
         if ( relRecord == null )
         {
@@ -1141,6 +1509,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     public PropertyData nodeChangeProperty( long nodeId,
             PropertyData propertyData, Object value )
     {
+        spillIfLarge();
         NodeRecord nodeRecord = getNodeRecord( nodeId );
         if ( nodeRecord == null )
         {
@@ -1211,6 +1580,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     public PropertyData relAddProperty( long relId,
             PropertyIndex index, Object value )
     {
+        spillIfLarge();
         RelationshipRecord relRecord = getRelationshipRecord( relId );
         if ( relRecord == null )
         {
@@ -1235,6 +1605,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     public PropertyData nodeAddProperty( long nodeId, PropertyIndex index,
         Object value )
     {
+        spillIfLarge();
         NodeRecord nodeRecord = getNodeRecord( nodeId );
         if ( nodeRecord == null )
         {
@@ -1318,6 +1689,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     @Override
     public void relationshipCreate( long id, int type, long firstNodeId, long secondNodeId )
     {
+        spillIfLarge();
         NodeRecord firstNode = getNodeRecord( firstNodeId );
         if ( firstNode == null )
         {
@@ -1351,49 +1723,272 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     private void connectRelationship( NodeRecord firstNode,
         NodeRecord secondNode, RelationshipRecord rel )
     {
-        assert firstNode.getNextRel() != rel.getId();
-        assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
-        connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel( rel.getId() );
-        secondNode.setNextRel( rel.getId() );
+        if ( firstNode.getId() == secondNode.getId() )
+        {
+            connect( firstNode, rel, DirectionWrapper.BOTH );
+        }
+        else
+        {
+            connect( firstNode, rel, DirectionWrapper.OUTGOING );
+            connect( secondNode, rel, DirectionWrapper.INCOMING );
+        }
+    }
+
+    /**
+     * Puts {@code rel} first in the chain of {@code node} it belongs in,
+     * either the single chain of a sparse node or the chain for the type and
+     * direction in the groups of a dense node.
+     */
+    private void connect( NodeRecord node, RelationshipRecord rel, DirectionWrapper direction )
+    {
+        if ( !node.isDense() && shouldBecomeDense( node ) )
+        {
+            convertToDense( node );
+        }
+        RelationshipGroupRecord group = null;
+        long firstRel;
+        if ( node.isDense() )
+        {
+            group = getOrCreateRelationshipGroup( node, rel.getType() );
+            firstRel = group.getFirst( direction );
+        }
+        else
+        {
+            firstRel = node.getNextRel();
+        }
+        assert firstRel != rel.getId();
+        if ( direction != DirectionWrapper.INCOMING )
+        {
+            rel.setFirstNextRel( firstRel );
+        }
+        if ( direction != DirectionWrapper.OUTGOING )
+        {
+            rel.setSecondNextRel( firstRel );
+        }
+        connect( node.getId(), firstRel, rel );
+        if ( group != null )
+        {
+            group.setFirst( direction, rel.getId() );
+            group.setCount( direction, group.getCount( direction ) + 1 );
+        }
+        else
+        {
+            node.setNextRel( rel.getId() );
+            long length = relChainLengths != null ? relChainLengths.get( node.getId() ) : PrimitiveLongLongMap.NO_VALUE;
+            if ( length != PrimitiveLongLongMap.NO_VALUE )
+            {
+                relChainLengths.put( node.getId(), length + 1 );
+            }
+        }
     }
 
-    private void connect( NodeRecord node, RelationshipRecord rel )
+    private void connect( long nodeId, long firstRel, RelationshipRecord rel )
     {
-        if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        if ( firstRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
         {
-            Relationship lockableRel = new LockableRelationship( node.getNextRel() );
+            Relationship lockableRel = new LockableRelationship( firstRel );
             getWriteLock( lockableRel );
-            RelationshipRecord nextRel = getRelationshipRecord( node.getNextRel() );
+            RelationshipRecord nextRel = getRelationshipRecord( firstRel );
             if ( nextRel == null )
             {
-                nextRel = getRelationshipStore().getRecord( node.getNextRel() );
+                nextRel = getRelationshipStore().getRecord( firstRel );
                 addRelationshipRecord( nextRel );
             }
             boolean changed = false;
-            if ( nextRel.getFirstNode() == node.getId() )
+            if ( nextRel.getFirstNode() == nodeId )
             {
                 nextRel.setFirstPrevRel( rel.getId() );
                 changed = true;
             }
-            if ( nextRel.getSecondNode() == node.getId() )
+            if ( nextRel.getSecondNode() == nodeId )
             {
                 nextRel.setSecondPrevRel( rel.getId() );
                 changed = true;
             }
             if ( !changed )
             {
-                throw new InvalidRecordException( node + " dont match " + nextRel );
+                throw new InvalidRecordException( "Node[" + nodeId + "] dont match " + nextRel );
+            }
+        }
+    }
+
+    private static DirectionWrapper directionOf( long nodeId, RelationshipRecord rel )
+    {
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            return DirectionWrapper.BOTH;
+        }
+        return rel.getFirstNode() == nodeId ? DirectionWrapper.OUTGOING : DirectionWrapper.INCOMING;
+    }
+
+    private RelationshipRecord getRelationshipRecordForReading( long relId )
+    {
+        RelationshipRecord record = getRelationshipRecord( relId );
+        return record != null ? record : getRelationshipStore().getRecord( relId );
+    }
+
+    /**
+     * @return whether or not the chain of the sparse {@code node} has reached
+     * the dense node threshold. The chain is walked at most once per node and
+     * transaction, and never further than the threshold.
+     */
+    private boolean shouldBecomeDense( NodeRecord node )
+    {
+        int threshold = getRelationshipGroupStore().getDenseNodeThreshold();
+        if ( threshold <= 0 )
+        {
+            return false;
+        }
+        if ( relChainLengths == null )
+        {
+            relChainLengths = new PrimitiveLongLongMap();
+        }
+        long length = relChainLengths.get( node.getId() );
+        if ( length == PrimitiveLongLongMap.NO_VALUE )
+        {
+            int count = 0;
+            for ( long relId = node.getNextRel(); relId != Record.NO_NEXT_RELATIONSHIP.intValue() &&
+                    count < threshold; count++ )
+            {
+                RelationshipRecord rel = getRelationshipRecordForReading( relId );
+                relId = rel.getFirstNode() == node.getId() ? rel.getFirstNextRel() : rel.getSecondNextRel();
             }
+            length = count;
+            relChainLengths.put( node.getId(), length );
         }
+        return length >= threshold;
+    }
+
+    /**
+     * Moves all relationships of the sparse {@code node} from its single
+     * chain into one group per type, with a chain per direction in each.
+     */
+    private void convertToDense( NodeRecord node )
+    {
+        List<RelationshipRecord> chain = new ArrayList<RelationshipRecord>();
+        for ( long relId = node.getNextRel(); relId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            getWriteLock( new LockableRelationship( relId ) );
+            RelationshipRecord rel = getRelationshipRecord( relId );
+            if ( rel == null )
+            {
+                rel = getRelationshipStore().getRecord( relId );
+                addRelationshipRecord( rel );
+            }
+            chain.add( rel );
+            relId = rel.getFirstNode() == node.getId() ? rel.getFirstNextRel() : rel.getSecondNextRel();
+        }
+        node.setDense( true );
+        node.setNextRel( Record.NO_NEXT_RELATIONSHIP.intValue() );
+        // Backwards, so that the group chains keep the order of the old chain
+        for ( int i = chain.size() - 1; i >= 0; i-- )
+        {
+            RelationshipRecord rel = chain.get( i );
+            DirectionWrapper direction = directionOf( node.getId(), rel );
+            RelationshipGroupRecord group = getOrCreateRelationshipGroup( node, rel.getType() );
+            long firstRel = group.getFirst( direction );
+            if ( direction != DirectionWrapper.INCOMING )
+            {
+                rel.setFirstPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+                rel.setFirstNextRel( firstRel );
+            }
+            if ( direction != DirectionWrapper.OUTGOING )
+            {
+                rel.setSecondPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+                rel.setSecondNextRel( firstRel );
+            }
+            connect( node.getId(), firstRel, rel );
+            group.setFirst( direction, rel.getId() );
+            group.setCount( direction, group.getCount( direction ) + 1 );
+        }
+        if ( relChainLengths != null )
+        {
+            relChainLengths.remove( node.getId() );
+        }
+        if ( convertedNodes == null )
+        {
+            convertedNodes = new HashSet<Long>();
+        }
+        convertedNodes.add( node.getId() );
+    }
+
+    /**
+     * @return the group of {@code type} of the dense {@code node}, or
+     * {@code null} if it has no relationships of that type. If
+     * {@code forChange} the group is added to this transaction.
+     */
+    private RelationshipGroupRecord getRelationshipGroup( NodeRecord node, int type, boolean forChange )
+    {
+        for ( long groupId = node.getNextRel(); groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipGroupRecord group = getRelationshipGroupRecord( groupId );
+            if ( group == null )
+            {
+                group = getRelationshipGroupStore().getRecord( groupId );
+                if ( group.getType() == type && forChange )
+                {
+                    addRelationshipGroupRecord( group );
+                }
+            }
+            if ( group.getType() == type )
+            {
+                return group;
+            }
+            groupId = group.getNext();
+        }
+        return null;
+    }
+
+    private RelationshipGroupRecord getOrCreateRelationshipGroup( NodeRecord node, int type )
+    {
+        RelationshipGroupRecord group = getRelationshipGroup( node, type, true );
+        if ( group == null )
+        {
+            group = new RelationshipGroupRecord( getRelationshipGroupStore().nextId(), type, node.getId() );
+            group.setInUse( true );
+            group.setCreated();
+            group.setNext( node.getNextRel() );
+            node.setNextRel( group.getId() );
+            addRelationshipGroupRecord( group );
+        }
+        return group;
+    }
+
+    private void unlinkRelationshipGroup( NodeRecord node, RelationshipGroupRecord group )
+    {
+        if ( node.getNextRel() == group.getId() )
+        {
+            if ( getNodeRecord( node.getId() ) == null )
+            {
+                addNodeRecord( node );
+            }
+            node.setNextRel( group.getNext() );
+        }
+        else
+        {
+            for ( long groupId = node.getNextRel(); groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+            {
+                RelationshipGroupRecord previous = getRelationshipGroupRecord( groupId );
+                if ( previous == null )
+                {
+                    previous = getRelationshipGroupStore().getRecord( groupId );
+                }
+                if ( previous.getNext() == group.getId() )
+                {
+                    addRelationshipGroupRecord( previous );
+                    previous.setNext( group.getNext() );
+                    break;
+                }
+                groupId = previous.getNext();
+            }
+        }
+        group.setInUse( false );
     }
 
     @Override
     public void nodeCreate( long nodeId )
     {
+        spillIfLarge();
         NodeRecord nodeRecord = new NodeRecord( nodeId, Record.NO_NEXT_RELATIONSHIP.intValue(), Record.NO_NEXT_PROPERTY.intValue() );
         nodeRecord.setInUse( true );
         nodeRecord.setCreated();
@@ -1506,7 +2101,16 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
 
     NodeRecord getNodeRecord( long nodeId )
     {
-        return nodeRecords.get( nodeId );
+        NodeRecord record = nodeRecords.get( nodeId );
+        if ( record == null && spilledRecords != null )
+        {
+            record = spilledRecords.getNode( nodeId );
+            if ( record != null )
+            {
+                addNodeRecord( record );
+            }
+        }
+        return record;
     }
 
     void addRelationshipRecord( RelationshipRecord record )
@@ -1516,7 +2120,39 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
 
     RelationshipRecord getRelationshipRecord( long relId )
     {
-        return relRecords.get( relId );
+        RelationshipRecord record = relRecords.get( relId );
+        if ( record == null && spilledRecords != null )
+        {
+            record = spilledRecords.getRelationship( relId );
+            if ( record != null )
+            {
+                addRelationshipRecord( record );
+            }
+        }
+        return record;
+    }
+
+    void addRelationshipGroupRecord( RelationshipGroupRecord record )
+    {
+        if ( relGroupRecords == null )
+        {
+            relGroupRecords = new PrimitiveLongObjectMap<RelationshipGroupRecord>();
+        }
+        relGroupRecords.put( record.getId(), record );
+    }
+
+    RelationshipGroupRecord getRelationshipGroupRecord( long groupId )
+    {
+        RelationshipGroupRecord record = relGroupRecords != null ? relGroupRecords.get( groupId ) : null;
+        if ( record == null && spilledRecords != null )
+        {
+            record = spilledRecords.getRelationshipGroup( groupId );
+            if ( record != null )
+            {
+                addRelationshipGroupRecord( record );
+            }
+        }
+        return record;
     }
 
     void addPropertyRecord( PropertyRecord record )
@@ -1528,6 +2164,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             boolean store )
     {
         PropertyRecord result = propertyRecords.get( propertyId );
+        if ( result == null && spilledRecords != null )
+        {
+            result = spilledRecords.getProperty( propertyId );
+            if ( result != null && store )
+            {
+                addPropertyRecord( result );
+            }
+        }
         if ( result == null )
         {
             if ( light )
@@ -1694,7 +2338,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     @Override
     public RelIdArray getCreatedNodes()
     {
-        RelIdArray createdNodes = new RelIdArray( null );
+        final RelIdArray createdNodes = new RelIdArray( null );
         for ( NodeRecord record : nodeRecords.values() )
         {
             if ( record.isCreated() )
@@ -1703,6 +2347,21 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 createdNodes.add( record.getId(), DirectionWrapper.OUTGOING );
             }
         }
+        if ( spilledRecords != null )
+        {
+            spilledRecords.visitCreatedNodes( new Visitor<Long>()
+            {
+                @Override
+                public boolean visit( Long nodeId )
+                {
+                    if ( !nodeRecords.containsKey( nodeId ) )
+                    {
+                        createdNodes.add( nodeId, DirectionWrapper.OUTGOING );
+                    }
+                    return false;
+                }
+            } );
+        }
         return createdNodes;
     }
 
@@ -1714,7 +2373,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             return record.isCreated();
         }
-        return false;
+        return spilledRecords != null && spilledRecords.isNodeCreated( nodeId );
     }
 
     @Override
@@ -1725,7 +2384,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             return record.isCreated();
         }
-        return false;
+        return spilledRecords != null && spilledRecords.isRelationshipCreated( relId );
     }
 
     @Override
@@ -1812,6 +2471,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     @Override
     public PropertyData graphAddProperty( PropertyIndex index, Object value )
     {
+        spillIfLarge();
         PropertyBlock block = new PropertyBlock();
         block.setCreated();
         /*
@@ -1829,12 +2489,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     @Override
     public PropertyData graphChangeProperty( PropertyData propertyData, Object value )
     {
+        spillIfLarge();
         return primitiveChangeProperty( getOrLoadNeoStoreRecord(), propertyData, value, RecordAdded.GRAPH );
     }
 
     @Override
     public void graphRemoveProperty( PropertyData propertyData )
     {
+        spillIfLarge();
         removeProperty( getOrLoadNeoStoreRecord(), propertyData, RecordAdded.GRAPH );
     }
 
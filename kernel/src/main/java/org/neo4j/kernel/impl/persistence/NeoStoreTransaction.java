@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.persistence;
 
+import java.util.List;
 import java.util.Map;
 
 import javax.transaction.SystemException;
@@ -29,6 +30,7 @@ import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.nioneo.store.NameData;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
 import org.neo4j.kernel.impl.util.ArrayMap;
@@ -43,6 +45,13 @@ import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
  */
 public interface NeoStoreTransaction
 {
+    /**
+     * Returned from {@link #getRelationshipChainPosition(long)} for a node
+     * whose relationships are kept in {@link #getRelationshipGroups(long)
+     * relationship groups}, rather than in a single chain.
+     */
+    public static final long DENSE_NODE = -2;
+
     public void setXaConnection( XaConnection connection );
 
     /**
@@ -163,6 +172,16 @@ public interface NeoStoreTransaction
      */
     public NodeRecord nodeLoadLight( long id );
 
+    /**
+     * Loads the light nodes with the given ids, reading the records of ids
+     * close to each other together.
+     *
+     * @param ids The ids of the nodes to load.
+     * @return The light NodeRecords, in the same order as the ids, null for
+     * the nodes which couldn't be found.
+     */
+    public List<NodeRecord> nodesLoadLight( long[] ids );
+
     /**
      * Attempts to load the value off the store forthe given PropertyData
      * object.
@@ -261,6 +280,15 @@ public interface NeoStoreTransaction
      */
     public RelationshipRecord relLoadLight( long id );
 
+    /**
+     * Relationship counterpart of {@link #nodesLoadLight(long[])}.
+     *
+     * @param ids The ids of the relationships to load.
+     * @return The light RelationshipRecords, in the same order as the ids,
+     * null for the relationships which couldn't be found.
+     */
+    public List<RelationshipRecord> relsLoadLight( long[] ids );
+
     /**
      * Loads and returns all the available RelationshipTypes that are stored.
      *
@@ -287,6 +315,27 @@ public interface NeoStoreTransaction
 
     public long getRelationshipChainPosition( long nodeId );
 
+    /**
+     * @param nodeId the dense node to get the relationship groups for.
+     * @return the committed relationship groups of the node, one per type.
+     * Loading the chains of a group is done through
+     * {@link #getMoreRelationships(long, long)}, starting from the first
+     * relationship of the chain.
+     */
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId );
+
+    /**
+     * @param nodeId the node to count the committed relationships of.
+     * @param types ids of the relationship types to count, or {@code null}
+     * for relationships of any type.
+     * @param direction the direction of the relationships to count, loops
+     * being counted once in any direction.
+     * @return the number of relationships of the node. For a dense node this
+     * is read from its relationship groups, for other nodes the chain is
+     * walked.
+     */
+    public int getDegree( long nodeId, int[] types, DirectionWrapper direction );
+
     /*
      * List<Iterable<RelationshipRecord>> is a list with three items:
      * 0: outgoing relationships
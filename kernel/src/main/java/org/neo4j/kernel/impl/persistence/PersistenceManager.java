@@ -19,6 +19,8 @@
  */
 package org.neo4j.kernel.impl.persistence;
 
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,8 +41,10 @@ import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.core.TransactionEventsSyncHook;
 import org.neo4j.kernel.impl.core.TxEventSyncHookFactory;
 import org.neo4j.kernel.impl.nioneo.store.NameData;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.xa.NioNeoDbPersistenceSource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
@@ -82,6 +86,14 @@ public class PersistenceManager
         return getReadOnlyResourceIfPossible().nodeLoadLight( id );
     }
 
+    /**
+     * Batch version of {@link #loadLightNode(long)}.
+     */
+    public List<NodeRecord> loadLightNodes( long[] ids )
+    {
+        return getReadOnlyResourceIfPossible().nodesLoadLight( ids );
+    }
+
     public Object loadPropertyValue( PropertyData property )
     {
         return getReadOnlyResource().loadPropertyValue( property );
@@ -115,6 +127,16 @@ public class PersistenceManager
         return getReadOnlyResource().getMoreRelationships( nodeId, position );
     }
 
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId )
+    {
+        return getReadOnlyResourceIfPossible().getRelationshipGroups( nodeId );
+    }
+
+    public int getDegree( long nodeId, int[] types, DirectionWrapper direction )
+    {
+        return getReadOnlyResourceIfPossible().getDegree( nodeId, types, direction );
+    }
+
     public ArrayMap<Integer,PropertyData> loadNodeProperties( long nodeId, boolean light )
     {
         return getReadOnlyResourceIfPossible().nodeLoadProperties( nodeId, light );
@@ -131,6 +153,55 @@ public class PersistenceManager
         return getReadOnlyResourceIfPossible().relLoadLight( id );
     }
 
+    /**
+     * Batch version of {@link #loadLightRelationship(long)}.
+     */
+    public List<RelationshipRecord> loadLightRelationships( long[] ids )
+    {
+        return getReadOnlyResourceIfPossible().relsLoadLight( ids );
+    }
+
+    /**
+     * Scans the node store for nodes in use, without going through the
+     * transaction. The current transaction must not have changes of its own
+     * since they aren't in the store yet.
+     *
+     * @return the nodes in use with ids from {@code fromId} up to, but not
+     * including, {@code toId}, or {@code null} if the current transaction has
+     * changes.
+     */
+    public Iterator<NodeRecord> scanNodes( long fromId, long toId )
+    {
+        if ( hasTransactionState() )
+        {
+            return null;
+        }
+        return getNeoStore().getNodeStore().scan( fromId, toId );
+    }
+
+    /**
+     * Relationship counterpart of {@link #scanNodes(long, long)}.
+     */
+    public Iterator<RelationshipRecord> scanRelationships( long fromId, long toId )
+    {
+        if ( hasTransactionState() )
+        {
+            return null;
+        }
+        return getNeoStore().getRelationshipStore().scan( fromId, toId );
+    }
+
+    private boolean hasTransactionState()
+    {
+        // A connection is only put in the map on the first write operation, see getResource()
+        return txConnectionMap.get( getCurrentTransaction() ) != null;
+    }
+
+    private NeoStore getNeoStore()
+    {
+        return ((NioNeoDbPersistenceSource) persistenceSource).getNeoStore();
+    }
+
     public NameData[] loadAllRelationshipTypes()
     {
         /* Using getReadOnlyResource here since loadRelationshipTypes doesn't
@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.storemigration;
 
+import static org.neo4j.kernel.impl.nioneo.store.CommonAbstractStore.DENSE_NODES_STORE_VERSION;
 import static org.neo4j.kernel.impl.nioneo.store.CommonAbstractStore.buildTypeDescriptorAndVersion;
 
 import java.io.File;
@@ -36,6 +37,7 @@ import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeStore;
 
@@ -53,6 +55,7 @@ public class CurrentDatabase
         fileNamesToTypeDescriptors.put( "neostore.propertystore.db.index.keys", DynamicStringStore.TYPE_DESCRIPTOR );
         fileNamesToTypeDescriptors.put( "neostore.propertystore.db.strings", DynamicStringStore.TYPE_DESCRIPTOR );
         fileNamesToTypeDescriptors.put( "neostore.relationshipstore.db", RelationshipStore.TYPE_DESCRIPTOR );
+        fileNamesToTypeDescriptors.put( "neostore.relationshipgroupstore.db", RelationshipGroupStore.TYPE_DESCRIPTOR );
         fileNamesToTypeDescriptors.put( "neostore.relationshiptypestore.db", RelationshipTypeStore.TYPE_DESCRIPTOR );
         fileNamesToTypeDescriptors.put( "neostore.relationshiptypestore.db.names", DynamicStringStore.TYPE_DESCRIPTOR );
     }
@@ -69,13 +72,18 @@ public class CurrentDatabase
                 File storeFile = new File( storeDirectory, fileName );
                 if ( !storeFile.exists() )
                 {
+                    if ( isOptional( fileName ) )
+                    {
+                        continue;
+                    }
                     return false;
                 }
                 fileChannel = new RandomAccessFile( storeFile, "r" ).getChannel();
                 fileChannel.position( fileChannel.size() - expectedVersionBytes.length );
                 byte[] foundVersionBytes = new byte[expectedVersionBytes.length];
                 fileChannel.read( ByteBuffer.wrap( foundVersionBytes ) );
-                if ( !expectedVersion.equals( UTF8.decode( foundVersionBytes ) ) )
+                String foundVersion = UTF8.decode( foundVersionBytes );
+                if ( !expectedVersion.equals( foundVersion ) && !isDenseNodeStore( fileName, foundVersion ) )
                 {
                     return false;
                 }
@@ -101,4 +109,22 @@ public class CurrentDatabase
         }
         return true;
     }
+
+    private static boolean isDenseNodeStore( String fileName, String foundVersion )
+    {
+        return fileName.equals( "neostore.nodestore.db" ) &&
+                foundVersion.equals( NodeStore.TYPE_DESCRIPTOR + " " + DENSE_NODES_STORE_VERSION );
+    }
+
+    private static boolean isOptional( String fileName )
+    {
+        for ( String optionalFileName : StoreFiles.optionalFileNames )
+        {
+            if ( optionalFileName.equals( fileName ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
 }
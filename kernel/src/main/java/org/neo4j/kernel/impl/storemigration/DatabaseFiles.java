@@ -42,6 +42,19 @@ public class DatabaseFiles
         move( upgradeDirectory, workingDirectory );
     }
 
+    public void copyToUpgradeDirectory( File workingDirectory, File upgradeDirectory )
+    {
+        try
+        {
+            StoreFiles.copy( workingDirectory, upgradeDirectory );
+            LogFiles.copy( workingDirectory, upgradeDirectory );
+        }
+        catch ( IOException e )
+        {
+            throw new StoreUpgrader.UnableToUpgradeException( e );
+        }
+    }
+
     private void move( File fromDirectory, File toDirectory )
     {
         try
@@ -68,4 +68,23 @@ public class LogFiles
             StoreFiles.moveFile( logFile, fromDirectory, toDirectory );
         }
     }
+
+    /**
+     * Copies all logical logs of a database from one directory to another,
+     * leaving them in place.
+     *
+     * @param fromDirectory The directory that hosts the database and its logs
+     * @param toDirectory The directory to copy the log files to
+     * @throws IOException If any of the copy operations fail for any reason.
+     */
+    public static void copy( File fromDirectory, File toDirectory ) throws IOException
+    {
+        assert fromDirectory.isDirectory();
+        assert toDirectory.isDirectory();
+
+        for ( String logFile : fromDirectory.list( new LogicalLogFilenameFilter() ) )
+        {
+            StoreFiles.copyFile( logFile, fromDirectory, toDirectory );
+        }
+    }
 }
@@ -40,6 +40,13 @@ public class StoreFiles
             "neostore.relationshiptypestore.db.names",
     };
 
+    /**
+     * Store files which older store versions don't have, moved only if present.
+     */
+    public static final String[] optionalFileNames = {
+            "neostore.relationshipgroupstore.db",
+    };
+
     /**
      * Moves a database's store files from one directory
      * to another. Since it just renames files (the standard way of moving with
@@ -58,6 +65,45 @@ public class StoreFiles
             moveFile( fileName, fromDirectory, toDirectory );
             moveFile( fileName + ".id", fromDirectory, toDirectory );
         }
+        for ( String fileName : optionalFileNames )
+        {
+            if ( new File( fromDirectory, fileName ).exists() )
+            {
+                moveFile( fileName, fromDirectory, toDirectory );
+                moveFile( fileName + ".id", fromDirectory, toDirectory );
+            }
+        }
+    }
+
+    /**
+     * Copies a database's store files from one directory to another, leaving
+     * them in place.
+     *
+     * @param fromDirectory The directory that hosts the database files.
+     * @param toDirectory The directory to copy the database files to.
+     * @throws IOException If any of the copy operations fail for any reason.
+     */
+    public static void copy( File fromDirectory, File toDirectory )
+            throws IOException
+    {
+        for ( String fileName : fileNames )
+        {
+            copyFile( fileName, fromDirectory, toDirectory );
+            copyFile( fileName + ".id", fromDirectory, toDirectory );
+        }
+        for ( String fileName : optionalFileNames )
+        {
+            if ( new File( fromDirectory, fileName ).exists() )
+            {
+                copyFile( fileName, fromDirectory, toDirectory );
+                copyFile( fileName + ".id", fromDirectory, toDirectory );
+            }
+        }
+    }
+
+    static void copyFile( String fileName, File fromDirectory, File toDirectory ) throws IOException
+    {
+        FileUtils.copyFile( new File( fromDirectory, fileName ), new File( toDirectory, fileName ) );
     }
 
     /**
@@ -24,9 +24,12 @@ import static org.neo4j.kernel.impl.nioneo.store.PropertyStore.encodeString;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.impl.nioneo.store.CommonAbstractStore;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
@@ -34,6 +37,8 @@ import org.neo4j.kernel.impl.nioneo.store.NodeStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -47,6 +52,7 @@ import org.neo4j.kernel.impl.storemigration.legacystore.LegacyPropertyRecord;
 import org.neo4j.kernel.impl.storemigration.legacystore.LegacyRelationshipTypeStoreReader;
 import org.neo4j.kernel.impl.storemigration.legacystore.LegacyStore;
 import org.neo4j.kernel.impl.storemigration.monitoring.MigrationProgressMonitor;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 
 public class StoreMigrator
 {
@@ -64,6 +70,128 @@ public class StoreMigrator
         progressMonitor.finished();
     }
 
+    /**
+     * Upgrades a store of {@link CommonAbstractStore#ALL_STORES_VERSION} to
+     * {@link CommonAbstractStore#DENSE_NODES_STORE_VERSION}, grouping the
+     * relationships of the nodes that are dense by then. Node records of that
+     * version use the top property id bit to mark dense nodes, so a store with
+     * property ids above {@link NodeStore#MAX_PROPERTY_ID_WITH_DENSE_NODES}
+     * can't be upgraded.
+     */
+    public void migrateToDenseNodes( NeoStore neoStore )
+    {
+        progressMonitor.started();
+        NodeStore nodeStore = neoStore.getNodeStore();
+        long highId = nodeStore.getHighId();
+        for ( long nodeId = 0; nodeId < highId; nodeId++ )
+        {
+            NodeRecord node = nodeStore.loadLightNode( nodeId );
+            if ( node != null && node.getNextProp() > NodeStore.MAX_PROPERTY_ID_WITH_DENSE_NODES )
+            {
+                throw new StoreUpgrader.UnableToUpgradeException( "Node[" + nodeId + "] has property id " +
+                        node.getNextProp() + ", which is more than a store with dense nodes can address" );
+            }
+        }
+        neoStore.setStoreVersion( NeoStore.versionStringToLong( CommonAbstractStore.DENSE_NODES_STORE_VERSION ) );
+        groupDenseNodes( nodeStore, neoStore.getRelationshipStore(), neoStore.getRelationshipGroupStore() );
+        progressMonitor.finished();
+    }
+
+    /**
+     * Groups the relationships of the nodes with at least as many
+     * relationships as the dense node threshold by type and direction,
+     * like the database does once a node reaches it. Does nothing if the
+     * threshold of {@code groupStore} is 0.
+     */
+    public static void groupDenseNodes( NodeStore nodeStore, RelationshipStore relationshipStore,
+            RelationshipGroupStore groupStore )
+    {
+        int threshold = groupStore.getDenseNodeThreshold();
+        if ( threshold <= 0 )
+        {
+            return;
+        }
+        for ( long nodeId = 0; nodeId < nodeStore.getHighId(); nodeId++ )
+        {
+            NodeRecord node = nodeStore.loadLightNode( nodeId );
+            if ( node == null )
+            {
+                continue;
+            }
+            List<RelationshipRecord> chain = new ArrayList<RelationshipRecord>();
+            for ( long relId = node.getNextRel(); relId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+            {
+                RelationshipRecord rel = relationshipStore.getRecord( relId );
+                chain.add( rel );
+                relId = rel.getFirstNode() == nodeId ? rel.getFirstNextRel() : rel.getSecondNextRel();
+            }
+            if ( chain.size() >= threshold )
+            {
+                groupRelationships( node, chain, relationshipStore, groupStore );
+                nodeStore.updateRecord( node );
+            }
+        }
+    }
+
+    private static void groupRelationships( NodeRecord node, List<RelationshipRecord> chain,
+            RelationshipStore relationshipStore, RelationshipGroupStore groupStore )
+    {
+        Map<Integer, RelationshipGroupRecord> groups = new HashMap<Integer, RelationshipGroupRecord>();
+        Map<Long, RelationshipRecord> relationships = new HashMap<Long, RelationshipRecord>();
+        node.setDense( true );
+        node.setNextRel( Record.NO_NEXT_RELATIONSHIP.intValue() );
+        // Backwards, so that the group chains keep the order of the old chain
+        for ( int i = chain.size() - 1; i >= 0; i-- )
+        {
+            RelationshipRecord rel = chain.get( i );
+            relationships.put( rel.getId(), rel );
+            RelationshipGroupRecord group = groups.get( rel.getType() );
+            if ( group == null )
+            {
+                group = new RelationshipGroupRecord( groupStore.nextId(), rel.getType(), node.getId() );
+                group.setInUse( true );
+                group.setNext( node.getNextRel() );
+                node.setNextRel( group.getId() );
+                groups.put( rel.getType(), group );
+            }
+            DirectionWrapper direction = rel.getFirstNode() != node.getId() ? DirectionWrapper.INCOMING :
+                    rel.getSecondNode() != node.getId() ? DirectionWrapper.OUTGOING : DirectionWrapper.BOTH;
+            long firstRel = group.getFirst( direction );
+            if ( direction != DirectionWrapper.INCOMING )
+            {
+                rel.setFirstPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+                rel.setFirstNextRel( firstRel );
+            }
+            if ( direction != DirectionWrapper.OUTGOING )
+            {
+                rel.setSecondPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+                rel.setSecondNextRel( firstRel );
+            }
+            if ( firstRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                RelationshipRecord next = relationships.get( firstRel );
+                if ( next.getFirstNode() == node.getId() )
+                {
+                    next.setFirstPrevRel( rel.getId() );
+                }
+                if ( next.getSecondNode() == node.getId() )
+                {
+                    next.setSecondPrevRel( rel.getId() );
+                }
+            }
+            group.setFirst( direction, rel.getId() );
+            group.setCount( direction, group.getCount( direction ) + 1 );
+        }
+        for ( RelationshipRecord rel : chain )
+        {
+            relationshipStore.updateRecord( rel );
+        }
+        for ( RelationshipGroupRecord group : groups.values() )
+        {
+            groupStore.updateRecord( group );
+        }
+    }
+
     protected class Migration
     {
         private LegacyStore legacyStore;
@@ -83,6 +211,8 @@ public class StoreMigrator
             migrateNeoStore( neoStore );
             migrateNodes( neoStore.getNodeStore(), new PropertyWriter( neoStore.getPropertyStore() ) );
             migrateRelationships( neoStore.getRelationshipStore(), new PropertyWriter( neoStore.getPropertyStore() ) );
+            groupDenseNodes( neoStore.getNodeStore(), neoStore.getRelationshipStore(),
+                    neoStore.getRelationshipGroupStore() );
             migratePropertyIndexes( neoStore.getPropertyStore().getIndexStore() );
             legacyStore.getPropertyStoreReader().close();
             migrateRelationshipTypes( neoStore.getRelationshipTypeStore() );
@@ -76,6 +76,39 @@ public class StoreUpgrader
         databaseFiles.moveToWorkingDirectory( upgradeDirectory, workingDirectory );
     }
 
+    /**
+     * Upgrades a store of the current version to one where nodes can be
+     * dense, through the same isolated directory and backup as
+     * {@link #attemptUpgrade(String)}.
+     */
+    public void attemptDenseNodesUpgrade( String storageFileName )
+    {
+        upgradeConfiguration.checkConfigurationAllowsAutomaticUpgrade();
+        upgradableDatabase.checkUpgradeableToDenseNodes( new File( storageFileName ) );
+
+        File workingDirectory = new File( storageFileName ).getParentFile();
+        File upgradeDirectory = new File( workingDirectory, "upgrade" );
+        File backupDirectory = new File( workingDirectory, "upgrade_backup" );
+
+        String upgradeFileName = prepareIsolatedDirectory( upgradeDirectory );
+        databaseFiles.copyToUpgradeDirectory( workingDirectory, upgradeDirectory );
+        NeoStore neoStore = new StoreFactory( upgradeConfiguration( upgradeFileName ), idGeneratorFactory,
+                new DefaultWindowPoolFactory(), fileSystemAbstraction, StringLogger.DEV_NULL, null )
+                .attemptNewNeoStore( upgradeFileName );
+        try
+        {
+            storeMigrator.migrateToDenseNodes( neoStore );
+        }
+        finally
+        {
+            neoStore.close();
+        }
+
+        databaseFiles.moveToBackupDirectory( workingDirectory, backupDirectory );
+        backupMessagesLogLeavingInPlaceForNewDatabaseMessages( workingDirectory, backupDirectory );
+        databaseFiles.moveToWorkingDirectory( upgradeDirectory, workingDirectory );
+    }
+
     private void backupMessagesLogLeavingInPlaceForNewDatabaseMessages( File workingDirectory, File backupDirectory )
     {
         try
@@ -91,25 +124,9 @@ public class StoreUpgrader
 
     private void migrateToIsolatedDirectory( String storageFileName, File upgradeDirectory )
     {
-        if (upgradeDirectory.exists()) {
-            try
-            {
-                FileUtils.deleteRecursively( upgradeDirectory );
-            }
-            catch ( IOException e )
-            {
-                throw new UnableToUpgradeException( e );
-            }
-        }
-        upgradeDirectory.mkdir();
-
-        String upgradeFileName = new File( upgradeDirectory, NeoStore.DEFAULT_NAME ).getPath();
-        Map<String, String> upgradeConfig = new HashMap<String, String>( originalConfig.getParams() );
-        upgradeConfig.put( "neo_store", upgradeFileName );
+        String upgradeFileName = prepareIsolatedDirectory( upgradeDirectory );
+        Config upgradeConfiguration = upgradeConfiguration( upgradeFileName );
 
-
-        Config upgradeConfiguration = new Config( upgradeConfig );
-        
         NeoStore neoStore = new StoreFactory( upgradeConfiguration, idGeneratorFactory, new DefaultWindowPoolFactory(),
                 fileSystemAbstraction, StringLogger.DEV_NULL, null ).createNeoStore(upgradeFileName);
         try
@@ -126,6 +143,29 @@ public class StoreUpgrader
         }
     }
 
+    private String prepareIsolatedDirectory( File upgradeDirectory )
+    {
+        if (upgradeDirectory.exists()) {
+            try
+            {
+                FileUtils.deleteRecursively( upgradeDirectory );
+            }
+            catch ( IOException e )
+            {
+                throw new UnableToUpgradeException( e );
+            }
+        }
+        upgradeDirectory.mkdir();
+        return new File( upgradeDirectory, NeoStore.DEFAULT_NAME ).getPath();
+    }
+
+    private Config upgradeConfiguration( String upgradeFileName )
+    {
+        Map<String, String> upgradeConfig = new HashMap<String, String>( originalConfig.getParams() );
+        upgradeConfig.put( "neo_store", upgradeFileName );
+        return new Config( upgradeConfig );
+    }
+
     public static class UnableToUpgradeException extends RuntimeException
     {
         public UnableToUpgradeException( Exception cause )
@@ -28,7 +28,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.helpers.UTF8;
+import org.neo4j.kernel.impl.nioneo.store.CommonAbstractStore;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.storemigration.legacystore.LegacyDynamicStoreReader;
 import org.neo4j.kernel.impl.storemigration.legacystore.LegacyNodeStoreReader;
@@ -82,43 +84,60 @@ public class UpgradableDatabase
         File storeDirectory = neoStoreFile.getParentFile();
         for ( String fileName : fileNamesToExpectedVersions.keySet() )
         {
-            String expectedVersion = fileNamesToExpectedVersions.get( fileName );
-            FileChannel fileChannel = null;
-            byte[] expectedVersionBytes = UTF8.encode( expectedVersion );
-            try
+            if ( !endsWith( new File( storeDirectory, fileName ), fileNamesToExpectedVersions.get( fileName ) ) )
             {
-                File storeFile = new File( storeDirectory, fileName );
-                if (!storeFile.exists()) {
-                    return false;
-                }
-                fileChannel = new RandomAccessFile( storeFile, "r" ).getChannel();
-                if ( fileChannel.size() < expectedVersionBytes.length ) {
-                    return false;
-                }
-                fileChannel.position( fileChannel.size() - expectedVersionBytes.length );
-                byte[] foundVersionBytes = new byte[expectedVersionBytes.length];
-                fileChannel.read( ByteBuffer.wrap( foundVersionBytes ) );
-                if ( !expectedVersion.equals( UTF8.decode( foundVersionBytes ) ) )
-                {
-                    return false;
-                }
-            } catch ( IOException e )
-            {
-                throw new RuntimeException( e );
-            } finally
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that a store can be upgraded to one where nodes can be dense,
+     * which it can if it's of the current version and cleanly shut down.
+     */
+    public void checkUpgradeableToDenseNodes( File neoStoreFile )
+    {
+        if ( !endsWith( neoStoreFile, CommonAbstractStore.buildTypeDescriptorAndVersion( NeoStore.TYPE_DESCRIPTOR ) ) )
+        {
+            throw new StoreUpgrader.UnableToUpgradeException( neoStoreFile + " isn't cleanly shut down at version " +
+                    CommonAbstractStore.ALL_STORES_VERSION + ", start it without " +
+                    GraphDatabaseSettings.dense_node_threshold.name() + " to recover it before upgrading it" );
+        }
+    }
+
+    private boolean endsWith( File storeFile, String expectedVersion )
+    {
+        FileChannel fileChannel = null;
+        byte[] expectedVersionBytes = UTF8.encode( expectedVersion );
+        try
+        {
+            if (!storeFile.exists()) {
+                return false;
+            }
+            fileChannel = new RandomAccessFile( storeFile, "r" ).getChannel();
+            if ( fileChannel.size() < expectedVersionBytes.length ) {
+                return false;
+            }
+            fileChannel.position( fileChannel.size() - expectedVersionBytes.length );
+            byte[] foundVersionBytes = new byte[expectedVersionBytes.length];
+            fileChannel.read( ByteBuffer.wrap( foundVersionBytes ) );
+            return expectedVersion.equals( UTF8.decode( foundVersionBytes ) );
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        } finally
+        {
+            if ( fileChannel != null )
             {
-                if ( fileChannel != null )
+                try
+                {
+                    fileChannel.close();
+                } catch ( IOException e )
                 {
-                    try
-                    {
-                        fileChannel.close();
-                    } catch ( IOException e )
-                    {
-                        // Ignore exception on close
-                    }
+                    // Ignore exception on close
                 }
             }
         }
-        return true;
     }
 }
@@ -43,6 +43,17 @@ public abstract class AbstractTransactionManager implements TransactionManager,
         begin();
     }
 
+    /**
+     * Begins a transaction which, if {@code large}, may write the changes it
+     * makes to the logical logs before it commits, see
+     * {@link org.neo4j.kernel.TransactionBuilder#large()}. Implementations not
+     * supporting that begin an ordinary transaction.
+     */
+    public void begin( ForceMode forceMode, boolean large ) throws NotSupportedException, SystemException
+    {
+        begin( forceMode );
+    }
+
     /**
      * Prevents new transactions from being created by throwing exception in
      * beginTx and waits for all existing transactions to complete. When this method
@@ -63,6 +74,15 @@ public abstract class AbstractTransactionManager implements TransactionManager,
         return ForceMode.forced;
     }
 
+    /**
+     * @return whether the transaction tied to the calling thread was begun as
+     *         a large one. Default is {@code false}
+     */
+    public boolean isLargeTransaction()
+    {
+        return false;
+    }
+
     public abstract int getEventIdentifier();
 
     /**
@@ -338,9 +338,9 @@ public class LockManagerImpl implements LockManager
         dump.done();
     }
 
-    private static class ListAppendingVisitor implements Visitor<LockInfo>
+    static class ListAppendingVisitor implements Visitor<LockInfo>
     {
-        private final List<LockInfo> result = new ArrayList<LockInfo>();
+        final List<LockInfo> result = new ArrayList<LockInfo>();
 
         @Override
         public boolean visit( LockInfo element )
@@ -350,7 +350,7 @@ public class LockManagerImpl implements LockManager
         }
     }
     
-    private static class DumpVisitor implements Visitor<LockInfo>
+    static class DumpVisitor implements Visitor<LockInfo>
     {
         int emptyLockCount = 0;
 
@@ -539,7 +539,7 @@ class RWLock
         return "RWLock[" + resource + "]";
     }
 
-    private static class PlaceboTransaction implements Transaction
+    static class PlaceboTransaction implements Transaction
     {
         private final Thread currentThread;
 
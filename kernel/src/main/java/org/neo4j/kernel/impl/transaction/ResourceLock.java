@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Transaction;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.kernel.impl.util.ArrayMap;
+import org.neo4j.kernel.info.LockInfo;
+import org.neo4j.kernel.info.LockingTransaction;
+import org.neo4j.kernel.info.ResourceType;
+import org.neo4j.kernel.info.WaitingThread;
+
+/**
+ * A read/write lock on one resource, used by {@link StripedLockManager}. Has the same
+ * semantics as {@link RWLock}, i.e. many transactions can hold read locks as long as no
+ * other transaction holds the write lock, and locks are reentrant per transaction.
+ * <p>
+ * Unlike {@link RWLock} this lock doesn't report every acquire and release to a global
+ * resource allocation graph. Instead it keeps its own holders and deadlock detection
+ * is done by {@link StripedLockManager} only when a transaction is about to wait. This
+ * means that taking an uncontended lock only touches the monitor of this lock.
+ */
+class ResourceLock
+{
+    private final Object resource;
+
+    /*
+     * Number of transactions holding this lock plus the number of transactions about to
+     * acquire it. The lock is removed from its stripe when this reaches zero.
+     */
+    final AtomicInteger references = new AtomicInteger();
+
+    private int writeCount = 0;
+    private int readCount = 0;
+
+    private final ArrayMap<Transaction,TxLockElement> txLockElementMap =
+        new ArrayMap<Transaction,TxLockElement>( (byte)5, false, true );
+
+    private final LinkedList<WaitElement> waitingThreadList = new LinkedList<WaitElement>();
+
+    ResourceLock( Object resource )
+    {
+        this.resource = resource;
+    }
+
+    private static class TxLockElement
+    {
+        final Transaction tx;
+        int readCount = 0;
+        int writeCount = 0;
+
+        TxLockElement( Transaction tx )
+        {
+            this.tx = tx;
+        }
+
+        boolean isHolding()
+        {
+            return readCount > 0 || writeCount > 0;
+        }
+    }
+
+    private static class WaitElement
+    {
+        final TxLockElement element;
+        final LockType lockType;
+        final Thread waitingThread;
+        final long since = System.currentTimeMillis();
+
+        WaitElement( TxLockElement element, LockType lockType, Thread thread )
+        {
+            this.element = element;
+            this.lockType = lockType;
+            this.waitingThread = thread;
+        }
+    }
+
+    Object getResource()
+    {
+        return resource;
+    }
+
+    /**
+     * Acquires the lock for {@code tx}, waiting if needed. Before waiting
+     * {@link StripedLockManager#checkWaitOn(ResourceLock, Transaction)} is invoked
+     * for deadlock detection.
+     *
+     * @throws DeadlockDetectedException if waiting would lead to a deadlock.
+     */
+    void acquire( Transaction tx, LockType lockType, StripedLockManager manager )
+    {
+        WaitElement waitElement;
+        synchronized ( this )
+        {
+            TxLockElement tle = txLockElementMap.get( tx );
+            if ( tle == null )
+            {
+                tle = new TxLockElement( tx );
+            }
+            if ( canAcquire( tle, lockType ) )
+            {
+                grant( tle, lockType );
+                return;
+            }
+            waitElement = new WaitElement( tle, lockType, Thread.currentThread() );
+            waitingThreadList.add( waitElement );
+        }
+
+        // The deadlock check looks at the holders of other locks and so must be done
+        // without holding the monitor of this one
+        boolean interrupted = false;
+        try
+        {
+            manager.checkWaitOn( this, tx );
+            synchronized ( this )
+            {
+                while ( !canAcquire( waitElement.element, lockType ) )
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        interrupted = true;
+                    }
+                }
+                grant( waitElement.element, lockType );
+            }
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                waitingThreadList.remove( waitElement );
+            }
+            manager.stopWaitOn( this, tx );
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean canAcquire( TxLockElement tle, LockType lockType )
+    {
+        if ( lockType == LockType.READ )
+        {
+            return writeCount == tle.writeCount;
+        }
+        return writeCount == tle.writeCount && readCount == tle.readCount;
+    }
+
+    private void grant( TxLockElement tle, LockType lockType )
+    {
+        if ( tle.isHolding() )
+        {
+            // Already counted as a holder, so the reference taken for this acquire isn't needed
+            references.decrementAndGet();
+        }
+        else
+        {
+            txLockElementMap.put( tle.tx, tle );
+        }
+        if ( lockType == LockType.READ )
+        {
+            readCount++;
+            tle.readCount++;
+        }
+        else
+        {
+            writeCount++;
+            tle.writeCount++;
+        }
+    }
+
+    /**
+     * Releases one lock of {@code lockType} held by {@code tx} and wakes up waiting
+     * transactions if there are any.
+     *
+     * @return {@code true} if {@code tx} no longer holds any lock on this resource.
+     * @throws LockNotFoundException if {@code tx} doesn't hold such a lock.
+     */
+    synchronized boolean release( Transaction tx, LockType lockType ) throws LockNotFoundException
+    {
+        TxLockElement tle = txLockElementMap.get( tx );
+        if ( tle == null )
+        {
+            throw new LockNotFoundException( "No transaction lock element found for " + tx );
+        }
+        if ( lockType == LockType.READ )
+        {
+            if ( tle.readCount == 0 )
+            {
+                throw new LockNotFoundException( "" + tx + " don't have readLock" );
+            }
+            readCount--;
+            tle.readCount--;
+        }
+        else
+        {
+            if ( tle.writeCount == 0 )
+            {
+                throw new LockNotFoundException( "" + tx + " don't have writeLock" );
+            }
+            writeCount--;
+            tle.writeCount--;
+        }
+        boolean released = !tle.isHolding();
+        if ( released )
+        {
+            txLockElementMap.remove( tx );
+        }
+        if ( !waitingThreadList.isEmpty() )
+        {
+            notifyAll();
+        }
+        return released;
+    }
+
+    synchronized List<Transaction> getHolders()
+    {
+        List<Transaction> holders = new ArrayList<Transaction>();
+        for ( Transaction tx : txLockElementMap.keySet() )
+        {
+            holders.add( tx );
+        }
+        return holders;
+    }
+
+    synchronized int getWaitingThreadsCount()
+    {
+        return waitingThreadList.size();
+    }
+
+    synchronized boolean hasWaitedSinceBefore( long waitStart )
+    {
+        for ( WaitElement thread : waitingThreadList )
+        {
+            if ( thread.since < waitStart )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized LockInfo info()
+    {
+        List<LockingTransaction> lockingTxs = new ArrayList<LockingTransaction>();
+        List<WaitingThread> waitingTxs = new ArrayList<WaitingThread>();
+        for ( TxLockElement tle : txLockElementMap.values() )
+        {
+            lockingTxs.add( new LockingTransaction( tle.tx.toString(), tle.readCount, tle.writeCount ) );
+        }
+        for ( WaitElement thread : waitingThreadList )
+        {
+            waitingTxs.add( WaitingThread.create( thread.element.tx.toString(),
+                    thread.element.readCount, thread.element.writeCount, thread.waitingThread, thread.since,
+                    thread.lockType == LockType.WRITE ) );
+        }
+        ResourceType type;
+        String id;
+        if ( resource instanceof Node )
+        {
+            type = ResourceType.NODE;
+            id = Long.toString( ((Node) resource).getId() );
+        }
+        else if ( resource instanceof Relationship )
+        {
+            type = ResourceType.RELATIONSHIP;
+            id = Long.toString( ((Relationship) resource).getId() );
+        }
+        else
+        {
+            type = ResourceType.OTHER;
+            id = resource.toString();
+        }
+        return new LockInfo( type, id, readCount, writeCount, lockingTxs, waitingTxs );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ResourceLock[" + resource + "]";
+    }
+}
@@ -0,0 +1,467 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.helpers.collection.Visitor;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.kernel.impl.transaction.LockManagerImpl.DumpVisitor;
+import org.neo4j.kernel.impl.transaction.LockManagerImpl.ListAppendingVisitor;
+import org.neo4j.kernel.impl.util.PrimitiveLongObjectMap;
+import org.neo4j.kernel.info.LockInfo;
+
+/**
+ * A {@link LockManager} with the same semantics as {@link LockManagerImpl}, but which
+ * scales with the number of concurrent transactions as long as they lock disjoint
+ * resources.
+ * <p>
+ * Locks are kept in stripes, each with its own monitor, instead of in one map guarded
+ * by one monitor. {@link Node Nodes} and {@link Relationship relationships} are keyed by
+ * their id in primitive maps, so that looking up their locks neither allocates nor
+ * depends on the equals/hashCode of the various proxy implementations. Other resources
+ * are keyed by the resources themselves.
+ * <p>
+ * There's no global resource allocation graph which all lock operations must update,
+ * like the {@link RagManager}. Each {@link ResourceLock} knows its holders and this lock
+ * manager only keeps track of which transactions are waiting on which lock. The wait-for
+ * graph is traversed when a transaction is about to wait, which is the only time
+ * a deadlock can be introduced. Since a transaction registers itself as waiting before
+ * traversing, of two transactions closing a cycle at the same time at least the last
+ * one to register will see it.
+ */
+public class StripedLockManager implements LockManager
+{
+    public static final String NAME = "striped";
+
+    private final Stripe[] stripes;
+    private final TransactionManager tm;
+    private final ConcurrentHashMap<Transaction,ResourceLock> waitingTxMap =
+        new ConcurrentHashMap<Transaction,ResourceLock>();
+    private final AtomicLong deadlockCount = new AtomicLong();
+
+    public StripedLockManager( TransactionManager tm )
+    {
+        this( tm, Runtime.getRuntime().availableProcessors() * 16 );
+    }
+
+    public StripedLockManager( TransactionManager tm, int stripeCount )
+    {
+        this.tm = tm;
+        this.stripes = new Stripe[Integer.highestOneBit( Math.max( 2, stripeCount ) - 1 ) << 1];
+        for ( int i = 0; i < stripes.length; i++ )
+        {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public long getDetectedDeadlockCount()
+    {
+        return deadlockCount.get();
+    }
+
+    @Override
+    public void getReadLock( Object resource ) throws DeadlockDetectedException, IllegalResourceException
+    {
+        getReadLock( resource, null );
+    }
+
+    @Override
+    public void getReadLock( Object resource, Transaction tx )
+            throws DeadlockDetectedException, IllegalResourceException
+    {
+        acquire( resource, tx, LockType.READ );
+    }
+
+    @Override
+    public void getWriteLock( Object resource ) throws DeadlockDetectedException, IllegalResourceException
+    {
+        getWriteLock( resource, null );
+    }
+
+    @Override
+    public void getWriteLock( Object resource, Transaction tx )
+            throws DeadlockDetectedException, IllegalResourceException
+    {
+        acquire( resource, tx, LockType.WRITE );
+    }
+
+    @Override
+    public void releaseReadLock( Object resource, Transaction tx )
+            throws LockNotFoundException, IllegalResourceException
+    {
+        release( resource, tx, LockType.READ );
+    }
+
+    @Override
+    public void releaseWriteLock( Object resource, Transaction tx )
+            throws LockNotFoundException, IllegalResourceException
+    {
+        release( resource, tx, LockType.WRITE );
+    }
+
+    private void acquire( Object resource, Transaction tx, LockType lockType )
+    {
+        if ( resource == null )
+        {
+            throw new IllegalResourceException( "Null parameter" );
+        }
+        tx = transactionOrPlacebo( tx );
+
+        Stripe stripe = stripeFor( resource );
+        ResourceLock lock;
+        synchronized ( stripe )
+        {
+            lock = stripe.get( resource );
+            if ( lock == null )
+            {
+                lock = new ResourceLock( resource );
+                stripe.put( resource, lock );
+            }
+            lock.references.incrementAndGet();
+        }
+
+        try
+        {
+            lock.acquire( tx, lockType, this );
+        }
+        catch ( RuntimeException e )
+        {
+            if ( lock.references.decrementAndGet() == 0 )
+            {
+                synchronized ( stripe )
+                {
+                    if ( lock.references.get() == 0 && stripe.get( resource ) == lock )
+                    {
+                        stripe.remove( resource );
+                    }
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void release( Object resource, Transaction tx, LockType lockType )
+    {
+        if ( resource == null )
+        {
+            throw new IllegalResourceException( "Null parameter" );
+        }
+        tx = transactionOrPlacebo( tx );
+
+        Stripe stripe = stripeFor( resource );
+        synchronized ( stripe )
+        {
+            ResourceLock lock = stripe.get( resource );
+            if ( lock == null )
+            {
+                throw new LockNotFoundException( "Lock not found for: " + resource + " tx:" + tx );
+            }
+            if ( lock.release( tx, lockType ) && lock.references.decrementAndGet() == 0 )
+            {
+                stripe.remove( resource );
+            }
+        }
+    }
+
+    private Transaction transactionOrPlacebo( Transaction tx )
+    {
+        if ( tx == null )
+        {
+            try
+            {
+                tx = tm.getTransaction();
+            }
+            catch ( SystemException e )
+            {
+                throw new TransactionFailureException( "Could not get current transaction.", e );
+            }
+        }
+        return tx != null ? tx : new RWLock.PlaceboTransaction();
+    }
+
+    private Stripe stripeFor( Object resource )
+    {
+        long hash;
+        if ( resource instanceof Node )
+        {
+            hash = ((Node) resource).getId();
+        }
+        else if ( resource instanceof Relationship )
+        {
+            hash = ~((Relationship) resource).getId();
+        }
+        else
+        {
+            hash = resource.hashCode();
+        }
+        hash *= 0x9E3779B97F4A7C15L;
+        return stripes[(int) (hash ^ (hash >>> 32)) & (stripes.length - 1)];
+    }
+
+    /**
+     * Called by a {@link ResourceLock} when {@code tx} is about to wait for it. Registers
+     * {@code tx} as waiting and then traverses the wait-for graph, from the holders of
+     * {@code lock} to the locks they are waiting for and so on, to see if it leads back
+     * to {@code tx}. After this call {@link #stopWaitOn(ResourceLock, Transaction)} must
+     * be called, also if a deadlock was detected.
+     *
+     * @throws DeadlockDetectedException if waiting would lead to a deadlock.
+     */
+    void checkWaitOn( ResourceLock lock, Transaction tx ) throws DeadlockDetectedException
+    {
+        if ( waitingTxMap.putIfAbsent( tx, lock ) != null )
+        {
+            throw new LockException( tx + " already waiting for resource" );
+        }
+
+        Set<Transaction> checkedTransactions = new HashSet<Transaction>();
+        Stack<Object> graphStack = new Stack<Object>();
+        graphStack.push( lock.getResource() );
+        for ( Transaction lockingTx : lock.getHolders() )
+        {
+            // Waiting for a lock which tx itself also holds, f.ex. upgrading a read
+            // lock to a write lock, isn't a deadlock in itself. See RagManager.
+            if ( lockingTx.equals( tx ) )
+            {
+                continue;
+            }
+            graphStack.push( lockingTx );
+            checkWaitOnRecursive( lockingTx, tx, checkedTransactions, graphStack );
+            graphStack.pop();
+        }
+    }
+
+    private void checkWaitOnRecursive( Transaction lockingTx, Transaction waitingTx,
+            Set<Transaction> checkedTransactions, Stack<Object> graphStack ) throws DeadlockDetectedException
+    {
+        if ( lockingTx.equals( waitingTx ) )
+        {
+            StringBuffer circle = null;
+            Object resource = null;
+            do
+            {
+                lockingTx = (Transaction) graphStack.pop();
+                resource = graphStack.pop();
+                if ( circle == null )
+                {
+                    circle = new StringBuffer();
+                    circle.append( lockingTx + " <-[:HELD_BY]- " + resource );
+                }
+                else
+                {
+                    circle.append( " <-[:WAITING_FOR]- " + lockingTx + " <-[:HELD_BY]- " + resource );
+                }
+            }
+            while ( !graphStack.isEmpty() );
+            deadlockCount.incrementAndGet();
+            throw new DeadlockDetectedException( waitingTx +
+                " can't wait on resource " + resource + " since => " + circle );
+        }
+        if ( !checkedTransactions.add( lockingTx ) )
+        {
+            return;
+        }
+        ResourceLock lock = waitingTxMap.get( lockingTx );
+        if ( lock != null )
+        {
+            graphStack.push( lock.getResource() );
+            for ( Transaction tx : lock.getHolders() )
+            {
+                graphStack.push( tx );
+                checkWaitOnRecursive( tx, waitingTx, checkedTransactions, graphStack );
+                graphStack.pop();
+            }
+            graphStack.pop();
+        }
+    }
+
+    void stopWaitOn( ResourceLock lock, Transaction tx )
+    {
+        waitingTxMap.remove( tx, lock );
+    }
+
+    @Override
+    public void dumpLocksOnResource( Object resource )
+    {
+        Stripe stripe = stripeFor( resource );
+        ResourceLock lock;
+        synchronized ( stripe )
+        {
+            lock = stripe.get( resource );
+        }
+        if ( lock == null )
+        {
+            System.out.println( "No locks on " + resource );
+            return;
+        }
+        new DumpVisitor().visit( lock.info() );
+    }
+
+    @Override
+    public List<LockInfo> getAllLocks()
+    {
+        ListAppendingVisitor visitor = new ListAppendingVisitor();
+        for ( ResourceLock lock : allLocks() )
+        {
+            visitor.visit( lock.info() );
+        }
+        return visitor.result;
+    }
+
+    @Override
+    public List<LockInfo> getAwaitedLocks( long minWaitTime )
+    {
+        long waitStart = System.currentTimeMillis() - minWaitTime;
+        ListAppendingVisitor visitor = new ListAppendingVisitor();
+        for ( ResourceLock lock : allLocks() )
+        {
+            if ( lock.hasWaitedSinceBefore( waitStart ) )
+            {
+                visitor.visit( lock.info() );
+            }
+        }
+        return visitor.result;
+    }
+
+    @Override
+    public void dumpRagStack()
+    {
+        System.out.print( "Waiting list: " );
+        if ( waitingTxMap.isEmpty() )
+        {
+            System.out.println( "No transactions waiting on resources" );
+            return;
+        }
+        System.out.println();
+        for ( Map.Entry<Transaction,ResourceLock> waiting : waitingTxMap.entrySet() )
+        {
+            System.out.println( "" + waiting.getKey() + "->" + waiting.getValue().getResource() );
+        }
+    }
+
+    @Override
+    public void dumpAllLocks()
+    {
+        DumpVisitor dump = new DumpVisitor();
+        for ( ResourceLock lock : allLocks() )
+        {
+            dump.visit( lock.info() );
+        }
+        dump.done();
+    }
+
+    /**
+     * @return a snapshot of the locks in all stripes, taken one stripe at a time.
+     */
+    private List<ResourceLock> allLocks()
+    {
+        final List<ResourceLock> locks = new ArrayList<ResourceLock>();
+        PrimitiveLongObjectMap.EntryVisitor<ResourceLock> collector =
+                new PrimitiveLongObjectMap.EntryVisitor<ResourceLock>()
+        {
+            @Override
+            public boolean visit( long key, ResourceLock lock )
+            {
+                locks.add( lock );
+                return false;
+            }
+        };
+        for ( Stripe stripe : stripes )
+        {
+            synchronized ( stripe )
+            {
+                stripe.nodeLocks.visitEntries( collector );
+                stripe.relationshipLocks.visitEntries( collector );
+                locks.addAll( stripe.otherLocks.values() );
+            }
+        }
+        return locks;
+    }
+
+    private static class Stripe
+    {
+        private final PrimitiveLongObjectMap<ResourceLock> nodeLocks = new PrimitiveLongObjectMap<ResourceLock>();
+        private final PrimitiveLongObjectMap<ResourceLock> relationshipLocks =
+                new PrimitiveLongObjectMap<ResourceLock>();
+        private final Map<Object,ResourceLock> otherLocks = new HashMap<Object,ResourceLock>();
+
+        ResourceLock get( Object resource )
+        {
+            if ( resource instanceof Node )
+            {
+                return nodeLocks.get( ((Node) resource).getId() );
+            }
+            if ( resource instanceof Relationship )
+            {
+                return relationshipLocks.get( ((Relationship) resource).getId() );
+            }
+            return otherLocks.get( resource );
+        }
+
+        void put( Object resource, ResourceLock lock )
+        {
+            if ( resource instanceof Node )
+            {
+                nodeLocks.put( ((Node) resource).getId(), lock );
+            }
+            else if ( resource instanceof Relationship )
+            {
+                relationshipLocks.put( ((Relationship) resource).getId(), lock );
+            }
+            else
+            {
+                otherLocks.put( resource, lock );
+            }
+        }
+
+        void remove( Object resource )
+        {
+            if ( resource instanceof Node )
+            {
+                nodeLocks.remove( ((Node) resource).getId() );
+            }
+            else if ( resource instanceof Relationship )
+            {
+                relationshipLocks.remove( ((Relationship) resource).getId() );
+            }
+            else
+            {
+                otherLocks.remove( resource );
+            }
+        }
+    }
+}
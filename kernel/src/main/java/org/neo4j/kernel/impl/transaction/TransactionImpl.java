@@ -68,14 +68,21 @@ class TransactionImpl implements Transaction
 
     private final TxManager txManager;
     private final ForceMode forceMode;
+    private final boolean large;
     private Thread owner;
 
     TransactionImpl( TxManager txManager, ForceMode forceMode )
+    {
+        this( txManager, forceMode, false );
+    }
+
+    TransactionImpl( TxManager txManager, ForceMode forceMode, boolean large )
     {
         this.txManager = txManager;
         globalId = XidImpl.getNewGlobalId();
         eventIdentifier = txManager.getNextEventIdentifier();
         this.forceMode = forceMode;
+        this.large = large;
         owner = Thread.currentThread();
     }
 
@@ -672,6 +679,11 @@ class TransactionImpl implements Transaction
         return forceMode;
     }
 
+    public boolean isLarge()
+    {
+        return large;
+    }
+
     public Throwable getRollbackCause()
     {
         return rollbackCause;
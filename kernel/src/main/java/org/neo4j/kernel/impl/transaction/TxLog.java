@@ -37,6 +37,7 @@ import org.neo4j.helpers.UTF8;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
 import org.neo4j.kernel.impl.transaction.xaframework.DirectMappedLogBuffer;
 import org.neo4j.kernel.impl.transaction.xaframework.ForceMode;
+import org.neo4j.kernel.impl.transaction.xaframework.GroupCommit;
 import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
 import org.neo4j.kernel.impl.util.StringLogger;
 
@@ -53,7 +54,7 @@ import org.neo4j.kernel.impl.util.StringLogger;
 public class TxLog
 {
     private String name = null;
-    private LogBuffer logBuffer;
+    private volatile LogBuffer logBuffer;
     private int recordCount = 0;
 
     public static final byte TX_START = 1;
@@ -63,6 +64,16 @@ public class TxLog
     private final FileSystemAbstraction fileSystem;
     private final StringLogger msgLog;
     private int rotationCounter;
+    private final GroupCommit groupCommit;
+    private final GroupCommit.Forceable forceable = new GroupCommit.Forceable()
+    {
+        @Override
+        public void force() throws IOException
+        {
+            // Not under the monitor of this log, which may be held by a rotation waiting for us
+            logBuffer.getFileChannel().force( false );
+        }
+    };
 
     /**
      * Initializes a transaction log using <CODE>filename</CODE>. If the file
@@ -76,6 +87,16 @@ public class TxLog
      *             If unable to open file
      */
     public TxLog( String fileName, FileSystemAbstraction fileSystem, StringLogger msgLog ) throws IOException
+    {
+        this( fileName, fileSystem, msgLog, null );
+    }
+
+    /**
+     * Initializes a transaction log which lets concurrent committers share
+     * forces through {@code groupCommit}, if not {@code null}.
+     */
+    public TxLog( String fileName, FileSystemAbstraction fileSystem, StringLogger msgLog, GroupCommit groupCommit )
+            throws IOException
     {
         if ( fileName == null )
         {
@@ -87,6 +108,7 @@ public class TxLog
         fileChannel.position( fileChannel.size() );
         logBuffer = new DirectMappedLogBuffer( fileChannel );
         this.name = fileName;
+        this.groupCommit = groupCommit;
     }
 
     /**
@@ -112,15 +134,25 @@ public class TxLog
     public synchronized void close() throws IOException
     {
         logBuffer.force();
+        markForced();
         logBuffer.getFileChannel().close();
     }
 
     /**
      * Forces the log file (with metadata). Useful when switching log.
      */
-    public void force() throws IOException
+    public synchronized void force() throws IOException
     {
         logBuffer.force();
+        markForced();
+    }
+
+    private void markForced()
+    {
+        if ( groupCommit != null )
+        {
+            groupCommit.markForced();
+        }
     }
 
     /**
@@ -192,8 +224,24 @@ public class TxLog
      */
     // mark_committing(byte)|gid_length(byte)|globalId
     // forces
-    public synchronized void markAsCommitting( byte globalId[], ForceMode forceMode )
+    public void markAsCommitting( byte globalId[], ForceMode forceMode )
         throws IOException
+    {
+        if ( groupCommit == null || forceMode != ForceMode.forced )
+        {
+            writeMarkCommit( globalId, forceMode );
+            return;
+        }
+        long ticket;
+        synchronized ( this )
+        {
+            writeMarkCommit( globalId, ForceMode.unforced );
+            ticket = groupCommit.append();
+        }
+        groupCommit.awaitForced( ticket, forceable );
+    }
+
+    private synchronized void writeMarkCommit( byte globalId[], ForceMode forceMode ) throws IOException
     {
         assertNotNull( globalId, "global id" );
 
@@ -309,7 +357,8 @@ public class TxLog
         }
         else if ( record.getType() == MARK_COMMIT )
         {
-            markAsCommitting( record.getGlobalId(), forceMode );
+            // Not grouped since rotation holds the monitor of this log
+            writeMarkCommit( record.getGlobalId(), forceMode );
         }
         else
         {
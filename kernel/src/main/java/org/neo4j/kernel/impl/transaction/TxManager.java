@@ -49,6 +49,7 @@ import org.neo4j.helpers.UTF8;
 import org.neo4j.kernel.impl.core.KernelPanicEventGenerator;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
 import org.neo4j.kernel.impl.transaction.xaframework.ForceMode;
+import org.neo4j.kernel.impl.transaction.xaframework.GroupCommit;
 import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaResource;
 import org.neo4j.kernel.impl.util.ExceptionCauseSetter;
@@ -96,6 +97,7 @@ public class TxManager extends AbstractTransactionManager implements Lifecycle
     private XaDataSourceManager xaDataSourceManager;
     private final FileSystemAbstraction fileSystem;
     private TxManager.TxManagerDataSourceRegistrationListener dataSourceRegistrationListener;
+    private final GroupCommit groupCommit;
 
     private Throwable recoveryError;
 
@@ -106,6 +108,21 @@ public class TxManager extends AbstractTransactionManager implements Lifecycle
                       StringLogger log,
                       FileSystemAbstraction fileSystem
     )
+    {
+        this( txLogDir, xaDataSourceManager, kpe, finishHook, log, fileSystem, null );
+    }
+
+    /**
+     * @param groupCommit lets concurrent committers share the forces of the tx log, may be {@code null}.
+     */
+    public TxManager( String txLogDir,
+                      XaDataSourceManager xaDataSourceManager,
+                      KernelPanicEventGenerator kpe,
+                      TxHook finishHook,
+                      StringLogger log,
+                      FileSystemAbstraction fileSystem,
+                      GroupCommit groupCommit
+    )
     {
         this.txLogDir = txLogDir;
         this.xaDataSourceManager = xaDataSourceManager;
@@ -113,6 +130,7 @@ public class TxManager extends AbstractTransactionManager implements Lifecycle
         this.log = log;
         this.kpe = kpe;
         this.finishHook = finishHook;
+        this.groupCommit = groupCommit;
     }
 
     synchronized int getNextEventIdentifier()
@@ -303,6 +321,12 @@ public class TxManager extends AbstractTransactionManager implements Lifecycle
 
     @Override
     public void begin( ForceMode forceMode ) throws NotSupportedException, SystemException
+    {
+        begin( forceMode, false );
+    }
+
+    @Override
+    public void begin( ForceMode forceMode, boolean large ) throws NotSupportedException, SystemException
     {
         if ( blocked )
         {
@@ -318,7 +342,7 @@ public class TxManager extends AbstractTransactionManager implements Lifecycle
             throw logAndReturn( "TM error tx begin", new NotSupportedException(
                     "Nested transactions not supported" ) );
         }
-        tx = new TransactionImpl( this, forceMode );
+        tx = new TransactionImpl( this, forceMode, large );
         txThreadMap.put( thread, tx );
         int concurrentTxCount = txThreadMap.size();
         if ( concurrentTxCount > peakConcurrentTransactions )
@@ -775,7 +799,7 @@ public class TxManager extends AbstractTransactionManager implements Lifecycle
                                     "Unable to start TM, " + "active tx log file[" +
                                             currentTxLog + "] not found." ) );
                 }
-                txLog = new TxLog( currentTxLog, fileSystem, log );
+                txLog = new TxLog( currentTxLog, fileSystem, log, groupCommit );
                 log.logMessage( "TM opening log: " + currentTxLog, true );
             }
             else
@@ -795,7 +819,7 @@ public class TxManager extends AbstractTransactionManager implements Lifecycle
                         .getBytes( "UTF-8" ) );
                 FileChannel fc = fileSystem.open( logSwitcherFileName, "rw" );
                 fc.write( buf );
-                txLog = new TxLog( txLogDir + separator + txLog1FileName, fileSystem, log );
+                txLog = new TxLog( txLogDir + separator + txLog1FileName, fileSystem, log, groupCommit );
                 log.logMessage( "TM new log: " + txLog1FileName, true );
                 fc.force( true );
                 fc.close();
@@ -946,6 +970,20 @@ public class TxManager extends AbstractTransactionManager implements Lifecycle
         }
     }
 
+    @Override
+    public boolean isLargeTransaction()
+    {
+        try
+        {
+            TransactionImpl tx = (TransactionImpl) getTransaction();
+            return tx != null && tx.isLarge();
+        }
+        catch ( SystemException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
     @Override
     public Throwable getRecoveryError()
     {
@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets concurrent committers share the forces of a log file. A committer writes
+ * out its commit record and takes a ticket with {@link #append()} while still
+ * holding the monitor of the log, and then calls
+ * {@link #awaitForced(long, Forceable)} after having released it. The first
+ * committer to arrive becomes the leader of a batch; it waits at most the max
+ * delay for the batch to fill up, forces the file once for everything appended
+ * so far and then wakes up the rest of the batch. Committers arriving while a
+ * force is in progress form the next batch.
+ */
+public class GroupCommit
+{
+    /**
+     * Returned by logs in place of a ticket when the commit record has already
+     * been forced, or didn't need to be.
+     */
+    public static final long NO_TICKET = -1;
+
+    public interface Forceable
+    {
+        /**
+         * Forces everything written out to the underlying file so far.
+         */
+        void force() throws IOException;
+    }
+
+    private final long maxDelayNanos;
+    private final int maxBatchSize;
+
+    private long appended;
+    private long forced;
+    private boolean leaderActive;
+    private boolean leaderGathering;
+
+    private long forceCount;
+    private long forcedCommitCount;
+    private long largestBatch;
+    private long totalForceNanos;
+    private long maxForceNanos;
+
+    /**
+     * @param maxDelayMillis how long a leader may wait for more committers to
+     *            join its batch before forcing, 0 means force right away.
+     * @param maxBatchSize the number of pending committers at which a leader
+     *            stops waiting and forces.
+     */
+    public GroupCommit( long maxDelayMillis, int maxBatchSize )
+    {
+        if ( maxDelayMillis < 0 || maxBatchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Invalid group commit max delay " + maxDelayMillis +
+                    "ms or max batch size " + maxBatchSize );
+        }
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos( maxDelayMillis );
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Registers a commit record which has been written out to the file, but not
+     * yet forced. Must be called while holding whatever guards writes to the log
+     * so that tickets are handed out in file order.
+     *
+     * @return the ticket to pass to {@link #awaitForced(long, Forceable)}.
+     */
+    public synchronized long append()
+    {
+        long ticket = ++appended;
+        if ( leaderGathering && appended - forced >= maxBatchSize )
+        {
+            notifyAll();
+        }
+        return ticket;
+    }
+
+    /**
+     * Tells this group commit that the log has been forced by other means, e.g.
+     * when rotating or closing it, so that everything appended is durable.
+     */
+    public synchronized void markForced()
+    {
+        if ( forced < appended )
+        {
+            forced = appended;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns when the commit record behind {@code ticket} has been forced,
+     * either by this thread as leader of a batch or by another leader.
+     *
+     * @throws IOException if this thread was leader and the force failed.
+     */
+    public void awaitForced( long ticket, Forceable log ) throws IOException
+    {
+        if ( ticket == NO_TICKET )
+        {
+            return;
+        }
+        long forcedBefore;
+        long target;
+        boolean interrupted = false;
+        try
+        {
+            synchronized ( this )
+            {
+                while ( forced < ticket && leaderActive )
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        // The commit record is in the log already, so we have to see it through
+                        interrupted = true;
+                    }
+                }
+                if ( forced >= ticket )
+                {
+                    return;
+                }
+                leaderActive = true;
+                interrupted |= gatherBatch();
+                forcedBefore = forced;
+                target = appended;
+            }
+        }
+        finally
+        {
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long startTime = System.nanoTime();
+        IOException failure = null;
+        try
+        {
+            log.force();
+        }
+        catch ( IOException e )
+        {
+            failure = e;
+        }
+        long forceNanos = System.nanoTime() - startTime;
+
+        synchronized ( this )
+        {
+            leaderActive = false;
+            if ( failure == null )
+            {
+                forceCount++;
+                forcedCommitCount += target - forcedBefore;
+                largestBatch = Math.max( largestBatch, target - forcedBefore );
+                totalForceNanos += forceNanos;
+                maxForceNanos = Math.max( maxForceNanos, forceNanos );
+                forced = Math.max( forced, target );
+            }
+            notifyAll();
+            // A rotation or close may have forced and closed the file under us
+            if ( failure != null && forced < ticket )
+            {
+                throw failure;
+            }
+        }
+    }
+
+    private boolean gatherBatch()
+    {
+        if ( maxDelayNanos == 0 )
+        {
+            return false;
+        }
+        boolean interrupted = false;
+        long deadline = System.nanoTime() + maxDelayNanos;
+        leaderGathering = true;
+        try
+        {
+            long remaining;
+            while ( appended - forced < maxBatchSize && (remaining = deadline - System.nanoTime()) > 0 )
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.timedWait( this, remaining );
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        finally
+        {
+            leaderGathering = false;
+        }
+        return interrupted;
+    }
+
+    /**
+     * @return the number of forces performed by batch leaders.
+     */
+    public synchronized long getForceCount()
+    {
+        return forceCount;
+    }
+
+    /**
+     * @return the number of commits made durable by batch leader forces.
+     */
+    public synchronized long getForcedCommitCount()
+    {
+        return forcedCommitCount;
+    }
+
+    public synchronized double getAverageBatchSize()
+    {
+        return forceCount == 0 ? 0 : (double) forcedCommitCount / forceCount;
+    }
+
+    public synchronized long getLargestBatchSize()
+    {
+        return largestBatch;
+    }
+
+    public synchronized long getAverageForceLatencyMicros()
+    {
+        return forceCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros( totalForceNanos / forceCount );
+    }
+
+    public synchronized long getMaxForceLatencyMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros( maxForceNanos );
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "GroupCommit[forces=" + forceCount + ", commits=" + forcedCommitCount + ", avgBatch=" +
+               String.format( "%.2f", getAverageBatchSize() ) + ", maxBatch=" + largestBatch +
+               ", avgForceLatency=" + getAverageForceLatencyMicros() + "us, maxForceLatency=" +
+               getMaxForceLatencyMicros() + "us]";
+    }
+}
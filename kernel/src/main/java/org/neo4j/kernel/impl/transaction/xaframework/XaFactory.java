@@ -20,6 +20,8 @@
 
 package org.neo4j.kernel.impl.transaction.xaframework;
 
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.kernel.TransactionInterceptorProviders;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
@@ -31,6 +33,14 @@ import org.neo4j.kernel.impl.util.StringLogger;
 */
 public class XaFactory
 {
+    public static abstract class Configuration
+    {
+        public static final GraphDatabaseSetting.BooleanSetting group_commit = GraphDatabaseSettings.group_commit;
+        public static final GraphDatabaseSetting<Long> group_commit_max_delay = GraphDatabaseSettings.group_commit_max_delay;
+        public static final GraphDatabaseSetting<Integer> group_commit_max_batch_size = GraphDatabaseSettings.group_commit_max_batch_size;
+        public static final GraphDatabaseSetting.BooleanSetting memory_mapped_history_logs = GraphDatabaseSettings.memory_mapped_history_logs;
+    }
+
     private final Config config;
     private TxIdGenerator txIdGenerator;
     private AbstractTransactionManager txManager;
@@ -78,10 +88,27 @@ public class XaFactory
             log = new XaLogicalLog( logicalLog, rm, cf, tf, logBufferFactory, fileSystemAbstraction, stringLogger, pruneStrategy );
         }
 
+        log.setGroupCommit( newGroupCommit( config ) );
+        log.setMemoryMappedHistoryLogs( config.isSet( Configuration.memory_mapped_history_logs ) &&
+                config.get( Configuration.memory_mapped_history_logs ) );
+
         // TODO These setters should be removed somehow
         rm.setLogicalLog( log );
         tf.setLogicalLog( log );
 
         return new XaContainer(rm, log);
     }
+
+    /**
+     * @return a group commit for one log, or {@code null} if group commit isn't configured.
+     */
+    public static GroupCommit newGroupCommit( Config config )
+    {
+        if ( !config.isSet( Configuration.group_commit ) || !config.get( Configuration.group_commit ) )
+        {
+            return null;
+        }
+        return new GroupCommit( config.get( Configuration.group_commit_max_delay ),
+                config.get( Configuration.group_commit_max_batch_size ) );
+    }
 }
@@ -27,6 +27,7 @@ import static org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLogTokens.L
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
@@ -49,6 +50,7 @@ import org.neo4j.kernel.impl.transaction.xaframework.LogExtractor.TxPosition;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.BufferedFileChannel;
 import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.kernel.impl.util.MappedFileChannel;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
@@ -93,6 +95,11 @@ public class XaLogicalLog implements LogLoader
     private char currentLog = CLEAN;
     private boolean autoRotate = true;
     private long rotateAtSize = 25 * 1024 * 1024; // 25MB
+    // reads back commands written ahead of prepare, over the log of commandReaderVersion
+    private FileChannel commandReader;
+    private long commandReaderVersion = -1;
+    // entries starting before this position have been written out for the commandReader to see
+    private long commandReaderVisiblePosition;
 
     private final LogBufferFactory logBufferFactory;
     private boolean doingRecovery;
@@ -107,6 +114,25 @@ public class XaLogicalLog implements LogLoader
     private final LogPruneStrategy pruneStrategy;
     private final XaLogicalLogFiles logFiles;
     private final PartialTransactionCopier partialTransactionCopier;
+    private GroupCommit groupCommit;
+    private volatile boolean memoryMappedHistoryLogs;
+    private final GroupCommit.Forceable forceable = new GroupCommit.Forceable()
+    {
+        @Override
+        public void force() throws IOException
+        {
+            FileChannel channel;
+            synchronized ( XaLogicalLog.this )
+            {
+                channel = fileChannel;
+            }
+            if ( channel == null )
+            {
+                throw new ClosedChannelException();
+            }
+            channel.force( false );
+        }
+    };
 
     public XaLogicalLog( String fileName, XaResourceManager xaRm, XaCommandFactory cf,
                          XaTransactionFactory xaTf, LogBufferFactory logBufferFactory, FileSystemAbstraction fileSystem,
@@ -276,8 +302,13 @@ public class XaLogicalLog implements LogLoader
     {
         try
         {
-            long position = writeBuffer.getFileChannelPosition();
             LogEntry.Start start = xidIdentMap.get( identifier );
+            if ( start.getStartPosition() != -1 )
+            {
+                // written already, by a large transaction writing its commands ahead of prepare
+                return;
+            }
+            long position = writeBuffer.getFileChannelPosition();
             start.setStartPosition( position );
             LogIoUtils.writeStart( writeBuffer, identifier, start.getXid(),
                     start.getMasterId(), start.getLocalId(),
@@ -325,7 +356,11 @@ public class XaLogicalLog implements LogLoader
     }
 
     // [TX_1P_COMMIT][identifier]
-    public synchronized void commitOnePhase( int identifier, long txId, ForceMode forceMode )
+    /**
+     * @return a ticket to hand to {@link #awaitForced(long)} once the caller has
+     *         released its own monitors, or {@link GroupCommit#NO_TICKET}.
+     */
+    public synchronized long commitOnePhase( int identifier, long txId, ForceMode forceMode )
             throws XAException
     {
         LogEntry.Start startEntry = xidIdentMap.get( identifier );
@@ -335,7 +370,7 @@ public class XaLogicalLog implements LogLoader
         {
             positionCache.cacheStartPosition( txId, startEntry, logVersion );
             LogIoUtils.writeCommit( false, writeBuffer, identifier, txId, System.currentTimeMillis() );
-            forceMode.force( writeBuffer );
+            return force( forceMode );
         }
         catch ( IOException e )
         {
@@ -382,7 +417,11 @@ public class XaLogicalLog implements LogLoader
     }
 
     // [TX_2P_COMMIT][identifier]
-    public synchronized void commitTwoPhase( int identifier, long txId, ForceMode forceMode )
+    /**
+     * @return a ticket to hand to {@link #awaitForced(long)} once the caller has
+     *         released its own monitors, or {@link GroupCommit#NO_TICKET}.
+     */
+    public synchronized long commitTwoPhase( int identifier, long txId, ForceMode forceMode )
             throws XAException
     {
         LogEntry.Start startEntry = xidIdentMap.get( identifier );
@@ -392,7 +431,7 @@ public class XaLogicalLog implements LogLoader
         {
             positionCache.cacheStartPosition( txId, startEntry, logVersion );
             LogIoUtils.writeCommit( true, writeBuffer, identifier, txId, System.currentTimeMillis() );
-            forceMode.force( writeBuffer );
+            return force( forceMode );
         }
         catch ( IOException e )
         {
@@ -400,6 +439,39 @@ public class XaLogicalLog implements LogLoader
         }
     }
 
+    private long force( ForceMode forceMode ) throws IOException
+    {
+        if ( groupCommit == null || forceMode != ForceMode.forced )
+        {
+            forceMode.force( writeBuffer );
+            return GroupCommit.NO_TICKET;
+        }
+        writeBuffer.writeOut();
+        return groupCommit.append();
+    }
+
+    /**
+     * Waits for the commit record behind a ticket returned from
+     * {@link #commitOnePhase(int, long, ForceMode)} or
+     * {@link #commitTwoPhase(int, long, ForceMode)} to be forced. Must not be
+     * called while holding the monitor of this log.
+     */
+    public void awaitForced( long ticket ) throws XAException
+    {
+        if ( ticket == GroupCommit.NO_TICKET )
+        {
+            return;
+        }
+        try
+        {
+            groupCommit.awaitForced( ticket, forceable );
+        }
+        catch ( IOException e )
+        {
+            throw Exceptions.withCause( new XAException( "Logical log unable to force commit" ), e );
+        }
+    }
+
     // [COMMAND][identifier][COMMAND_DATA]
     public synchronized void writeCommand( XaCommand command, int identifier )
             throws IOException
@@ -409,6 +481,94 @@ public class XaLogicalLog implements LogLoader
         LogIoUtils.writeCommand( writeBuffer, identifier, command );
     }
 
+    /**
+     * Writes a command of a {@link XaTransaction#isLarge() large} transaction
+     * before it is prepared, writing its start entry first if needed. The
+     * command is part of the transaction just as if it was written with
+     * {@link #writeCommand(XaCommand, int)} during prepare.
+     *
+     * @return the position of the command entry in the current log, see
+     * {@link #getHighestLogVersion()} and {@link #readCommand(long, long)}.
+     */
+    public synchronized long writeCommandAhead( XaCommand command, int identifier )
+            throws IOException
+    {
+        checkLogRotation();
+        try
+        {
+            writeStartEntry( identifier );
+        }
+        catch ( XAException e )
+        {
+            throw new IOException( e );
+        }
+        long position = writeBuffer.getFileChannelPosition();
+        LogIoUtils.writeCommand( writeBuffer, identifier, command );
+        return position;
+    }
+
+    /**
+     * Reads back a command written with {@link #writeCommandAhead(XaCommand, int)}.
+     *
+     * @return the command at {@code position} in the log of {@code version},
+     * or {@code null} if that log has been rotated since. Rotation copies the
+     * entries of active transactions to the new log, at other positions.
+     */
+    public synchronized XaCommand readCommand( long version, long position ) throws IOException
+    {
+        if ( version != logVersion )
+        {
+            return null;
+        }
+        if ( commandReaderVersion != logVersion )
+        {
+            releaseCommandReader();
+            commandReader = fileSystem.open( getCurrentLogFileName(), "r" );
+            commandReaderVersion = logVersion;
+        }
+        if ( position >= commandReaderVisiblePosition )
+        {
+            // Entries are only ever written whole, so all before this position can be read back from now on
+            writeBuffer.writeOut();
+            commandReaderVisiblePosition = writeBuffer.getFileChannelPosition();
+        }
+        commandReader.position( position );
+        LogEntry entry = LogIoUtils.readEntry( sharedBuffer, commandReader, cf );
+        if ( !(entry instanceof LogEntry.Command) )
+        {
+            throw new IOException( "Expected command entry at " + position + " in log version " +
+                    version + " but found " + entry );
+        }
+        return ((LogEntry.Command) entry).getXaCommand();
+    }
+
+    /**
+     * @return a channel over the current log, positioned at the start entry of
+     * the active transaction {@code identifier}, which sees all that has been
+     * written to the log so far. The entries of other transactions are
+     * interleaved with those of the transaction.
+     */
+    public synchronized FileChannel getActiveTransaction( int identifier ) throws IOException
+    {
+        Start start = getStartEntry( identifier );
+        if ( start.getStartPosition() == -1 )
+        {
+            throw new IOException( "Nothing written for transaction " + identifier + " yet" );
+        }
+        return (FileChannel) getLogicalLogOrMyselfPrepared( logVersion, start.getStartPosition() );
+    }
+
+    private void releaseCommandReader() throws IOException
+    {
+        if ( commandReader != null )
+        {
+            commandReader.close();
+            commandReader = null;
+            commandReaderVersion = -1;
+            commandReaderVisiblePosition = 0;
+        }
+    }
+
     private void applyEntry( LogEntry entry ) throws IOException
     {
         if ( entry instanceof LogEntry.Start )
@@ -669,6 +829,7 @@ public class XaLogicalLog implements LogLoader
         if ( writeBuffer != null )
         {
             writeBuffer.force();
+            markForced();
         }
         fileChannel.close();
         fileChannel = null;
@@ -681,12 +842,14 @@ public class XaLogicalLog implements LogLoader
             msgLog.debug( "Logical log: " + fileName + " already closed" );
             return;
         }
+        releaseCommandReader();
         long endPosition = writeBuffer.getFileChannelPosition();
         if ( xidIdentMap.size() > 0 )
         {
             msgLog.info( "Close invoked with " + xidIdentMap.size() +
                     " running transaction(s). " );
             writeBuffer.force();
+            markForced();
             fileChannel.close();
             msgLog.info( "Dirty log: " + fileName + "." + currentLog +
                     " now closed. Recovery will be started automatically next " +
@@ -706,6 +869,10 @@ public class XaLogicalLog implements LogLoader
         xaTf.getAndSetNewVersion();
         pruneStrategy.prune( this );
 
+        if ( groupCommit != null )
+        {
+            msgLog.logMessage( "Group commit of " + fileName + ": " + groupCommit );
+        }
         msgLog.logMessage( "Closed log " + fileName, true );
     }
 
@@ -878,9 +1045,47 @@ public class XaLogicalLog implements LogLoader
         }
         FileChannel channel = fileSystem.open( name, "r" );
         channel.position( position );
+        if ( memoryMappedHistoryLogs && isRotated( version ) )
+        {
+            // Rotated logs are never written to again, so they can be mapped once and read from
+            // the page cache without copying them through an intermediary buffer.
+            FileChannel mapped = tryMap( channel );
+            if ( mapped != null )
+            {
+                return mapped;
+            }
+        }
         return new BufferedFileChannel( channel );
     }
 
+    /**
+     * Checked under the log monitor since {@link #rotate()} bumps the version, after the
+     * rotated log has been written out and renamed, while holding it.
+     */
+    private synchronized boolean isRotated( long version )
+    {
+        return version < logVersion;
+    }
+
+    private FileChannel tryMap( FileChannel channel )
+    {
+        try
+        {
+            if ( MappedFileChannel.canMap( channel ) )
+            {
+                return new MappedFileChannel( channel );
+            }
+        }
+        catch ( IOException e )
+        {
+            msgLog.logMessage( "Unable to memory map history log, reading it through a buffer instead", e );
+        }
+        catch ( UnsupportedOperationException e )
+        {   // The file system doesn't support mapping, read it through a buffer instead
+        }
+        return null;
+    }
+
     private void extractPreparedTransactionFromLog( int identifier,
                                                     FileChannel logChannel, LogBuffer targetBuffer ) throws IOException
     {
@@ -1354,6 +1559,7 @@ public class XaLogicalLog implements LogLoader
     {
 //        if ( writeBuffer.getFileChannelPosition() == LogIoUtils.LOG_HEADER_SIZE ) return xaTf.getLastCommittedTx();
         xaTf.flushAll();
+        releaseCommandReader();
         String newLogFile = logFiles.getLog2FileName();
         String currentLogFile = logFiles.getLog1FileName();
         char newActiveLog = LOG2;
@@ -1495,6 +1701,33 @@ public class XaLogicalLog implements LogLoader
         return this.autoRotate;
     }
 
+    public void setGroupCommit( GroupCommit groupCommit )
+    {
+        this.groupCommit = groupCommit;
+    }
+
+    public GroupCommit getGroupCommit()
+    {
+        return groupCommit;
+    }
+
+    /**
+     * @param memoryMappedHistoryLogs whether or not rotated logs are memory mapped when read
+     * through {@link #getLogicalLog(long, long)}, instead of being read through a buffer.
+     */
+    public void setMemoryMappedHistoryLogs( boolean memoryMappedHistoryLogs )
+    {
+        this.memoryMappedHistoryLogs = memoryMappedHistoryLogs;
+    }
+
+    private void markForced()
+    {
+        if ( groupCommit != null )
+        {
+            groupCommit.markForced();
+        }
+    }
+
     public void setLogicalLogTargetSize( long size )
     {
         this.rotateAtSize = size;
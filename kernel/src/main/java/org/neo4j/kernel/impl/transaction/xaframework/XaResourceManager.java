@@ -51,6 +51,10 @@ public class XaResourceManager
         new ArrayMap<Xid,XidStatus>();
     private int recoveredTxCount = 0;
     private final Set<TransactionInfo> recoveredTransactions = new HashSet<TransactionInfo>();
+    // Transactions with their commit records written, in commit order, waiting to be applied
+    private final LinkedList<XaTransaction> pendingCommits = new LinkedList<XaTransaction>();
+    // Set once forcing the logical log has failed, after which no transaction is applied
+    private XAException commitFailure;
 
     private XaLogicalLog log = null;
     private final XaTransactionFactory tf;
@@ -110,6 +114,10 @@ public class XaResourceManager
         {
             int identifier = log.start( xid, txIdGenerator.getCurrentMasterId(), txIdGenerator.getMyId() );
             XaTransaction xaTx = tf.create( identifier );
+            if ( transactionManager.isLargeTransaction() )
+            {
+                xaTx.markAsLarge();
+            }
             xidMap.put( xid, new XidStatus( xaTx ) );
         }
     }
@@ -418,7 +426,7 @@ public class XaResourceManager
         throws XAException
     {
         XaTransaction xaTransaction;
-        boolean isReadOnly;
+        long forceTicket = GroupCommit.NO_TICKET;
 
         synchronized ( this )
         {
@@ -430,7 +438,7 @@ public class XaResourceManager
             TransactionStatus txStatus = status.getTransactionStatus();
             xaTransaction = txStatus.getTransaction();
             checkStartWritten( txStatus, xaTransaction );
-            isReadOnly = xaTransaction.isReadOnly();
+            boolean isReadOnly = xaTransaction.isReadOnly();
             if ( onePhase )
             {
                 txStatus.markAsPrepared();
@@ -440,10 +448,8 @@ public class XaResourceManager
                     {
                         xaTransaction.prepare();
 
-                        long txId = txIdGenerator.generate( dataSource,
-                                xaTransaction.getIdentifier() );
-                        xaTransaction.setCommitTxId( txId );
-                        log.commitOnePhase( xaTransaction.getIdentifier(),
+                        xaTransaction.setCommitTxId( generateTxId( xaTransaction ) );
+                        forceTicket = log.commitOnePhase( xaTransaction.getIdentifier(),
                                 xaTransaction.getCommitTxId(), getForceMode() );
                     }
                 }
@@ -453,20 +459,51 @@ public class XaResourceManager
                 throw new XAException( "Transaction not prepared or "
                     + "(marked as) rolledbacked" );
             }
-            if ( !isReadOnly )
+            if ( isReadOnly )
+            {
+                commitDone( xid, xaTransaction, onePhase );
+                return xaTransaction;
+            }
+            if ( !xaTransaction.isRecovered() )
             {
-                if ( !xaTransaction.isRecovered() )
+                if ( !onePhase )
                 {
-                    if ( !onePhase )
-                    {
-                        long txId = txIdGenerator.generate( dataSource,
-                                xaTransaction.getIdentifier() );
-                        xaTransaction.setCommitTxId( txId );
-                        log.commitTwoPhase( xaTransaction.getIdentifier(),
-                                xaTransaction.getCommitTxId(), getForceMode() );
-                    }
+                    xaTransaction.setCommitTxId( generateTxId( xaTransaction ) );
+                    forceTicket = log.commitTwoPhase( xaTransaction.getIdentifier(),
+                            xaTransaction.getCommitTxId(), getForceMode() );
+                }
+            }
+            txStatus.markCommitStarted();
+            pendingCommits.add( xaTransaction );
+        }
+
+        // The commit record must be forced before the transaction is applied. It's awaited
+        // outside of the monitor so that concurrent committers can share the force.
+        XAException forceFailure = null;
+        try
+        {
+            log.awaitForced( forceTicket );
+        }
+        catch ( XAException e )
+        {
+            forceFailure = e;
+        }
+
+        synchronized ( this )
+        {
+            // Applied in commit order, since each transaction id must follow the last applied one
+            awaitTurn( xaTransaction );
+            try
+            {
+                if ( forceFailure != null )
+                {
+                    commitFailure = forceFailure;
+                }
+                if ( commitFailure != null )
+                {
+                    xidMap.remove( xid );
+                    throw commitNotForced( xaTransaction, commitFailure );
                 }
-                txStatus.markCommitStarted();
                 if ( xaTransaction.isRecovered() && xaTransaction.getCommitTxId() == -1 )
                 {
                     boolean previousRecoveredValue = dataSource.setRecovered( true );
@@ -480,29 +517,104 @@ public class XaResourceManager
                     }
                 }
                 xaTransaction.commit();
+                commitDone( xid, xaTransaction, onePhase );
             }
-            if ( !xaTransaction.isRecovered() )
+            finally
+            {
+                pendingCommits.removeFirst();
+                notifyAll();
+            }
+        }
+
+        if ( !xaTransaction.isRecovered() )
+            txIdGenerator.committed( dataSource, xaTransaction.getIdentifier(), xaTransaction.getCommitTxId(), null );
+        return xaTransaction;
+    }
+
+    private void commitDone( Xid xid, XaTransaction xaTransaction, boolean onePhase ) throws XAException
+    {
+        if ( !xaTransaction.isRecovered() )
+        {
+            log.done( xaTransaction.getIdentifier() );
+        }
+        else if ( !log.scanIsComplete() || recoveredTxCount > 0 )
+        {
+            int identifier = xaTransaction.getIdentifier();
+            Start startEntry = log.getStartEntry( identifier );
+            recoveredTransactions.add( new TransactionInfo( identifier, onePhase,
+                    xaTransaction.getCommitTxId(), startEntry.getMasterId(), startEntry.getChecksum() ) );
+        }
+        xidMap.remove( xid );
+        if ( xaTransaction.isRecovered() )
+        {
+            recoveredTxCount--;
+            checkIfRecoveryComplete();
+        }
+    }
+
+    /*
+     * The default generator derives the next id from the last applied transaction, which lags
+     * behind the commit records written by transactions still waiting to be applied.
+     */
+    private long generateTxId( XaTransaction xaTransaction ) throws XAException
+    {
+        long txId = txIdGenerator.generate( dataSource, xaTransaction.getIdentifier() );
+        if ( !pendingCommits.isEmpty() )
+        {
+            txId = Math.max( txId, pendingCommits.getLast().getCommitTxId() + 1 );
+        }
+        return txId;
+    }
+
+    private void awaitTurn( XaTransaction xaTransaction )
+    {
+        boolean interrupted = false;
+        while ( pendingCommits.getFirst() != xaTransaction )
+        {
+            try
             {
-                log.done( xaTransaction.getIdentifier() );
+                wait();
             }
-            else if ( !log.scanIsComplete() || recoveredTxCount > 0 )
+            catch ( InterruptedException e )
             {
-                int identifier = xaTransaction.getIdentifier();
-                Start startEntry = log.getStartEntry( identifier );
-                recoveredTransactions.add( new TransactionInfo( identifier, onePhase,
-                        xaTransaction.getCommitTxId(), startEntry.getMasterId(), startEntry.getChecksum() ) );
+                interrupted = true;
             }
-            xidMap.remove( xid );
-            if ( xaTransaction.isRecovered() )
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitPendingCommits()
+    {
+        boolean interrupted = false;
+        while ( !pendingCommits.isEmpty() )
+        {
+            try
             {
-                recoveredTxCount--;
-                checkIfRecoveryComplete();
+                wait();
             }
+            catch ( InterruptedException e )
+            {
+                interrupted = true;
+            }
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        if ( !xaTransaction.isRecovered() && !isReadOnly )
-            txIdGenerator.committed( dataSource, xaTransaction.getIdentifier(), xaTransaction.getCommitTxId(), null );
-        return xaTransaction;
+    private XAException commitNotForced( XaTransaction xaTransaction, XAException cause )
+    {
+        msgLog.logMessage( "XaResourceManager[" + name + "] transaction " + xaTransaction.getCommitTxId() +
+                " not applied, since forcing the logical log failed", cause );
+        XAException e = new XAException( "Transaction " + xaTransaction.getCommitTxId() +
+                " not applied, since forcing the logical log failed. The database needs recovery" );
+        e.errorCode = XAException.XAER_RMERR;
+        e.initCause( cause );
+        return e;
     }
 
     private ForceMode getForceMode()
@@ -702,7 +814,8 @@ public class XaResourceManager
 
                     if ( !recoveredTx.isOnePhase() )
                     {
-                        log.commitTwoPhase( recoveredTx.getIdentifier(), recoveredTx.getTxId(), ForceMode.forced );
+                        log.awaitForced( log.commitTwoPhase( recoveredTx.getIdentifier(), recoveredTx.getTxId(),
+                                ForceMode.forced ) );
                     }
                     log.doneInternal( recoveredTx.getIdentifier() );
                 }
@@ -753,6 +866,7 @@ public class XaResourceManager
     public synchronized void applyCommittedTransaction(
             ReadableByteChannel transaction, long txId ) throws IOException
     {
+        awaitPendingCommits();
         long lastCommittedTxId = dataSource.getLastCommittedTxId();
         if ( lastCommittedTxId + 1 == txId )
         {
@@ -768,6 +882,7 @@ public class XaResourceManager
     public synchronized long applyPreparedTransaction(
             ReadableByteChannel transaction ) throws IOException
     {
+        awaitPendingCommits();
         try
         {
             long txId = TxIdGenerator.DEFAULT.generate( dataSource, 0 );
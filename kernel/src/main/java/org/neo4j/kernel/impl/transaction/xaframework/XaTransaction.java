@@ -166,6 +166,7 @@ public abstract class XaTransaction
     private final int identifier;
     private final XaLogicalLog log;
     private boolean isRecovered = false;
+    private boolean large = false;
     private boolean committed = false;
     private boolean rolledback = false;
     private boolean prepared = false;
@@ -202,6 +203,27 @@ public abstract class XaTransaction
         return isRecovered;
     }
 
+    /**
+     * Marks this transaction as begun by a transaction that may make more
+     * changes than can be kept in memory until it commits.
+     */
+    void markAsLarge()
+    {
+        large = true;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if this transaction may make more changes than
+     * can be kept in memory. Such a transaction may write its commands with
+     * {@link XaLogicalLog#writeCommandAhead} before it is prepared.
+     *
+     * @return <CODE>true</CODE> if this is a large transaction
+     */
+    public boolean isLarge()
+    {
+        return large;
+    }
+
     /**
      * Returns the "internal" identifier for this transaction. See
      * {@link XaLogicalLog#getCurrentTxIdentifier}.
@@ -38,13 +38,14 @@ import org.neo4j.graphdb.traversal.UniquenessFilter;
 import org.neo4j.helpers.Predicate;
 import org.neo4j.helpers.collection.FilteringIterator;
 
-class BidirectionalTraverserIterator extends AbstractTraverserIterator
+class BidirectionalTraverserIterator extends AbstractTraverserIterator implements CandidateCheckingContext
 {
     private final BranchCollisionDetector collisionDetector;
     private Iterator<Path> foundPaths;
     private SideSelector selector;
     private Map<Direction, Side> sides = new EnumMap<Direction, Side>( Direction.class );
     private final BidirectionalUniquenessFilter uniqueness;
+    private final boolean checksCandidates;
     private final Predicate<Path> uniquenessPredicate = new Predicate<Path>()
     {
         @Override
@@ -73,6 +74,7 @@ class BidirectionalTraverserIterator extends AbstractTraverserIterator
         this.sides.put( Direction.OUTGOING, new Side( start ) );
         this.sides.put( Direction.INCOMING, new Side( end ) );
         this.uniqueness = makeSureStartAndEndHasSameUniqueness( start, end );
+        this.checksCandidates = CandidateTraversalBranch.checkable( start.uniqueness );
 
         // A little chicken-and-egg problem. This happens when constructing the start/end
         // selectors and they initially call evaluate() and isUniqueFirst, where the selector is used.
@@ -194,4 +196,10 @@ class BidirectionalTraverserIterator extends AbstractTraverserIterator
     {
         return uniqueness.check( branch );
     }
+
+    @Override
+    public boolean checksCandidates()
+    {
+        return checksCandidates;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.traversal;
+
+import java.util.Iterator;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PathExpander;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.graphdb.traversal.TraversalContext;
+import org.neo4j.graphdb.traversal.UniquenessFactory;
+import org.neo4j.kernel.Traversal;
+import org.neo4j.kernel.Uniqueness;
+
+/**
+ * A mutable, not yet accepted, child of a {@link TraversalBranchImpl} which is
+ * handed to the uniqueness check before a real branch is instantiated for it.
+ * One instance is reused for all relationships expanded from the same parent,
+ * and the end node proxy is only looked up if the uniqueness filter asks for it.
+ * It must not be retained by whoever it is passed to, so it's only handed to
+ * the built in uniqueness filters, see {@link #checkable(UniquenessFactory)}.
+ */
+class CandidateTraversalBranch implements TraversalBranch
+{
+    private final TraversalBranch parent;
+    private Relationship relationship;
+    private Node from;
+    private Node endNode;
+
+    CandidateTraversalBranch( TraversalBranch parent )
+    {
+        this.parent = parent;
+    }
+
+    /**
+     * @return whether the filters of {@code uniqueness} may be handed a
+     * candidate, i.e. whether they are the built in ones, which don't hold on
+     * to the branches they check. Other filters are handed new branches.
+     */
+    static boolean checkable( UniquenessFactory uniqueness )
+    {
+        return uniqueness instanceof Uniqueness;
+    }
+
+    static boolean checkedBy( TraversalContext context )
+    {
+        return context instanceof CandidateCheckingContext &&
+                ((CandidateCheckingContext) context).checksCandidates();
+    }
+
+    void reset( Relationship relationship, Node from )
+    {
+        this.relationship = relationship;
+        this.from = from;
+        this.endNode = null;
+    }
+
+    @Override
+    public TraversalBranch parent()
+    {
+        return parent;
+    }
+
+    @Override
+    public int length()
+    {
+        return parent.length() + 1;
+    }
+
+    @Override
+    public Node startNode()
+    {
+        return parent.startNode();
+    }
+
+    @Override
+    public Node endNode()
+    {
+        if ( endNode == null )
+        {
+            endNode = relationship.getOtherNode( from );
+        }
+        return endNode;
+    }
+
+    @Override
+    public Relationship lastRelationship()
+    {
+        return relationship;
+    }
+
+    @Override
+    public Iterable<Relationship> relationships()
+    {
+        return TraversalBranchImpl.relationshipsOf( this );
+    }
+
+    @Override
+    public Iterable<Relationship> reverseRelationships()
+    {
+        return TraversalBranchImpl.reverseRelationshipsOf( this );
+    }
+
+    @Override
+    public Iterable<Node> nodes()
+    {
+        return TraversalBranchImpl.nodesOf( this );
+    }
+
+    @Override
+    public Iterable<Node> reverseNodes()
+    {
+        return TraversalBranchImpl.reverseNodesOf( this );
+    }
+
+    @Override
+    public Iterator<PropertyContainer> iterator()
+    {
+        return TraversalBranchImpl.entitiesOf( this );
+    }
+
+    @Override
+    public int expanded()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean includes()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean continues()
+    {
+        return false;
+    }
+
+    @Override
+    public Object state()
+    {
+        return null;
+    }
+
+    @Override
+    public TraversalBranch next( PathExpander expander, TraversalContext metadata )
+    {
+        throw new UnsupportedOperationException( "Candidate branches are not expanded" );
+    }
+
+    @Override
+    public void prune()
+    {
+        throw new UnsupportedOperationException( "Candidate branches are not expanded" );
+    }
+
+    @Override
+    public void evaluation( Evaluation eval )
+    {
+        throw new UnsupportedOperationException( "Candidate branches are not evaluated" );
+    }
+
+    @Override
+    public void initialize( PathExpander expander, TraversalContext metadata )
+    {
+        throw new UnsupportedOperationException( "Candidate branches are not expanded" );
+    }
+
+    @Override
+    public String toString()
+    {
+        return Traversal.defaultPathToString( this );
+    }
+}
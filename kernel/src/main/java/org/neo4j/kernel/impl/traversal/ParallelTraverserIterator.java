@@ -0,0 +1,387 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.traversal;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.PathExpander;
+import org.neo4j.graphdb.traversal.BranchState;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.graphdb.traversal.InitialBranchState;
+import org.neo4j.graphdb.traversal.PathEvaluator;
+import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.graphdb.traversal.TraversalContext;
+import org.neo4j.graphdb.traversal.UniquenessFilter;
+import org.neo4j.helpers.DaemonThreadFactory;
+
+/**
+ * Traverses breadth first a depth at a time, expanding the branches of each
+ * depth from several threads. The threads claim small chunks of the branches
+ * of the current depth until there are none left, so that threads done with
+ * cheap branches go on with other ones. Paths are handed over to the iterating
+ * thread through a bounded queue, so the threads wait for it when it falls behind.
+ * <p>
+ * The threads only hold on to this iterator weakly. If it's dropped before
+ * being exhausted they stop once the queue is full and it's been collected.
+ */
+class ParallelTraverserIterator extends AbstractTraverserIterator
+{
+    private static final int QUEUE_SIZE = 1000;
+    private static final int CHUNK_SIZE = 8;
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> paths = new ArrayBlockingQueue<Object>( QUEUE_SIZE );
+    private final Expansion expansion;
+    private boolean done;
+
+    ParallelTraverserIterator( UniquenessFilter uniqueness, boolean checksCandidates, PathExpander<?> expander,
+            PathEvaluator<?> evaluator, Iterable<Node> startNodes, InitialBranchState<?> initialState, int threads )
+    {
+        expansion = new Expansion( this, paths, uniqueness, checksCandidates, expander, evaluator, threads );
+        expansion.start = new AsOneStartBranch( expansion, startNodes, initialState );
+        Thread thread = new Thread( expansion, "Parallel traversal" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    @Override
+    protected Path fetchNextOrNull()
+    {
+        if ( done )
+        {
+            return null;
+        }
+        Object next;
+        try
+        {
+            next = paths.take();
+        }
+        catch ( InterruptedException e )
+        {
+            expansion.stopped = true;
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "Interrupted while waiting for paths", e );
+        }
+        if ( next == END )
+        {
+            done = true;
+            return null;
+        }
+        if ( next instanceof Throwable )
+        {
+            done = true;
+            if ( next instanceof RuntimeException )
+            {
+                throw (RuntimeException) next;
+            }
+            if ( next instanceof Error )
+            {
+                throw (Error) next;
+            }
+            throw new RuntimeException( (Throwable) next );
+        }
+        numberOfPathsReturned++;
+        return (Path) next;
+    }
+
+    @Override
+    public int getNumberOfRelationshipsTraversed()
+    {
+        return expansion.relationshipsTraversed.get();
+    }
+
+    @Override
+    public void relationshipTraversed()
+    {
+        expansion.relationshipTraversed();
+    }
+
+    @Override
+    public void unnecessaryRelationshipTraversed()
+    {
+        expansion.unnecessaryRelationshipTraversed();
+    }
+
+    @Override
+    public boolean isUniqueFirst( TraversalBranch branch )
+    {
+        return expansion.isUniqueFirst( branch );
+    }
+
+    @Override
+    public boolean isUnique( TraversalBranch branch )
+    {
+        return expansion.isUnique( branch );
+    }
+
+    @Override
+    @SuppressWarnings( "rawtypes" )
+    public Evaluation evaluate( TraversalBranch branch, BranchState state )
+    {
+        return expansion.evaluate( branch, state );
+    }
+
+    /**
+     * The {@link TraversalContext} of the expanding threads, so that they don't
+     * reference the iterator.
+     */
+    private static class Expansion implements Runnable, CandidateCheckingContext
+    {
+        private final WeakReference<ParallelTraverserIterator> iterator;
+        private final BlockingQueue<Object> paths;
+        private final UniquenessFilter uniqueness;
+        private final boolean checksCandidates;
+        private final PathExpander<?> expander;
+        private final PathEvaluator<?> evaluator;
+        private final int threads;
+        private final AtomicInteger relationshipsTraversed = new AtomicInteger();
+        private TraversalBranch start;
+        private volatile boolean stopped;
+
+        Expansion( ParallelTraverserIterator iterator, BlockingQueue<Object> paths, UniquenessFilter uniqueness,
+                boolean checksCandidates, PathExpander<?> expander, PathEvaluator<?> evaluator, int threads )
+        {
+            this.iterator = new WeakReference<ParallelTraverserIterator>( iterator );
+            this.paths = paths;
+            this.uniqueness = uniqueness;
+            this.checksCandidates = checksCandidates;
+            this.expander = expander;
+            this.evaluator = evaluator;
+            this.threads = threads;
+        }
+
+        @Override
+        public void run()
+        {
+            ExecutorService workers = threads > 1 ?
+                    Executors.newFixedThreadPool( threads - 1, new DaemonThreadFactory( "Parallel traversal" ) ) :
+                    null;
+            try
+            {
+                List<TraversalBranch> depth = Collections.singletonList( start );
+                while ( !depth.isEmpty() )
+                {
+                    depth = expand( depth, workers );
+                }
+                deliverLast( END );
+            }
+            catch ( Stopped e )
+            {
+                // Nobody is iterating anymore
+            }
+            catch ( Throwable e )
+            {
+                // Stop the other threads and let the iterating thread see the failure after the paths before it
+                stopped = true;
+                if ( workers != null )
+                {
+                    workers.shutdownNow();
+                }
+                deliverLast( e );
+            }
+            finally
+            {
+                if ( workers != null )
+                {
+                    workers.shutdownNow();
+                }
+            }
+        }
+
+        /**
+         * @return the branches of the next depth which should be expanded further.
+         */
+        private List<TraversalBranch> expand( List<TraversalBranch> depth, ExecutorService workers )
+                throws Throwable
+        {
+            AtomicInteger claimed = new AtomicInteger();
+            List<Future<List<TraversalBranch>>> others = new ArrayList<Future<List<TraversalBranch>>>();
+            for ( int i = 1; i < threads && i * CHUNK_SIZE < depth.size(); i++ )
+            {
+                others.add( workers.submit( new DepthExpansion( depth, claimed ) ) );
+            }
+            List<TraversalBranch> next = new DepthExpansion( depth, claimed ).call();
+            for ( Future<List<TraversalBranch>> other : others )
+            {
+                try
+                {
+                    next.addAll( other.get() );
+                }
+                catch ( ExecutionException e )
+                {
+                    throw e.getCause();
+                }
+            }
+            return next;
+        }
+
+        private class DepthExpansion implements Callable<List<TraversalBranch>>
+        {
+            private final List<TraversalBranch> depth;
+            private final AtomicInteger claimed;
+
+            DepthExpansion( List<TraversalBranch> depth, AtomicInteger claimed )
+            {
+                this.depth = depth;
+                this.claimed = claimed;
+            }
+
+            @Override
+            public List<TraversalBranch> call()
+            {
+                List<TraversalBranch> next = new ArrayList<TraversalBranch>();
+                for ( int from; !stopped && (from = claimed.getAndAdd( CHUNK_SIZE )) < depth.size(); )
+                {
+                    for ( int i = from, to = Math.min( from + CHUNK_SIZE, depth.size() ); i < to; i++ )
+                    {
+                        TraversalBranch branch = depth.get( i );
+                        for ( TraversalBranch child; (child = branch.next( expander, Expansion.this )) != null; )
+                        {
+                            if ( child.includes() )
+                            {
+                                deliver( child );
+                            }
+                            if ( child.continues() )
+                            {
+                                next.add( child );
+                            }
+                        }
+                    }
+                }
+                return next;
+            }
+        }
+
+        private void deliver( Object item )
+        {
+            try
+            {
+                while ( !paths.offer( item, 100, MILLISECONDS ) )
+                {
+                    if ( stopped || iterator.get() == null )
+                    {
+                        stopped = true;
+                        throw new Stopped();
+                    }
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                stopped = true;
+                throw new Stopped();
+            }
+        }
+
+        private void deliverLast( Object item )
+        {
+            try
+            {
+                while ( !paths.offer( item, 100, MILLISECONDS ) )
+                {
+                    if ( iterator.get() == null )
+                    {
+                        return;
+                    }
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public int getNumberOfPathsReturned()
+        {
+            ParallelTraverserIterator owner = iterator.get();
+            return owner != null ? owner.getNumberOfPathsReturned() : 0;
+        }
+
+        @Override
+        public int getNumberOfRelationshipsTraversed()
+        {
+            return relationshipsTraversed.get();
+        }
+
+        @Override
+        public void relationshipTraversed()
+        {
+            relationshipsTraversed.incrementAndGet();
+        }
+
+        @Override
+        public void unnecessaryRelationshipTraversed()
+        {
+            relationshipsTraversed.incrementAndGet();
+        }
+
+        @Override
+        public boolean isUniqueFirst( TraversalBranch branch )
+        {
+            synchronized ( uniqueness )
+            {
+                return uniqueness.checkFirst( branch );
+            }
+        }
+
+        @Override
+        public boolean isUnique( TraversalBranch branch )
+        {
+            synchronized ( uniqueness )
+            {
+                return uniqueness.check( branch );
+            }
+        }
+
+        @Override
+        public boolean checksCandidates()
+        {
+            return checksCandidates;
+        }
+
+        @Override
+        @SuppressWarnings( { "rawtypes", "unchecked" } )
+        public Evaluation evaluate( TraversalBranch branch, BranchState state )
+        {
+            // The branch state is of the type of the evaluator, TraversalContext just doesn't say so
+            return ((PathEvaluator) evaluator).evaluate( branch, state );
+        }
+    }
+
+    private static class Stopped extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+}
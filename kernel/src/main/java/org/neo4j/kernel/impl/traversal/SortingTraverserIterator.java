@@ -38,10 +38,10 @@ class SortingTraverserIterator extends PrefetchingIterator<Path>
      * 
      */
     private final TraverserImpl traverserImpl;
-    private final TraverserIterator source;
+    private final AbstractTraverserIterator source;
     private Iterator<Path> sortedResultIterator;
 
-    SortingTraverserIterator( TraverserImpl traverserImpl, TraverserIterator source )
+    SortingTraverserIterator( TraverserImpl traverserImpl, AbstractTraverserIterator source )
     {
         this.traverserImpl = traverserImpl;
         this.source = source;
@@ -19,8 +19,8 @@
  */
 package org.neo4j.kernel.impl.traversal;
 
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
 
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.PathExpander;
@@ -35,31 +35,21 @@ import org.neo4j.kernel.Traversal;
 
 class TraversalBranchImpl implements TraversalBranch
 {
-    private static final Iterator<Relationship> PRUNED_ITERATOR = new Iterator<Relationship>()
-    {
-        @Override
-        public boolean hasNext()
-        {
-            return false;
-        }
-
-        @Override
-        public Relationship next()
-        {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public void remove()
-        {
-            throw new UnsupportedOperationException();
-        }
-    };
+    private static final Iterator<Relationship> PRUNED_ITERATOR = new NoRelationships();
+    
+    /*
+     * Marks a branch which has been initialized, but not yet expanded. The actual
+     * expansion is done on the first call to next(), which gets the expander anyway.
+     */
+    private static final Iterator<Relationship> UNEXPANDED_ITERATOR = new NoRelationships();
     
     final TraversalBranch parent;
     private final Relationship howIGotHere;
     private final Node source;
     private Iterator<Relationship> relationships;
+    // Reused for the uniqueness checks of all relationships expanded from this branch,
+    // so that only those leading to unique branches make us instantiate a new branch
+    private CandidateTraversalBranch candidate;
     // high bit here [cidd,dddd][dddd,dddd][dddd,dddd][dddd,dddd]
     private int depthAndEvaluationBits;
     private int expandedCount;
@@ -127,26 +117,15 @@ class TraversalBranchImpl implements TraversalBranch
     public void initialize( final PathExpander expander, TraversalContext metadata )
     {
         evaluate( metadata );
-        
-        // Instantiate an Iterator<Relationship> which will initialize the real
-        // iterator on the first call to hasNext() and rebind the relationships
-        // variable to it.
-        relationships = new Iterator<Relationship>()
-        {
-            @Override
-            public boolean hasNext()
-            {
-                expandRelationships( expander );
-                return relationships.hasNext();
-            }
-
-            @Override public Relationship next() { throw new UnsupportedOperationException(); }
-            @Override public void remove() { throw new UnsupportedOperationException(); }
-        };
+        relationships = UNEXPANDED_ITERATOR;
     }
 
     public TraversalBranch next( PathExpander expander, TraversalContext context )
     {
+        if ( relationships == UNEXPANDED_ITERATOR )
+        {
+            expandRelationships( expander );
+        }
         while ( relationships.hasNext() )
         {
             Relationship relationship = relationships.next();
@@ -156,10 +135,8 @@ class TraversalBranchImpl implements TraversalBranch
                 continue;
             }
             expandedCount++;
-            Node node = relationship.getOtherNode( source );
-            // TODO maybe an unnecessary instantiation. Instead pass in this+node+relationship to uniqueness check
-            TraversalBranch next = newNextBranch( node, relationship );
-            if ( context.isUnique( next ) )
+            TraversalBranch next = uniqueNextBranch( relationship, context );
+            if ( next != null )
             {
                 context.relationshipTraversed();
                 next.initialize( expander, context );
@@ -172,9 +149,30 @@ class TraversalBranchImpl implements TraversalBranch
         }
         // Just to help GC
         relationships = PRUNED_ITERATOR;
+        candidate = null;
         return null;
     }
     
+    /*
+     * The built in uniqueness filters check a reused candidate, so that only relationships
+     * leading to unique branches make us instantiate a new branch. Other filters may hold
+     * on to what they check and get the new branch right away.
+     */
+    private TraversalBranch uniqueNextBranch( Relationship relationship, TraversalContext context )
+    {
+        if ( !CandidateTraversalBranch.checkedBy( context ) )
+        {
+            TraversalBranch next = newNextBranch( relationship.getOtherNode( source ), relationship );
+            return context.isUnique( next ) ? next : null;
+        }
+        if ( candidate == null )
+        {
+            candidate = new CandidateTraversalBranch( this );
+        }
+        candidate.reset( relationship, source );
+        return context.isUnique( candidate ) ? newNextBranch( candidate.endNode(), relationship ) : null;
+    }
+
     protected TraversalBranch newNextBranch( Node node, Relationship relationship )
     {
         return new TraversalBranchImpl( this, length() + 1, node, relationship );
@@ -184,6 +182,7 @@ class TraversalBranchImpl implements TraversalBranch
     public void prune()
     {
         relationships = PRUNED_ITERATOR;
+        candidate = null;
     }
 
     public int length()
@@ -246,18 +245,72 @@ class TraversalBranchImpl implements TraversalBranch
 
     public Iterable<Relationship> relationships()
     {
-        LinkedList<Relationship> relationships = new LinkedList<Relationship>();
-        TraversalBranch branch = this;
-        while ( branch.length() > 0 )
-        {
-            relationships.addFirst( branch.lastRelationship() );
-            branch = branch.parent();
-        }
-        return relationships;
+        return relationshipsOf( this );
     }
     
     @Override
     public Iterable<Relationship> reverseRelationships()
+    {
+        return reverseRelationshipsOf( this );
+    }
+
+    public Iterable<Node> nodes()
+    {
+        return nodesOf( this );
+    }
+    
+    @Override
+    public Iterable<Node> reverseNodes()
+    {
+        return reverseNodesOf( this );
+    }
+
+    public Iterator<PropertyContainer> iterator()
+    {
+        return entitiesOf( this );
+    }
+    
+    /*
+     * The path views below walk the parent chain once, filling arrays sized by
+     * the length of the branch instead of growing linked lists along the way.
+     */
+    static Iterable<Relationship> relationshipsOf( TraversalBranch branch )
+    {
+        Relationship[] relationships = new Relationship[branch.length()];
+        for ( int i = relationships.length - 1; i >= 0; i-- )
+        {
+            relationships[i] = branch.lastRelationship();
+            branch = branch.parent();
+        }
+        return Arrays.asList( relationships );
+    }
+
+    static Iterable<Node> nodesOf( TraversalBranch branch )
+    {
+        Node[] nodes = new Node[branch.length() + 1];
+        for ( int i = nodes.length - 1; i > 0; i-- )
+        {
+            nodes[i] = branch.endNode();
+            branch = branch.parent();
+        }
+        nodes[0] = branch.endNode();
+        return Arrays.asList( nodes );
+    }
+
+    static Iterator<PropertyContainer> entitiesOf( TraversalBranch branch )
+    {
+        PropertyContainer[] entities = new PropertyContainer[branch.length() * 2 + 1];
+        for ( int i = entities.length - 1; i > 0; i -= 2 )
+        {
+            entities[i] = branch.endNode();
+            entities[i - 1] = branch.lastRelationship();
+            branch = branch.parent();
+        }
+        entities[0] = branch.endNode();
+        return Arrays.asList( entities ).iterator();
+    }
+
+    static Iterable<Relationship> reverseRelationshipsOf( final TraversalBranch start )
     {
         return new Iterable<Relationship>()
         {
@@ -266,7 +319,7 @@ class TraversalBranchImpl implements TraversalBranch
             {
                 return new PrefetchingIterator<Relationship>()
                 {
-                    private TraversalBranch branch = TraversalBranchImpl.this;
+                    private TraversalBranch branch = start;
                     
                     @Override
                     protected Relationship fetchNextOrNull()
@@ -285,21 +338,7 @@ class TraversalBranchImpl implements TraversalBranch
         };
     }
 
-    public Iterable<Node> nodes()
-    {
-        LinkedList<Node> nodes = new LinkedList<Node>();
-        TraversalBranch branch = this;
-        while ( branch.length() > 0 )
-        {
-            nodes.addFirst( branch.endNode() );
-            branch = branch.parent();
-        }
-        nodes.addFirst( branch.endNode() );
-        return nodes;
-    }
-    
-    @Override
-    public Iterable<Node> reverseNodes()
+    static Iterable<Node> reverseNodesOf( final TraversalBranch start )
     {
         return new Iterable<Node>()
         {
@@ -308,7 +347,7 @@ class TraversalBranchImpl implements TraversalBranch
             {
                 return new PrefetchingIterator<Node>()
                 {
-                    private TraversalBranch branch = TraversalBranchImpl.this;
+                    private TraversalBranch branch = start;
                     
                     @Override
                     protected Node fetchNextOrNull()
@@ -326,20 +365,6 @@ class TraversalBranchImpl implements TraversalBranch
             }
         };
     }
-
-    public Iterator<PropertyContainer> iterator()
-    {
-        LinkedList<PropertyContainer> entities = new LinkedList<PropertyContainer>();
-        TraversalBranch branch = this;
-        while ( branch.length() > 0 )
-        {
-            entities.addFirst( branch.endNode() );
-            entities.addFirst( branch.lastRelationship() );
-            branch = branch.parent();
-        }
-        entities.addFirst( branch.endNode() );
-        return entities.iterator();
-    }
     
     @Override
     public int hashCode()
@@ -401,4 +426,25 @@ class TraversalBranchImpl implements TraversalBranch
     {
         return null;
     }
+    
+    private static class NoRelationships implements Iterator<Relationship>
+    {
+        @Override
+        public boolean hasNext()
+        {
+            return false;
+        }
+
+        @Override
+        public Relationship next()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
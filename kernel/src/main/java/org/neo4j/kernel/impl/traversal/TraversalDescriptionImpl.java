@@ -48,7 +48,7 @@ public final class TraversalDescriptionImpl implements TraversalDescription
     public TraversalDescriptionImpl()
     {
         this( Traversal.emptyPathExpander(), Uniqueness.NODE_GLOBAL, null,
-                Evaluators.all(), InitialBranchState.NO_STATE, Traversal.preorderDepthFirst(), null, null );
+                Evaluators.all(), InitialBranchState.NO_STATE, Traversal.preorderDepthFirst(), null, null, 0 );
     }
 
     final PathExpander expander;
@@ -59,11 +59,13 @@ public final class TraversalDescriptionImpl implements TraversalDescription
     final BranchOrderingPolicy branchOrdering;
     final Comparator<? super Path> sorting;
     final Collection<Node> endNodes;
+    // number of threads to expand from, 0 if not parallel
+    final int parallelism;
 
     private TraversalDescriptionImpl( PathExpander expander,
             UniquenessFactory uniqueness, Object uniquenessParameter,
             PathEvaluator evaluator, InitialBranchState initialState, BranchOrderingPolicy branchOrdering,
-            Comparator<? super Path> sorting, Collection<Node> endNodes )
+            Comparator<? super Path> sorting, Collection<Node> endNodes, int parallelism )
     {
         this.expander = expander;
         this.uniqueness = uniqueness;
@@ -73,6 +75,7 @@ public final class TraversalDescriptionImpl implements TraversalDescription
         this.sorting = sorting;
         this.endNodes = endNodes;
         this.initialState = initialState;
+        this.parallelism = parallelism;
     }
     
     public Traverser traverse( Node startNode )
@@ -91,7 +94,7 @@ public final class TraversalDescriptionImpl implements TraversalDescription
     public TraversalDescription uniqueness( UniquenessFactory uniqueness )
     {
         return new TraversalDescriptionImpl( expander, uniqueness, null,
-                evaluator, initialState, branchOrdering, sorting, endNodes );
+                evaluator, initialState, branchOrdering, sorting, endNodes, parallelism );
     }
 
     /* (non-Javadoc)
@@ -110,7 +113,7 @@ public final class TraversalDescriptionImpl implements TraversalDescription
         }
 
         return new TraversalDescriptionImpl( expander, uniqueness, parameter,
-                evaluator, initialState, branchOrdering, sorting, endNodes );
+                evaluator, initialState, branchOrdering, sorting, endNodes, parallelism );
     }
     
     public TraversalDescription evaluator( Evaluator evaluator )
@@ -126,7 +129,7 @@ public final class TraversalDescriptionImpl implements TraversalDescription
         }
         nullCheck( evaluator, Evaluator.class, "RETURN_ALL" );
         return new TraversalDescriptionImpl( expander, uniqueness, uniquenessParameter,
-                addEvaluator( this.evaluator, evaluator ), initialState, branchOrdering, sorting, endNodes );
+                addEvaluator( this.evaluator, evaluator ), initialState, branchOrdering, sorting, endNodes, parallelism );
     }
     
     protected static PathEvaluator addEvaluator( PathEvaluator existing, PathEvaluator toAdd )
@@ -164,7 +167,7 @@ public final class TraversalDescriptionImpl implements TraversalDescription
             return this;
         }
         return new TraversalDescriptionImpl( expander, uniqueness, uniquenessParameter,
-                evaluator, initialState, order, sorting, endNodes );
+                evaluator, initialState, order, sorting, endNodes, parallelism );
     }
 
     public TraversalDescription depthFirst()
@@ -177,6 +180,21 @@ public final class TraversalDescriptionImpl implements TraversalDescription
         return order( Traversal.preorderBreadthFirst() );
     }
 
+    @Override
+    public TraversalDescription parallel( int threads )
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Need at least one thread, not " + threads );
+        }
+        if ( this.parallelism == threads )
+        {
+            return this;
+        }
+        return new TraversalDescriptionImpl( expander, uniqueness, uniquenessParameter,
+                evaluator, initialState, branchOrdering, sorting, endNodes, threads );
+    }
+
     /* (non-Javadoc)
      * @see org.neo4j.graphdb.traversal.TraversalDescription#relationships(org.neo4j.graphdb.RelationshipType)
      */
@@ -208,32 +226,32 @@ public final class TraversalDescriptionImpl implements TraversalDescription
             return this;
         }
         return new TraversalDescriptionImpl( expander, uniqueness,
-                uniquenessParameter, evaluator, initialState, branchOrdering, sorting, endNodes );
+                uniquenessParameter, evaluator, initialState, branchOrdering, sorting, endNodes, parallelism );
     }
     
     public <STATE> TraversalDescription expand( PathExpander<STATE> expander, InitialBranchState<STATE> initialState )
     {
         return new TraversalDescriptionImpl( expander, uniqueness,
-                uniquenessParameter, evaluator, initialState, branchOrdering, sorting, endNodes );
+                uniquenessParameter, evaluator, initialState, branchOrdering, sorting, endNodes, parallelism );
     }
     
     public <STATE> TraversalDescription expand( PathExpander<STATE> expander, InitialStateFactory<STATE> initialState )
     {
         return new TraversalDescriptionImpl( expander, uniqueness,
-                uniquenessParameter, evaluator, new InitialStateFactory.AsInitialBranchState<STATE>( initialState ), branchOrdering, sorting, endNodes );
+                uniquenessParameter, evaluator, new InitialStateFactory.AsInitialBranchState<STATE>( initialState ), branchOrdering, sorting, endNodes, parallelism );
     }
     
     @Override
     public TraversalDescription sort( Comparator<? super Path> sorting )
     {
         return new TraversalDescriptionImpl( expander, uniqueness, uniquenessParameter, evaluator,
-                initialState, branchOrdering, sorting, endNodes );
+                initialState, branchOrdering, sorting, endNodes, parallelism );
     }
     
     @Override
     public TraversalDescription reverse()
     {
         return new TraversalDescriptionImpl( expander.reverse(), uniqueness, uniquenessParameter,
-                evaluator, initialState.reverse(), branchOrdering, sorting, endNodes );
+                evaluator, initialState.reverse(), branchOrdering, sorting, endNodes, parallelism );
     }
 }
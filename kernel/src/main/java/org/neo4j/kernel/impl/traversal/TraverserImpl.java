@@ -21,8 +21,11 @@ package org.neo4j.kernel.impl.traversal;
 
 import java.util.Iterator;
 
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.traversal.UniquenessFilter;
+import org.neo4j.kernel.GraphDatabaseAPI;
 
 class TraverserImpl extends AbstractTraverser
 {
@@ -37,9 +40,36 @@ class TraverserImpl extends AbstractTraverser
 
     protected Iterator<Path> instantiateIterator()
     {
-        TraverserIterator iterator = new TraverserIterator( description.uniqueness.create( description.uniquenessParameter ),
-                description.expander, description.branchOrdering, description.evaluator,
-                startNodes, description.initialState );
+        if ( description.parallelism > 0 )
+        {
+            rejectTransactionState();
+        }
+        UniquenessFilter uniqueness = description.uniqueness.create( description.uniquenessParameter );
+        boolean checksCandidates = CandidateTraversalBranch.checkable( description.uniqueness );
+        AbstractTraverserIterator iterator = description.parallelism > 0 ?
+                new ParallelTraverserIterator( uniqueness, checksCandidates, description.expander,
+                        description.evaluator, startNodes, description.initialState, description.parallelism ) :
+                new TraverserIterator( uniqueness, checksCandidates, description.expander,
+                        description.branchOrdering, description.evaluator, startNodes, description.initialState );
         return description.sorting != null ? new SortingTraverserIterator( this, iterator ) : iterator;
     }
+
+    /**
+     * The threads of a parallel traversal would read the committed graph
+     * while the caller expects to see its own changes as well.
+     */
+    private void rejectTransactionState()
+    {
+        Iterator<Node> nodes = startNodes.iterator();
+        if ( !nodes.hasNext() )
+        {
+            return;
+        }
+        GraphDatabaseService db = nodes.next().getGraphDatabase();
+        if ( db instanceof GraphDatabaseAPI && ((GraphDatabaseAPI) db).getNodeManager().hasTransactionState() )
+        {
+            throw new IllegalStateException( "Can't traverse in parallel in a transaction with changes, " +
+                    "since the expanding threads don't see them. Commit the changes first." );
+        }
+    }
 }
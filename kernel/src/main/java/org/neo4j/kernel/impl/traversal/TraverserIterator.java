@@ -31,16 +31,19 @@ import org.neo4j.graphdb.traversal.PathEvaluator;
 import org.neo4j.graphdb.traversal.TraversalBranch;
 import org.neo4j.graphdb.traversal.UniquenessFilter;
 
-class TraverserIterator extends AbstractTraverserIterator
+class TraverserIterator extends AbstractTraverserIterator implements CandidateCheckingContext
 {
     private final BranchSelector selector;
     private final PathEvaluator evaluator;
     private final UniquenessFilter uniqueness;
+    private final boolean checksCandidates;
     
-    TraverserIterator( UniquenessFilter uniqueness, PathExpander expander, BranchOrderingPolicy order,
-            PathEvaluator evaluator, Iterable<Node> startNodes, InitialBranchState initialState )
+    TraverserIterator( UniquenessFilter uniqueness, boolean checksCandidates, PathExpander expander,
+            BranchOrderingPolicy order, PathEvaluator evaluator, Iterable<Node> startNodes,
+            InitialBranchState initialState )
     {
         this.uniqueness = uniqueness;
+        this.checksCandidates = checksCandidates;
         this.evaluator = evaluator;
         this.selector = order.create( new AsOneStartBranch( this, startNodes, initialState ), expander );
     }
@@ -86,4 +89,10 @@ class TraverserIterator extends AbstractTraverserIterator
     {
         return uniqueness.check( branch );
     }
+
+    @Override
+    public boolean checksCandidates()
+    {
+        return checksCandidates;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Read only view of a file which doesn't change while it's open, for example a rotated
+ * logical log. The whole file is memory mapped so that reads are served straight from the
+ * page cache without a read call and without an intermediary heap buffer like the one in
+ * {@link BufferedFileChannel}. {@link #transferTo(long, long, WritableByteChannel)} goes to
+ * the underlying channel so that ranges of the file can be shipped without copying them
+ * through the heap at all.
+ * <p>
+ * Closing the channel unmaps the file right away instead of leaving that to the garbage
+ * collector, so the channel must not be closed while another thread is reading from it.
+ */
+public class MappedFileChannel extends FileChannel
+{
+    private final FileChannel source;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * @param source the channel to map. Its size must not exceed {@link Integer#MAX_VALUE},
+     * see {@link #canMap(FileChannel)}.
+     */
+    public MappedFileChannel( FileChannel source ) throws IOException
+    {
+        this.source = source;
+        this.buffer = source.map( MapMode.READ_ONLY, 0, source.size() );
+        this.buffer.position( (int) Math.min( source.position(), buffer.limit() ) );
+    }
+
+    public static boolean canMap( FileChannel source ) throws IOException
+    {
+        return source.size() <= Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int read( ByteBuffer dst ) throws IOException
+    {
+        ensureOpen();
+        if ( !buffer.hasRemaining() )
+        {
+            return dst.hasRemaining() ? -1 : 0;
+        }
+        return copy( buffer, dst );
+    }
+
+    @Override
+    public int read( ByteBuffer dst, long position ) throws IOException
+    {
+        ensureOpen();
+        if ( position >= buffer.limit() )
+        {
+            return dst.hasRemaining() ? -1 : 0;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position( (int) position );
+        return copy( view, dst );
+    }
+
+    private static int copy( ByteBuffer from, ByteBuffer dst )
+    {
+        int count = Math.min( from.remaining(), dst.remaining() );
+        if ( count == from.remaining() )
+        {
+            dst.put( from );
+        }
+        else
+        {
+            int limit = from.limit();
+            from.limit( from.position() + count );
+            dst.put( from );
+            from.limit( limit );
+        }
+        return count;
+    }
+
+    @Override
+    public long read( ByteBuffer[] dsts, int offset, int length ) throws IOException
+    {
+        ensureOpen();
+        long read = 0;
+        for ( int i = offset; i < offset + length && buffer.hasRemaining(); i++ )
+        {
+            read += copy( buffer, dsts[i] );
+        }
+        return read == 0 && !buffer.hasRemaining() ? -1 : read;
+    }
+
+    @Override
+    public int write( ByteBuffer src ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long write( ByteBuffer[] srcs, int offset, int length ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long position() throws IOException
+    {
+        ensureOpen();
+        return buffer.position();
+    }
+
+    @Override
+    public FileChannel position( long newPosition ) throws IOException
+    {
+        ensureOpen();
+        buffer.position( (int) Math.min( newPosition, buffer.limit() ) );
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException
+    {
+        ensureOpen();
+        return buffer.limit();
+    }
+
+    @Override
+    public FileChannel truncate( long size ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void force( boolean metaData ) throws IOException
+    {
+        // Nothing to force, this channel is read only
+    }
+
+    @Override
+    public long transferTo( long position, long count, WritableByteChannel target )
+            throws IOException
+    {
+        ensureOpen();
+        return source.transferTo( position, Math.min( count, Math.max( 0, buffer.limit() - position ) ), target );
+    }
+
+    @Override
+    public long transferFrom( ReadableByteChannel src, long position, long count )
+            throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int write( ByteBuffer src, long position ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MappedByteBuffer map( MapMode mode, long position, long size ) throws IOException
+    {
+        return source.map( mode, position, size );
+    }
+
+    @Override
+    public FileLock lock( long position, long size, boolean shared ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileLock tryLock( long position, long size, boolean shared ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException
+    {
+        unmap( buffer );
+        source.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException
+    {
+        if ( !isOpen() )
+        {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Mapped buffers are otherwise only released once they're garbage collected, which
+     * keeps address space and the file itself, which may be pruned, held until then.
+     * Where the JVM doesn't give access to the buffer's cleaner it's left to the collector.
+     */
+    private static void unmap( MappedByteBuffer buffer )
+    {
+        try
+        {
+            Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+            cleanerMethod.setAccessible( true );
+            Object cleaner = cleanerMethod.invoke( buffer );
+            if ( cleaner != null )
+            {
+                Method cleanMethod = cleaner.getClass().getMethod( "clean" );
+                cleanMethod.setAccessible( true );
+                cleanMethod.invoke( cleaner );
+            }
+        }
+        catch ( Exception e )
+        {   // Not supported by this JVM, the mapping goes away with the buffer instead
+        }
+    }
+
+    public FileChannel getSource()
+    {
+        return source;
+    }
+}
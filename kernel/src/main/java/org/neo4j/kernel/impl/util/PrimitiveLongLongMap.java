@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to long values, without boxing
+ * or any per-entry objects. Keys and values must be non-negative, which suits
+ * entity ids and positions, since -1 is used to mark free slots and missing
+ * values. Not thread safe.
+ */
+public class PrimitiveLongLongMap
+{
+    public static final long NO_VALUE = -1;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private int resizeThreshold;
+
+    public PrimitiveLongLongMap()
+    {
+        this( 16 );
+    }
+
+    public PrimitiveLongLongMap( int initialCapacity )
+    {
+        allocate( Integer.highestOneBit( Math.max( 8, (int) (initialCapacity / LOAD_FACTOR) ) - 1 ) << 1 );
+    }
+
+    /**
+     * @return the previous value for {@code key}, or {@link #NO_VALUE} if there was none.
+     */
+    public long put( long key, long value )
+    {
+        assert key >= 0 && value >= 0;
+        int slot = slotFor( key );
+        while ( keys[slot] != NO_VALUE )
+        {
+            if ( keys[slot] == key )
+            {
+                long previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if ( ++size > resizeThreshold )
+        {
+            grow();
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * @return the value for {@code key}, or {@link #NO_VALUE} if there is none.
+     */
+    public long get( long key )
+    {
+        int slot = slotFor( key );
+        while ( keys[slot] != NO_VALUE )
+        {
+            if ( keys[slot] == key )
+            {
+                return values[slot];
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return NO_VALUE;
+    }
+
+    public boolean containsKey( long key )
+    {
+        return get( key ) != NO_VALUE;
+    }
+
+    /**
+     * @return the removed value for {@code key}, or {@link #NO_VALUE} if there was none.
+     */
+    public long remove( long key )
+    {
+        int mask = keys.length - 1;
+        int slot = slotFor( key );
+        while ( keys[slot] != key )
+        {
+            if ( keys[slot] == NO_VALUE )
+            {
+                return NO_VALUE;
+            }
+            slot = (slot + 1) & mask;
+        }
+        long removed = values[slot];
+
+        // Shift back following entries of the same probe sequence so that no tombstones are needed
+        int free = slot;
+        for ( int next = (free + 1) & mask; keys[next] != NO_VALUE; next = (next + 1) & mask )
+        {
+            int home = slotFor( keys[next] );
+            if ( ((next - home) & mask) >= ((next - free) & mask) )
+            {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        keys[free] = NO_VALUE;
+        values[free] = NO_VALUE;
+        size--;
+        return removed;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( keys, NO_VALUE );
+        Arrays.fill( values, NO_VALUE );
+        size = 0;
+    }
+
+    /**
+     * Visits all entries, in no particular order. The map must not be modified during the visit.
+     *
+     * @return {@code true} if the visitor stopped the visit by returning {@code true}.
+     */
+    public boolean visitEntries( EntryVisitor visitor )
+    {
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            if ( keys[i] != NO_VALUE && visitor.visit( keys[i], values[i] ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public interface EntryVisitor
+    {
+        /**
+         * @return {@code true} to stop visiting more entries.
+         */
+        boolean visit( long key, long value );
+    }
+
+    private int slotFor( long key )
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & (keys.length - 1);
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate( oldKeys.length << 1 );
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            if ( oldKeys[i] != NO_VALUE )
+            {
+                put( oldKeys[i], oldValues[i] );
+            }
+        }
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill( keys, NO_VALUE );
+        Arrays.fill( values, NO_VALUE );
+        size = 0;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+}
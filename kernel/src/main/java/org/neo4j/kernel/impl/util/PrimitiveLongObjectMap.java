@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing hash map from long keys to object values, without boxing
+ * the keys. Keys must be non-negative, which suits entity ids, since -1 is used
+ * to mark free slots. Not thread safe.
+ *
+ * @see PrimitiveLongLongMap
+ */
+public class PrimitiveLongObjectMap<V>
+{
+    private static final long FREE = -1;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int resizeThreshold;
+
+    public PrimitiveLongObjectMap()
+    {
+        this( 16 );
+    }
+
+    public PrimitiveLongObjectMap( int initialCapacity )
+    {
+        allocate( Integer.highestOneBit( Math.max( 8, (int) (initialCapacity / LOAD_FACTOR) ) - 1 ) << 1 );
+    }
+
+    /**
+     * @return the previous value for {@code key}, or {@code null} if there was none.
+     */
+    public V put( long key, V value )
+    {
+        assert key >= 0;
+        int slot = slotFor( key );
+        while ( keys[slot] != FREE )
+        {
+            if ( keys[slot] == key )
+            {
+                V previous = valueAt( slot );
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if ( ++size > resizeThreshold )
+        {
+            grow();
+        }
+        return null;
+    }
+
+    /**
+     * @return the value for {@code key}, or {@code null} if there is none.
+     */
+    public V get( long key )
+    {
+        int slot = slotFor( key );
+        while ( keys[slot] != FREE )
+        {
+            if ( keys[slot] == key )
+            {
+                return valueAt( slot );
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return null;
+    }
+
+    public boolean containsKey( long key )
+    {
+        int slot = slotFor( key );
+        while ( keys[slot] != FREE )
+        {
+            if ( keys[slot] == key )
+            {
+                return true;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return false;
+    }
+
+    /**
+     * @return the removed value for {@code key}, or {@code null} if there was none.
+     */
+    public V remove( long key )
+    {
+        int mask = keys.length - 1;
+        int slot = slotFor( key );
+        while ( keys[slot] != key )
+        {
+            if ( keys[slot] == FREE )
+            {
+                return null;
+            }
+            slot = (slot + 1) & mask;
+        }
+        V removed = valueAt( slot );
+
+        // Shift back following entries of the same probe sequence so that no tombstones are needed
+        int free = slot;
+        for ( int next = (free + 1) & mask; keys[next] != FREE; next = (next + 1) & mask )
+        {
+            int home = slotFor( keys[next] );
+            if ( ((next - home) & mask) >= ((next - free) & mask) )
+            {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        keys[free] = FREE;
+        values[free] = null;
+        size--;
+        return removed;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( keys, FREE );
+        Arrays.fill( values, null );
+        size = 0;
+    }
+
+    /**
+     * Visits all entries, in no particular order. The map must not be modified during the visit.
+     *
+     * @return {@code true} if the visitor stopped the visit by returning {@code true}.
+     */
+    public boolean visitEntries( EntryVisitor<V> visitor )
+    {
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            if ( keys[i] != FREE && visitor.visit( keys[i], valueAt( i ) ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the values of this map, in no particular order. The map must not
+     * be modified while iterating over them.
+     */
+    public Iterable<V> values()
+    {
+        return new Iterable<V>()
+        {
+            @Override
+            public Iterator<V> iterator()
+            {
+                return new Iterator<V>()
+                {
+                    private int slot = nextSlot( 0 );
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return slot < keys.length;
+                    }
+
+                    @Override
+                    public V next()
+                    {
+                        if ( !hasNext() )
+                        {
+                            throw new NoSuchElementException();
+                        }
+                        V value = valueAt( slot );
+                        slot = nextSlot( slot + 1 );
+                        return value;
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private int nextSlot( int from )
+    {
+        while ( from < keys.length && keys[from] == FREE )
+        {
+            from++;
+        }
+        return from;
+    }
+
+    public interface EntryVisitor<V>
+    {
+        /**
+         * @return {@code true} to stop visiting more entries.
+         */
+        boolean visit( long key, V value );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private V valueAt( int slot )
+    {
+        return (V) values[slot];
+    }
+
+    private int slotFor( long key )
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & (keys.length - 1);
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate( oldKeys.length << 1 );
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            if ( oldKeys[i] != FREE )
+            {
+                put( oldKeys[i], (V) oldValues[i] );
+            }
+        }
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        Arrays.fill( keys, FREE );
+        size = 0;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Arrays;
+
+/**
+ * Set of non-negative longs, such as entity ids, without boxing them.
+ * Values are kept in chunks of 2^16 consecutive values, keyed by their high
+ * bits. A chunk with few values keeps their low bits in a sorted
+ * {@code char[]}, two bytes per value. Once that would take more space than
+ * a bitmap of the whole chunk it's turned into one, a bit per possible value.
+ * Ids are handed out densely, so a set of many of them mostly consists of
+ * bitmaps. Not thread safe.
+ */
+public class PrimitiveLongSet
+{
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    // a sorted array of this many chars is as large as the bitmap of a chunk
+    private static final int MAX_ARRAY_SIZE = (1 << CHUNK_BITS) / 16;
+
+    private final PrimitiveLongObjectMap<Chunk> chunks = new PrimitiveLongObjectMap<Chunk>();
+    private long size;
+
+    /**
+     * @return {@code true} if {@code value} wasn't in the set already.
+     */
+    public boolean add( long value )
+    {
+        assert value >= 0;
+        long key = value >>> CHUNK_BITS;
+        Chunk chunk = chunks.get( key );
+        if ( chunk == null )
+        {
+            chunk = new Chunk();
+            chunks.put( key, chunk );
+        }
+        if ( chunk.add( (char) (value & CHUNK_MASK) ) )
+        {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean contains( long value )
+    {
+        Chunk chunk = chunks.get( value >>> CHUNK_BITS );
+        return chunk != null && chunk.contains( (char) (value & CHUNK_MASK) );
+    }
+
+    public long size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        chunks.clear();
+        size = 0;
+    }
+
+    private static class Chunk
+    {
+        // sorted low bits while there are few values, null once bits is used
+        private char[] values = new char[4];
+        private int count;
+        private long[] bits;
+
+        boolean add( char value )
+        {
+            if ( bits != null )
+            {
+                long mask = 1L << value;
+                int word = value >>> 6;
+                if ( (bits[word] & mask) != 0 )
+                {
+                    return false;
+                }
+                bits[word] |= mask;
+                return true;
+            }
+            int index = Arrays.binarySearch( values, 0, count, value );
+            if ( index >= 0 )
+            {
+                return false;
+            }
+            if ( count == MAX_ARRAY_SIZE )
+            {
+                toBitmap();
+                return add( value );
+            }
+            index = -index - 1;
+            if ( count == values.length )
+            {
+                values = Arrays.copyOf( values, Math.min( count * 2, MAX_ARRAY_SIZE ) );
+            }
+            System.arraycopy( values, index, values, index + 1, count - index );
+            values[index] = value;
+            count++;
+            return true;
+        }
+
+        boolean contains( char value )
+        {
+            if ( bits != null )
+            {
+                return (bits[value >>> 6] & (1L << value)) != 0;
+            }
+            return Arrays.binarySearch( values, 0, count, value ) >= 0;
+        }
+
+        private void toBitmap()
+        {
+            bits = new long[(1 << CHUNK_BITS) / 64];
+            for ( int i = 0; i < count; i++ )
+            {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+    }
+}
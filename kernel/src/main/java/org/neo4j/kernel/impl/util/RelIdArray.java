@@ -24,6 +24,7 @@ import static org.neo4j.kernel.impl.cache.SizeOfs.withArrayOverhead;
 import static org.neo4j.kernel.impl.cache.SizeOfs.withObjectOverhead;
 import static org.neo4j.kernel.impl.cache.SizeOfs.withReference;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.NoSuchElementException;
 
@@ -130,7 +131,7 @@ public class RelIdArray implements SizeOf
     {
         IdBlock lastBlock = direction.getLastBlock( this );
         long highBits = id&0xFFFFFFFF00000000L;
-        if ( lastBlock == null || lastBlock.getHighBits() != highBits )
+        if ( lastBlock == null || !lastBlock.accepts( id ) )
         {
             IdBlock newLastBlock = null;
             if ( highBits == 0 && lastBlock == null )
@@ -151,7 +152,7 @@ public class RelIdArray implements SizeOf
             direction.setLastBlock( this, newLastBlock );
             lastBlock = newLastBlock;
         }
-        lastBlock.add( (int) id );
+        lastBlock.add( id );
     }
     
     public RelIdArray addAll( RelIdArray source )
@@ -179,12 +180,46 @@ public class RelIdArray implements SizeOf
     
     public RelIdArray shrink()
     {
-        IdBlock shrunkOut = lastOutBlock != null ? lastOutBlock.shrink() : null;
-        IdBlock shrunkIn = lastInBlock != null ? lastInBlock.shrink() : null;
+        IdBlock shrunkOut = shrink( lastOutBlock );
+        IdBlock shrunkIn = shrink( lastInBlock );
         return shrunkOut == lastOutBlock && shrunkIn == lastInBlock ? this : 
                 new RelIdArray( type, shrunkOut, shrunkIn );
     }
     
+    /**
+     * Shrinks {@code block}, or compacts it and the blocks before it into one
+     * {@link CompactIdBlock} if there are enough ids for that to pay off.
+     */
+    static IdBlock shrink( IdBlock block )
+    {
+        if ( block == null )
+        {
+            return null;
+        }
+        return totalLength( block ) >= COMPACT_THRESHOLD ? CompactIdBlock.of( block ) : block.shrink();
+    }
+    
+    /**
+     * @return a shrunk copy if enough ids have been added to the tails of compact
+     * blocks to merge them in, otherwise this instance.
+     */
+    private RelIdArray mergeLongTails()
+    {
+        return hasLongTail( lastOutBlock ) || hasLongTail( lastInBlock ) || hasLongTail( getLastLoopBlock() ) ?
+                shrink() : this;
+    }
+    
+    private static boolean hasLongTail( IdBlock block )
+    {
+        return block instanceof CompactIdBlock && ((CompactIdBlock) block).hasLongTail();
+    }
+    
+    private boolean isCompact()
+    {
+        return lastOutBlock instanceof CompactIdBlock || lastInBlock instanceof CompactIdBlock ||
+                getLastLoopBlock() instanceof CompactIdBlock;
+    }
+    
     protected void setLastLoopBlock( IdBlock block )
     {
         throw new UnsupportedOperationException( "Should've upgraded to RelIdArrayWithLoops before this" );
@@ -210,6 +245,15 @@ public class RelIdArray implements SizeOf
             {
                 direction.setLastBlock( this, fromBlock.copy() );
             }
+            else if ( toBlock instanceof CompactIdBlock || fromBlock instanceof CompactIdBlock )
+            {
+                if ( !(toBlock instanceof CompactIdBlock) )
+                {
+                    toBlock = CompactIdBlock.of( toBlock );
+                    direction.setLastBlock( this, toBlock );
+                }
+                toBlock.addAll( fromBlock );
+            }
             else if ( toBlock.getHighBits() == fromBlock.getHighBits() )
             {
                 toBlock.addAll( fromBlock );
@@ -269,6 +313,16 @@ public class RelIdArray implements SizeOf
     {
         return direction.iterator( this );
     }
+
+    /**
+     * @return an iterator over the ids added with exactly {@code direction}. Unlike
+     * {@link #iterator(DirectionWrapper)} loops aren't included for {@link DirectionWrapper#OUTGOING}
+     * and {@link DirectionWrapper#INCOMING}, and for {@link DirectionWrapper#BOTH} only loops are.
+     */
+    public RelIdIterator exactIterator( DirectionWrapper direction )
+    {
+        return new RelIdIteratorImpl( this, new DirectionWrapper[] { direction } );
+    }
     
     public RelIdArray newSimilarInstance()
     {
@@ -277,6 +331,16 @@ public class RelIdArray implements SizeOf
     
     public static final IdBlock EMPTY_BLOCK = new LowIdBlock();
     
+    /**
+     * Blocks with at least this many ids, including the blocks before them,
+     * are compacted when shrunk, i.e. when all relationships have been loaded.
+     */
+    static final int COMPACT_THRESHOLD = 32;
+    
+    private static final int MIN_TAIL_TO_MERGE = 16;
+    
+    private static final long[] EMPTY_TAIL = new long[0];
+    
     public static enum DirectionWrapper
     {
         OUTGOING( Direction.OUTGOING )
@@ -378,16 +442,71 @@ public class RelIdArray implements SizeOf
     
     public static abstract class IdBlock implements SizeOf
     {
-        // First element is the actual length w/o the slack
-        private int[] ids = new int[3];
-        
         /**
          * @return a copy of itself. The copy is also shrunk so that there's no
          * slack in the id array.
          */
+        abstract IdBlock copy();
+        
+        /**
+         * @return a shrunk version of itself. It returns itself if there is
+         * no need to shrink it or a {@link #copy()} if there is slack in the array.
+         */
+        abstract IdBlock shrink();
+        
+        /**
+         * Upgrades to a {@link HighIdBlock} if this is a {@link LowIdBlock}.
+         */
+        abstract IdBlock upgradeIfNeeded();
+        
+        abstract int length();
+
+        IdBlock getPrev()
+        {
+            return null;
+        }
+        
+        abstract void setPrev( IdBlock prev );
+        
+        /**
+         * @return whether or not {@code id} can be added to this block.
+         */
+        abstract boolean accepts( long id );
+        
+        // Assume id is accepted
+        abstract void add( long id );
+        
+        abstract void addAll( IdBlock block );
+        
+        abstract long get( int index );
+        
+        /**
+         * Same as {@link #get(int)}, but lets a block which can't look up an
+         * index in constant time keep track of where it is in {@code state}.
+         */
+        long get( int index, IteratorState state )
+        {
+            return get( index );
+        }
+        
+        /**
+         * Copies the ids of this block, not the blocks before it, into {@code target}.
+         * @return the position in {@code target} after the last copied id.
+         */
+        abstract int copyTo( long[] target, int offset );
+        
+        abstract long getHighBits();
+    }
+    
+    private static abstract class ArrayIdBlock extends IdBlock
+    {
+        // First element is the actual length w/o the slack
+        private int[] ids = new int[3];
+        
+        @Override
         IdBlock copy()
         {
-            IdBlock copy = copyInstance();
+            ArrayIdBlock copy = copyInstance();
             int length = length();
             copy.ids = new int[length+1];
             System.arraycopy( ids, 0, copy.ids, 0, length+1 );
@@ -399,39 +518,31 @@ public class RelIdArray implements SizeOf
             return withObjectOverhead( withReference( withArrayOverhead( 4*ids.length ) ) );
         }
         
-        /**
-         * @return a shrunk version of itself. It returns itself if there is
-         * no need to shrink it or a {@link #copy()} if there is slack in the array.
-         */
+        @Override
         IdBlock shrink()
         {
             return length() == ids.length-1 ? this : copy();
         }
         
-        /**
-         * Upgrades to a {@link HighIdBlock} if this is a {@link LowIdBlock}.
-         */
-        abstract IdBlock upgradeIfNeeded();
-        
+        @Override
         int length()
         {
             return ids[0];
         }
-
-        IdBlock getPrev()
-        {
-            return null;
-        }
         
-        abstract void setPrev( IdBlock prev );
+        protected abstract ArrayIdBlock copyInstance();
         
-        protected abstract IdBlock copyInstance();
+        @Override
+        boolean accepts( long id )
+        {
+            return (id&0xFFFFFFFF00000000L) == getHighBits();
+        }
 
-        // Assume id has same high bits
-        void add( int id )
+        @Override
+        void add( long id )
         {
             int length = ensureSpace( 1 );
-            ids[length+1] = id;
+            ids[length+1] = (int) id;
             ids[0] = length+1;
         }
         
@@ -453,20 +564,34 @@ public class RelIdArray implements SizeOf
             return length;
         }
         
+        @Override
         void addAll( IdBlock block )
         {
-            int otherBlockLength = block.length();
+            ArrayIdBlock other = (ArrayIdBlock) block;
+            int otherBlockLength = other.length();
             int length = ensureSpace( otherBlockLength+1 );
-            System.arraycopy( block.ids, 1, ids, length+1, otherBlockLength );
+            System.arraycopy( other.ids, 1, ids, length+1, otherBlockLength );
             ids[0] = otherBlockLength+length;
         }
         
+        @Override
         long get( int index )
         {
             assert index >= 0 && index < length();
             return transform( ids[index+1] );
         }
         
+        @Override
+        int copyTo( long[] target, int offset )
+        {
+            int length = length();
+            for ( int i = 0; i < length; i++ )
+            {
+                target[offset++] = transform( ids[i+1] );
+            }
+            return offset;
+        }
+        
         abstract long transform( int id );
         
         void set( long id, int index )
@@ -474,11 +599,9 @@ public class RelIdArray implements SizeOf
             // Assume same high bits
             ids[index+1] = (int) id;
         }
-        
-        abstract long getHighBits();
     }
     
-    private static class LowIdBlock extends IdBlock
+    private static class LowIdBlock extends ArrayIdBlock
     {
         @Override
         void setPrev( IdBlock prev )
@@ -489,8 +612,8 @@ public class RelIdArray implements SizeOf
         @Override
         IdBlock upgradeIfNeeded()
         {
-            IdBlock highBlock = new HighIdBlock( 0 );
-            highBlock.ids = ((IdBlock)this).ids;
+            ArrayIdBlock highBlock = new HighIdBlock( 0 );
+            highBlock.ids = ((ArrayIdBlock)this).ids;
             return highBlock;
         }
 
@@ -501,7 +624,7 @@ public class RelIdArray implements SizeOf
         }
         
         @Override
-        protected IdBlock copyInstance()
+        protected ArrayIdBlock copyInstance()
         {
             return new LowIdBlock();
         }
@@ -513,7 +636,7 @@ public class RelIdArray implements SizeOf
         }
     }
     
-    private static class HighIdBlock extends IdBlock
+    private static class HighIdBlock extends ArrayIdBlock
     {
         private final long highBits;
         private IdBlock prev;
@@ -569,7 +692,7 @@ public class RelIdArray implements SizeOf
         }
         
         @Override
-        protected IdBlock copyInstance()
+        protected ArrayIdBlock copyInstance()
         {
             return new HighIdBlock( highBits );
         }
@@ -581,6 +704,254 @@ public class RelIdArray implements SizeOf
         }
     }
     
+    /**
+     * Ids of any range, each stored as the (zig-zag encoded) difference to the
+     * id before it in a variable number of bytes, 7 bits per byte. Relationship
+     * chains mostly link ids close to each other so that's one or two bytes per
+     * id instead of four plus a share of the high bits. Ids keep the order of
+     * the blocks they came from, so that an iterator can continue at the same
+     * position, see {@link IteratorState#update(IdBlock)}. Ids added after that
+     * go into a {@link Tail}, which is merged into the encoded ids of a
+     * {@link #copy()}, never in place.
+     */
+    private static class CompactIdBlock extends IdBlock
+    {
+        private final byte[] encoded;
+        private final int encodedLength;
+        private volatile Tail tail = Tail.EMPTY;
+        
+        private CompactIdBlock( long[] ids, int length )
+        {
+            this.encoded = encode( ids, length );
+            this.encodedLength = length;
+        }
+        
+        /**
+         * @return {@code block} and the blocks before it as one compact block.
+         */
+        static IdBlock of( IdBlock block )
+        {
+            if ( block instanceof CompactIdBlock )
+            {
+                return block.shrink();
+            }
+            long[] ids = new long[totalLength( block )];
+            int length = 0;
+            for ( ; block != null; block = block.getPrev() )
+            {
+                length = block.copyTo( ids, length );
+            }
+            return new CompactIdBlock( ids, length );
+        }
+        
+        private static byte[] encode( long[] ids, int length )
+        {
+            byte[] target = new byte[length*2+10];
+            int position = 0;
+            long previous = 0;
+            for ( int i = 0; i < length; i++ )
+            {
+                if ( position+10 > target.length )
+                {
+                    target = Arrays.copyOf( target, target.length*2 );
+                }
+                long delta = ids[i]-previous;
+                previous = ids[i];
+                delta = (delta << 1) ^ (delta >> 63);
+                while ( (delta & ~0x7FL) != 0 )
+                {
+                    target[position++] = (byte) ((delta & 0x7F) | 0x80);
+                    delta >>>= 7;
+                }
+                target[position++] = (byte) delta;
+            }
+            return position == target.length ? target : Arrays.copyOf( target, position );
+        }
+        
+        private long decodeNext( IteratorState state )
+        {
+            long delta = 0;
+            int shift = 0;
+            byte value;
+            do
+            {
+                value = encoded[state.offset++];
+                delta |= (long) (value & 0x7F) << shift;
+                shift += 7;
+            }
+            while ( (value & 0x80) != 0 );
+            state.previous += (delta >>> 1) ^ -(delta & 1);
+            return state.previous;
+        }
+        
+        public int size()
+        {
+            return withObjectOverhead( withReference( withArrayOverhead( encoded.length ) ) + 4 +
+                    withReference( tail.ids.length > 0 ? withObjectOverhead(
+                            withReference( withArrayOverhead( 8*tail.ids.length ) ) + 4 ) : 0 ) );
+        }
+        
+        @Override
+        IdBlock copy()
+        {
+            long[] ids = new long[length()];
+            return new CompactIdBlock( ids, copyTo( ids, 0 ) );
+        }
+        
+        @Override
+        IdBlock shrink()
+        {
+            return tail.length == 0 ? this : copy();
+        }
+        
+        boolean hasLongTail()
+        {
+            return tail.length > Math.max( MIN_TAIL_TO_MERGE, encodedLength/4 );
+        }
+        
+        @Override
+        IdBlock upgradeIfNeeded()
+        {
+            return this;
+        }
+        
+        @Override
+        int length()
+        {
+            return encodedLength+tail.length;
+        }
+        
+        @Override
+        void setPrev( IdBlock prev )
+        {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        boolean accepts( long id )
+        {
+            return true;
+        }
+        
+        @Override
+        void add( long id )
+        {
+            tail = tail.append( id );
+        }
+        
+        @Override
+        void addAll( IdBlock block )
+        {
+            tail = tail.append( block );
+        }
+        
+        @Override
+        long get( int index )
+        {
+            return get( index, new IteratorState( this, 0 ) );
+        }
+        
+        @Override
+        long get( int index, IteratorState state )
+        {
+            assert index >= 0 && index < length();
+            if ( index >= encodedLength )
+            {
+                return tail.ids[index-encodedLength];
+            }
+            if ( state.decoded != this || state.decodedIndex != index )
+            {
+                // Not where the previous call left off, decode from the start
+                state.decoded = this;
+                state.offset = 0;
+                state.previous = 0;
+                for ( int i = 0; i < index; i++ )
+                {
+                    decodeNext( state );
+                }
+            }
+            state.decodedIndex = index+1;
+            return decodeNext( state );
+        }
+        
+        @Override
+        int copyTo( long[] target, int offset )
+        {
+            IteratorState state = new IteratorState( this, 0 );
+            for ( int i = 0; i < encodedLength; i++ )
+            {
+                target[offset++] = decodeNext( state );
+            }
+            Tail tail = this.tail;
+            System.arraycopy( tail.ids, 0, target, offset, tail.length );
+            return offset+tail.length;
+        }
+        
+        @Override
+        long getHighBits()
+        {
+            throw new UnsupportedOperationException( "Compact blocks take ids of any range" );
+        }
+    }
+    
+    /**
+     * The ids added to a {@link CompactIdBlock}, published together with how
+     * many there are, so that a reader never sees a length which its array
+     * doesn't have. Ids are only appended beyond the length of the current
+     * tail, the ids of a tail which readers may hold on to never change.
+     */
+    private static final class Tail
+    {
+        static final Tail EMPTY = new Tail( EMPTY_TAIL, 0 );
+        
+        final long[] ids;
+        final int length;
+        
+        private Tail( long[] ids, int length )
+        {
+            this.ids = ids;
+            this.length = length;
+        }
+        
+        Tail append( long id )
+        {
+            long[] target = withSpaceFor( 1 );
+            target[length] = id;
+            return new Tail( target, length+1 );
+        }
+        
+        Tail append( IdBlock block )
+        {
+            long[] target = withSpaceFor( totalLength( block ) );
+            int newLength = length;
+            for ( ; block != null; block = block.getPrev() )
+            {
+                newLength = block.copyTo( target, newLength );
+            }
+            return new Tail( target, newLength );
+        }
+        
+        private long[] withSpaceFor( int delta )
+        {
+            int newLength = length+delta;
+            if ( newLength <= ids.length )
+            {
+                return ids;
+            }
+            return Arrays.copyOf( ids, Math.max( Math.max( 4, ids.length*2 ), newLength ) );
+        }
+    }
+    
+    private static int totalLength( IdBlock block )
+    {
+        int length = 0;
+        for ( ; block != null; block = block.getPrev() )
+        {
+            length += block.length();
+        }
+        return length;
+    }
+    
     private static class IteratorState
     {
         private int blockIndex;
@@ -588,6 +959,12 @@ public class RelIdArray implements SizeOf
         private int relativePosition;
         private int absolutePosition;
         
+        // Where a CompactIdBlock is in decoding its ids for this iterator
+        private IdBlock decoded;
+        private int decodedIndex;
+        private int offset;
+        private long previous;
+        
         public IteratorState( IdBlock block, int relativePosition )
         {
             this.block = block;
@@ -617,11 +994,19 @@ public class RelIdArray implements SizeOf
         long next()
         {
             absolutePosition++;
-            return block.get( relativePosition++ );
+            return block.get( relativePosition++, this );
         }
 
         public void update( IdBlock lastBlock )
         {
+            if ( lastBlock instanceof CompactIdBlock )
+            {
+                // The blocks this state was in may have been compacted into this one
+                this.block = lastBlock;
+                this.blockIndex = 0;
+                this.relativePosition = absolutePosition;
+                return;
+            }
             for ( int i = 0; i < blockIndex; i++ )
             {
                 lastBlock = lastBlock.getPrev();
@@ -813,7 +1198,7 @@ public class RelIdArray implements SizeOf
             if ( add != null )
             {
                 src = src.addAll( add );
-                return src.downgradeIfPossible();
+                return src.downgradeIfPossible().mergeLongTails();
             }
             return src;
         }
@@ -827,8 +1212,26 @@ public class RelIdArray implements SizeOf
             if ( src != null )
             {
                 newArray = src.newSimilarInstance();
-                newArray.addAll( src );
-                evictExcluded( newArray, remove );
+                if ( src.isCompact() )
+                {
+                    // Compact blocks can't have ids evicted in place, copy the rest instead
+                    for ( DirectionWrapper direction : DirectionWrapper.values() )
+                    {
+                        for ( RelIdIterator iterator = src.exactIterator( direction ); iterator.hasNext(); )
+                        {
+                            long value = iterator.next();
+                            if ( !remove.contains( value ) )
+                            {
+                                newArray.add( value, direction );
+                            }
+                        }
+                    }
+                }
+                else
+                {
+                    newArray.addAll( src );
+                    evictExcluded( newArray, remove );
+                }
             }
             else
             {
@@ -846,7 +1249,7 @@ public class RelIdArray implements SizeOf
                     }
                 }
             }
-            return newArray;
+            return src != null && src.isCompact() ? newArray.shrink() : newArray;
         }
     }
 
@@ -859,7 +1262,7 @@ public class RelIdArray implements SizeOf
             {
                 boolean swapSuccessful = false;
                 IteratorState state = iterator.currentState;
-                IdBlock block = state.block;
+                ArrayIdBlock block = (ArrayIdBlock) state.block;
                 for ( int j = block.length() - 1; j >= state.relativePosition; j--)
                 {
                     long backValue = block.get( j );
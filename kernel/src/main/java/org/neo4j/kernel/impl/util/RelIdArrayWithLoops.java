@@ -99,9 +99,9 @@ public class RelIdArrayWithLoops extends RelIdArray
     {
         IdBlock lastOutBlock = DirectionWrapper.OUTGOING.getLastBlock( this );
         IdBlock lastInBlock = DirectionWrapper.INCOMING.getLastBlock( this );
-        IdBlock shrunkOut = lastOutBlock != null ? lastOutBlock.shrink() : null;
-        IdBlock shrunkIn = lastInBlock != null ? lastInBlock.shrink() : null;
-        IdBlock shrunkLoop = lastLoopBlock != null ? lastLoopBlock.shrink() : null;
+        IdBlock shrunkOut = shrink( lastOutBlock );
+        IdBlock shrunkIn = shrink( lastInBlock );
+        IdBlock shrunkLoop = shrink( lastLoopBlock );
         return shrunkOut == lastOutBlock && shrunkIn == lastInBlock && shrunkLoop == lastLoopBlock ? this : 
                 new RelIdArrayWithLoops( getType(), shrunkOut, shrunkIn, shrunkLoop );
     }
@@ -41,6 +41,7 @@ import org.neo4j.graphdb.Traverser.Order;
 import org.neo4j.graphdb.event.KernelEventHandler;
 import org.neo4j.graphdb.event.TransactionEventHandler;
 import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.kernel.PlaceboTransaction;
 import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
@@ -354,6 +355,13 @@ class BatchGraphDatabaseImpl implements GraphDatabaseService
         {
             return newRelIterator( direction, types ).hasNext();
         }
+
+        @Override
+        public int getDegree( Direction direction, RelationshipType... types )
+        {
+            return IteratorUtil.count( (Iterator<Relationship>) newRelIterator( direction,
+                    types.length > 0 ? types : null ) );
+        }
         
         @Override
         public boolean hasRelationship( Direction dir )
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.unsafe.batchinsert;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Imports large amounts of nodes and relationships into a store, without
+ * transactions, faster than a {@link BatchInserter} can. The import runs as a
+ * pipeline: input is read and given ids on the calling thread, properties are
+ * encoded by several threads and records are written, in id order, by one thread.
+ * Relationships are written without being linked to each other and are linked
+ * into the chains of their nodes in a separate pass once all of them are written,
+ * instead of reading and updating the nodes they connect for each one.
+ * <p>
+ * Relationships can only be imported into a store which doesn't have any yet.
+ * As with the {@link BatchInserter}, the store is left in an unknown state if
+ * the import fails and {@link #shutdown()} must be invoked before the store can
+ * be used by anything else.
+ */
+public interface BatchImporter
+{
+    /**
+     * Imports nodes and relationships. Nodes get ids in the order they are
+     * read, starting at {@link #getNextNodeId()}.
+     * The input iterators are only invoked from the calling thread, so parsing
+     * the input can be done lazily by them.
+     *
+     * @param nodes the properties of each node to import, {@code null} or empty
+     * maps for nodes without properties.
+     * @param relationships the relationships to import, between nodes already in
+     * the store or imported by this call.
+     * @return how much work each stage of the import did, and how fast.
+     */
+    List<ImportStage> doImport( Iterator<Map<String,Object>> nodes, Iterator<ImportRelationship> relationships );
+
+    /**
+     * @return the id the next imported node will get. A new store already has
+     * the reference node, so the first node imported into it gets id 1.
+     */
+    long getNextNodeId();
+
+    /**
+     * @return the store directory for this importer.
+     */
+    String getStoreDir();
+
+    /**
+     * Shuts down this importer, syncing all changes that are still only in
+     * memory to disk.
+     */
+    void shutdown();
+}
@@ -0,0 +1,586 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.unsafe.batchinsert;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.helpers.NamedThreadFactory;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyType;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
+
+class BatchImporterImpl implements BatchImporter
+{
+    private static final int BATCH_SIZE = 1000;
+    private static final Future<Batch> END = completed( null );
+
+    private final BatchInserterImpl inserter;
+    private final int encoderThreads;
+
+    BatchImporterImpl( String storeDir, Map<String,String> config, int encoderThreads )
+    {
+        if ( encoderThreads < 1 )
+        {
+            throw new IllegalArgumentException( "encoderThreads=" + encoderThreads );
+        }
+        this.inserter = new BatchInserterImpl( storeDir, config );
+        this.encoderThreads = encoderThreads;
+    }
+
+    @Override
+    public List<ImportStage> doImport( Iterator<Map<String,Object>> nodes,
+            Iterator<ImportRelationship> relationships )
+    {
+        NeoStore neoStore = inserter.getNeoStore();
+        if ( neoStore.getRelationshipStore().getHighId() != 0 )
+        {
+            throw new IllegalStateException( "Relationships can only be imported into a store without relationships" );
+        }
+        List<ImportStage> stages = new ArrayList<ImportStage>();
+        ExecutorService encoders = Executors.newFixedThreadPool( encoderThreads,
+                new NamedThreadFactory( "Import property encoder" ) );
+        try
+        {
+            runPipeline( new NodeReader( nodes ), encoders, "node", stages );
+
+            long nodeHighId = neoStore.getNodeStore().getHighId();
+            if ( nodeHighId > Integer.MAX_VALUE )
+            {
+                throw new IllegalStateException( "Too many nodes to link relationship chains for: " + nodeHighId );
+            }
+            long[] chainHeads = new long[(int) nodeHighId];
+            Arrays.fill( chainHeads, Record.NO_NEXT_RELATIONSHIP.intValue() );
+            runPipeline( new RelationshipReader( relationships, chainHeads ), encoders, "relationship", stages );
+
+            ImportStage link = new ImportStage( "Link relationship chains", 1 );
+            linkRelationshipChains( chainHeads, link );
+            stages.add( link );
+        }
+        finally
+        {
+            encoders.shutdown();
+        }
+        for ( ImportStage stage : stages )
+        {
+            inserter.getMsgLog().logMessage( "Import " + stage );
+        }
+        return stages;
+    }
+
+    /**
+     * Reads batches on the calling thread, encodes them on the encoder threads and writes
+     * them, in the order they were read, on a writer thread. The queue between them is bounded
+     * so that a fast reader can't run away from a slower writer.
+     */
+    private void runPipeline( BatchReader reader, ExecutorService encoders, String entity,
+            List<ImportStage> stages )
+    {
+        String entities = entity + "s";
+        ImportStage read = new ImportStage( "Read " + entities, 1 );
+        final ImportStage encode = new ImportStage( "Encode " + entity + " properties", encoderThreads );
+        ImportStage write = new ImportStage( "Write " + entities, 1 );
+        stages.add( read );
+        stages.add( encode );
+        stages.add( write );
+
+        BlockingQueue<Future<Batch>> queue = new ArrayBlockingQueue<Future<Batch>>( encoderThreads * 2 );
+        Writer writer = new Writer( queue, write, entities );
+        writer.start();
+        try
+        {
+            Future<Batch> next;
+            do
+            {
+                long start = System.nanoTime();
+                final Batch batch = reader.next();
+                if ( batch == null )
+                {
+                    next = END;
+                }
+                else
+                {
+                    read.add( batch.size(), System.nanoTime() - start );
+                    next = encoders.submit( new Callable<Batch>()
+                    {
+                        @Override
+                        public Batch call()
+                        {
+                            long start = System.nanoTime();
+                            batch.encode();
+                            encode.add( batch.size(), System.nanoTime() - start );
+                            return batch;
+                        }
+                    } );
+                }
+                while ( !queue.offer( next, 100, MILLISECONDS ) )
+                {
+                    writer.checkFailure();
+                }
+                writer.checkFailure();
+            }
+            while ( next != END );
+        }
+        catch ( InterruptedException e )
+        {
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+            throw new UnderlyingStorageException( "Interrupted while importing " + entities, e );
+        }
+        catch ( RuntimeException e )
+        {
+            writer.interrupt();
+            throw e;
+        }
+        writer.awaitCompletion();
+    }
+
+    /**
+     * The relationships were written with the next pointers of their chains set, which makes
+     * {@code chainHeads} hold the first relationship of each node. The previous pointers go the
+     * other way, so they are set going through the relationships from the highest id down.
+     */
+    private void linkRelationshipChains( long[] chainHeads, ImportStage stage )
+    {
+        long start = System.nanoTime();
+        NodeStore nodeStore = inserter.getNeoStore().getNodeStore();
+        RelationshipStore relStore = inserter.getNeoStore().getRelationshipStore();
+        for ( int nodeId = 0; nodeId < chainHeads.length; nodeId++ )
+        {
+            if ( chainHeads[nodeId] != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                NodeRecord node = nodeStore.getRecord( nodeId );
+                node.setNextRel( chainHeads[nodeId] );
+                nodeStore.updateRecord( node );
+            }
+        }
+
+        long[] previous = chainHeads;
+        Arrays.fill( previous, Record.NO_PREV_RELATIONSHIP.intValue() );
+        long relationships = relStore.getHighId();
+        for ( long id = relationships - 1; id >= 0; id-- )
+        {
+            RelationshipRecord record = relStore.getRecord( id );
+            int firstNode = (int) record.getFirstNode();
+            int secondNode = (int) record.getSecondNode();
+            record.setFirstPrevRel( previous[firstNode] );
+            record.setSecondPrevRel( previous[secondNode] );
+            previous[firstNode] = id;
+            previous[secondNode] = id;
+            relStore.updateRecord( record );
+        }
+        stage.add( relationships, System.nanoTime() - start );
+    }
+
+    @Override
+    public long getNextNodeId()
+    {
+        return inserter.getNeoStore().getNodeStore().getHighId();
+    }
+
+    @Override
+    public String getStoreDir()
+    {
+        return inserter.getStoreDir();
+    }
+
+    @Override
+    public void shutdown()
+    {
+        inserter.shutdown();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BatchImporter[" + getStoreDir() + "]";
+    }
+
+    private static Future<Batch> completed( Batch batch )
+    {
+        FutureTask<Batch> task = new FutureTask<Batch>( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        }, batch );
+        task.run();
+        return task;
+    }
+
+    private class Writer extends Thread
+    {
+        private final BlockingQueue<Future<Batch>> queue;
+        private final ImportStage stage;
+        private volatile Throwable failure;
+
+        Writer( BlockingQueue<Future<Batch>> queue, ImportStage stage, String entities )
+        {
+            super( "Import writer for " + entities );
+            this.queue = queue;
+            this.stage = stage;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for ( Future<Batch> next; (next = queue.take()) != END; )
+                {
+                    Batch batch = next.get();
+                    long start = System.nanoTime();
+                    batch.write();
+                    stage.add( batch.size(), System.nanoTime() - start );
+                }
+            }
+            catch ( ExecutionException e )
+            {
+                failure = e.getCause();
+            }
+            catch ( Throwable e )
+            {
+                failure = e;
+            }
+        }
+
+        void checkFailure()
+        {
+            if ( failure != null )
+            {
+                throw launderedFailure();
+            }
+        }
+
+        void awaitCompletion()
+        {
+            try
+            {
+                join();
+            }
+            catch ( InterruptedException e )
+            {
+                interrupt();
+                Thread.currentThread().interrupt();
+                throw new UnderlyingStorageException( "Interrupted while waiting for import to be written", e );
+            }
+            checkFailure();
+        }
+
+        private RuntimeException launderedFailure()
+        {
+            if ( failure instanceof RuntimeException )
+            {
+                return (RuntimeException) failure;
+            }
+            if ( failure instanceof Error )
+            {
+                throw (Error) failure;
+            }
+            return new UnderlyingStorageException( failure );
+        }
+    }
+
+    private interface BatchReader
+    {
+        /**
+         * @return the next batch of input, with ids assigned, or {@code null} if there's no more input.
+         */
+        Batch next();
+    }
+
+    private interface Batch
+    {
+        int size();
+
+        /**
+         * Encodes properties. Batches are encoded in parallel with each other.
+         */
+        void encode();
+
+        /**
+         * Writes the records of this batch. Batches are written one at a time, in id order.
+         */
+        void write();
+    }
+
+    private class NodeReader implements BatchReader
+    {
+        private final Iterator<Map<String,Object>> input;
+        private final NodeStore nodeStore = inserter.getNeoStore().getNodeStore();
+
+        NodeReader( Iterator<Map<String,Object>> input )
+        {
+            this.input = input;
+        }
+
+        @Override
+        public Batch next()
+        {
+            if ( !input.hasNext() )
+            {
+                return null;
+            }
+            final List<NodeRecord> nodes = new ArrayList<NodeRecord>( BATCH_SIZE );
+            final List<Properties> properties = new ArrayList<Properties>( BATCH_SIZE );
+            while ( nodes.size() < BATCH_SIZE && input.hasNext() )
+            {
+                Map<String,Object> nodeProperties = input.next();
+                NodeRecord node = new NodeRecord( nodeStore.nextId(), Record.NO_NEXT_RELATIONSHIP.intValue(),
+                        Record.NO_NEXT_PROPERTY.intValue() );
+                node.setInUse( true );
+                node.setCreated();
+                nodes.add( node );
+                properties.add( properties( nodeProperties ) );
+            }
+            return new PropertyBatch( properties )
+            {
+                @Override
+                public void write()
+                {
+                    for ( int i = 0; i < nodes.size(); i++ )
+                    {
+                        NodeRecord node = nodes.get( i );
+                        node.setNextProp( writeProperties( i ) );
+                        nodeStore.updateRecord( node );
+                    }
+                }
+            };
+        }
+    }
+
+    private class RelationshipReader implements BatchReader
+    {
+        private final Iterator<ImportRelationship> input;
+        private final long[] chainHeads;
+        private final RelationshipStore relStore = inserter.getNeoStore().getRelationshipStore();
+
+        RelationshipReader( Iterator<ImportRelationship> input, long[] chainHeads )
+        {
+            this.input = input;
+            this.chainHeads = chainHeads;
+        }
+
+        @Override
+        public Batch next()
+        {
+            if ( !input.hasNext() )
+            {
+                return null;
+            }
+            final List<RelationshipRecord> relationships = new ArrayList<RelationshipRecord>( BATCH_SIZE );
+            final List<Properties> properties = new ArrayList<Properties>( BATCH_SIZE );
+            while ( relationships.size() < BATCH_SIZE && input.hasNext() )
+            {
+                ImportRelationship relationship = input.next();
+                long firstNode = checkNode( relationship.getStartNode() );
+                long secondNode = checkNode( relationship.getEndNode() );
+                int typeId = inserter.getOrCreateRelationshipTypeId( relationship.getType().name() );
+                RelationshipRecord record = new RelationshipRecord( relStore.nextId(), firstNode, secondNode,
+                        typeId );
+                record.setInUse( true );
+                record.setCreated();
+                relationships.add( record );
+                properties.add( properties( relationship.getProperties() ) );
+            }
+            return new PropertyBatch( properties )
+            {
+                @Override
+                public void write()
+                {
+                    for ( int i = 0; i < relationships.size(); i++ )
+                    {
+                        RelationshipRecord record = relationships.get( i );
+                        int firstNode = (int) record.getFirstNode();
+                        int secondNode = (int) record.getSecondNode();
+                        record.setFirstNextRel( chainHeads[firstNode] );
+                        record.setSecondNextRel( chainHeads[secondNode] );
+                        chainHeads[firstNode] = record.getId();
+                        chainHeads[secondNode] = record.getId();
+                        record.setNextProp( writeProperties( i ) );
+                        relStore.updateRecord( record );
+                    }
+                }
+            };
+        }
+
+        private long checkNode( long nodeId )
+        {
+            if ( nodeId < 0 || nodeId >= chainHeads.length )
+            {
+                throw new NotFoundException( "id=" + nodeId );
+            }
+            return nodeId;
+        }
+    }
+
+    /**
+     * Resolves the property keys to key ids, which has to be done by one thread, and leaves
+     * the values to be encoded later.
+     */
+    private Properties properties( Map<String,Object> properties )
+    {
+        if ( properties == null || properties.isEmpty() )
+        {
+            return null;
+        }
+        int[] keyIds = new int[properties.size()];
+        Object[] values = new Object[properties.size()];
+        int i = 0;
+        for ( Entry<String,Object> property : properties.entrySet() )
+        {
+            keyIds[i] = inserter.getOrCreatePropertyKeyId( property.getKey() );
+            values[i++] = property.getValue();
+        }
+        return new Properties( keyIds, values );
+    }
+
+    private abstract class PropertyBatch implements Batch
+    {
+        private final List<Properties> properties;
+        private final PropertyStore propStore = inserter.getNeoStore().getPropertyStore();
+
+        PropertyBatch( List<Properties> properties )
+        {
+            this.properties = properties;
+        }
+
+        @Override
+        public int size()
+        {
+            return properties.size();
+        }
+
+        @Override
+        public void encode()
+        {
+            for ( Properties entityProperties : properties )
+            {
+                if ( entityProperties != null )
+                {
+                    entityProperties.encode( propStore );
+                }
+            }
+        }
+
+        /**
+         * @return the id of the first property record of the entity at {@code index} in this batch.
+         */
+        long writeProperties( int index )
+        {
+            Properties entityProperties = properties.get( index );
+            return entityProperties == null ? Record.NO_NEXT_PROPERTY.intValue() : entityProperties.write( propStore );
+        }
+    }
+
+    private static class Properties
+    {
+        private final int[] keyIds;
+        private final Object[] values;
+        private final List<List<PropertyBlock>> records = new ArrayList<List<PropertyBlock>>( 1 );
+
+        Properties( int[] keyIds, Object[] values )
+        {
+            this.keyIds = keyIds;
+            this.values = values;
+        }
+
+        /**
+         * Encodes the values into blocks and groups them the way they will fit into property
+         * records. Dynamic records for long strings and arrays get their ids here.
+         */
+        void encode( PropertyStore propStore )
+        {
+            List<PropertyBlock> current = null;
+            int currentSize = 0;
+            for ( int i = 0; i < keyIds.length; i++ )
+            {
+                PropertyBlock block = new PropertyBlock();
+                propStore.encodeValue( block, keyIds[i], values[i] );
+                if ( current == null || currentSize + block.getSize() > PropertyType.getPayloadSize() )
+                {
+                    current = new ArrayList<PropertyBlock>();
+                    records.add( current );
+                    currentSize = 0;
+                }
+                current.add( block );
+                currentSize += block.getSize();
+            }
+        }
+
+        /**
+         * Writes the property records, with ids assigned in ascending order, and links them.
+         *
+         * @return the id of the first record.
+         */
+        long write( PropertyStore propStore )
+        {
+            PropertyRecord first = null;
+            PropertyRecord previous = null;
+            for ( List<PropertyBlock> blocks : records )
+            {
+                PropertyRecord record = new PropertyRecord( propStore.nextId() );
+                record.setInUse( true );
+                record.setCreated();
+                for ( PropertyBlock block : blocks )
+                {
+                    record.addPropertyBlock( block );
+                }
+                if ( previous == null )
+                {
+                    first = record;
+                }
+                else
+                {
+                    previous.setNextProp( record.getId() );
+                    record.setPrevProp( previous.getId() );
+                    propStore.updateRecord( previous );
+                }
+                previous = record;
+            }
+            propStore.updateRecord( previous );
+            return first.getId();
+        }
+    }
+}
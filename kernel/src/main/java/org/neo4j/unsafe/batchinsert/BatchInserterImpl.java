@@ -63,6 +63,8 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -70,6 +72,7 @@ import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeStore;
 import org.neo4j.kernel.impl.nioneo.store.StoreFactory;
 import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
 import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 public class BatchInserterImpl implements BatchInserter
@@ -295,12 +298,7 @@ public class BatchInserterImpl implements BatchInserter
     {
         boolean result = false;
         long nextProp = primitive.getNextProp();
-        int index = indexHolder.getKeyId( name );
-
-        if ( index == -1 )
-        {
-            index = createNewPropertyIndex( name );
-        }
+        int index = getOrCreatePropertyKeyId( name );
         PropertyBlock block = new PropertyBlock();
         getPropertyStore().encodeValue( block, index, value );
         int size = block.getSize();
@@ -457,11 +455,7 @@ public class BatchInserterImpl implements BatchInserter
     {
         NodeRecord firstNode = getNodeRecord( node1 );
         NodeRecord secondNode = getNodeRecord( node2 );
-        int typeId = typeHolder.getTypeId( type.name() );
-        if ( typeId == -1 )
-        {
-            typeId = createNewRelationshipType( type.name() );
-        }
+        int typeId = getOrCreateRelationshipTypeId( type.name() );
         long id = getRelationshipStore().nextId();
         RelationshipRecord record = new RelationshipRecord( id, node1, node2, typeId );
         record.setInUse( true );
@@ -477,21 +471,44 @@ public class BatchInserterImpl implements BatchInserter
     private void connectRelationship( NodeRecord firstNode,
             NodeRecord secondNode, RelationshipRecord rel )
     {
-        assert firstNode.getNextRel() != rel.getId();
-        assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
-        connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel(rel.getId());
-        secondNode.setNextRel(rel.getId());
+        if ( firstNode.getId() == secondNode.getId() )
+        {
+            connect( firstNode, rel, DirectionWrapper.BOTH );
+            secondNode.setNextRel( firstNode.getNextRel() );
+        }
+        else
+        {
+            connect( firstNode, rel, DirectionWrapper.OUTGOING );
+            connect( secondNode, rel, DirectionWrapper.INCOMING );
+        }
     }
 
-    private void connect( NodeRecord node, RelationshipRecord rel )
+    /*
+     * Links rel in first in the chain of node, its single chain or, for a dense
+     * node, the chain for the direction in the group of its type. Nodes are
+     * never made dense here, only nodes made dense by the database are kept so.
+     */
+    private void connect( NodeRecord node, RelationshipRecord rel, DirectionWrapper direction )
     {
-        if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        RelationshipGroupRecord group = null;
+        long firstRel = node.getNextRel();
+        if ( node.isDense() )
         {
-            RelationshipRecord nextRel = getRelationshipStore().getRecord( node.getNextRel() );
+            group = getOrCreateRelationshipGroup( node, rel.getType() );
+            firstRel = group.getFirst( direction );
+        }
+        assert firstRel != rel.getId();
+        if ( direction != DirectionWrapper.INCOMING )
+        {
+            rel.setFirstNextRel( firstRel );
+        }
+        if ( direction != DirectionWrapper.OUTGOING )
+        {
+            rel.setSecondNextRel( firstRel );
+        }
+        if ( firstRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord nextRel = getRelationshipStore().getRecord( firstRel );
             boolean changed = false;
             if ( nextRel.getFirstNode() == node.getId() )
             {
@@ -509,6 +526,54 @@ public class BatchInserterImpl implements BatchInserter
             }
             getRelationshipStore().updateRecord( nextRel );
         }
+        if ( group != null )
+        {
+            group.setFirst( direction, rel.getId() );
+            group.setCount( direction, group.getCount( direction ) + 1 );
+            getRelationshipGroupStore().updateRecord( group );
+        }
+        else
+        {
+            node.setNextRel( rel.getId() );
+        }
+    }
+
+    private RelationshipGroupRecord getOrCreateRelationshipGroup( NodeRecord node, int type )
+    {
+        for ( RelationshipGroupRecord group : getRelationshipGroupStore().getGroups( node ) )
+        {
+            if ( group.getType() == type )
+            {
+                return group;
+            }
+        }
+        RelationshipGroupRecord group = new RelationshipGroupRecord(
+                getRelationshipGroupStore().nextId(), type, node.getId() );
+        group.setInUse( true );
+        group.setCreated();
+        group.setNext( node.getNextRel() );
+        node.setNextRel( group.getId() );
+        return group;
+    }
+
+    /*
+     * The first relationships of the chains of node, its single chain or the
+     * chains of all its relationship groups if it's dense.
+     */
+    private List<Long> getRelationshipChainHeads( NodeRecord node )
+    {
+        if ( !node.isDense() )
+        {
+            return Collections.singletonList( node.getNextRel() );
+        }
+        List<Long> heads = new ArrayList<Long>();
+        for ( RelationshipGroupRecord group : getRelationshipGroupStore().getGroups( node ) )
+        {
+            heads.add( group.getFirstOut() );
+            heads.add( group.getFirstIn() );
+            heads.add( group.getFirstLoop() );
+        }
+        return heads;
     }
 
     @Override
@@ -574,27 +639,29 @@ public class BatchInserterImpl implements BatchInserter
     public Iterable<Long> getRelationshipIds( long nodeId )
     {
         NodeRecord nodeRecord = getNodeRecord(nodeId);
-        long nextRel = nodeRecord.getNextRel();
         List<Long> ids = new ArrayList<Long>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( long nextRel : getRelationshipChainHeads( nodeRecord ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
-            ids.add( relRecord.getId() );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
+            while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
             {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
-            {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] not part of firstNode[" + firstNode +
-                    "] or secondNode[" + secondNode + "]" );
+                RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+                ids.add( relRecord.getId() );
+                long firstNode = relRecord.getFirstNode();
+                long secondNode = relRecord.getSecondNode();
+                if ( firstNode == nodeId )
+                {
+                    nextRel = relRecord.getFirstNextRel();
+                }
+                else if ( secondNode == nodeId )
+                {
+                    nextRel = relRecord.getSecondNextRel();
+                }
+                else
+                {
+                    throw new InvalidRecordException( "Node[" + nodeId +
+                        "] not part of firstNode[" + firstNode +
+                        "] or secondNode[" + secondNode + "]" );
+                }
             }
         }
         return ids;
@@ -604,30 +671,32 @@ public class BatchInserterImpl implements BatchInserter
     public Iterable<BatchRelationship> getRelationships( long nodeId )
     {
         NodeRecord nodeRecord = getNodeRecord(nodeId);
-        long nextRel = nodeRecord.getNextRel();
         List<BatchRelationship> rels = new ArrayList<BatchRelationship>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
-        {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
-            RelationshipType type = new RelationshipTypeImpl(
-                typeHolder.getName( relRecord.getType() ) );
-            rels.add( new BatchRelationship( relRecord.getId(),
-                relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
-            {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
+        for ( long nextRel : getRelationshipChainHeads( nodeRecord ) )
+        {
+            while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
             {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] not part of firstNode[" + firstNode +
-                    "] or secondNode[" + secondNode + "]" );
+                RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+                RelationshipType type = new RelationshipTypeImpl(
+                    typeHolder.getName( relRecord.getType() ) );
+                rels.add( new BatchRelationship( relRecord.getId(),
+                    relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
+                long firstNode = relRecord.getFirstNode();
+                long secondNode = relRecord.getSecondNode();
+                if ( firstNode == nodeId )
+                {
+                    nextRel = relRecord.getFirstNextRel();
+                }
+                else if ( secondNode == nodeId )
+                {
+                    nextRel = relRecord.getSecondNextRel();
+                }
+                else
+                {
+                    throw new InvalidRecordException( "Node[" + nodeId +
+                        "] not part of firstNode[" + firstNode +
+                        "] or secondNode[" + secondNode + "]" );
+                }
             }
         }
         return rels;
@@ -636,32 +705,34 @@ public class BatchInserterImpl implements BatchInserter
     public Iterable<SimpleRelationship> getSimpleRelationships( long nodeId )
     {
         NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<SimpleRelationship> rels = new ArrayList<SimpleRelationship>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( long nextRel : getRelationshipChainHeads( nodeRecord ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
-            RelationshipType type = new RelationshipTypeImpl(
-                    typeHolder.getName( relRecord.getType() ) );
-            rels.add( new SimpleRelationship( relRecord.getId(),
-                    relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
+            while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
             {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
-            {
-                throw new InvalidRecordException( "Node[" + nodeId
-                                                  + "] not part of firstNode["
-                                                  + firstNode
-                                                  + "] or secondNode["
-                                                  + secondNode + "]" );
+                RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+                RelationshipType type = new RelationshipTypeImpl(
+                        typeHolder.getName( relRecord.getType() ) );
+                rels.add( new SimpleRelationship( relRecord.getId(),
+                        relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
+                long firstNode = relRecord.getFirstNode();
+                long secondNode = relRecord.getSecondNode();
+                if ( firstNode == nodeId )
+                {
+                    nextRel = relRecord.getFirstNextRel();
+                }
+                else if ( secondNode == nodeId )
+                {
+                    nextRel = relRecord.getSecondNextRel();
+                }
+                else
+                {
+                    throw new InvalidRecordException( "Node[" + nodeId
+                                                      + "] not part of firstNode["
+                                                      + firstNode
+                                                      + "] or secondNode["
+                                                      + secondNode + "]" );
+                }
             }
         }
         return rels;
@@ -741,11 +812,7 @@ public class BatchInserterImpl implements BatchInserter
         propRecords.add( currentRecord );
         for ( Entry<String,Object> entry : properties.entrySet() )
         {
-            int keyId = indexHolder.getKeyId( entry.getKey() );
-            if ( keyId == -1 )
-            {
-                keyId = createNewPropertyIndex( entry.getKey() );
-            }
+            int keyId = getOrCreatePropertyKeyId( entry.getKey() );
 
             PropertyBlock block = new PropertyBlock();
             propStore.encodeValue( block, keyId, entry.getValue() );
@@ -873,6 +940,28 @@ public class BatchInserterImpl implements BatchInserter
         return id;
     }
 
+    NeoStore getNeoStore()
+    {
+        return neoStore;
+    }
+
+    StringLogger getMsgLog()
+    {
+        return msgLog;
+    }
+
+    int getOrCreatePropertyKeyId( String key )
+    {
+        int keyId = indexHolder.getKeyId( key );
+        return keyId != -1 ? keyId : createNewPropertyIndex( key );
+    }
+
+    int getOrCreateRelationshipTypeId( String name )
+    {
+        int typeId = typeHolder.getTypeId( name );
+        return typeId != -1 ? typeId : createNewRelationshipType( name );
+    }
+
     private NodeStore getNodeStore()
     {
         return neoStore.getNodeStore();
@@ -893,6 +982,11 @@ public class BatchInserterImpl implements BatchInserter
         return neoStore.getRelationshipStore();
     }
 
+    private RelationshipGroupStore getRelationshipGroupStore()
+    {
+        return neoStore.getRelationshipGroupStore();
+    }
+
     private RelationshipTypeStore getRelationshipTypeStore()
     {
         return neoStore.getRelationshipTypeStore();
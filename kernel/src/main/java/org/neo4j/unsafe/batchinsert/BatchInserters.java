@@ -19,6 +19,7 @@
  */
 package org.neo4j.unsafe.batchinsert;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.neo4j.graphdb.GraphDatabaseService;
@@ -57,6 +58,31 @@ public final class BatchInserters
         return new BatchInserterImpl( storeDir, config );
     }
 
+    /**
+     * Get a {@link BatchImporter} given a store directory, which encodes
+     * properties using one thread per available processor.
+     *
+     * @param storeDir the store directory
+     * @return a new {@link BatchImporter}
+     */
+    public static BatchImporter importer( String storeDir )
+    {
+        return importer( storeDir, new HashMap<String,String>(), Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Get a {@link BatchImporter} given a store directory.
+     *
+     * @param storeDir the store directory
+     * @param config configuration settings to use
+     * @param encoderThreads the number of threads encoding properties
+     * @return a new {@link BatchImporter}
+     */
+    public static BatchImporter importer( String storeDir, Map<String,String> config, int encoderThreads )
+    {
+        return new BatchImporterImpl( storeDir, config, encoderThreads );
+    }
+
     /**
      * Get a {@link GraphDatabaseService} that does not support deletions and
      * transactions.
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.unsafe.batchinsert;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How much work one stage of a {@link BatchImporter} import did, and how fast.
+ * Stages run at the same time as the stages next to them in the pipeline, so the
+ * slowest stage is the one which bounds the throughput of the whole import.
+ */
+public final class ImportStage
+{
+    private final String name;
+    private final int threads;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    ImportStage( String name, int threads )
+    {
+        this.name = name;
+        this.threads = threads;
+    }
+
+    void add( long items, long nanos )
+    {
+        count.addAndGet( items );
+        busyNanos.addAndGet( nanos );
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the number of threads doing the work of this stage.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * @return the number of nodes or relationships this stage processed.
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return the time this stage spent working, summed over all its threads.
+     */
+    public long getBusyMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( busyNanos.get() );
+    }
+
+    /**
+     * @return the number of items per second this stage processes while busy,
+     * with all its threads working.
+     */
+    public long getThroughput()
+    {
+        long nanosPerThread = busyNanos.get() / threads;
+        return nanosPerThread == 0 ? 0 : count.get() * TimeUnit.SECONDS.toNanos( 1 ) / nanosPerThread;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + ": " + getCount() + " in " + getBusyMillis() + "ms on " + threads +
+                (threads == 1 ? " thread, " : " threads, ") + getThroughput() + "/s";
+    }
+}
@@ -29,13 +29,17 @@ import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import static org.neo4j.graphdb.DynamicRelationshipType.withName;
 
+import java.util.Iterator;
+
 import org.junit.Ignore;
 import org.junit.Test;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting;
 import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.kernel.guard.Guard;
+import org.neo4j.kernel.guard.GuardMemoryException;
 import org.neo4j.kernel.guard.GuardOperationsCountException;
 import org.neo4j.kernel.guard.GuardTimeoutException;
 import org.neo4j.test.TestGraphDatabaseFactory;
@@ -185,4 +189,126 @@ public class TestGuard
             db.shutdown();
         }
     }
+
+    @Test
+    public void testBudgetCountsOperationsAndReadsClockSeldom()
+    {
+        GraphDatabaseAPI db = (GraphDatabaseAPI) new TestGraphDatabaseFactory().
+            newImpermanentDatabaseBuilder().
+            setConfig( GraphDatabaseSettings.execution_guard_enabled, GraphDatabaseSetting.TRUE ).
+            newGraphDatabase();
+        db.beginTx();
+        Guard guard = db.getGuard();
+
+        guard.startBudget( 0, 0, 0 );
+        db.createNode();
+        db.createNode();
+        db.getNodeById( 0 );
+        Guard.Budget budget = guard.currentGuard();
+        assertEquals( 1, guard.getActiveBudgets().size() );
+        Guard.Budget stopped = guard.stop();
+        assertEquals( budget, stopped );
+        assertEquals( 3, stopped.getOpsCount() );
+        assertEquals( 0, guard.getActiveBudgets().size() );
+        assertEquals( 1, guard.getFinishedBudgetCount() );
+        assertEquals( 3, guard.getBudgetOperationsCount() );
+
+        // an expired budget is only noticed when the clock is read
+        guard.startBudget( 1, 0, 0 );
+        sleepQuietly( 10 );
+        for ( int i = 1; i < Guard.CLOCK_CHECK_INTERVAL; i++ )
+        {
+            db.createNode();
+        }
+        try
+        {
+            db.createNode();
+            fail();
+        }
+        catch ( GuardTimeoutException e )
+        {
+            // expected
+        }
+        guard.stop();
+        assertEquals( 1, guard.getExceededTimeCount() );
+        db.shutdown();
+    }
+
+    @Test
+    public void testBudgetOperationsFail()
+    {
+        GraphDatabaseAPI db = (GraphDatabaseAPI) new TestGraphDatabaseFactory().
+            newImpermanentDatabaseBuilder().
+            setConfig( GraphDatabaseSettings.execution_guard_enabled, GraphDatabaseSetting.TRUE ).
+            newGraphDatabase();
+        Transaction tx = db.beginTx();
+        for ( int i = 0; i < 10; i++ )
+        {
+            db.createNode();
+        }
+        tx.success();
+        tx.finish();
+        Guard guard = db.getGuard();
+
+        // getAllNodes scans the store, which is guarded as well
+        guard.startBudget( 0, 5, 0 );
+        Iterator<Node> nodes = db.getAllNodes().iterator();
+        try
+        {
+            while ( nodes.hasNext() )
+            {
+                nodes.next();
+            }
+            fail();
+        }
+        catch ( GuardOperationsCountException e )
+        {
+            // expected
+        }
+        guard.stop();
+        assertEquals( 1, guard.getExceededOperationsCount() );
+        db.shutdown();
+    }
+
+    @Test
+    public void testBudgetMemoryFail()
+    {
+        GraphDatabaseAPI db = (GraphDatabaseAPI) new TestGraphDatabaseFactory().
+            newImpermanentDatabaseBuilder().
+            setConfig( GraphDatabaseSettings.execution_guard_enabled, GraphDatabaseSetting.TRUE ).
+            newGraphDatabase();
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        node.setProperty( "name", new long[10000] );
+        tx.success();
+        tx.finish();
+        db.getNodeManager().clearCache();
+        Guard guard = db.getGuard();
+
+        guard.startBudget( 0, 0, 1000 );
+        try
+        {
+            db.getNodeById( node.getId() ).getProperty( "name" );
+            fail();
+        }
+        catch ( GuardMemoryException e )
+        {
+            assertTrue( e.getEstimatedBytes() > 80000 );
+        }
+        guard.stop();
+        assertEquals( 1, guard.getExceededMemoryCount() );
+        db.shutdown();
+    }
+
+    private static void sleepQuietly( long millis )
+    {
+        try
+        {
+            sleep( millis );
+        }
+        catch ( InterruptedException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
 }
@@ -0,0 +1,252 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestOffHeapCache
+{
+    @Test
+    public void shouldMaterializeEntityFromSerializedState()
+    {
+        // given
+        OffHeapCache<Entity> cache = newCache( 1024 * 1024 );
+        cache.put( new Entity( 1, 10 ) );
+
+        // when the only reference to the entity is gone
+        Entity entity = getAfterDroppingLiveInstance( cache, 1 );
+
+        // then
+        assertNotNull( entity );
+        assertEquals( 10, entity.value );
+        assertEquals( 1, cache.hitCount() );
+    }
+
+    @Test
+    public void shouldReturnTheSameInstanceWhileItIsInUse()
+    {
+        // given
+        OffHeapCache<Entity> cache = newCache( 1024 * 1024 );
+        Entity entity = new Entity( 2, 20 );
+        cache.put( entity );
+
+        // then
+        assertSame( entity, cache.get( 2 ) );
+    }
+
+    @Test
+    public void shouldWriteBackChangesOnUpdateSize()
+    {
+        // given
+        OffHeapCache<Entity> cache = newCache( 1024 * 1024 );
+        Entity entity = new Entity( 3, 30 );
+        cache.put( entity );
+
+        // when
+        entity.value = 31;
+        cache.updateSize( entity, entity.size() );
+
+        // then
+        assertEquals( 31, getAfterDroppingLiveInstance( cache, 3 ).value );
+    }
+
+    @Test
+    public void shouldWriteBackBigEntitiesOnceEnoughChangesHaveBeenMadeToThem()
+    {
+        // given an entity big enough to take a number of changes to be written back
+        EntityCodec codec = new EntityCodec();
+        OffHeapCache<Entity> cache = new OffHeapCache<Entity>( "test", codec, 1024 * 1024, 4 );
+        Entity entity = new Entity( 6, 0 );
+        entity.padding = 1024 - 16;
+        cache.put( entity );
+        int changesPerWriteBack = entity.size() / OffHeapCache.BYTES_PER_UNWRITTEN_CHANGE;
+
+        // when
+        for ( int change = 1; change < changesPerWriteBack; change++ )
+        {
+            entity.value = change;
+            cache.updateSize( entity, entity.size() );
+        }
+
+        // then its stored state is dropped rather than written back on every change
+        assertEquals( 1, codec.encoded );
+        entity.value = changesPerWriteBack;
+        cache.updateSize( entity, entity.size() );
+        assertEquals( 2, codec.encoded );
+        assertEquals( changesPerWriteBack, getAfterDroppingLiveInstance( cache, 6 ).value );
+    }
+
+    @Test
+    public void shouldNotKeepStaleStateOfEntitiesWithUnwrittenChanges()
+    {
+        // given
+        OffHeapCache<Entity> cache = newCache( 1024 * 1024 );
+        Entity entity = new Entity( 7, 70 );
+        entity.padding = 1024 - 16;
+        cache.put( entity );
+
+        // when
+        entity.value = 71;
+        cache.updateSize( entity, entity.size() );
+
+        // then it has to be loaded from the store again
+        assertNull( getAfterDroppingLiveInstance( cache, 7 ) );
+    }
+
+    @Test
+    public void shouldNotWriteBackChangesOfRemovedInstance()
+    {
+        // given
+        OffHeapCache<Entity> cache = newCache( 1024 * 1024 );
+        Entity removed = new Entity( 4, 40 );
+        cache.put( removed );
+        cache.remove( 4 );
+        cache.put( new Entity( 4, 41 ) );
+
+        // when
+        removed.value = 42;
+        cache.updateSize( removed, removed.size() );
+
+        // then
+        assertEquals( 41, getAfterDroppingLiveInstance( cache, 4 ).value );
+    }
+
+    @Test
+    public void shouldEvictOldestEntriesWhenFull()
+    {
+        // given a cache with a single segment of 4k slabs
+        OffHeapCache<Entity> cache = new OffHeapCache<Entity>( "test", new EntityCodec(), 4 * 1024 * OffHeapStore.SLABS_PER_SEGMENT, 1 );
+        int entities = 10000;
+
+        // when
+        for ( int id = 0; id < entities; id++ )
+        {
+            cache.put( new Entity( id, id ) );
+        }
+
+        // then
+        assertTrue( cache.evictionCount() > 0 );
+        assertTrue( cache.size() < entities );
+        assertEquals( 4 * 1024 * OffHeapStore.SLABS_PER_SEGMENT, cache.memoryUsed() );
+        assertEquals( entities - 1, getAfterDroppingLiveInstance( cache, entities - 1 ).value );
+        assertNull( getAfterDroppingLiveInstance( cache, 0 ) );
+    }
+
+    @Test
+    public void shouldNotStoreEntitiesBiggerThanASlab()
+    {
+        // given
+        OffHeapCache<Entity> cache = new OffHeapCache<Entity>( "test", new EntityCodec(), 4 * 1024 * OffHeapStore.SLABS_PER_SEGMENT, 1 );
+        Entity entity = new Entity( 5, 50 );
+        entity.padding = 8 * 1024;
+
+        // when
+        cache.put( entity );
+
+        // then
+        assertNull( getAfterDroppingLiveInstance( cache, 5 ) );
+        assertEquals( 0, cache.size() );
+    }
+
+    private OffHeapCache<Entity> newCache( long size )
+    {
+        return new OffHeapCache<Entity>( "test", new EntityCodec(), size, 4 );
+    }
+
+    private Entity getAfterDroppingLiveInstance( OffHeapCache<Entity> cache, long id )
+    {
+        // There's no way of forcing weak references to be cleared, so go around the live instances
+        cache.clearLiveInstances();
+        return cache.get( id );
+    }
+
+    private static class Entity implements EntityWithSize
+    {
+        private final long id;
+        private long value;
+        private int padding;
+        private int registeredSize;
+
+        Entity( long id, long value )
+        {
+            this.id = id;
+            this.value = value;
+        }
+
+        @Override
+        public int size()
+        {
+            return 16 + padding;
+        }
+
+        @Override
+        public long getId()
+        {
+            return id;
+        }
+
+        @Override
+        public void setRegisteredSize( int size )
+        {
+            registeredSize = size;
+        }
+
+        @Override
+        public int getRegisteredSize()
+        {
+            return registeredSize;
+        }
+    }
+
+    private static class EntityCodec implements OffHeapCache.Codec<Entity>
+    {
+        private int encoded;
+
+        @Override
+        public void encode( Entity entity, ByteBuffer target )
+        {
+            target.putLong( entity.value );
+            target.putInt( entity.padding );
+            if ( target.remaining() < entity.padding )
+            {
+                throw new BufferOverflowException();
+            }
+            target.position( target.position() + entity.padding );
+            encoded++;
+        }
+
+        @Override
+        public Entity decode( long id, ByteBuffer source )
+        {
+            Entity entity = new Entity( id, source.getLong() );
+            entity.padding = source.getInt();
+            return entity;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.DefaultFileSystemAbstraction;
+import org.neo4j.kernel.DefaultIdGeneratorFactory;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.configuration.ConfigurationDefaults;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.nioneo.store.DefaultWindowPoolFactory;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.StoreFactory;
+import org.neo4j.kernel.impl.storemigration.StoreMigrator;
+import org.neo4j.kernel.impl.transaction.xaframework.InMemoryLogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+import org.neo4j.kernel.impl.util.ArrayMap;
+import org.neo4j.kernel.impl.util.RelIdArray;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+public class TestDenseNodes
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+
+    private String storeDir;
+    private GraphDatabaseAPI db;
+
+    @Before
+    public void startDb()
+    {
+        storeDir = AbstractNeo4jTestCase.getStorePath( "dense-nodes" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( storeDir );
+        start();
+    }
+
+    @After
+    public void stopDb()
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void shouldGroupRelationshipsOnceOverTheThreshold() throws Exception
+    {
+        // given
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        createRelationships( hub, KNOWS, Direction.OUTGOING, 5 );
+        tx.success();
+        tx.finish();
+        assertFalse( nodeRecord( hub ).isDense() );
+
+        // when
+        tx = db.beginTx();
+        createRelationships( hub, KNOWS, Direction.OUTGOING, 5 );
+        createRelationships( hub, LIKES, Direction.INCOMING, 7 );
+        hub.createRelationshipTo( hub, LIKES );
+        tx.success();
+        tx.finish();
+
+        // then
+        assertTrue( nodeRecord( hub ).isDense() );
+        assertRelationships( hub, 10, 8, 1 );
+        db.getNodeManager().clearCache();
+        assertRelationships( hub, 10, 8, 1 );
+    }
+
+    @Test
+    public void shouldSeeCreatedAndDeletedRelationshipsOfDenseNodes() throws Exception
+    {
+        // given
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        List<Relationship> knows = createRelationships( hub, KNOWS, Direction.OUTGOING, 12 );
+        createRelationships( hub, LIKES, Direction.INCOMING, 3 );
+        tx.success();
+        tx.finish();
+        // only the outgoing KNOWS chain is loaded
+        assertEquals( 12, count( hub.getRelationships( KNOWS, Direction.OUTGOING ) ) );
+
+        // when
+        tx = db.beginTx();
+        for ( Relationship relationship : knows.subList( 0, 4 ) )
+        {
+            relationship.delete();
+        }
+        createRelationships( hub, LIKES, Direction.INCOMING, 2 );
+        createRelationships( hub, KNOWS, Direction.INCOMING, 1 );
+        tx.success();
+        tx.finish();
+
+        // then
+        assertEquals( 8, count( hub.getRelationships( KNOWS, Direction.OUTGOING ) ) );
+        assertEquals( 1, count( hub.getRelationships( KNOWS, Direction.INCOMING ) ) );
+        assertEquals( 5, count( hub.getRelationships( LIKES, Direction.INCOMING ) ) );
+        assertEquals( 14, count( hub.getRelationships() ) );
+        for ( Relationship relationship : knows.subList( 4, 12 ) )
+        {
+            assertEquals( 1, count( relationship.getEndNode().getRelationships() ) );
+        }
+
+        // and when
+        restart();
+
+        // then
+        hub = db.getNodeById( hub.getId() );
+        assertTrue( nodeRecord( hub ).isDense() );
+        assertEquals( 8, count( hub.getRelationships( KNOWS, Direction.OUTGOING ) ) );
+        assertEquals( 9, count( hub.getRelationships( KNOWS ) ) );
+        assertEquals( 5, count( hub.getRelationships( Direction.INCOMING, LIKES ) ) );
+        assertEquals( 14, count( hub.getRelationships() ) );
+    }
+
+    @Test
+    public void shouldUnlinkGroupsWithoutRelationships() throws Exception
+    {
+        // given
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        createRelationships( hub, KNOWS, Direction.OUTGOING, 10 );
+        List<Relationship> likes = createRelationships( hub, LIKES, Direction.OUTGOING, 2 );
+        tx.success();
+        tx.finish();
+
+        // when
+        tx = db.beginTx();
+        for ( Relationship relationship : likes )
+        {
+            relationship.delete();
+        }
+        tx.success();
+        tx.finish();
+
+        // then
+        assertEquals( 1, neoStore().getRelationshipGroupStore().getGroups( nodeRecord( hub ) ).size() );
+        db.getNodeManager().clearCache();
+        assertEquals( 0, count( hub.getRelationships( LIKES ) ) );
+        assertEquals( 10, count( hub.getRelationships() ) );
+    }
+
+    @Test
+    public void shouldNotAddRelationshipsAgainWhichWereLoadedWithTheirChain() throws Exception
+    {
+        // given
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        createRelationships( hub, KNOWS, Direction.OUTGOING, 12 );
+        tx.success();
+        tx.finish();
+        db.getNodeManager().clearCache();
+        tx = db.beginTx();
+        Relationship added = createRelationships( hub, KNOWS, Direction.OUTGOING, 1 ).get( 0 );
+        tx.success();
+        tx.finish();
+        NodeImpl hubImpl = db.getNodeManager().getNodeForProxy( hub.getId(), null );
+        assertEquals( 13, count( hub.getRelationships( KNOWS, Direction.OUTGOING ) ) );
+
+        // when the transaction which added it gets to update the cache after the chain was loaded
+        ArrayMap<String, RelIdArray> addMap = new ArrayMap<String, RelIdArray>();
+        RelIdArray addIds = new RelIdArray( KNOWS.name() );
+        addIds.add( added.getId(), DirectionWrapper.OUTGOING );
+        addMap.put( KNOWS.name(), addIds );
+        hubImpl.commitRelationshipMaps( addMap, null, Record.NO_NEXT_RELATIONSHIP.intValue(), db.getNodeManager() );
+
+        // then
+        assertEquals( 13, count( hub.getRelationships( KNOWS, Direction.OUTGOING ) ) );
+    }
+
+    @Test
+    public void shouldApplyTransactionsOfDenseNodesFromTheLog() throws Exception
+    {
+        // given
+        String otherStoreDir = AbstractNeo4jTestCase.getStorePath( "dense-nodes-applied" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( otherStoreDir );
+        GraphDatabaseAPI other = newDb( otherStoreDir );
+        XaDataSource source = db.getXaDataSourceManager().getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME );
+        long firstTxId = source.getLastCommittedTxId() + 1;
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        List<Relationship> knows = createRelationships( hub, KNOWS, Direction.OUTGOING, 5 );
+        tx.success();
+        tx.finish();
+        tx = db.beginTx();
+        knows.addAll( createRelationships( hub, KNOWS, Direction.OUTGOING, 5 ) );
+        createRelationships( hub, LIKES, Direction.INCOMING, 7 );
+        hub.createRelationshipTo( hub, LIKES );
+        tx.success();
+        tx.finish();
+        tx = db.beginTx();
+        knows.get( 0 ).delete();
+        knows.get( 9 ).delete();
+        tx.success();
+        tx.finish();
+
+        try
+        {
+            // when
+            XaDataSource target = other.getXaDataSourceManager().getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME );
+            assertEquals( firstTxId - 1, target.getLastCommittedTxId() );
+            for ( long txId = firstTxId; txId <= source.getLastCommittedTxId(); txId++ )
+            {
+                InMemoryLogBuffer transaction = new InMemoryLogBuffer();
+                source.getLogExtractor( txId, txId ).extractNext( transaction );
+                target.applyCommittedTransaction( txId, transaction );
+            }
+
+            // then
+            Node appliedHub = other.getNodeById( hub.getId() );
+            assertTrue( other.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore().getNodeStore()
+                    .getRecord( hub.getId() ).isDense() );
+            assertRelationships( appliedHub, 8, 8, 1 );
+            other.shutdown();
+            other = newDb( otherStoreDir );
+            assertRelationships( other.getNodeById( hub.getId() ), 8, 8, 1 );
+        }
+        finally
+        {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldGroupDenseNodesWhenMigrating() throws Exception
+    {
+        // given a store where nothing is grouped
+        db.shutdown();
+        db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabase( storeDir );
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        List<Relationship> knows = createRelationships( hub, KNOWS, Direction.OUTGOING, 6 );
+        createRelationships( hub, LIKES, Direction.INCOMING, 5 );
+        hub.createRelationshipTo( hub, LIKES );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+
+        // when
+        Map<String, String> config = stringMap( "neo_store", new File( storeDir, NeoStore.DEFAULT_NAME ).getPath(),
+                GraphDatabaseSettings.dense_node_threshold.name(), "10" );
+        NeoStore neoStore = new StoreFactory( new Config( new ConfigurationDefaults( GraphDatabaseSettings.class )
+                .apply( config ) ), new DefaultIdGeneratorFactory(), new DefaultWindowPoolFactory(),
+                new DefaultFileSystemAbstraction(), StringLogger.DEV_NULL, null )
+                .newNeoStore( new File( storeDir, NeoStore.DEFAULT_NAME ).getPath() );
+        StoreMigrator.groupDenseNodes( neoStore.getNodeStore(), neoStore.getRelationshipStore(),
+                neoStore.getRelationshipGroupStore() );
+        neoStore.close();
+        start();
+
+        // then
+        hub = db.getNodeById( hub.getId() );
+        assertTrue( nodeRecord( hub ).isDense() );
+        assertEquals( 2, neoStore().getRelationshipGroupStore().getGroups( nodeRecord( hub ) ).size() );
+        assertRelationships( hub, 6, 6, 1 );
+        tx = db.beginTx();
+        db.getRelationshipById( knows.get( 3 ).getId() ).delete();
+        createRelationships( hub, KNOWS, Direction.OUTGOING, 1 );
+        tx.success();
+        tx.finish();
+        db.getNodeManager().clearCache();
+        assertRelationships( hub, 6, 6, 1 );
+        for ( Relationship relationship : hub.getRelationships( KNOWS ) )
+        {
+            assertEquals( 1, count( relationship.getEndNode().getRelationships() ) );
+        }
+    }
+
+    @Test
+    public void batchInserterShouldKeepDenseNodesDense() throws Exception
+    {
+        // given
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        createRelationships( hub, KNOWS, Direction.OUTGOING, 12 );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+
+        // when
+        BatchInserter inserter = BatchInserters.inserter( storeDir,
+                stringMap( GraphDatabaseSettings.dense_node_threshold.name(), "10" ) );
+        for ( int i = 0; i < 3; i++ )
+        {
+            inserter.createRelationship( inserter.createNode( null ), hub.getId(), LIKES, null );
+        }
+        inserter.createRelationship( hub.getId(), hub.getId(), LIKES, null );
+        assertEquals( 16, count( inserter.getRelationships( hub.getId() ) ) );
+        inserter.shutdown();
+        start();
+
+        // then
+        hub = db.getNodeById( hub.getId() );
+        assertTrue( nodeRecord( hub ).isDense() );
+        assertRelationships( hub, 12, 4, 1 );
+    }
+
+    private void assertRelationships( Node hub, int knowsOut, int likesIn, int likesLoops )
+    {
+        assertEquals( knowsOut, count( hub.getRelationships( KNOWS, Direction.OUTGOING ) ) );
+        assertEquals( 0, count( hub.getRelationships( KNOWS, Direction.INCOMING ) ) );
+        assertEquals( likesIn, count( hub.getRelationships( LIKES, Direction.INCOMING ) ) );
+        assertEquals( likesLoops, count( hub.getRelationships( LIKES, Direction.OUTGOING ) ) );
+        assertEquals( knowsOut + likesIn, count( hub.getRelationships() ) );
+    }
+
+    private List<Relationship> createRelationships( Node hub, RelationshipType type, Direction direction,
+            int count )
+    {
+        List<Relationship> relationships = new ArrayList<Relationship>();
+        for ( int i = 0; i < count; i++ )
+        {
+            Node other = db.createNode();
+            relationships.add( direction == Direction.OUTGOING ?
+                    hub.createRelationshipTo( other, type ) : other.createRelationshipTo( hub, type ) );
+        }
+        return relationships;
+    }
+
+    private NodeRecord nodeRecord( Node node )
+    {
+        return neoStore().getNodeStore().getRecord( node.getId() );
+    }
+
+    private NeoStore neoStore()
+    {
+        return db.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore();
+    }
+
+    private void restart()
+    {
+        db.shutdown();
+        start();
+    }
+
+    private void start()
+    {
+        db = newDb( storeDir );
+    }
+
+    private static GraphDatabaseAPI newDb( String storeDir )
+    {
+        return (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( storeDir )
+                .setConfig( GraphDatabaseSettings.dense_node_threshold, "10" ).newGraphDatabase();
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Expander;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.Traversal;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestExpandManyTypes
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+    private static final RelationshipType HATES = DynamicRelationshipType.withName( "HATES" );
+
+    private GraphDatabaseAPI db;
+
+    @After
+    public void stopDb()
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void shouldExpandEachTypeInItsOwnDirectionForNodesWithASingleChain() throws Exception
+    {
+        startDb( "0" );
+        assertExpandsEachTypeInItsOwnDirection( createGraph() );
+    }
+
+    @Test
+    public void shouldExpandEachTypeInItsOwnDirectionForDenseNodes() throws Exception
+    {
+        startDb( "3" );
+        assertExpandsEachTypeInItsOwnDirection( createGraph() );
+    }
+
+    @Test
+    public void shouldExpandTypeGivenInBothDirectionsOnce() throws Exception
+    {
+        startDb( "0" );
+        Node node = createGraph();
+        db.getNodeManager().clearCache();
+
+        Expander expander = Traversal.expanderForTypes( KNOWS, Direction.OUTGOING, HATES, Direction.OUTGOING )
+                .add( KNOWS, Direction.INCOMING );
+        assertExpands( expander, node, expected( node, KNOWS, Direction.BOTH, HATES, Direction.OUTGOING ) );
+    }
+
+    @Test
+    public void shouldSeeChangesOfTheCurrentTransaction() throws Exception
+    {
+        startDb( "3" );
+        Node node = createGraph();
+        db.getNodeManager().clearCache();
+
+        Expander expander = Traversal.expanderForTypes( KNOWS, Direction.INCOMING, HATES, Direction.OUTGOING );
+        Transaction tx = db.beginTx();
+        try
+        {
+            for ( Relationship knows : node.getRelationships( KNOWS, Direction.INCOMING ) )
+            {
+                if ( !knows.getStartNode().equals( node ) )
+                {
+                    knows.delete();
+                }
+            }
+            node.createRelationshipTo( db.createNode(), HATES );
+            db.createNode().createRelationshipTo( node, KNOWS );
+
+            assertExpands( expander, node, expected( node, KNOWS, Direction.INCOMING, HATES, Direction.OUTGOING ) );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertExpands( expander, node, expected( node, KNOWS, Direction.INCOMING, HATES, Direction.OUTGOING ) );
+    }
+
+    private void assertExpandsEachTypeInItsOwnDirection( Node node )
+    {
+        Expander expander = Traversal.expanderForTypes( KNOWS, Direction.OUTGOING, LIKES, Direction.INCOMING );
+        assertExpands( expander, node, expected( node, KNOWS, Direction.OUTGOING, LIKES, Direction.INCOMING ) );
+        db.getNodeManager().clearCache();
+        assertExpands( expander, node, expected( node, KNOWS, Direction.OUTGOING, LIKES, Direction.INCOMING ) );
+    }
+
+    private void assertExpands( Expander expander, Node node, Set<Relationship> expected )
+    {
+        List<Relationship> expanded = new ArrayList<Relationship>();
+        for ( Relationship relationship : expander.expand( node ) )
+        {
+            expanded.add( relationship );
+        }
+        assertEquals( expected, new HashSet<Relationship>( expanded ) );
+        assertEquals( expected.size(), expanded.size() );
+    }
+
+    private Set<Relationship> expected( Node node, RelationshipType type1, Direction direction1,
+            RelationshipType type2, Direction direction2 )
+    {
+        Set<Relationship> expected = new HashSet<Relationship>();
+        for ( Relationship relationship : node.getRelationships( direction1, type1 ) )
+        {
+            expected.add( relationship );
+        }
+        for ( Relationship relationship : node.getRelationships( direction2, type2 ) )
+        {
+            expected.add( relationship );
+        }
+        return expected;
+    }
+
+    // KNOWS: five outgoing, two incoming, one loop. LIKES: two incoming, one outgoing
+    private Node createGraph()
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node node = db.createNode();
+            for ( int i = 0; i < 5; i++ )
+            {
+                node.createRelationshipTo( db.createNode(), KNOWS );
+            }
+            db.createNode().createRelationshipTo( node, KNOWS );
+            db.createNode().createRelationshipTo( node, KNOWS );
+            node.createRelationshipTo( node, KNOWS );
+            db.createNode().createRelationshipTo( node, LIKES );
+            db.createNode().createRelationshipTo( node, LIKES );
+            node.createRelationshipTo( db.createNode(), LIKES );
+            tx.success();
+            return node;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void startDb( String denseNodeThreshold )
+    {
+        String storeDir = AbstractNeo4jTestCase.getStorePath( "expand-many-types" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( storeDir );
+        // A small grab size makes the relationships of the single chain node load during expansion
+        db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( storeDir )
+                .setConfig( GraphDatabaseSettings.dense_node_threshold, denseNodeThreshold )
+                .setConfig( GraphDatabaseSettings.relationship_grab_size, "2" ).newGraphDatabase();
+    }
+}
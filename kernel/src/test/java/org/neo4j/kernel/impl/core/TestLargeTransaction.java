@@ -0,0 +1,423 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.test.ProcessStreamHandler;
+
+public class TestLargeTransaction
+{
+    private static final RelationshipType NEXT = DynamicRelationshipType.withName( "NEXT" );
+    private static final RelationshipType OWNS = DynamicRelationshipType.withName( "OWNS" );
+    private static final int NODES = 200;
+
+    private GraphDatabaseAPI db;
+
+    @After
+    public void stopDb()
+    {
+        if ( db != null )
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldCommitRecordsWrittenAheadAndChangedAgain() throws Exception
+    {
+        startDb();
+        Node existing = createNode( "existing" );
+
+        Transaction tx = db.tx().large().begin();
+        List<Node> nodes = new ArrayList<Node>();
+        Node hub;
+        try
+        {
+            hub = db.createNode();
+            for ( int i = 0; i < NODES; i++ )
+            {
+                Node node = db.createNode();
+                node.setProperty( "name", "node " + i );
+                node.setProperty( "text", longString( i ) );
+                if ( i > 0 )
+                {
+                    nodes.get( i - 1 ).createRelationshipTo( node, NEXT );
+                }
+                hub.createRelationshipTo( node, OWNS ).setProperty( "since", i );
+                nodes.add( node );
+            }
+            // change the records written ahead again
+            for ( int i = 0; i < NODES; i += 2 )
+            {
+                nodes.get( i ).setProperty( "name", "even " + i );
+            }
+            for ( int i = 1; i < NODES; i += 10 )
+            {
+                nodes.get( i ).removeProperty( "text" );
+            }
+            Node deleted = nodes.get( NODES / 2 );
+            for ( Relationship relationship : deleted.getRelationships() )
+            {
+                relationship.delete();
+            }
+            deleted.delete();
+            existing.setProperty( "name", "changed" );
+            existing.createRelationshipTo( nodes.get( 0 ), NEXT );
+            assertEquals( NODES - 1, count( hub.getRelationships( OWNS ) ) );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+
+        db.getNodeManager().clearCache();
+        assertEquals( NODES - 1, count( hub.getRelationships( Direction.OUTGOING, OWNS ) ) );
+        for ( int i = 0; i < NODES; i++ )
+        {
+            if ( i == NODES / 2 )
+            {
+                assertNotFound( nodes.get( i ).getId() );
+                continue;
+            }
+            Node node = db.getNodeById( nodes.get( i ).getId() );
+            assertEquals( i % 2 == 0 ? "even " + i : "node " + i, node.getProperty( "name" ) );
+            assertEquals( i % 10 == 1 ? null : longString( i ), node.getProperty( "text", null ) );
+            assertEquals( i, node.getSingleRelationship( OWNS, Direction.INCOMING ).getProperty( "since" ) );
+            int expectedNext = i == NODES - 1 || i == NODES / 2 - 1 ? 0 : 1;
+            assertEquals( expectedNext, count( node.getRelationships( Direction.OUTGOING, NEXT ) ) );
+        }
+        assertEquals( "changed", existing.getProperty( "name" ) );
+        assertEquals( nodes.get( 0 ), existing.getSingleRelationship( NEXT, Direction.OUTGOING ).getEndNode() );
+    }
+
+    @Test
+    public void shouldRollBackRecordsWrittenAhead() throws Exception
+    {
+        startDb();
+        Node existing = createNode( "existing" );
+
+        Transaction tx = db.tx().large().begin();
+        List<Long> ids = new ArrayList<Long>();
+        try
+        {
+            for ( int i = 0; i < NODES; i++ )
+            {
+                Node node = db.createNode();
+                node.setProperty( "text", longString( i ) );
+                existing.createRelationshipTo( node, OWNS );
+                ids.add( node.getId() );
+            }
+            existing.setProperty( "name", "changed" );
+            tx.failure();
+        }
+        finally
+        {
+            tx.finish();
+        }
+
+        db.getNodeManager().clearCache();
+        for ( long id : ids )
+        {
+            assertNotFound( id );
+        }
+        assertEquals( "existing", existing.getProperty( "name" ) );
+        assertFalse( existing.hasRelationship() );
+    }
+
+    @Test
+    public void shouldFindRecordsWrittenAheadAfterLogRotation() throws Exception
+    {
+        startDb();
+
+        Transaction tx = db.tx().large().begin();
+        List<Node> nodes = new ArrayList<Node>();
+        try
+        {
+            for ( int i = 0; i < NODES; i++ )
+            {
+                Node node = db.createNode();
+                node.setProperty( "name", "node " + i );
+                nodes.add( node );
+                if ( i == NODES / 2 )
+                {
+                    db.getXaDataSourceManager().getNeoStoreDataSource().rotateLogicalLog();
+                }
+            }
+            for ( Node node : nodes )
+            {
+                node.setProperty( "name", "renamed " + node.getProperty( "name" ) );
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+
+        db.getNodeManager().clearCache();
+        for ( int i = 0; i < NODES; i++ )
+        {
+            assertEquals( "renamed node " + i, db.getNodeById( nodes.get( i ).getId() ).getProperty( "name" ) );
+        }
+    }
+
+    @Test
+    public void shouldRollBackRecordsWrittenAheadBeforeAndAfterLogRotation() throws Exception
+    {
+        startDb();
+        Node existing = createNode( "existing" );
+
+        Transaction tx = db.tx().large().begin();
+        List<Long> ids = new ArrayList<Long>();
+        try
+        {
+            for ( int i = 0; i < NODES; i++ )
+            {
+                Node node = db.createNode();
+                node.setProperty( "text", longString( i ) );
+                existing.createRelationshipTo( node, OWNS );
+                ids.add( node.getId() );
+                if ( i == NODES / 2 )
+                {
+                    db.getXaDataSourceManager().getNeoStoreDataSource().rotateLogicalLog();
+                }
+            }
+            existing.setProperty( "name", "changed" );
+            tx.failure();
+        }
+        finally
+        {
+            tx.finish();
+        }
+
+        db.getNodeManager().clearCache();
+        for ( long id : ids )
+        {
+            assertNotFound( id );
+        }
+        assertEquals( "existing", existing.getProperty( "name" ) );
+        assertFalse( existing.hasRelationship() );
+        createNode( "after" );
+    }
+
+    @Test
+    public void shouldRecoverTheLastVersionOfRecordsWrittenAheadSeveralTimes() throws Exception
+    {
+        for ( String recoveryThreads : new String[] { "1", "4" } )
+        {
+            // given a store with a committed large transaction, which wrote the same records several times
+            String storeDir = AbstractNeo4jTestCase.getStorePath( "large-transaction-recovery" + recoveryThreads );
+            AbstractNeo4jTestCase.deleteFileOrDirectory( storeDir );
+            produceUncleanStore( storeDir, "commit" );
+
+            // when
+            db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( storeDir )
+                    .setConfig( GraphDatabaseSettings.recovery_threads, recoveryThreads ).newGraphDatabase();
+
+            // then the versions are applied in the order they were written
+            if ( !recoveryThreads.equals( "1" ) )
+            {
+                assertTrue( read( new File( storeDir, "messages.log" ) ).contains(
+                        "recovered records using " + recoveryThreads + " threads" ) );
+            }
+            Node existing = db.getReferenceNode();
+            assertEquals( "changed", existing.getProperty( "name" ) );
+            int count = 0;
+            for ( Relationship owns : existing.getRelationships( Direction.OUTGOING, OWNS ) )
+            {
+                Node node = owns.getEndNode();
+                int i = (Integer) node.getProperty( "index" );
+                assertFalse( i % 10 == 0 );
+                assertEquals( "round 3 of node " + i, node.getProperty( "name" ) );
+                assertEquals( longString( i ), node.getProperty( "text" ) );
+                count++;
+            }
+            assertEquals( NODES - NODES / 10, count );
+            db.shutdown();
+        }
+        db = null;
+    }
+
+    @Test
+    public void shouldNotRecoverRecordsWrittenAheadOfACommitWhichNeverHappened() throws Exception
+    {
+        // given a store where a large transaction wrote records ahead but never committed
+        String storeDir = AbstractNeo4jTestCase.getStorePath( "large-transaction-crash" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( storeDir );
+        produceUncleanStore( storeDir, "crash" );
+
+        // when
+        db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabase( storeDir );
+
+        // then
+        Node existing = db.getReferenceNode();
+        assertEquals( "existing", existing.getProperty( "name" ) );
+        assertFalse( existing.hasRelationship() );
+        Node after = createNode( "after" );
+        assertEquals( "after", db.getNodeById( after.getId() ).getProperty( "name" ) );
+    }
+
+    /**
+     * Runs a large transaction and exits without shutting down, see
+     * {@link #produceUncleanStore(String, String)}.
+     */
+    public static void main( String[] args )
+    {
+        GraphDatabaseAPI db = newDb( args[0] );
+        Transaction tx = db.beginTx();
+        Node existing;
+        try
+        {
+            existing = db.getReferenceNode();
+            existing.setProperty( "name", "existing" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        tx = db.tx().large().begin();
+        List<Node> nodes = new ArrayList<Node>();
+        for ( int i = 0; i < NODES; i++ )
+        {
+            Node node = db.createNode();
+            node.setProperty( "index", i );
+            node.setProperty( "text", longString( i ) );
+            existing.createRelationshipTo( node, OWNS );
+            nodes.add( node );
+        }
+        existing.setProperty( "name", "changed" );
+        if ( args[1].equals( "crash" ) )
+        {
+            System.exit( 0 );
+        }
+        for ( int round = 1; round <= 3; round++ )
+        {
+            for ( int i = 0; i < NODES; i++ )
+            {
+                nodes.get( i ).setProperty( "name", "round " + round + " of node " + i );
+            }
+        }
+        for ( int i = 0; i < NODES; i += 10 )
+        {
+            nodes.get( i ).getSingleRelationship( OWNS, Direction.INCOMING ).delete();
+            nodes.get( i ).delete();
+        }
+        tx.success();
+        tx.finish();
+        System.exit( 0 );
+    }
+
+    private static void produceUncleanStore( String storeDir, String scenario ) throws Exception
+    {
+        Process process = Runtime.getRuntime().exec( new String[] { "java", "-cp",
+                System.getProperty( "java.class.path" ), TestLargeTransaction.class.getName(), storeDir, scenario } );
+        assertEquals( 0, new ProcessStreamHandler( process, true ).waitForResult() );
+    }
+
+    private static String read( File file ) throws Exception
+    {
+        Scanner scanner = new Scanner( file, "UTF-8" );
+        try
+        {
+            return scanner.useDelimiter( "\\Z" ).next();
+        }
+        finally
+        {
+            scanner.close();
+        }
+    }
+
+    private Node createNode( String name )
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node node = db.createNode();
+            node.setProperty( "name", name );
+            tx.success();
+            return node;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void assertNotFound( long id )
+    {
+        try
+        {
+            db.getNodeById( id );
+            fail( "Node[" + id + "] should not exist" );
+        }
+        catch ( NotFoundException e )
+        {   // good
+        }
+    }
+
+    private static String longString( int i )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( int j = 0; j < 10; j++ )
+        {
+            builder.append( "a string too long to be kept in the property record " ).append( i );
+        }
+        return builder.toString();
+    }
+
+    private void startDb()
+    {
+        String storeDir = AbstractNeo4jTestCase.getStorePath( "large-transaction" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( storeDir );
+        db = newDb( storeDir );
+    }
+
+    private static GraphDatabaseAPI newDb( String storeDir )
+    {
+        return (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( storeDir )
+                .setConfig( GraphDatabaseSettings.large_transaction_spill_threshold, "10" )
+                .setConfig( GraphDatabaseSettings.dense_node_threshold, "20" ).newGraphDatabase();
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestLoadInBatches extends AbstractNeo4jTestCase
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+
+    @Test
+    public void shouldGetNodesByIdFromTheStore() throws Exception
+    {
+        long[] ids = new long[100];
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            ids[ids.length - i - 1] = getGraphDb().createNode().getId();
+        }
+        newTransaction();
+        clearCache();
+
+        List<Node> nodes = getEmbeddedGraphDb().getNodesById( ids );
+
+        assertEquals( ids.length, nodes.size() );
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            assertEquals( ids[i], nodes.get( i ).getId() );
+        }
+    }
+
+    @Test( expected = NotFoundException.class )
+    public void shouldNotGetNodesWhichDontExist() throws Exception
+    {
+        Node node = getGraphDb().createNode();
+        Node deleted = getGraphDb().createNode();
+        deleted.delete();
+        newTransaction();
+        clearCache();
+
+        getEmbeddedGraphDb().getNodesById( node.getId(), deleted.getId() );
+    }
+
+    @Test( expected = NotFoundException.class )
+    public void shouldNotGetNodesWithIdsOutsideTheStore() throws Exception
+    {
+        Node node = getGraphDb().createNode();
+        newTransaction();
+
+        getEmbeddedGraphDb().getNodesById( node.getId(), -1 );
+    }
+
+    @Test
+    public void loadingNodesShouldIgnoreTheOnesWhichDontExist() throws Exception
+    {
+        Node node = getGraphDb().createNode();
+        Node deleted = getGraphDb().createNode();
+        deleted.delete();
+        newTransaction();
+        clearCache();
+
+        getNodeManager().loadLightNodes( new long[] { Integer.MAX_VALUE, deleted.getId(), node.getId() } );
+
+        assertEquals( node, getNodeManager().getNodeById( node.getId() ) );
+    }
+
+    @Test
+    public void shouldGetRelationshipsByIdFromTheStore() throws Exception
+    {
+        Node node = getGraphDb().createNode();
+        Map<Long, Relationship> created = createRelationships( node, 10 );
+        newTransaction();
+        clearCache();
+
+        long[] ids = new long[created.size()];
+        int i = 0;
+        for ( Long id : created.keySet() )
+        {
+            ids[i++] = id;
+        }
+        List<Relationship> relationships = getEmbeddedGraphDb().getRelationshipsById( ids );
+
+        assertEquals( ids.length, relationships.size() );
+        for ( i = 0; i < ids.length; i++ )
+        {
+            assertSameRelationship( created.get( ids[i] ), relationships.get( i ) );
+        }
+    }
+
+    @Test
+    public void shouldGetNodesAndRelationshipsOfTheCurrentTransaction() throws Exception
+    {
+        Node first = getGraphDb().createNode();
+        Node second = getGraphDb().createNode();
+        Relationship relationship = first.createRelationshipTo( second, KNOWS );
+
+        List<Node> nodes = getEmbeddedGraphDb().getNodesById( second.getId(), first.getId() );
+        List<Relationship> relationships = getEmbeddedGraphDb().getRelationshipsById( relationship.getId() );
+
+        assertEquals( second, nodes.get( 0 ) );
+        assertEquals( first, nodes.get( 1 ) );
+        assertSameRelationship( relationship, relationships.get( 0 ) );
+    }
+
+    @Test
+    public void shouldLoadRelationshipsWhichArentCachedWhenIteratingOverThem() throws Exception
+    {
+        Node node = getGraphDb().createNode();
+        Map<Long, Relationship> created = createRelationships( node, 150 );
+        newTransaction();
+        for ( Relationship relationship : node.getRelationships() )
+        {
+            getNodeManager().removeRelationshipFromCache( relationship.getId() );
+        }
+
+        int count = 0;
+        for ( Relationship relationship : node.getRelationships() )
+        {
+            assertSameRelationship( created.get( relationship.getId() ), relationship );
+            count++;
+        }
+        assertEquals( created.size(), count );
+    }
+
+    @Test
+    public void shouldSkipRelationshipDeletedInsideAPrefetchedBlockAndKeepTheOrder() throws Exception
+    {
+        Node node = getGraphDb().createNode();
+        createRelationships( node, 150 );
+        newTransaction();
+        List<Relationship> expected = new ArrayList<Relationship>();
+        for ( Relationship relationship : node.getRelationships() )
+        {
+            expected.add( relationship );
+            getNodeManager().removeRelationshipFromCache( relationship.getId() );
+        }
+
+        Relationship deleted = expected.remove( 10 );
+        deleted.delete();
+        getNodeManager().removeRelationshipFromCache( deleted.getId() );
+
+        List<Relationship> actual = new ArrayList<Relationship>();
+        for ( Relationship relationship : node.getRelationships() )
+        {
+            actual.add( relationship );
+        }
+        assertEquals( expected, actual );
+    }
+
+    private Map<Long, Relationship> createRelationships( Node node, int count )
+    {
+        Map<Long, Relationship> created = new HashMap<Long, Relationship>();
+        for ( int i = 0; i < count; i++ )
+        {
+            Node other = getGraphDb().createNode();
+            Relationship relationship = i % 3 == 0 ? other.createRelationshipTo( node, LIKES ) :
+                    node.createRelationshipTo( other, KNOWS );
+            created.put( relationship.getId(), relationship );
+        }
+        return created;
+    }
+
+    private void assertSameRelationship( Relationship expected, Relationship actual )
+    {
+        assertEquals( expected, actual );
+        assertEquals( expected.getStartNode(), actual.getStartNode() );
+        assertEquals( expected.getEndNode(), actual.getEndNode() );
+        assertEquals( expected.getType().name(), actual.getType().name() );
+    }
+}
@@ -305,6 +305,52 @@ public class TestNeo4j extends AbstractNeo4jTestCase
         // else we skip test, takes too long
     }
     
+    @Test
+    public void getAllNodesInPartitionsShouldSeeEachNodeOnce()
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            getGraphDb().createNode().createRelationshipTo( getGraphDb().createNode(), MyRelTypes.TEST );
+        }
+        newTransaction();
+        int nodeCount = IteratorUtil.count( getNodeManager().getAllNodes() );
+        int relationshipCount = IteratorUtil.count( getNodeManager().getAllRelationships() );
+
+        int partitionedNodeCount = 0;
+        for ( Iterator<Node> partition : getNodeManager().getAllNodes( 3 ) )
+        {
+            partitionedNodeCount += IteratorUtil.count( partition );
+        }
+        int partitionedRelationshipCount = 0;
+        for ( Iterator<Relationship> partition : getNodeManager().getAllRelationships( 3 ) )
+        {
+            partitionedRelationshipCount += IteratorUtil.count( partition );
+        }
+
+        assertTrue( nodeCount >= 200 );
+        assertTrue( relationshipCount >= 100 );
+        assertEquals( nodeCount, partitionedNodeCount );
+        assertEquals( relationshipCount, partitionedRelationshipCount );
+    }
+
+    @Test
+    public void getAllNodesShouldSeeNodesCreatedInTheCurrentTransaction()
+    {
+        newTransaction();
+        int count = IteratorUtil.count( getNodeManager().getAllNodes() );
+        Node node = getGraphDb().createNode();
+
+        boolean found = false;
+        int newCount = 0;
+        for ( Iterator<Node> nodes = getNodeManager().getAllNodes(); nodes.hasNext(); newCount++ )
+        {
+            found |= nodes.next().equals( node );
+        }
+
+        assertTrue( found );
+        assertEquals( count + 1, newCount );
+    }
+
     @Test
     public void testMultipleShutdown()
     {
@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.StandardExpander;
+import org.neo4j.kernel.Traversal;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestNodeDegree
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+    private static final RelationshipType HATES = DynamicRelationshipType.withName( "HATES" );
+
+    private GraphDatabaseAPI db;
+
+    @After
+    public void stopDb()
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void shouldCountRelationshipsOfNodesWithASingleChain() throws Exception
+    {
+        startDb( "0" );
+        Node node = createGraph();
+
+        assertDegrees( node );
+        db.getNodeManager().clearCache();
+        assertDegrees( node );
+    }
+
+    @Test
+    public void shouldCountRelationshipsOfDenseNodes() throws Exception
+    {
+        startDb( "3" );
+        Node node = createGraph();
+
+        assertDegrees( node );
+        db.getNodeManager().clearCache();
+        assertDegrees( node );
+    }
+
+    @Test
+    public void shouldCountRelationshipsOfDenseNodesWithTheDefaultThreshold() throws Exception
+    {
+        String storeDir = AbstractNeo4jTestCase.getStorePath( "node-degree" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( storeDir );
+        db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabase( storeDir );
+        Transaction tx = db.beginTx();
+        Node node;
+        try
+        {
+            node = db.createNode();
+            for ( int i = 0; i < 100; i++ )
+            {
+                node.createRelationshipTo( db.createNode(), KNOWS );
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        db.getNodeManager().clearCache();
+
+        assertTrue( db.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore().getNodeStore()
+                .getRecord( node.getId() ).isDense() );
+        assertEquals( 100, node.getDegree( Direction.OUTGOING, KNOWS ) );
+        assertEquals( 0, node.getDegree( Direction.INCOMING ) );
+    }
+
+    @Test
+    public void shouldSeeChangesOfTheCurrentTransaction() throws Exception
+    {
+        startDb( "3" );
+        Node node = createGraph();
+        db.getNodeManager().clearCache();
+
+        Transaction tx = db.beginTx();
+        try
+        {
+            for ( Relationship knows : node.getRelationships( KNOWS, Direction.INCOMING ) )
+            {
+                if ( !knows.getStartNode().equals( node ) )
+                {
+                    knows.delete();
+                }
+            }
+            node.createRelationshipTo( db.createNode(), HATES );
+            node.createRelationshipTo( node, HATES );
+            node.createRelationshipTo( db.createNode(), LIKES ).delete();
+
+            assertEquals( 3, node.getDegree( Direction.OUTGOING, KNOWS ) );
+            assertEquals( 1, node.getDegree( Direction.INCOMING, LIKES ) );
+            assertEquals( 2, node.getDegree( Direction.OUTGOING, HATES ) );
+            assertEquals( 1, node.getDegree( Direction.INCOMING, HATES ) );
+            assertEquals( 6, node.getDegree( Direction.BOTH ) );
+            assertEquals( count( node.getRelationships() ), node.getDegree( Direction.BOTH ) );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertEquals( 6, node.getDegree( Direction.BOTH ) );
+    }
+
+    @Test
+    public void shouldOnlyConsiderCountingCheapWhereItDoesntWalkTheChain() throws Exception
+    {
+        startDb( "0" );
+        NodeProxy node = (NodeProxy) createGraph();
+        db.getNodeManager().clearCache();
+
+        assertFalse( node.hasCheapDegree() );
+        count( node.getRelationships() );
+        assertTrue( node.hasCheapDegree() );
+
+        db.shutdown();
+        startDb( "3" );
+        NodeProxy dense = (NodeProxy) createGraph();
+        db.getNodeManager().clearCache();
+
+        assertFalse( dense.hasCheapDegree() );
+        dense.getRelationships( KNOWS ).iterator().hasNext();
+        assertTrue( dense.hasCheapDegree() );
+    }
+
+    @Test
+    public void expanderShouldCountWhatItExpands() throws Exception
+    {
+        startDb( "3" );
+        Node node = createGraph();
+
+        StandardExpander knowsOut = (StandardExpander) Traversal.expanderForTypes( KNOWS, Direction.OUTGOING );
+        StandardExpander knowsOrLikes = (StandardExpander) Traversal.expanderForTypes( KNOWS, Direction.BOTH,
+                LIKES, Direction.INCOMING );
+        StandardExpander all = (StandardExpander) Traversal.expanderForAllTypes( Direction.INCOMING );
+        assertEquals( 3, knowsOut.getDegree( node ) );
+        assertEquals( 5, knowsOrLikes.getDegree( node ) );
+        assertEquals( 3, all.getDegree( node ) );
+    }
+
+    // KNOWS: two outgoing, one incoming, one loop. LIKES: one incoming
+    private Node createGraph()
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node node = db.createNode();
+            node.createRelationshipTo( db.createNode(), KNOWS );
+            node.createRelationshipTo( db.createNode(), KNOWS );
+            db.createNode().createRelationshipTo( node, KNOWS );
+            node.createRelationshipTo( node, KNOWS );
+            db.createNode().createRelationshipTo( node, LIKES );
+            tx.success();
+            return node;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void assertDegrees( Node node )
+    {
+        assertEquals( 5, node.getDegree( Direction.BOTH ) );
+        assertEquals( 4, node.getDegree( Direction.BOTH, KNOWS ) );
+        assertEquals( 3, node.getDegree( Direction.OUTGOING, KNOWS ) );
+        assertEquals( 2, node.getDegree( Direction.INCOMING, KNOWS ) );
+        assertEquals( 3, node.getDegree( Direction.INCOMING ) );
+        assertEquals( 1, node.getDegree( Direction.INCOMING, LIKES, HATES ) );
+        assertEquals( 0, node.getDegree( Direction.OUTGOING, LIKES ) );
+        assertEquals( 0, node.getDegree( Direction.BOTH, HATES ) );
+    }
+
+    private void startDb( String denseNodeThreshold )
+    {
+        String storeDir = AbstractNeo4jTestCase.getStorePath( "node-degree" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( storeDir );
+        db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( storeDir )
+                .setConfig( GraphDatabaseSettings.dense_node_threshold, denseNodeThreshold ).newGraphDatabase();
+    }
+}
@@ -143,6 +143,147 @@ public class TestRelIdArray
                 0L, 1L, justOverIntMax, justOverIntMax+1 ) ), new HashSet<Long>( asList( all ) ) );
     }
     
+    @Test
+    public void shrinkingManyIdsShouldCompactThem() throws Exception
+    {
+        RelIdArray array = new RelIdArray( "KNOWS" );
+        Collection<Long> expected = new HashSet<Long>();
+        long justOverIntMax = (long) Math.pow( 2, 32 )+3;
+        for ( long id = 1000; id > 0; id -= 3 )
+        {
+            array.add( id, OUTGOING );
+            array.add( id+justOverIntMax, OUTGOING );
+            expected.add( id );
+            expected.add( id+justOverIntMax );
+        }
+        int sizeBefore = array.size();
+        
+        RelIdArray compacted = array.shrink();
+        
+        assertEquals( expected, new HashSet<Long>( asList( compacted ) ) );
+        assertEquals( asList( array ), asList( compacted ) );
+        assertTrue( compacted.size()*3 < sizeBefore );
+    }
+    
+    @Test
+    public void iteratorShouldContinueWhereItWasWhenArrayGetsCompacted() throws Exception
+    {
+        RelIdArray array = new RelIdArray( "KNOWS" );
+        for ( long id = 100; id > 0; id-- )
+        {
+            array.add( id, OUTGOING );
+        }
+        RelIdIterator iterator = array.iterator( OUTGOING );
+        List<Long> ids = new ArrayList<Long>();
+        for ( int i = 0; i < 40; i++ )
+        {
+            ids.add( iterator.next() );
+        }
+        
+        iterator = iterator.updateSource( array.shrink() );
+        ids.addAll( asList( iterator ) );
+        
+        assertEquals( asList( array ), ids );
+    }
+    
+    @Test
+    public void shouldAddAndRemoveIdsOfCompactedArray() throws Exception
+    {
+        RelIdArray source = new RelIdArray( null );
+        for ( long id = 0; id < 100; id++ )
+        {
+            source.add( id, id % 2 == 0 ? OUTGOING : INCOMING );
+        }
+        source = source.shrink();
+        RelIdArray add = new RelIdArray( null );
+        add.add( 1000, OUTGOING );
+        add.add( 1001, INCOMING );
+        
+        RelIdArray added = RelIdArray.from( source, add, null );
+        Collection<Long> remove = new HashSet<Long>( Arrays.asList( 0L, 1L, 1000L ) );
+        RelIdArray removed = RelIdArray.from( added, null, remove );
+        
+        assertEquals( 102, asList( added ).size() );
+        assertTrue( asList( added.iterator( OUTGOING ) ).contains( 1000L ) );
+        assertTrue( asList( added.iterator( INCOMING ) ).contains( 1001L ) );
+        List<Long> outgoing = asList( removed.iterator( OUTGOING ) );
+        List<Long> incoming = asList( removed.iterator( INCOMING ) );
+        assertEquals( 49, outgoing.size() );
+        assertEquals( 50, incoming.size() );
+        assertFalse( outgoing.contains( 0L ) || outgoing.contains( 1000L ) );
+        assertTrue( incoming.contains( 1001L ) );
+    }
+    
+    @Test
+    public void shouldMergeIdsAddedToCompactedArrayEventually() throws Exception
+    {
+        RelIdArray array = new RelIdArray( null );
+        for ( long id = 0; id < 100; id++ )
+        {
+            array.add( id, OUTGOING );
+        }
+        array = array.shrink();
+        
+        for ( long id = 100; id < 200; id++ )
+        {
+            RelIdArray add = new RelIdArray( null );
+            add.add( id, OUTGOING );
+            array = RelIdArray.from( array, add, null );
+        }
+        
+        List<Long> ids = asList( array );
+        assertEquals( 200, ids.size() );
+        assertEquals( 200, new HashSet<Long>( ids ).size() );
+        assertTrue( array.shrink() != array );
+    }
+    
+    @Test
+    public void shouldSeeIdsAddedToCompactedArrayWhileBeingAddedInOrder() throws Exception
+    {
+        final RelIdArray array = new RelIdArray( null );
+        for ( long id = 0; id < 100; id++ )
+        {
+            array.add( id, OUTGOING );
+        }
+        final RelIdArray compacted = array.shrink();
+        final int total = 100000;
+        Thread adder = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for ( long id = 100; id < total; id++ )
+                {
+                    compacted.add( id, OUTGOING );
+                }
+            }
+        };
+        adder.start();
+        
+        int seen;
+        do
+        {
+            List<Long> ids = asList( compacted );
+            seen = ids.size();
+            for ( int i = 0; i < seen; i++ )
+            {
+                assertEquals( i, ids.get( i ).longValue() );
+            }
+        }
+        while ( seen < total );
+        adder.join();
+    }
+    
+    private List<Long> asList( RelIdIterator iterator )
+    {
+        List<Long> result = new ArrayList<Long>();
+        while ( iterator.hasNext() )
+        {
+            result.add( iterator.next() );
+        }
+        return result;
+    }
+    
     private List<Long> asList( RelIdArray ids )
     {
         List<Long> result = new ArrayList<Long>();
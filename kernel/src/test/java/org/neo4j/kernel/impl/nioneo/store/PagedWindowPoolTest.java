@@ -0,0 +1,524 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.test.ResourceCollection;
+import org.neo4j.test.TargetDirectory;
+
+public class PagedWindowPoolTest
+{
+    private static final int RECORD_SIZE = 8;
+    private static final int RECORDS_PER_PAGE = 16;
+    private static final int PAGE_SIZE = RECORD_SIZE * RECORDS_PER_PAGE;
+
+    private static final TargetDirectory target = TargetDirectory.forTest( PagedWindowPoolTest.class );
+    @Rule
+    public final TargetDirectory.TestDirectory directory = target.testDirectory();
+    @Rule
+    public final ResourceCollection resources = new ResourceCollection();
+
+    @Test
+    public void shouldReadBackWhatWasWrittenAfterPagesHaveBeenEvicted() throws Exception
+    {
+        for ( boolean memoryMapped : new boolean[] { true, false } )
+        {
+            // given a pool which can only hold two pages at a time
+            PagedWindowPool pool = newPool( "evict" + memoryMapped, PAGE_SIZE * 2, memoryMapped );
+            int records = RECORDS_PER_PAGE * 10;
+
+            // when
+            for ( int id = 0; id < records; id++ )
+            {
+                writeRecord( pool, id );
+            }
+
+            // then
+            for ( int id = 0; id < records; id++ )
+            {
+                assertRecord( pool, id );
+            }
+            WindowPoolStats stats = pool.getStats();
+            assertTrue( stats.getEvictionCount() > 0 );
+            assertTrue( stats.getFaultCount() >= 10 );
+            assertTrue( stats.getMemUsed() <= PAGE_SIZE * 2 );
+            pool.close();
+        }
+    }
+
+    @Test
+    public void shouldLetManyReadersLatchTheSamePage() throws Exception
+    {
+        // given
+        PagedWindowPool pool = newPool( "readers", PAGE_SIZE * 4, true );
+        writeRecord( pool, 1 );
+        writeRecord( pool, 2 );
+
+        // when two readers hold the same page
+        PersistenceWindow first = pool.acquire( 1, OperationType.READ );
+        PersistenceWindow second = pool.acquire( 2, OperationType.READ );
+
+        // then they see their own records, unaffected by the other's offset
+        assertEquals( first.position(), second.position() );
+        Buffer secondBuffer = second.getOffsettedBuffer( 2 );
+        Buffer firstBuffer = first.getOffsettedBuffer( 1 );
+        assertEquals( 1, firstBuffer.getLong() );
+        assertEquals( 2, secondBuffer.getLong() );
+        pool.release( first );
+        pool.release( second );
+        pool.close();
+    }
+
+    @Test( timeout = 10000 )
+    public void shouldLetTheWriterLatchItsPageAgain() throws Exception
+    {
+        // given a writer holding a page
+        final PagedWindowPool pool = newPool( "reentrant", PAGE_SIZE * 4, true );
+        PersistenceWindow outer = pool.acquire( 1, OperationType.WRITE );
+
+        // when it latches the same page again, for writing and for reading
+        writeRecord( pool, 2 );
+        assertRecord( pool, 2 );
+
+        // then it still holds the page, until it releases it the last time
+        final CountDownLatch read = new CountDownLatch( 1 );
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                assertRecord( pool, 1 );
+                read.countDown();
+            }
+        };
+        reader.start();
+        assertFalse( read.await( 100, TimeUnit.MILLISECONDS ) );
+        outer.getOffsettedBuffer( 1 ).putLong( 1 );
+        pool.release( outer );
+        reader.join();
+        assertEquals( 0, read.getCount() );
+        pool.close();
+    }
+
+    @Test( timeout = 10000 )
+    public void shouldFailToReleaseAWriteLatchHeldByAnotherThread() throws Exception
+    {
+        // given
+        final PagedWindowPool pool = newPool( "foreign", PAGE_SIZE * 4, true );
+        final PersistenceWindow window = pool.acquire( 1, OperationType.WRITE );
+
+        // when another thread releases it
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread other = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    pool.release( window );
+                }
+                catch ( Throwable e )
+                {
+                    failure.set( e );
+                }
+            }
+        };
+        other.start();
+        other.join();
+
+        // then
+        assertTrue( failure.get() instanceof IllegalStateException );
+        pool.release( window );
+        assertRecord( pool, 0 );
+        pool.close();
+    }
+
+    @Test
+    public void shouldFallBackToRowsWithoutMappedMemory() throws Exception
+    {
+        // given
+        PagedWindowPool pool = newPool( "rows", 0, true );
+
+        // when
+        writeRecord( pool, 5 );
+
+        // then
+        assertRecord( pool, 5 );
+        assertEquals( 0, pool.getStats().getWindowCount() );
+        pool.close();
+    }
+
+    @Test
+    public void flushAllShouldWriteDirtyPagesToTheFile() throws Exception
+    {
+        // given
+        String filename = new File( directory.directory(), "flush" ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        PagedWindowPool pool = new PagedWindowPool( "test.store", RECORD_SIZE, file.getChannel(), PAGE_SIZE * 4,
+                PAGE_SIZE, false, false, StringLogger.DEV_NULL );
+        writeRecord( pool, 3 );
+
+        // when
+        pool.flushAll();
+
+        // then
+        file.seek( 3 * RECORD_SIZE );
+        assertEquals( 3, file.readLong() );
+        pool.close();
+    }
+
+    @Test
+    public void flushAllShouldWriteAdjacentDirtyPagesInOneGo() throws Exception
+    {
+        // given
+        String filename = new File( directory.directory(), "coalesce" ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        PagedWindowPool pool = new PagedWindowPool( "test.store", RECORD_SIZE, file.getChannel(), PAGE_SIZE * 8,
+                PAGE_SIZE, false, false, StringLogger.DEV_NULL );
+        int records = RECORDS_PER_PAGE * 6;
+        for ( int id = 0; id < records; id++ )
+        {
+            writeRecord( pool, id );
+        }
+
+        // when
+        pool.flushAll();
+
+        // then
+        for ( int id = 0; id < records; id++ )
+        {
+            file.seek( id * RECORD_SIZE );
+            assertEquals( id, file.readLong() );
+        }
+        pool.close();
+    }
+
+    @Test
+    public void flushAllShouldWriteRunsOfDirtyPagesAtTheirOwnOffsets() throws Exception
+    {
+        // given dirty pages 0, 1, 3 and 4, but not 2
+        String filename = new File( directory.directory(), "runs" ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        PagedWindowPool pool = new PagedWindowPool( "test.store", RECORD_SIZE, file.getChannel(), PAGE_SIZE * 8,
+                PAGE_SIZE, false, false, StringLogger.DEV_NULL );
+        for ( int id = 0; id < RECORDS_PER_PAGE * 5; id++ )
+        {
+            if ( id / RECORDS_PER_PAGE != 2 )
+            {
+                writeRecord( pool, id );
+            }
+        }
+        file.getChannel().position( 5 );
+
+        // when
+        pool.flushAll();
+
+        // then the writes don't move the position of the channel
+        assertEquals( 5, file.getChannel().position() );
+        for ( int id = 0; id < RECORDS_PER_PAGE * 5; id++ )
+        {
+            file.seek( id * RECORD_SIZE );
+            assertEquals( id / RECORDS_PER_PAGE != 2 ? id : 0, file.readLong() );
+        }
+        pool.close();
+    }
+
+    @Test( timeout = 10000 )
+    public void pagesShouldNotBeEvictedBetweenBeingCopiedOutAndWritten() throws Exception
+    {
+        // given a page which a flush has copied out, but not written yet
+        String filename = new File( directory.directory(), "inflight" ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        final HeldWriteChannel channel = new HeldWriteChannel( file.getChannel() );
+        final PagedWindowPool pool = new PagedWindowPool( "test.store", RECORD_SIZE, channel, PAGE_SIZE * 16,
+                PAGE_SIZE, false, false, StringLogger.DEV_NULL );
+        writeRecord( pool, 1 );
+        Thread flusher = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                pool.flushAll();
+            }
+        };
+        channel.holdWritesOf( flusher );
+        flusher.start();
+        channel.writeStarted.await();
+
+        // when all other pages are faulted in, and some of them evicted
+        for ( int page = 1; page < 16 * 3; page++ )
+        {
+            writeRecord( pool, page * RECORDS_PER_PAGE );
+        }
+        assertTrue( pool.getStats().getEvictionCount() > 0 );
+
+        // then the page is still there, and not read back from the file
+        assertRecord( pool, 1 );
+        channel.proceed.countDown();
+        flusher.join();
+        file.seek( RECORD_SIZE );
+        assertEquals( 1, file.readLong() );
+        pool.close();
+    }
+
+    @Test
+    public void backgroundFlusherShouldWriteOutDirtyPages() throws Exception
+    {
+        // given
+        String filename = new File( directory.directory(), "background" ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        PagedWindowPool pool = new PagedWindowPool( "test.store", RECORD_SIZE, file.getChannel(), PAGE_SIZE * 4,
+                PAGE_SIZE, 10, false, false, StringLogger.DEV_NULL );
+
+        // when
+        writeRecord( pool, 7 );
+
+        // then
+        long endTime = System.currentTimeMillis() + 10000;
+        while ( file.length() < 8 * RECORD_SIZE && System.currentTimeMillis() < endTime )
+        {
+            Thread.sleep( 10 );
+        }
+        file.seek( 7 * RECORD_SIZE );
+        assertEquals( 7, file.readLong() );
+        pool.close();
+    }
+
+    @Test
+    public void prefetchedPagesShouldBeResidentWhenAcquired() throws Exception
+    {
+        // given a file with three pages of records, none of them resident
+        String filename = new File( directory.directory(), "prefetch" ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        for ( long id = 0; id < RECORDS_PER_PAGE * 3; id++ )
+        {
+            file.writeLong( id );
+        }
+        PagedWindowPool pool = new PagedWindowPool( "test.store", RECORD_SIZE, file.getChannel(), PAGE_SIZE * 4,
+                PAGE_SIZE, false, false, StringLogger.DEV_NULL );
+
+        // when
+        pool.prefetch( RECORDS_PER_PAGE * 2 + 1 );
+        long endTime = System.currentTimeMillis() + 10000;
+        while ( pool.getStats().getPrefetchCount() == 0 && System.currentTimeMillis() < endTime )
+        {
+            Thread.sleep( 10 );
+        }
+        assertRecord( pool, RECORDS_PER_PAGE * 2 + 3 );
+
+        // then
+        WindowPoolStats stats = pool.getStats();
+        assertEquals( 1, stats.getPrefetchCount() );
+        assertEquals( 1, stats.getPrefetchHitCount() );
+        assertEquals( 0, stats.getFaultCount() );
+        pool.close();
+    }
+
+    /**
+     * Holds the positional writes of one thread until told to proceed.
+     */
+    private static class HeldWriteChannel extends FileChannel
+    {
+        private final FileChannel inner;
+        private volatile Thread held;
+        final CountDownLatch writeStarted = new CountDownLatch( 1 );
+        final CountDownLatch proceed = new CountDownLatch( 1 );
+
+        HeldWriteChannel( FileChannel inner )
+        {
+            this.inner = inner;
+        }
+
+        void holdWritesOf( Thread thread )
+        {
+            held = thread;
+        }
+
+        @Override
+        public int write( ByteBuffer src, long position ) throws IOException
+        {
+            if ( Thread.currentThread() == held )
+            {
+                writeStarted.countDown();
+                try
+                {
+                    proceed.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    throw new IOException( e );
+                }
+            }
+            return inner.write( src, position );
+        }
+
+        @Override
+        public int read( ByteBuffer dst, long position ) throws IOException
+        {
+            return inner.read( dst, position );
+        }
+
+        @Override
+        public int read( ByteBuffer dst ) throws IOException
+        {
+            return inner.read( dst );
+        }
+
+        @Override
+        public long read( ByteBuffer[] dsts, int offset, int length ) throws IOException
+        {
+            return inner.read( dsts, offset, length );
+        }
+
+        @Override
+        public int write( ByteBuffer src ) throws IOException
+        {
+            return inner.write( src );
+        }
+
+        @Override
+        public long write( ByteBuffer[] srcs, int offset, int length ) throws IOException
+        {
+            return inner.write( srcs, offset, length );
+        }
+
+        @Override
+        public long position() throws IOException
+        {
+            return inner.position();
+        }
+
+        @Override
+        public FileChannel position( long newPosition ) throws IOException
+        {
+            inner.position( newPosition );
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException
+        {
+            return inner.size();
+        }
+
+        @Override
+        public FileChannel truncate( long size ) throws IOException
+        {
+            inner.truncate( size );
+            return this;
+        }
+
+        @Override
+        public void force( boolean metaData ) throws IOException
+        {
+            inner.force( metaData );
+        }
+
+        @Override
+        public long transferTo( long position, long count, WritableByteChannel target ) throws IOException
+        {
+            return inner.transferTo( position, count, target );
+        }
+
+        @Override
+        public long transferFrom( ReadableByteChannel src, long position, long count ) throws IOException
+        {
+            return inner.transferFrom( src, position, count );
+        }
+
+        @Override
+        public MappedByteBuffer map( MapMode mode, long position, long size ) throws IOException
+        {
+            return inner.map( mode, position, size );
+        }
+
+        @Override
+        public FileLock lock( long position, long size, boolean shared ) throws IOException
+        {
+            return inner.lock( position, size, shared );
+        }
+
+        @Override
+        public FileLock tryLock( long position, long size, boolean shared ) throws IOException
+        {
+            return inner.tryLock( position, size, shared );
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException
+        {
+            inner.close();
+        }
+    }
+
+    private PagedWindowPool newPool( String name, long mappedMemory, boolean memoryMapped ) throws Exception
+    {
+        String filename = new File( directory.directory(), name ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        return new PagedWindowPool( "test.store", RECORD_SIZE, file.getChannel(), mappedMemory,
+                PAGE_SIZE, memoryMapped, false, StringLogger.DEV_NULL );
+    }
+
+    private void writeRecord( PagedWindowPool pool, long id )
+    {
+        PersistenceWindow window = pool.acquire( id, OperationType.WRITE );
+        try
+        {
+            window.getOffsettedBuffer( id ).putLong( id );
+        }
+        finally
+        {
+            pool.release( window );
+        }
+    }
+
+    private void assertRecord( PagedWindowPool pool, long id )
+    {
+        PersistenceWindow window = pool.acquire( id, OperationType.READ );
+        try
+        {
+            assertEquals( id, window.getOffsettedBuffer( id ).getLong() );
+        }
+        finally
+        {
+            pool.release( window );
+        }
+    }
+}
@@ -21,6 +21,7 @@
 package org.neo4j.kernel.impl.nioneo.store;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -37,9 +38,12 @@ import org.junit.Test;
 import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.kernel.DefaultFileSystemAbstraction;
 import org.neo4j.kernel.DefaultIdGeneratorFactory;
+import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.configuration.ConfigurationDefaults;
+import org.neo4j.kernel.impl.storemigration.CurrentDatabase;
 import org.neo4j.kernel.impl.storemigration.StoreMigrator;
+import org.neo4j.kernel.impl.storemigration.StoreUpgrader;
 import org.neo4j.kernel.impl.util.FileUtils;
 import org.neo4j.kernel.impl.util.StringLogger;
 
@@ -61,8 +65,9 @@ public class StoreVersionTest
                 new DefaultIdGeneratorFactory(), new DefaultWindowPoolFactory(), fileSystem, StringLogger.SYSTEM, null );
         NeoStore neoStore = sf.createNeoStore(storeFileName);
 
+        assertThat( neoStore.getNodeStore().getTypeAndVersionDescriptor(),
+                containsString( CommonAbstractStore.DENSE_NODES_STORE_VERSION ) );
         CommonAbstractStore[] stores = {
-                neoStore.getNodeStore(),
                 neoStore.getRelationshipStore(),
                 neoStore.getRelationshipTypeStore(),
                 neoStore.getPropertyStore(),
@@ -122,10 +127,158 @@ public class StoreVersionTest
                 new DefaultIdGeneratorFactory(), new DefaultWindowPoolFactory(), fileSystem, StringLogger.SYSTEM, null );
         NeoStore neoStore = sf.createNeoStore(storeFileName);
         // The first checks the instance method, the other the public one
+        assertEquals( CommonAbstractStore.DENSE_NODES_STORE_VERSION,
+                NeoStore.versionLongToString( neoStore.getStoreVersion() ) );
+        assertEquals( CommonAbstractStore.DENSE_NODES_STORE_VERSION,
+                NeoStore.versionLongToString( NeoStore.getStoreVersion( fileSystem, storeFileName ) ) );
+    }
+
+    @Test
+    public void storeShouldOnlyBeCreatedWithDenseNodesWithAThreshold() throws IOException
+    {
+        File outputDir = new File( "target/var/" + StoreVersionTest.class.getSimpleName() + "created" );
+        String storeFileName = new File( outputDir, NeoStore.DEFAULT_NAME ).getPath();
+        NeoStore neoStore = newStoreFactory( outputDir, denseNodes( false ) ).createNeoStore( storeFileName );
         assertEquals( CommonAbstractStore.ALL_STORES_VERSION,
                 NeoStore.versionLongToString( neoStore.getStoreVersion() ) );
+        assertFalse( neoStore.getNodeStore().hasDenseNodes() );
+        neoStore.close();
+
+        neoStore = newStoreFactory( outputDir, denseNodes( true ) ).createNeoStore( storeFileName );
+        assertEquals( CommonAbstractStore.DENSE_NODES_STORE_VERSION,
+                NeoStore.versionLongToString( neoStore.getStoreVersion() ) );
+        assertTrue( neoStore.getNodeStore().hasDenseNodes() );
+        neoStore.close();
+        assertTrue( new CurrentDatabase().storeFilesAtCurrentVersion( outputDir ) );
+    }
+
+    @Test
+    public void storeWithoutDenseNodesShouldKeepAllPropertyIdBitsWithoutAThreshold() throws IOException
+    {
+        File outputDir = new File( "target/var/" + StoreVersionTest.class.getSimpleName() + "noThreshold" );
+        StoreFactory sf = newStoreFactory( outputDir, denseNodes( false ) );
+        String storeFileName = new File( outputDir, NeoStore.DEFAULT_NAME ).getPath();
+        NeoStore neoStore = sf.createNeoStore( storeFileName );
+        long nodeId = createNode( neoStore.getNodeStore(), HIGHEST_PROPERTY_ID );
+        neoStore.close();
+
+        neoStore = sf.newNeoStore( storeFileName );
         assertEquals( CommonAbstractStore.ALL_STORES_VERSION,
-                NeoStore.versionLongToString( NeoStore.getStoreVersion( fileSystem, storeFileName ) ) );
+                NeoStore.versionLongToString( neoStore.getStoreVersion() ) );
+        NodeRecord node = neoStore.getNodeStore().getRecord( nodeId );
+        assertEquals( HIGHEST_PROPERTY_ID, node.getNextProp() );
+        assertFalse( node.isDense() );
+        neoStore.close();
+    }
+
+    @Test
+    public void storeWithoutDenseNodesShouldNotBeUpgradedUnlessUpgradesAreAllowed() throws IOException
+    {
+        File outputDir = new File( "target/var/" + StoreVersionTest.class.getSimpleName() + "notAllowed" );
+        String storeFileName = new File( outputDir, NeoStore.DEFAULT_NAME ).getPath();
+        NeoStore neoStore = newStoreFactory( outputDir, denseNodes( false ) ).createNeoStore( storeFileName );
+        neoStore.close();
+
+        Map<String, String> config = denseNodes( true );
+        config.put( GraphDatabaseSettings.allow_store_upgrade.name(), "false" );
+        neoStore = newStoreFactory( outputDir, config, false ).newNeoStore( storeFileName );
+        assertEquals( CommonAbstractStore.ALL_STORES_VERSION,
+                NeoStore.versionLongToString( neoStore.getStoreVersion() ) );
+        assertFalse( neoStore.getNodeStore().hasDenseNodes() );
+        assertEquals( 0, neoStore.getRelationshipGroupStore().getDenseNodeThreshold() );
+        neoStore.close();
+        assertFalse( new File( outputDir, "upgrade_backup" ).exists() );
+    }
+
+    @Test
+    public void storeWithoutDenseNodesShouldBeUpgradedThroughTheStoreMigratorWhenAllowed() throws IOException
+    {
+        File outputDir = new File( "target/var/" + StoreVersionTest.class.getSimpleName() + "upgraded" );
+        String storeFileName = new File( outputDir, NeoStore.DEFAULT_NAME ).getPath();
+        NeoStore neoStore = newStoreFactory( outputDir, denseNodes( false ) ).createNeoStore( storeFileName );
+        long nodeId = createNode( neoStore.getNodeStore(), NodeStore.MAX_PROPERTY_ID_WITH_DENSE_NODES );
+        StoreId storeId = neoStore.getStoreId();
+        neoStore.close();
+        assertTrue( new File( outputDir, "messages.log" ).createNewFile() );
+
+        Map<String, String> config = denseNodes( true );
+        config.put( GraphDatabaseSettings.allow_store_upgrade.name(), "true" );
+        neoStore = newStoreFactory( outputDir, config, false ).newNeoStore( storeFileName );
+        assertEquals( CommonAbstractStore.DENSE_NODES_STORE_VERSION,
+                NeoStore.versionLongToString( neoStore.getStoreVersion() ) );
+        assertEquals( storeId.getCreationTime(), neoStore.getStoreId().getCreationTime() );
+        assertEquals( storeId.getRandomId(), neoStore.getStoreId().getRandomId() );
+        assertTrue( neoStore.getNodeStore().hasDenseNodes() );
+        NodeRecord node = neoStore.getNodeStore().getRecord( nodeId );
+        assertEquals( NodeStore.MAX_PROPERTY_ID_WITH_DENSE_NODES, node.getNextProp() );
+        assertFalse( node.isDense() );
+        neoStore.close();
+        assertTrue( new File( outputDir, "upgrade_backup" ).isDirectory() );
+        assertTrue( new CurrentDatabase().storeFilesAtCurrentVersion( outputDir ) );
+    }
+
+    @Test
+    public void upgradeShouldBeRefusedForPropertyIdsNodesCantAddressOnceDense() throws IOException
+    {
+        File outputDir = new File( "target/var/" + StoreVersionTest.class.getSimpleName() + "refused" );
+        String storeFileName = new File( outputDir, NeoStore.DEFAULT_NAME ).getPath();
+        NeoStore neoStore = newStoreFactory( outputDir, denseNodes( false ) ).createNeoStore( storeFileName );
+        createNode( neoStore.getNodeStore(), NodeStore.MAX_PROPERTY_ID_WITH_DENSE_NODES + 1 );
+        neoStore.close();
+        assertTrue( new File( outputDir, "messages.log" ).createNewFile() );
+
+        Map<String, String> config = denseNodes( true );
+        config.put( GraphDatabaseSettings.allow_store_upgrade.name(), "true" );
+        try
+        {
+            newStoreFactory( outputDir, config, false ).newNeoStore( storeFileName );
+            fail( "Should not upgrade a store with property ids dense nodes can't address" );
+        }
+        catch ( StoreUpgrader.UnableToUpgradeException e )
+        {
+            assertThat( e.getMessage(), containsString( "property id" ) );
+        }
+        assertFalse( new File( outputDir, "upgrade_backup" ).exists() );
+        neoStore = newStoreFactory( outputDir, denseNodes( false ), false ).newNeoStore( storeFileName );
+        assertEquals( CommonAbstractStore.ALL_STORES_VERSION,
+                NeoStore.versionLongToString( neoStore.getStoreVersion() ) );
+        neoStore.close();
+    }
+
+    private static final long HIGHEST_PROPERTY_ID = IdType.PROPERTY.getMaxValue() - 1;
+
+    private Map<String, String> denseNodes( boolean enabled )
+    {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put( GraphDatabaseSettings.dense_node_threshold.name(), enabled ? "10" : "0" );
+        return config;
+    }
+
+    private StoreFactory newStoreFactory( File outputDir, Map<String, String> config ) throws IOException
+    {
+        return newStoreFactory( outputDir, config, true );
+    }
+
+    private StoreFactory newStoreFactory( File outputDir, Map<String, String> config, boolean clean )
+            throws IOException
+    {
+        if ( clean )
+        {
+            FileUtils.deleteRecursively( outputDir );
+            assertTrue( outputDir.mkdirs() );
+        }
+        config.put( "neo_store", new File( outputDir, NeoStore.DEFAULT_NAME ).getPath() );
+        return new StoreFactory( new Config( new ConfigurationDefaults( GraphDatabaseSettings.class ).apply( config ) ),
+                new DefaultIdGeneratorFactory(), new DefaultWindowPoolFactory(), new DefaultFileSystemAbstraction(),
+                StringLogger.SYSTEM, null );
+    }
+
+    private long createNode( NodeStore nodeStore, long nextProp )
+    {
+        NodeRecord record = new NodeRecord( nodeStore.nextId(), Record.NO_NEXT_RELATIONSHIP.intValue(), nextProp );
+        record.setInUse( true );
+        nodeStore.updateRecord( record );
+        return record.getId();
     }
 
     @Test
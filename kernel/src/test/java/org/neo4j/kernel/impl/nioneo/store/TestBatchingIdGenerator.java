@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.DefaultFileSystemAbstraction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+public class TestBatchingIdGenerator
+{
+    private final FileSystemAbstraction fs = new DefaultFileSystemAbstraction();
+    private String fileName;
+
+    @Before
+    public void createIdGeneratorFile()
+    {
+        String path = AbstractNeo4jTestCase.getStorePath( "batching-ids" );
+        new File( path ).mkdirs();
+        fileName = path + File.separator + "batching.id";
+        new File( fileName ).delete();
+        IdGeneratorImpl.createGenerator( fs, fileName );
+    }
+
+    @Test
+    public void shouldHandOutUniqueIdsToConcurrentThreadsAndFreeUnusedOnClose() throws Exception
+    {
+        // given
+        final IdGenerator ids = open( 10, false );
+        final List<Long> used = Collections.synchronizedList( new ArrayList<Long>() );
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int i = 0; i < 8; i++ )
+        {
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int j = 0; j < 1003; j++ )
+                    {
+                        used.add( ids.nextId() );
+                    }
+                }
+            };
+            thread.start();
+            threads.add( thread );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        long highId = ids.getHighId();
+
+        // when
+        ids.close();
+
+        // then every id below the high id is either used or free in the next session
+        Set<Long> all = new HashSet<Long>( used );
+        assertEquals( used.size(), all.size() );
+        IdGeneratorImpl reopened = new IdGeneratorImpl( fs, fileName, 1024, IdType.NODE.getMaxValue(), false );
+        assertEquals( highId, reopened.getHighId() );
+        for ( long id; (id = reopened.nextId()) < highId; )
+        {
+            assertTrue( all.add( id ) );
+        }
+        assertEquals( highId, all.size() );
+        reopened.close();
+    }
+
+    @Test
+    public void shouldReuseFreedIdsInTheNextSessionOnly() throws Exception
+    {
+        // given
+        IdGenerator ids = open( 10, false );
+        for ( int i = 0; i < 10; i++ )
+        {
+            ids.nextId();
+        }
+
+        // when
+        ids.freeId( 3 );
+
+        // then
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertFalse( ids.nextId() == 3 );
+        }
+        assertEquals( 1, ids.getDefragCount() );
+        ids.close();
+        ids = open( 10, false );
+        assertEquals( 3, ids.nextId() );
+        ids.close();
+    }
+
+    @Test
+    public void shouldReuseFreedIdsRightAwayWithAggressiveReuse() throws Exception
+    {
+        // given
+        IdGenerator ids = open( 10, true );
+        for ( int i = 0; i < 5; i++ )
+        {
+            ids.nextId();
+        }
+
+        // when
+        ids.freeId( 2 );
+
+        // then
+        assertEquals( 2, ids.nextId() );
+        assertEquals( 5, ids.nextId() );
+        ids.close();
+    }
+
+    @Test
+    public void shouldDropBatchesWhenHighIdIsSet() throws Exception
+    {
+        // given
+        IdGenerator ids = open( 10, false );
+        assertEquals( 0, ids.nextId() );
+
+        // when
+        ids.setHighId( 100 );
+
+        // then
+        assertEquals( 100, ids.nextId() );
+        ids.close();
+    }
+
+    @Test
+    public void shouldFreeIdsLeftInBatchesDroppedWhenHighIdIsSet() throws Exception
+    {
+        // given a batch in this thread and one in another thread
+        final IdGenerator ids = open( 10, false );
+        assertEquals( 0, ids.nextId() );
+        Thread other = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                assertEquals( 10, ids.nextId() );
+            }
+        };
+        other.start();
+        other.join();
+
+        // when
+        ids.setHighId( 100 );
+        assertEquals( 100, ids.nextId() );
+        ids.close();
+
+        // then the ids left in all batches, retired or not, are free in the next session
+        Set<Long> free = new HashSet<Long>();
+        IdGeneratorImpl reopened = new IdGeneratorImpl( fs, fileName, 1024, IdType.NODE.getMaxValue(), false );
+        long highId = reopened.getHighId();
+        for ( long id; (id = reopened.nextId()) < highId; )
+        {
+            free.add( id );
+        }
+        reopened.close();
+        Set<Long> expected = new HashSet<Long>();
+        for ( long id = 1; id < highId; id++ )
+        {
+            if ( id % 10 != 0 && (id < 20 || id > 100) )
+            {
+                expected.add( id );
+            }
+        }
+        assertEquals( expected, free );
+    }
+
+    @Test
+    public void shouldCreateNodesWithThreadBatchesConfigured() throws Exception
+    {
+        String storeDir = AbstractNeo4jTestCase.getStorePath( "batching-ids-db" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( storeDir );
+        final GraphDatabaseAPI db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(
+                storeDir ).setConfig( GraphDatabaseSettings.id_thread_batch_size, "16" ).newGraphDatabase();
+        try
+        {
+            List<Thread> threads = new ArrayList<Thread>();
+            for ( int i = 0; i < 4; i++ )
+            {
+                Thread thread = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for ( int j = 0; j < 50; j++ )
+                        {
+                            Transaction tx = db.beginTx();
+                            try
+                            {
+                                db.createNode().setProperty( "name", "a name long enough for the string store " + j );
+                                tx.success();
+                            }
+                            finally
+                            {
+                                tx.finish();
+                            }
+                        }
+                    }
+                };
+                thread.start();
+                threads.add( thread );
+            }
+            for ( Thread thread : threads )
+            {
+                thread.join();
+            }
+            int nodes = 0;
+            for ( Object node : GlobalGraphOperations.at( db ).getAllNodes() )
+            {
+                nodes++;
+            }
+            assertEquals( 4 * 50 + 1, nodes );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    private IdGenerator open( int batchSize, boolean aggressiveReuse )
+    {
+        return new BatchingIdGenerator( new IdGeneratorImpl( fs, fileName, 1024, IdType.NODE.getMaxValue(),
+                aggressiveReuse ), batchSize, 1024, aggressiveReuse );
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class TestDynamicValueCache
+{
+    private final DynamicValueCache cache = new DynamicValueCache( "test", 2 );
+
+    @Test
+    public void shouldReturnCachedValue() throws Exception
+    {
+        // when
+        cache.put( 5, "value", cache.stamp() );
+
+        // then
+        assertEquals( "value", cache.get( 5 ) );
+        assertNull( cache.get( 6 ) );
+    }
+
+    @Test
+    public void shouldEvictValueWhenAnyOfItsRecordsIsWritten() throws Exception
+    {
+        // given
+        cache.put( 5, "value", cache.stamp() );
+
+        // when
+        cache.written( 5 );
+
+        // then
+        assertNull( cache.get( 5 ) );
+    }
+
+    @Test
+    public void shouldNotCacheValueReadBeforeAWrite() throws Exception
+    {
+        // given a reader which starts reading the records
+        long stamp = cache.stamp();
+
+        // when the id is freed and reused by another value meanwhile
+        cache.written( 5 );
+        cache.put( 5, "stale value", stamp );
+
+        // then
+        assertNull( cache.get( 5 ) );
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedValue() throws Exception
+    {
+        // given
+        cache.put( 1, "one", cache.stamp() );
+        cache.put( 2, "two", cache.stamp() );
+        cache.get( 1 );
+
+        // when
+        cache.put( 3, "three", cache.stamp() );
+
+        // then
+        assertEquals( "one", cache.get( 1 ) );
+        assertNull( cache.get( 2 ) );
+        assertEquals( "three", cache.get( 3 ) );
+    }
+
+    @Test
+    public void shouldNotLetCachedArraysBeChanged() throws Exception
+    {
+        // given
+        int[] value = new int[] { 1, 2, 3 };
+        cache.put( 5, value, cache.stamp() );
+        value[0] = 10;
+
+        // when
+        int[] read = (int[]) cache.get( 5 );
+        read[1] = 20;
+
+        // then
+        assertNotSame( read, cache.get( 5 ) );
+        assertArrayEquals( new int[] { 1, 2, 3 }, (int[]) cache.get( 5 ) );
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.test.TargetDirectory.TestDirectory;
+
+public class TestParallelStoreScan
+{
+    public @Rule
+    TestDirectory testdir = TargetDirectory.testDirForTest( getClass() );
+
+    @Test
+    public void shouldProcessEachRecordInUseOnceAcrossAllThreads() throws Exception
+    {
+        // given
+        GraphDatabaseAPI db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabase(
+                testdir.directory().getAbsolutePath() );
+        Set<Long> deleted = new HashSet<Long>();
+        Transaction tx = db.beginTx();
+        try
+        {
+            for ( int i = 0; i < 1000; i++ )
+            {
+                Node node = db.createNode();
+                node.createRelationshipTo( db.createNode(), DynamicRelationshipType.withName( "KNOWS" ) );
+                if ( i % 10 == 0 )
+                {
+                    deleted.add( node.getId() );
+                    node.getRelationships().iterator().next().delete();
+                    node.delete();
+                }
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        StoreAccess stores = new StoreAccess( db.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore() );
+
+        // when scanning with partitions a lot smaller than the stores
+        List<CountingProcessor> processors = stores.applyToAll( new ParallelStoreScan( 3, 100 ),
+                new ParallelStoreScan.ProcessorFactory<CountingProcessor>()
+                {
+                    @Override
+                    public CountingProcessor newProcessor()
+                    {
+                        return new CountingProcessor();
+                    }
+                } );
+
+        // then
+        assertEquals( 3, processors.size() );
+        Set<Long> nodes = new HashSet<Long>();
+        int relationships = 0;
+        for ( CountingProcessor processor : processors )
+        {
+            for ( Long id : processor.nodes )
+            {
+                assertEquals( true, nodes.add( id ) );
+            }
+            relationships += processor.relationships;
+        }
+        assertEquals( 1 + 2000 - deleted.size(), nodes.size() );
+        assertEquals( 1000 - deleted.size(), relationships );
+        for ( Long id : deleted )
+        {
+            assertEquals( false, nodes.contains( id ) );
+        }
+        db.shutdown();
+    }
+
+    private static class CountingProcessor extends RecordStore.Processor
+    {
+        private final Set<Long> nodes = new HashSet<Long>();
+        private int relationships;
+
+        @Override
+        public void processNode( RecordStore<NodeRecord> store, NodeRecord node )
+        {
+            nodes.add( node.getId() );
+        }
+
+        @Override
+        public void processRelationship( RecordStore<RelationshipRecord> store, RelationshipRecord rel )
+        {
+            relationships++;
+        }
+
+        @Override
+        protected <R extends AbstractBaseRecord> void processRecord( Class<R> type, RecordStore<R> store, R record )
+        {
+            // Not counted
+        }
+    }
+}
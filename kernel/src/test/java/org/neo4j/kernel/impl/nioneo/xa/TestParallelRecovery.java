@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Scanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.test.ProcessStreamHandler;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.test.TargetDirectory.TestDirectory;
+
+public class TestParallelRecovery
+{
+    private static final int TRANSACTIONS = 200;
+    private static final int NODES_PER_TRANSACTION = 10;
+    private static final RelationshipType NEXT = DynamicRelationshipType.withName( "NEXT" );
+
+    public @Rule
+    TestDirectory testdir = TargetDirectory.testDirForTest( getClass() );
+
+    @Test
+    public void shouldRecoverTheSameGraphUsingSeveralThreads() throws Exception
+    {
+        // given
+        produceUncleanStore( testdir.directory() );
+        File messages = new File( testdir.directory(), "messages.log" );
+
+        // when
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(
+                testdir.directory().getAbsolutePath() ).setConfig( GraphDatabaseSettings.recovery_threads, "4" )
+                .newGraphDatabase();
+
+        // then
+        try
+        {
+            assertTrue( "Expected recovered records to be written by worker threads",
+                    read( messages ).contains( "recovered records using 4 threads" ) );
+            Node previous = null;
+            for ( long id = 1; id <= TRANSACTIONS * NODES_PER_TRANSACTION; id++ )
+            {
+                Node node = db.getNodeById( id );
+                assertEquals( id % 3 == 0 ? "updated " + id : longString( id ), node.getProperty( "name" ) );
+                if ( previous != null )
+                {
+                    Relationship relationship = node.getSingleRelationship( NEXT,
+                            org.neo4j.graphdb.Direction.INCOMING );
+                    assertEquals( previous, relationship.getStartNode() );
+                    assertEquals( id, relationship.getProperty( "id" ) );
+                }
+                previous = node;
+            }
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    public static void main( String[] args )
+    {
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase( args[0] );
+        Node previous = null;
+        for ( int i = 0; i < TRANSACTIONS; i++ )
+        {
+            Transaction tx = db.beginTx();
+            try
+            {
+                for ( int j = 0; j < NODES_PER_TRANSACTION; j++ )
+                {
+                    Node node = db.createNode();
+                    node.setProperty( "name", longString( node.getId() ) );
+                    if ( previous != null )
+                    {
+                        previous.createRelationshipTo( node, NEXT ).setProperty( "id", node.getId() );
+                    }
+                    previous = node;
+                }
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+            // Frees dynamic records which later transactions pick up for other properties
+            tx = db.beginTx();
+            try
+            {
+                for ( long id = Math.max( 1, previous.getId() - NODES_PER_TRANSACTION ); id <= previous.getId(); id++ )
+                {
+                    if ( id % 3 == 0 )
+                    {
+                        db.getNodeById( id ).setProperty( "name", "updated " + id );
+                    }
+                }
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+        System.exit( 0 );
+    }
+
+    private static String longString( long id )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( int i = 0; i < 10; i++ )
+        {
+            builder.append( "a long name which needs dynamic records " ).append( id );
+        }
+        return builder.toString();
+    }
+
+    private static void produceUncleanStore( File path ) throws Exception
+    {
+        Process process = Runtime.getRuntime().exec( new String[] { "java", "-cp",
+                System.getProperty( "java.class.path" ), TestParallelRecovery.class.getName(),
+                path.getAbsolutePath() } );
+        assertEquals( 0, new ProcessStreamHandler( process, true ).waitForResult() );
+    }
+
+    private static String read( File file ) throws Exception
+    {
+        Scanner scanner = new Scanner( file, "UTF-8" );
+        try
+        {
+            return scanner.useDelimiter( "\\Z" ).next();
+        }
+        finally
+        {
+            scanner.close();
+        }
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.transaction;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.concurrent.atomic.AtomicReference;
@@ -249,13 +250,22 @@ public class TestDeadlockDetection
 
     @Test
     public void testDeadlockDetection()
+    {
+        assertDetectsDeadlocks( new LockManagerImpl( new RagManager(new PlaceboTm()) ) );
+    }
+
+    @Test
+    public void testDeadlockDetectionWithStripedLockManager()
+    {
+        assertDetectsDeadlocks( new StripedLockManager( new PlaceboTm() ) );
+    }
+
+    private void assertDetectsDeadlocks( LockManager lm )
     {
         Object r1 = new ResourceObject( "R1" );
         Object r2 = new ResourceObject( "R2" );
         Object r3 = new ResourceObject( "R3" );
         Object r4 = new ResourceObject( "R4" );
-        
-        LockManager lm = new LockManagerImpl( new RagManager(new PlaceboTm()) );
 
         HelperThread t1 = new HelperThread( "T1", lm );
         HelperThread t2 = new HelperThread( "T2", lm );
@@ -519,4 +529,30 @@ public class TestDeadlockDetection
         }
         StressThread.go = true;
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStressMultipleThreadsWithStripedLockManager() throws Exception
+    {
+        for ( int i = 0; i < StressThread.resources.length; i++ )
+        {
+            StressThread.resources[i] = new ResourceObject( "RX" + i );
+        }
+        Thread stressThreads[] = new Thread[50];
+        StressThread.go = false;
+        LockManager lm = new StripedLockManager( new PlaceboTm(), 4 );
+        for ( int i = 0; i < stressThreads.length; i++ )
+        {
+            stressThreads[i] = new StressThread( "T" + i, 100, 10, 0.80f, lm );
+        }
+        for ( int i = 0; i < stressThreads.length; i++ )
+        {
+            stressThreads[i].start();
+        }
+        StressThread.go = true;
+        for ( int i = 0; i < stressThreads.length; i++ )
+        {
+            stressThreads[i].join();
+        }
+        assertEquals( 0, lm.getAllLocks().size() );
+    }
+}
@@ -0,0 +1,368 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.graphdb.mockfs.LimitedFileChannel;
+import org.neo4j.graphdb.mockfs.LimitedFilesystemAbstraction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
+import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
+import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+public class TestGroupCommit
+{
+    @Test
+    public void concurrentCommittersShouldShareForces() throws Exception
+    {
+        final GroupCommit groupCommit = new GroupCommit( 0, 64 );
+        final CountingForceable log = new CountingForceable( 10 );
+        int committers = 20;
+        final CountDownLatch start = new CountDownLatch( 1 );
+        List<Thread> threads = new ArrayList<Thread>();
+        final AtomicInteger done = new AtomicInteger();
+        for ( int i = 0; i < committers; i++ )
+        {
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        groupCommit.awaitForced( groupCommit.append(), log );
+                        done.incrementAndGet();
+                    }
+                    catch ( Exception e )
+                    {
+                        throw new RuntimeException( e );
+                    }
+                }
+            };
+            thread.start();
+            threads.add( thread );
+        }
+
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( committers, done.get() );
+        assertEquals( committers, groupCommit.getForcedCommitCount() );
+        assertEquals( log.forces.get(), groupCommit.getForceCount() );
+        assertTrue( "Expected forces to be shared, but got " + groupCommit, groupCommit.getForceCount() < committers );
+        assertTrue( groupCommit.getLargestBatchSize() > 1 );
+        assertTrue( groupCommit.getMaxForceLatencyMicros() >= 10000 );
+    }
+
+    @Test
+    public void leaderShouldWaitForBatchToFillUp() throws Exception
+    {
+        final GroupCommit groupCommit = new GroupCommit( 10000, 2 );
+        final CountingForceable log = new CountingForceable( 0 );
+        final long first = groupCommit.append();
+        Thread leader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    groupCommit.awaitForced( first, log );
+                }
+                catch ( IOException e )
+                {
+                    throw new RuntimeException( e );
+                }
+            }
+        };
+        leader.start();
+        leader.join( 100 );
+        assertTrue( leader.isAlive() );
+
+        long second = groupCommit.append();
+        leader.join();
+        groupCommit.awaitForced( second, log );
+
+        assertEquals( 1, log.forces.get() );
+        assertEquals( 2, groupCommit.getLargestBatchSize() );
+    }
+
+    @Test
+    public void markForcedShouldReleaseCommittersWithoutForcing() throws Exception
+    {
+        GroupCommit groupCommit = new GroupCommit( 0, 64 );
+        CountingForceable log = new CountingForceable( 0 );
+        long ticket = groupCommit.append();
+
+        groupCommit.markForced();
+        groupCommit.awaitForced( ticket, log );
+
+        assertEquals( 0, log.forces.get() );
+        assertEquals( 0, groupCommit.getForceCount() );
+    }
+
+    @Test
+    public void failedForceShouldBeRetriedByNextLeader() throws Exception
+    {
+        GroupCommit groupCommit = new GroupCommit( 0, 64 );
+        final IOException failure = new IOException( "Disk on fire" );
+        long ticket = groupCommit.append();
+        try
+        {
+            groupCommit.awaitForced( ticket, new GroupCommit.Forceable()
+            {
+                @Override
+                public void force() throws IOException
+                {
+                    throw failure;
+                }
+            } );
+            fail( "Should have failed" );
+        }
+        catch ( IOException e )
+        {
+            assertSame( failure, e );
+        }
+
+        CountingForceable log = new CountingForceable( 0 );
+        groupCommit.awaitForced( ticket, log );
+        assertEquals( 1, log.forces.get() );
+        assertEquals( 1, groupCommit.getForcedCommitCount() );
+    }
+
+    @Test
+    public void databaseShouldCommitThroughGroupCommit() throws Exception
+    {
+        File storeDir = new File( "target/test-data/group-commit" );
+        FileUtils.deleteRecursively( storeDir );
+        final GraphDatabaseAPI db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(
+                storeDir.getAbsolutePath() ).setConfig( GraphDatabaseSettings.group_commit, GraphDatabaseSetting.TRUE )
+                .newGraphDatabase();
+        try
+        {
+            List<Thread> threads = new ArrayList<Thread>();
+            for ( int i = 0; i < 8; i++ )
+            {
+                Thread thread = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for ( int j = 0; j < 25; j++ )
+                        {
+                            Transaction tx = db.beginTx();
+                            try
+                            {
+                                db.createNode();
+                                tx.success();
+                            }
+                            finally
+                            {
+                                tx.finish();
+                            }
+                        }
+                    }
+                };
+                thread.start();
+                threads.add( thread );
+            }
+            for ( Thread thread : threads )
+            {
+                thread.join();
+            }
+
+            int nodes = 0;
+            for ( Object node : GlobalGraphOperations.at( db ).getAllNodes() )
+            {
+                nodes++;
+            }
+            assertEquals( 8 * 25 + 1, nodes );
+            GroupCommit groupCommit = db.getXaDataSourceManager().getNeoStoreDataSource().getXaContainer()
+                    .getLogicalLog().getGroupCommit();
+            assertEquals( 8 * 25, groupCommit.getForcedCommitCount() );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void failedForceShouldLeaveTheStoreUnchangedAndPanicKernel() throws Exception
+    {
+        File storeDir = new File( "target/test-data/group-commit-failing-force" );
+        FileUtils.deleteRecursively( storeDir );
+        final AtomicBoolean failForces = new AtomicBoolean();
+        Map<String, String> config = stringMap( GraphDatabaseSettings.group_commit.name(), GraphDatabaseSetting.TRUE );
+        GraphDatabaseAPI db = new EmbeddedGraphDatabase( storeDir.getAbsolutePath(), config )
+        {
+            @Override
+            protected FileSystemAbstraction createFileSystemAbstraction()
+            {
+                return new LimitedFilesystemAbstraction( super.createFileSystemAbstraction() )
+                {
+                    @Override
+                    public FileChannel open( String fileName, String mode ) throws IOException
+                    {
+                        FileChannel channel = super.open( fileName, mode );
+                        if ( !fileName.contains( NeoStoreXaDataSource.LOGICAL_LOG_DEFAULT_NAME ) )
+                        {
+                            return channel;
+                        }
+                        return new LimitedFileChannel( channel, this )
+                        {
+                            @Override
+                            public void force( boolean metaData ) throws IOException
+                            {
+                                if ( failForces.get() )
+                                {
+                                    throw new IOException( "Disk on fire" );
+                                }
+                                super.force( metaData );
+                            }
+                        };
+                    }
+                };
+            }
+        };
+        final AtomicReference<ErrorState> panic = new AtomicReference<ErrorState>();
+        final CountDownLatch panicked = new CountDownLatch( 1 );
+        db.registerKernelEventHandler( new KernelEventHandler()
+        {
+            @Override
+            public void kernelPanic( ErrorState error )
+            {
+                panic.set( error );
+                panicked.countDown();
+            }
+
+            @Override
+            public void beforeShutdown()
+            {
+            }
+
+            @Override
+            public Object getResource()
+            {
+                return null;
+            }
+
+            @Override
+            public ExecutionOrder orderComparedTo( KernelEventHandler other )
+            {
+                return ExecutionOrder.DOESNT_MATTER;
+            }
+        } );
+        NeoStoreXaDataSource neoStoreDataSource = db.getXaDataSourceManager().getNeoStoreDataSource();
+        try
+        {
+            long lastCommittedTxId = neoStoreDataSource.getLastCommittedTxId();
+            failForces.set( true );
+            Transaction tx = db.beginTx();
+            Node node;
+            try
+            {
+                node = db.createNode();
+                tx.success();
+            }
+            finally
+            {
+                try
+                {
+                    tx.finish();
+                    fail( "Commit should fail when its commit record can't be forced" );
+                }
+                catch ( TransactionFailureException e )
+                {   // Good
+                }
+            }
+
+            // Kernel panic events are delivered asynchronously
+            assertTrue( panicked.await( 10, TimeUnit.SECONDS ) );
+            assertEquals( ErrorState.TX_MANAGER_NOT_OK, panic.get() );
+            // Nothing of the transaction reached the store, since its commit record wasn't forced
+            assertEquals( lastCommittedTxId, neoStoreDataSource.getLastCommittedTxId() );
+            assertNull( neoStoreDataSource.getNeoStore().getNodeStore().loadLightNode( node.getId() ) );
+        }
+        finally
+        {
+            failForces.set( false );
+            db.shutdown();
+        }
+    }
+
+    private static class CountingForceable implements GroupCommit.Forceable
+    {
+        private final AtomicInteger forces = new AtomicInteger();
+        private final long forceMillis;
+
+        CountingForceable( long forceMillis )
+        {
+            this.forceMillis = forceMillis;
+        }
+
+        @Override
+        public void force() throws IOException
+        {
+            forces.incrementAndGet();
+            try
+            {
+                Thread.sleep( forceMillis );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
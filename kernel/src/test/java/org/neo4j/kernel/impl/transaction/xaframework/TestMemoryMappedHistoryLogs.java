@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.util.MappedFileChannel;
+import org.neo4j.test.DbRepresentation;
+import org.neo4j.test.TargetDirectory;
+
+public class TestMemoryMappedHistoryLogs
+{
+    private final TargetDirectory target = TargetDirectory.forTest( getClass() );
+
+    @Test
+    public void shouldExtractRotatedLogsThroughMappedFiles() throws Exception
+    {
+        GraphDatabaseAPI db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(
+                target.directory( "source", true ).getAbsolutePath() )
+                .setConfig( GraphDatabaseSettings.memory_mapped_history_logs, GraphDatabaseSetting.TRUE )
+                .newGraphDatabase();
+        GraphDatabaseAPI copy = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabase(
+                target.directory( "copy", true ).getAbsolutePath() );
+        try
+        {
+            XaDataSource ds = db.getXaDataSourceManager().getNeoStoreDataSource();
+            createNodes( db, 10 );
+            ds.rotateLogicalLog();
+            long rotatedVersion = ds.getCurrentLogVersion() - 1;
+            createNodes( db, 5 );
+
+            // rotated logs are read through a mapping, the current one isn't
+            ReadableByteChannel log = ds.getLogicalLog( rotatedVersion );
+            try
+            {
+                assertTrue( log instanceof MappedFileChannel );
+                assertArrayEquals( readFile( ds.getFileName( rotatedVersion ) ), readChannel( log ) );
+            }
+            finally
+            {
+                log.close();
+            }
+            ReadableByteChannel current = ds.getLogicalLog( ds.getCurrentLogVersion() );
+            assertFalse( current instanceof MappedFileChannel );
+            current.close();
+
+            // extracting across the rotated and the current log sees every transaction
+            XaDataSource copyDs = copy.getXaDataSourceManager().getNeoStoreDataSource();
+            long lastTx = ds.getLastCommittedTxId();
+            LogExtractor extractor = ds.getLogExtractor( 2, lastTx );
+            try
+            {
+                for ( long txId = 2; txId <= lastTx; txId++ )
+                {
+                    InMemoryLogBuffer buffer = new InMemoryLogBuffer();
+                    assertEquals( txId, extractor.extractNext( buffer ) );
+                    copyDs.applyCommittedTransaction( txId, buffer );
+                }
+            }
+            finally
+            {
+                extractor.close();
+            }
+            assertEquals( DbRepresentation.of( db ), DbRepresentation.of( copy ) );
+        }
+        finally
+        {
+            copy.shutdown();
+            db.shutdown();
+        }
+    }
+
+    private void createNodes( GraphDatabaseAPI db, int count )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            Transaction tx = db.beginTx();
+            try
+            {
+                Node node = db.createNode();
+                node.setProperty( "name", "node" + i );
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+    }
+
+    private byte[] readChannel( ReadableByteChannel channel ) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate( 100 );
+        while ( channel.read( buffer ) != -1 )
+        {
+            buffer.flip();
+            bytes.write( buffer.array(), 0, buffer.limit() );
+            buffer.clear();
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] readFile( String fileName ) throws Exception
+    {
+        RandomAccessFile file = new RandomAccessFile( new File( fileName ), "r" );
+        try
+        {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully( bytes );
+            return bytes;
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+}
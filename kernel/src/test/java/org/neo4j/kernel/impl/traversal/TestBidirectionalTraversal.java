@@ -32,6 +32,7 @@ import org.neo4j.graphdb.traversal.Evaluator;
 import org.neo4j.graphdb.traversal.Evaluators;
 import org.neo4j.graphdb.traversal.TraversalBranch;
 import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.graphdb.traversal.Traverser;
 import org.neo4j.kernel.SideSelectorPolicies;
 import org.neo4j.kernel.StandardBranchCollisionDetector;
 import org.neo4j.kernel.Traversal;
@@ -39,6 +40,7 @@ import org.neo4j.kernel.Uniqueness;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.neo4j.graphdb.Direction.OUTGOING;
 import static org.neo4j.graphdb.DynamicRelationshipType.withName;
 import static org.neo4j.graphdb.traversal.Evaluators.includeIfContainsAll;
@@ -151,6 +153,64 @@ public class TestBidirectionalTraversal extends AbstractTestBase
                     "a,d,e,f", "a,d,e,g", "b,d,e,f", "b,d,e,g", "c,d,e,f", "c,d,e,g" );
     }
     
+    @Test
+    public void frontierSideSelectorFindsSamePathsAsAlternating() throws Exception
+    {
+        createGraph( "a TO b", "a TO c", "c TO b", "a TO d", "d TO e", "e TO b", "e TO f", "f TO b" );
+        
+        PathExpander<Void> expander = pathExpanderForTypes( to, OUTGOING );
+        TraversalDescription side = traversal().breadthFirst().uniqueness( NODE_PATH ).expand( expander );
+        expectPaths( bidirectionalTraversal().mirroredSides( side )
+                .sideSelector( SideSelectorPolicies.FRONTIER, 10 )
+                .traverse( getNodeWithName( "a" ), getNodeWithName( "b" ) ),
+                "a,b", "a,c,b", "a,d,e,b", "a,d,e,f,b" );
+    }
+    
+    @Test
+    public void frontierSideSelectorHonorsMaxDepth() throws Exception
+    {
+        createGraph( "a TO b", "b TO c", "c TO d", "a TO e", "e TO d" );
+        
+        TraversalDescription side = traversal().breadthFirst().uniqueness( NODE_PATH ).expand( pathExpanderForTypes( to ) );
+        expectPaths( bidirectionalTraversal().mirroredSides( side )
+                .sideSelector( SideSelectorPolicies.FRONTIER, 2 )
+                .traverse( getNodeWithName( "a" ), getNodeWithName( "d" ) ), "a,e,d" );
+        expectPaths( bidirectionalTraversal().mirroredSides( side )
+                .sideSelector( SideSelectorPolicies.FRONTIER, 3 )
+                .traverse( getNodeWithName( "a" ), getNodeWithName( "d" ) ), "a,e,d", "a,b,c,d" );
+    }
+    
+    @Test
+    public void frontierSideSelectorKeepsAwayFromHub() throws Exception
+    {
+        /*
+         * (s)-->(h)-->(m)-->(e)
+         *        |
+         *        +--> (l0) ... (l19)
+         */
+        String[] rels = new String[23];
+        rels[0] = "s TO h";
+        rels[1] = "h TO m";
+        rels[2] = "m TO e";
+        for ( int i = 0; i < 20; i++ )
+        {
+            rels[3+i] = "h TO l" + i;
+        }
+        createGraph( rels );
+        
+        TraversalDescription side = traversal().breadthFirst().uniqueness( NODE_PATH ).expand( pathExpanderForTypes( to ) );
+        Traverser frontier = bidirectionalTraversal().mirroredSides( side )
+                .sideSelector( SideSelectorPolicies.FRONTIER, 3 )
+                .traverse( getNodeWithName( "s" ), getNodeWithName( "e" ) );
+        expectPaths( frontier, "s,h,m,e" );
+        Traverser level = bidirectionalTraversal().mirroredSides( side )
+                .sideSelector( SideSelectorPolicies.LEVEL, 3 )
+                .traverse( getNodeWithName( "s" ), getNodeWithName( "e" ) );
+        expectPaths( level, "s,h,m,e" );
+        assertTrue( frontier.metadata().getNumberOfRelationshipsTraversed() <
+                level.metadata().getNumberOfRelationshipsTraversed() );
+    }
+    
     @Test
     public void ensureCorrectPathEntitiesInShortPath() throws Exception
     {
@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.traversal;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.neo4j.kernel.Traversal.traversal;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.Stack;
+
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.graphdb.traversal.Evaluator;
+
+public class TestParallelTraversal extends AbstractTestBase
+{
+    @Test
+    public void shouldReturnPathsDepthByDepth() throws Exception
+    {
+        /*
+         *                     (1)
+         *               ------ | ------
+         *             /        |        \
+         *           (2)       (3)       (4)
+         *          / | \     / | \     / | \
+         *        (5)(6)(7) (8)(9)(A) (B)(C)(D)
+         */
+        createGraph( "1 TO 2", "1 TO 3", "1 TO 4", "2 TO 5", "2 TO 6", "2 TO 7",
+                "3 TO 8", "3 TO 9", "3 TO A", "4 TO B", "4 TO C", "4 TO D" );
+
+        Stack<Set<String>> levels = new Stack<Set<String>>();
+        levels.push( new HashSet<String>( asList( "5", "6", "7", "8", "9", "A", "B", "C", "D" ) ) );
+        levels.push( new HashSet<String>( asList( "2", "3", "4" ) ) );
+        levels.push( new HashSet<String>( asList( "1" ) ) );
+        assertLevels( traversal().parallel( 4 ).traverse( node( "1" ) ), levels );
+    }
+
+    @Test
+    public void shouldFindTheSameNodesAtTheSameDepthsAsBreadthFirst() throws Exception
+    {
+        createGraph( "start TO other" );
+        Node start = node( "start" );
+        GraphDatabaseService db = start.getGraphDatabase();
+        RelationshipType type = DynamicRelationshipType.withName( "TO" );
+        Random random = new Random( 12345 );
+        Node[] nodes = new Node[2000];
+        Transaction tx = beginTx();
+        try
+        {
+            nodes[0] = start;
+            for ( int i = 1; i < nodes.length; i++ )
+            {
+                nodes[i] = db.createNode();
+            }
+            for ( int i = 0; i < nodes.length * 3; i++ )
+            {
+                nodes[random.nextInt( nodes.length )].createRelationshipTo( nodes[random.nextInt( nodes.length )], type );
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+
+        Map<Node, Integer> expected = depths( traversal().breadthFirst().traverse( start ) );
+        Map<Node, Integer> actual = depths( traversal().parallel( 4 ).traverse( start ) );
+
+        assertEquals( expected, actual );
+    }
+
+    @Test
+    public void shouldRethrowFailureOfExpandingThread() throws Exception
+    {
+        createGraph( "1 TO 2", "2 TO 3" );
+        Evaluator failing = new Evaluator()
+        {
+            @Override
+            public Evaluation evaluate( Path path )
+            {
+                if ( path.length() == 2 )
+                {
+                    throw new IllegalStateException( "Deliberate failure" );
+                }
+                return Evaluation.INCLUDE_AND_CONTINUE;
+            }
+        };
+
+        try
+        {
+            for ( Path path : traversal().evaluator( failing ).parallel( 2 ).traverse( node( "1" ) ) )
+            {
+                // Go on until it fails
+            }
+            fail( "Should have failed" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertEquals( "Deliberate failure", e.getMessage() );
+        }
+    }
+
+    @Test
+    public void shouldNotTraverseInParallelInATransactionWithChanges() throws Exception
+    {
+        createGraph( "1 TO 2" );
+        Transaction tx = beginTx();
+        try
+        {
+            node( "2" ).setProperty( "changed", true );
+            traversal().parallel( 2 ).traverse( node( "1" ) ).iterator();
+            fail( "Shouldn't traverse in parallel what the expanding threads can't see" );
+        }
+        catch ( IllegalStateException e )
+        {
+            // Good
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @Test
+    public void shouldTraverseInParallelInATransactionWithoutChanges() throws Exception
+    {
+        createGraph( "1 TO 2" );
+        Transaction tx = beginTx();
+        try
+        {
+            Set<Node> nodes = depths( traversal().parallel( 2 ).traverse( node( "1" ) ) ).keySet();
+            assertEquals( new HashSet<Node>( asList( node( "1" ), node( "2" ) ) ), nodes );
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private Map<Node, Integer> depths( Iterable<Path> paths )
+    {
+        Map<Node, Integer> depths = new HashMap<Node, Integer>();
+        for ( Path path : paths )
+        {
+            assertNull( depths.put( path.endNode(), path.length() ) );
+        }
+        return depths;
+    }
+}
@@ -92,6 +92,15 @@ public class TestPath extends AbstractTestBase
         assertContainsInOrder( path.reverseNodes(), e, d, c, b, a );
     }
 
+    @Test
+    public void pathOfStartNodeOnly() throws Exception
+    {
+        Path path = first( traversal().evaluator( atDepth( 0 ) ).traverse( a ) );
+        assertContainsInOrder( path, a );
+        assertContainsInOrder( path.nodes(), a );
+        assertFalse( path.relationships().iterator().hasNext() );
+    }
+
     @Test
     public void reverseRelationships() throws Exception
     {
@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.traversal;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -26,19 +27,31 @@ import static org.junit.Assert.fail;
 import static org.neo4j.graphdb.Direction.OUTGOING;
 import static org.neo4j.graphdb.DynamicRelationshipType.withName;
 import static org.neo4j.graphdb.traversal.Evaluators.includeWhereEndNodeIs;
+import static org.neo4j.graphdb.traversal.Evaluators.toDepth;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
 import static org.neo4j.kernel.Traversal.traversal;
 import static org.neo4j.kernel.Uniqueness.NODE_GLOBAL;
 import static org.neo4j.kernel.Uniqueness.NODE_LEVEL;
+import static org.neo4j.kernel.Uniqueness.NODE_PATH;
+import static org.neo4j.kernel.Uniqueness.NODE_RECENT;
 import static org.neo4j.kernel.Uniqueness.RELATIONSHIP_GLOBAL;
 import static org.neo4j.kernel.Uniqueness.RELATIONSHIP_LEVEL;
+import static org.neo4j.kernel.Uniqueness.RELATIONSHIP_PATH;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 import org.junit.Test;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.traversal.TraversalBranch;
 import org.neo4j.graphdb.traversal.Traverser;
+import org.neo4j.graphdb.traversal.UniquenessFactory;
+import org.neo4j.graphdb.traversal.UniquenessFilter;
 import org.neo4j.kernel.Uniqueness;
 
 public class TestUniqueness extends AbstractTestBase
@@ -86,6 +99,23 @@ public class TestUniqueness extends AbstractTestBase
         assertEquals( "a,b,c", pathRepresentation.represent( thePath ) );
     }
 
+    @Test
+    public void nodeRecentUniqueness()
+    {
+        /*
+         * (a)-TO->(b)-TO->(c)-TO->(a)
+         */
+        createGraph( "a TO b", "b TO c", "c TO a" );
+        RelationshipType to = withName( "TO" );
+        Node a = getNodeWithName( "a" );
+
+        // a is forgotten by the time it's reached again, after visiting b and c
+        assertEquals( 6, count( traversal().relationships( to, OUTGOING ).uniqueness( NODE_RECENT, 2 )
+                .evaluator( toDepth( 5 ) ).traverse( a ) ) );
+        assertEquals( 3, count( traversal().relationships( to, OUTGOING ).uniqueness( NODE_RECENT, 3 )
+                .evaluator( toDepth( 5 ) ).traverse( a ) ) );
+    }
+
     @Test
     public void relationshipLevelAndGlobalUniqueness() throws Exception
     {
@@ -132,6 +162,67 @@ public class TestUniqueness extends AbstractTestBase
         assertEquals( "wrong number of paths calculated with relationship global uniqueness", 1, count );
     }
 
+    @Test
+    public void pathUniquenessShouldSeeTheWholePathOfWhatItChecks() throws Exception
+    {
+        /*
+         * (a)-TO->(b)-TO->(c)-TO->(d)
+         *   ^------TO-----/
+         */
+        createGraph( "a TO b", "b TO c", "c TO a", "c TO d" );
+        RelationshipType to = withName( "TO" );
+        Node a = getNodeWithName( "a" );
+
+        expectPaths( traversal().relationships( to, OUTGOING ).uniqueness( NODE_PATH ).traverse( a ),
+                "a", "a,b", "a,b,c", "a,b,c,d" );
+        expectPaths( traversal().relationships( to, OUTGOING ).uniqueness( RELATIONSHIP_PATH ).traverse( a ),
+                "a", "a,b", "a,b,c", "a,b,c,d", "a,b,c,a" );
+    }
+
+    @Test
+    public void customUniquenessFilterShouldBeAbleToHoldOnToTheBranchesItChecks() throws Exception
+    {
+        /*
+         * (a)-TO->(b)
+         *  |          * (d) (c)
+         */
+        createGraph( "a TO b", "a TO c", "a TO d" );
+        final List<TraversalBranch> checked = new ArrayList<TraversalBranch>();
+        UniquenessFactory keepingEverything = new UniquenessFactory()
+        {
+            @Override
+            public UniquenessFilter create( Object optionalParameter )
+            {
+                return new UniquenessFilter()
+                {
+                    @Override
+                    public boolean checkFirst( TraversalBranch branch )
+                    {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean check( TraversalBranch branch )
+                    {
+                        checked.add( branch );
+                        return true;
+                    }
+                };
+            }
+        };
+
+        count( traversal().relationships( withName( "TO" ), OUTGOING ).uniqueness( keepingEverything )
+                .traverse( getNodeWithName( "a" ) ) );
+
+        Set<String> endNodes = new HashSet<String>();
+        for ( TraversalBranch branch : checked )
+        {
+            assertEquals( 1, branch.length() );
+            endNodes.add( (String) branch.endNode().getProperty( "name" ) );
+        }
+        assertEquals( new HashSet<String>( asList( "b", "c", "d" ) ), endNodes );
+    }
+
     private Path[] splitPathsOnePerLevel( Traverser traverser )
     {
         Path[] paths = new Path[10];
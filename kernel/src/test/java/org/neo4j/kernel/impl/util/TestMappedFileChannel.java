@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+import org.junit.Test;
+
+public class TestMappedFileChannel
+{
+    @Test
+    public void shouldReadTheWholeFileInSmallReads() throws Exception
+    {
+        File file = createStripedTempFile( 10000 );
+        FileChannel channel = new MappedFileChannel( new RandomAccessFile( file, "r" ).getChannel() );
+        ByteBuffer buffer = ByteBuffer.allocate( 15 );
+        int counter = 0;
+        while ( channel.read( buffer ) != -1 )
+        {
+            buffer.flip();
+            while ( buffer.hasRemaining() )
+            {
+                assertEquals( (byte) (counter % 10), buffer.get() );
+                counter++;
+            }
+            assertEquals( counter, channel.position() );
+            buffer.clear();
+        }
+        assertEquals( 10000, counter );
+        channel.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldReadFromWhereItIsPositioned() throws Exception
+    {
+        File file = createStripedTempFile( 1000 );
+        FileChannel source = new RandomAccessFile( file, "r" ).getChannel();
+        source.position( 3 );
+        FileChannel channel = new MappedFileChannel( source );
+        ByteBuffer buffer = ByteBuffer.allocate( 4 );
+
+        channel.read( buffer );
+        buffer.flip();
+        assertEquals( 3, buffer.get() );
+
+        buffer.clear();
+        channel.position( channel.size() - 2 );
+        assertEquals( 2, channel.read( buffer ) );
+        buffer.flip();
+        assertEquals( 8, buffer.get() );
+        assertEquals( 9, buffer.get() );
+        buffer.clear();
+        assertEquals( -1, channel.read( buffer ) );
+
+        channel.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldTransferRangesWithoutReading() throws Exception
+    {
+        File file = createStripedTempFile( 1000 );
+        FileChannel channel = new MappedFileChannel( new RandomAccessFile( file, "r" ).getChannel() );
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+        long transferred = channel.transferTo( 995, 100, Channels.newChannel( target ) );
+
+        assertEquals( 5, transferred );
+        byte[] bytes = target.toByteArray();
+        for ( int i = 0; i < bytes.length; i++ )
+        {
+            assertEquals( (byte) ((995 + i) % 10), bytes[i] );
+        }
+        assertEquals( 0, channel.position() );
+        channel.close();
+        file.delete();
+    }
+
+    @Test( expected = ClosedChannelException.class )
+    public void shouldNotReadOnceClosed() throws Exception
+    {
+        File file = createStripedTempFile( 1000 );
+        FileChannel channel = new MappedFileChannel( new RandomAccessFile( file, "r" ).getChannel() );
+        channel.close();
+        try
+        {
+            channel.read( ByteBuffer.allocate( 10 ) );
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private File createStripedTempFile( int size ) throws IOException
+    {
+        File file = File.createTempFile( "neo4j", "temp" );
+        FileChannel channel = new RandomAccessFile( file, "rw" ).getChannel();
+        byte[] bytes = new byte[size];
+        for ( int i = 0; i < size; i++ )
+        {
+            bytes[i] = (byte) (i % 10);
+        }
+        channel.write( ByteBuffer.wrap( bytes ) );
+        channel.close();
+        return file;
+    }
+}
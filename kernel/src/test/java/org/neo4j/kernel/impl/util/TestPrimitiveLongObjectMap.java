@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestPrimitiveLongObjectMap
+{
+    @Test
+    public void shouldGrowAndKeepAllEntries()
+    {
+        PrimitiveLongObjectMap<String> map = new PrimitiveLongObjectMap<String>( 4 );
+        for ( long key = 0; key < 1000; key++ )
+        {
+            assertNull( map.put( key * 7, "v" + key ) );
+        }
+
+        assertEquals( 1000, map.size() );
+        for ( long key = 0; key < 1000; key++ )
+        {
+            assertEquals( "v" + key, map.get( key * 7 ) );
+        }
+        assertNull( map.get( 1 ) );
+    }
+
+    @Test
+    public void shouldFindEntriesAfterRemovingOthers()
+    {
+        PrimitiveLongObjectMap<Long> map = new PrimitiveLongObjectMap<Long>();
+        for ( long key = 0; key < 100; key++ )
+        {
+            map.put( key, key );
+        }
+
+        for ( long key = 0; key < 100; key += 2 )
+        {
+            assertEquals( Long.valueOf( key ), map.remove( key ) );
+        }
+
+        assertEquals( 50, map.size() );
+        for ( long key = 0; key < 100; key++ )
+        {
+            assertEquals( key % 2 == 1, map.containsKey( key ) );
+        }
+        assertNull( map.remove( 0 ) );
+    }
+
+    @Test
+    public void shouldIterateOverAllValues()
+    {
+        PrimitiveLongObjectMap<Long> map = new PrimitiveLongObjectMap<Long>();
+        Set<Long> expected = new HashSet<Long>();
+        for ( long key = 10; key < 60; key++ )
+        {
+            map.put( key, key );
+            expected.add( key );
+        }
+        map.remove( 20 );
+        expected.remove( 20L );
+
+        Set<Long> values = new HashSet<Long>();
+        for ( Long value : map.values() )
+        {
+            assertTrue( values.add( value ) );
+        }
+        assertEquals( expected, values );
+
+        map.clear();
+        assertTrue( map.isEmpty() );
+        assertFalse( map.values().iterator().hasNext() );
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestPrimitiveLongSet
+{
+    @Test
+    public void shouldAddEachValueOnce()
+    {
+        PrimitiveLongSet set = new PrimitiveLongSet();
+
+        assertTrue( set.add( 5 ) );
+        assertTrue( set.add( 1L << 40 ) );
+        assertFalse( set.add( 5 ) );
+
+        assertEquals( 2, set.size() );
+        assertTrue( set.contains( 5 ) );
+        assertTrue( set.contains( 1L << 40 ) );
+        assertFalse( set.contains( 6 ) );
+    }
+
+    @Test
+    public void shouldKeepAllValuesOfDenseChunks()
+    {
+        // enough values in the first chunk to turn it into a bitmap
+        PrimitiveLongSet set = new PrimitiveLongSet();
+        for ( long value = 0; value < 100000; value += 3 )
+        {
+            assertTrue( set.add( value ) );
+        }
+
+        for ( long value = 0; value < 100000; value++ )
+        {
+            assertEquals( value % 3 == 0, set.contains( value ) );
+            assertEquals( value % 3 != 0, set.add( value ) );
+        }
+        assertEquals( 100000, set.size() );
+    }
+
+    @Test
+    public void shouldAgreeWithHashSetOnRandomValues()
+    {
+        PrimitiveLongSet set = new PrimitiveLongSet();
+        Set<Long> expected = new HashSet<Long>();
+        Random random = new Random( 42 );
+        for ( int i = 0; i < 50000; i++ )
+        {
+            long value = random.nextInt( 1 << 20 );
+            assertEquals( expected.add( value ), set.add( value ) );
+        }
+
+        assertEquals( expected.size(), set.size() );
+        for ( long value = 0; value < 1 << 20; value++ )
+        {
+            assertEquals( expected.contains( value ), set.contains( value ) );
+        }
+        set.clear();
+        assertTrue( set.isEmpty() );
+        assertFalse( set.contains( expected.iterator().next() ) );
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.unsafe.batchinsert;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+
+public class TestBatchImport
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+
+    private final TargetDirectory target = TargetDirectory.forTest( getClass() );
+
+    @Test
+    public void shouldImportNodesAndLinkRelationshipChains() throws Exception
+    {
+        // given
+        String storeDir = target.directory( "import", true ).getAbsolutePath();
+        BatchImporter importer = BatchInserters.importer( storeDir, new HashMap<String,String>(), 3 );
+        long firstId = importer.getNextNodeId();
+        int nodeCount = 3000;
+        int highId = (int) firstId + nodeCount;
+        List<Map<String,Object>> nodes = new ArrayList<Map<String,Object>>();
+        for ( int i = 0; i < nodeCount; i++ )
+        {
+            nodes.add( nodeProperties( i ) );
+        }
+        List<ImportRelationship> relationships = new ArrayList<ImportRelationship>();
+        for ( int i = 0; i < nodeCount * 3; i++ )
+        {
+            long start = firstId + i % nodeCount;
+            long end = i % 7 == 0 ? start : firstId + (i * 31L) % nodeCount;
+            relationships.add( new ImportRelationship( start, end, i % 2 == 0 ? KNOWS : LIKES,
+                    i % 3 == 0 ? null : map( "weight", i, "label", "relationship number " + i + " of the import" ) ) );
+        }
+
+        // when
+        List<ImportStage> stages = importer.doImport( nodes.iterator(), relationships.iterator() );
+        importer.shutdown();
+
+        // then
+        assertEquals( 7, stages.size() );
+        for ( ImportStage stage : stages )
+        {
+            assertEquals( stage.toString(), stage.getName().contains( "node" ) ? nodeCount : relationships.size(),
+                    stage.getCount() );
+        }
+        GraphDatabaseService db = new EmbeddedGraphDatabase( storeDir );
+        try
+        {
+            for ( int i = 0; i < nodeCount; i++ )
+            {
+                assertNodeProperties( i, db.getNodeById( firstId + i ) );
+            }
+            assertRelationships( db, relationships, highId );
+
+            // deleting relationships goes through the previous pointers of the chains
+            Transaction tx = db.beginTx();
+            try
+            {
+                for ( int i = 0; i < relationships.size(); i += 5 )
+                {
+                    db.getRelationshipById( i ).delete();
+                }
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+            for ( int i = 0; i < relationships.size(); i += 5 )
+            {
+                relationships.set( i, null );
+            }
+        }
+        finally
+        {
+            db.shutdown();
+        }
+        db = new EmbeddedGraphDatabase( storeDir );
+        try
+        {
+            assertRelationships( db, relationships, highId );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldFailImportOfRelationshipToMissingNode() throws Exception
+    {
+        String storeDir = target.directory( "missing", true ).getAbsolutePath();
+        BatchImporter importer = BatchInserters.importer( storeDir, new HashMap<String,String>(), 2 );
+        try
+        {
+            List<Map<String,Object>> nodes = new ArrayList<Map<String,Object>>();
+            nodes.add( null );
+            List<ImportRelationship> relationships = new ArrayList<ImportRelationship>();
+            relationships.add( new ImportRelationship( importer.getNextNodeId(), 10, KNOWS, null ) );
+            importer.doImport( nodes.iterator(), relationships.iterator() );
+            fail( "Should not import relationship to missing node" );
+        }
+        catch ( NotFoundException e )
+        {   // Good
+        }
+        finally
+        {
+            importer.shutdown();
+        }
+    }
+
+    private Map<String,Object> nodeProperties( int i )
+    {
+        if ( i % 10 == 0 )
+        {
+            return null;
+        }
+        Map<String,Object> properties = new HashMap<String,Object>();
+        properties.put( "id", i );
+        properties.put( "name", "node " + i );
+        if ( i % 3 == 0 )
+        {
+            properties.put( "description", "a description long enough to be put in the dynamic string store " + i );
+            properties.put( "scores", new long[] { i, Long.MAX_VALUE - i, i * 1000000000000L, -i } );
+            properties.put( "ratio", i / 3d );
+            properties.put( "flag", true );
+        }
+        return properties;
+    }
+
+    private void assertNodeProperties( int i, Node node )
+    {
+        Map<String,Object> expected = nodeProperties( i );
+        int count = 0;
+        for ( String key : node.getPropertyKeys() )
+        {
+            count++;
+            Object value = node.getProperty( key );
+            if ( value instanceof long[] )
+            {
+                assertArrayEquals( (long[]) expected.get( key ), (long[]) value );
+            }
+            else
+            {
+                assertEquals( expected.get( key ), value );
+            }
+        }
+        assertEquals( expected == null ? 0 : expected.size(), count );
+    }
+
+    private void assertRelationships( GraphDatabaseService db, List<ImportRelationship> relationships, int highId )
+    {
+        List<Set<Long>> expected = new ArrayList<Set<Long>>();
+        for ( int i = 0; i < highId; i++ )
+        {
+            expected.add( new HashSet<Long>() );
+        }
+        for ( int i = 0; i < relationships.size(); i++ )
+        {
+            ImportRelationship relationship = relationships.get( i );
+            if ( relationship != null )
+            {
+                expected.get( (int) relationship.getStartNode() ).add( (long) i );
+                expected.get( (int) relationship.getEndNode() ).add( (long) i );
+            }
+        }
+        for ( int i = 0; i < highId; i++ )
+        {
+            Set<Long> actual = new HashSet<Long>();
+            for ( Relationship relationship : db.getNodeById( i ).getRelationships() )
+            {
+                ImportRelationship imported = relationships.get( (int) relationship.getId() );
+                assertEquals( imported.getStartNode(), relationship.getStartNode().getId() );
+                assertEquals( imported.getEndNode(), relationship.getEndNode().getId() );
+                assertEquals( imported.getType().name(), relationship.getType().name() );
+                assertTrue( actual.add( relationship.getId() ) );
+                if ( imported.getProperties() != null )
+                {
+                    assertEquals( imported.getProperties().get( "label" ), relationship.getProperty( "label" ) );
+                }
+            }
+            assertEquals( expected.get( i ), actual );
+        }
+    }
+}
@@ -20,7 +20,9 @@
 package org.neo4j.shell.kernel;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import javax.transaction.HeuristicMixedException;
@@ -112,6 +114,12 @@ public class ReadOnlyGraphDatabaseProxy implements GraphDatabaseService, GraphDa
             throw new UnsupportedOperationException();
         }
 
+        @Override
+        public TransactionBuilder large()
+        {
+            throw new UnsupportedOperationException();
+        }
+
         @Override
         public Transaction begin()
         {
@@ -275,6 +283,26 @@ public class ReadOnlyGraphDatabaseProxy implements GraphDatabaseService, GraphDa
         return new ReadOnlyRelationshipProxy( actual.getRelationshipById( id ) );
     }
 
+    public List<Node> getNodesById( long... ids )
+    {
+        List<Node> nodes = new ArrayList<Node>( ids.length );
+        for ( Node node : actual.getNodesById( ids ) )
+        {
+            nodes.add( new ReadOnlyNodeProxy( node ) );
+        }
+        return nodes;
+    }
+
+    public List<Relationship> getRelationshipsById( long... ids )
+    {
+        List<Relationship> relationships = new ArrayList<Relationship>( ids.length );
+        for ( Relationship relationship : actual.getRelationshipsById( ids ) )
+        {
+            relationships.add( new ReadOnlyRelationshipProxy( relationship ) );
+        }
+        return relationships;
+    }
+
     public Iterable<RelationshipType> getRelationshipTypes()
     {
         return actual.getRelationshipTypes();
@@ -395,6 +423,11 @@ public class ReadOnlyGraphDatabaseProxy implements GraphDatabaseService, GraphDa
             return actual.hasRelationship( direction, types );
         }
 
+        public int getDegree( Direction direction, RelationshipType... types )
+        {
+            return actual.getDegree( direction, types );
+        }
+
         public boolean hasRelationship( Direction dir )
         {
             return actual.hasRelationship( dir );